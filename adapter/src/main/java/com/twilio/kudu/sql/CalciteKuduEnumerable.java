@@ -14,8 +14,9 @@
  */
 package com.twilio.kudu.sql;
 
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 import org.apache.calcite.linq4j.Enumerator;
@@ -31,7 +32,7 @@ import org.slf4j.LoggerFactory;
 public final class CalciteKuduEnumerable extends AbstractEnumerable<CalciteRow> {
   private static final Logger logger = LoggerFactory.getLogger(CalciteKuduEnumerable.class);
 
-  private CalciteScannerMessage<CalciteRow> next = null;
+  private CalciteRow next = null;
 
   private final BlockingQueue<CalciteScannerMessage<CalciteRow>> rowResults;
   private final AtomicBoolean shouldStop;
@@ -55,89 +56,88 @@ public final class CalciteKuduEnumerable extends AbstractEnumerable<CalciteRow>
   @Override
   public Enumerator<CalciteRow> enumerator() {
     return new Enumerator<CalciteRow>() {
+      // rows from the ROW_BATCH message that is currently being iterated over
+      private List<CalciteRow> batch = Collections.emptyList();
+      private int batchIndex = 0;
+      private ScannerCallback batchCallback = null;
+
       @Override
       public boolean moveNext() {
         if (finished) {
           logger.debug("returning finished");
           return false;
         }
-        CalciteScannerMessage<CalciteRow> iterationNext;
-        do {
+        while (batchIndex >= batch.size()) {
+          // Current batch is exhausted, ask the scanner for the next one before
+          // waiting on the queue.
+          if (batchCallback != null) {
+            logger.debug("Batch completed for a scanner. Getting next batch");
+            batchCallback.nextBatch();
+            batchCallback = null;
+          }
+          // The scanner always ends with a CLOSE or ERROR message, block until
+          // its callback hands over the next one.
+          CalciteScannerMessage<CalciteRow> iterationNext;
           try {
-            iterationNext = rowResults.poll(350, TimeUnit.MILLISECONDS);
+            iterationNext = rowResults.take();
           } catch (InterruptedException interrupted) {
-            logger.info("Interrupted during poll, closing scanner");
+            logger.info("Interrupted during take, closing scanner");
             iterationNext = CalciteScannerMessage.createEndMessage();
             Thread.currentThread().interrupt();
           }
-          if (iterationNext != null) {
-            switch (iterationNext.type) {
-            case CLOSE:
-              logger.debug("Closing scanner");
-              break;
-            case ERROR:
-              final Optional<Exception> failure = iterationNext.failure;
-              if (failure.isPresent()) {
-                logger.error("Scanner has a failure", failure.get());
-              } else {
-                logger.error("Scanner had an unreported failure");
-              }
-              break;
-            case ROW:
-              final Optional<CalciteRow> maybeRow = iterationNext.row;
-              if (maybeRow.isPresent()) {
-                logger.trace("Scanner found a row: {}", maybeRow.get());
-              } else {
-                logger.error("ROW message was received but didn't contain row data. This shouldn't happen. Closing");
-                iterationNext = CalciteScannerMessage.createEndMessage();
-              }
-              break;
-            case BATCH_COMPLETED:
-              final Optional<ScannerCallback> maybeScannerCallback = iterationNext.callback;
-              if (maybeScannerCallback.isPresent()) {
-                logger.debug("Batch completed for a scanner. Getting next batch");
-                maybeScannerCallback.get().nextBatch();
-              } else {
-                logger.error(
-                    "Batch completed message for scanner but no reference to the callback. This shouldn't happen");
-                iterationNext = CalciteScannerMessage.createEndMessage();
-              }
+          switch (iterationNext.type) {
+          case CLOSE:
+            logger.debug("Closing scanner");
+            break;
+          case ERROR:
+            final Optional<Exception> failure = iterationNext.failure;
+            if (failure.isPresent()) {
+              logger.error("Scanner has a failure", failure.get());
+            } else {
+              logger.error("Scanner had an unreported failure");
+            }
+            break;
+          case ROW:
+            final Optional<CalciteRow> maybeRow = iterationNext.row;
+            if (maybeRow.isPresent()) {
+              logger.trace("Scanner found a row: {}", maybeRow.get());
+              batch = Collections.singletonList(maybeRow.get());
+              batchIndex = 0;
+            } else {
+              logger.error("ROW message was received but didn't contain row data. This shouldn't happen. Closing");
+              iterationNext = CalciteScannerMessage.createEndMessage();
+            }
+            break;
+          case ROW_BATCH:
+            final Optional<List<CalciteRow>> maybeRows = iterationNext.rows;
+            if (maybeRows.isPresent()) {
+              logger.trace("Scanner found {} rows", maybeRows.get().size());
+              batch = maybeRows.get();
+              batchIndex = 0;
+              batchCallback = iterationNext.callback.orElse(null);
+            } else {
+              logger.error("ROW_BATCH message was received but didn't contain rows. This shouldn't happen. Closing");
+              iterationNext = CalciteScannerMessage.createEndMessage();
             }
           }
 
-        } while (iterationNext == null
-            || (!iterationNext.isTerminal() && iterationNext.type != CalciteScannerMessage.MessageType.ROW));
-
-        if (iterationNext.isTerminal()) {
-          logger.debug("No more results in queue, exiting");
-          finished = true;
-          return false;
+          if (iterationNext.isTerminal()) {
+            logger.debug("No more results in queue, exiting");
+            finished = true;
+            return false;
+          }
         }
-        next = iterationNext;
+        next = batch.get(batchIndex++);
 
         return true;
       }
 
       @Override
       public CalciteRow current() {
-        switch (next.type) {
-        case ROW:
-          final Optional<CalciteRow> maybeRow = next.row;
-          if (maybeRow.isPresent()) {
-            return maybeRow.get();
-          } else {
-            throw new RuntimeException("Expected next to have a row, it does not. This shouldn't happen");
-          }
-        case ERROR:
-          final Exception failure = next.failure.orElseGet(() -> new RuntimeException("Unreported failure occurred"));
-          throw new RuntimeException("Calling current() on Failed rpc fetch", failure);
-        case CLOSE:
-          throw new RuntimeException("Calling current() where next is CLOSE message. This should never happen");
-        case BATCH_COMPLETED:
-          throw new RuntimeException(
-              "Calling current() after receiving a BATCH_COMPLETED message. This should never happen");
+        if (next == null) {
+          throw new RuntimeException("Calling current() before moveNext() returned a row. This should never happen");
         }
-        throw new RuntimeException("Fell out of current(), this should not happen");
+        return next;
       }
 
       @Override
@@ -148,6 +148,11 @@ public final class CalciteKuduEnumerable extends AbstractEnumerable<CalciteRow>
       @Override
       public void close() {
         shouldStop.set(true);
+        if (batchCallback != null) {
+          batchCallback.nextBatch();
+          batchCallback = null;
+        }
+        ScannerCallback.releaseUnreadBatches(rowResults);
       }
     };
   }
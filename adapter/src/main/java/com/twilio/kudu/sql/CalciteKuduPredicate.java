@@ -14,6 +14,10 @@
  */
 package com.twilio.kudu.sql;
 
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.calcite.DataContext;
 import org.apache.kudu.ColumnSchema;
 import org.apache.kudu.client.KuduPredicate;
 
@@ -78,7 +82,40 @@ public abstract class CalciteKuduPredicate {
     return toPredicate(columnsSchema, invertValue);
   }
 
-  protected KuduPredicate.ComparisonOp invertComparisonOp(final KuduPredicate.ComparisonOp currentOp) {
+  /**
+   * Resolves the values of this predicate that are only known when the query is
+   * executed.
+   *
+   * @param dataContext context of the execution holding the parameter values
+   * @return predicate that can be transformed into a {@link KuduPredicate}
+   */
+  public CalciteKuduPredicate bind(final DataContext dataContext) {
+    return this;
+  }
+
+  /**
+   * @return true if {@link #bind(DataContext)} has to be called before creating
+   *         the {@link KuduPredicate}
+   */
+  public boolean hasParameters() {
+    return false;
+  }
+
+  /**
+   * Binds every predicate of every sub scan, see {@link #bind(DataContext)}.
+   *
+   * @param predicates  predicates of each sub scan
+   * @param dataContext context of the execution holding the parameter values
+   * @return bound predicates of each sub scan
+   */
+  public static List<List<CalciteKuduPredicate>> bindPredicates(final List<List<CalciteKuduPredicate>> predicates,
+      final DataContext dataContext) {
+    return predicates.stream()
+        .map(subScan -> subScan.stream().map(predicate -> predicate.bind(dataContext)).collect(Collectors.toList()))
+        .collect(Collectors.toList());
+  }
+
+  public static KuduPredicate.ComparisonOp invertComparisonOp(final KuduPredicate.ComparisonOp currentOp) {
     switch (currentOp) {
     case GREATER:
       return KuduPredicate.ComparisonOp.LESS;
@@ -18,6 +18,7 @@ import com.twilio.kudu.sql.metadata.CubeTableInfo;
 import com.twilio.kudu.sql.rules.KuduToEnumerableConverter;
 import org.apache.calcite.jdbc.KuduCalciteConnectionImpl;
 import org.apache.calcite.jdbc.KuduMetaImpl;
+import org.apache.calcite.linq4j.AbstractEnumerable;
 import org.apache.calcite.linq4j.Enumerable;
 
 import java.sql.Timestamp;
@@ -96,6 +97,43 @@ public class CalciteKuduTable extends AbstractQueryableTable implements Translat
   // time difference in millis between snapshot to read and current time
   protected final long readSnapshotTimeDifference;
 
+  // default for scanMemoryBudgetBytes, 64 MiB
+  public static final long DEFAULT_SCAN_MEMORY_BUDGET_BYTES = 64L * 1024 * 1024;
+
+  // maximum bytes of rows a query buffers before its scanners pause, zero or less
+  // is unbounded
+  protected final long scanMemoryBudgetBytes;
+
+  // default for spillMemoryBudgetBytes, 256 MiB
+  public static final long DEFAULT_SPILL_MEMORY_BUDGET_BYTES = 256L * 1024 * 1024;
+
+  // estimated bytes of rows a client side sort or groups a hash aggregation keeps
+  // in memory before spilling to temporary files, zero or less never spills
+  protected final long spillMemoryBudgetBytes;
+
+  // default number of batches each scanner keeps buffered or in flight, can be
+  // overridden per query with KuduQuery.PREFETCH_DEPTH_HINT_NAME
+  protected final int scannerPrefetchDepth;
+
+  // size in bytes of the batches returned by each scanner RPC, zero or less uses
+  // the Kudu default
+  protected final int scannerBatchSizeBytes;
+
+  // serialized scan tokens of recently executed sub scans, shared by the tables
+  // of a schema
+  protected final ScanTokenCache scanTokenCache;
+
+  // rows of recently executed read only queries, disabled unless the table type
+  // is configured to use it
+  protected final QueryResultCache resultCache;
+
+  // row counts reported by Kudu, shared by the tables of a schema
+  protected final TableStatisticsCache tableStatistics;
+
+  // reads rows by their primary key without scan tokens, shared by the tables of
+  // a schema
+  protected final PointLookupExecutor pointLookups;
+
   /**
    * Create the {@code CalciteKuduTable} for a physical scan over the
    * provided{@link KuduTable}. {@code KuduTable} must exist and be opened.
@@ -117,12 +155,32 @@ public class CalciteKuduTable extends AbstractQueryableTable implements Translat
    *                                     ranges
    * @param readSnapshotTimeDifference   time difference between snapshot to read
    *                                     in past and current time
+   * @param scanMemoryBudgetBytes        maximum bytes of rows buffered per query
+   *                                     before scanners pause fetching
+   * @param scannerPrefetchDepth         number of batches each scanner keeps
+   *                                     buffered or in flight
+   * @param scannerBatchSizeBytes        size of the batch returned by each
+   *                                     scanner RPC, zero or less uses the Kudu
+   *                                     default
+   * @param spillMemoryBudgetBytes       bytes a client side sort or aggregation
+   *                                     keeps in memory before spilling to disk
+   * @param scanTokenCache               cache of the scan tokens built for this
+   *                                     table
+   * @param resultCache                  cache of the rows returned by queries on
+   *                                     this table
+   * @param tableStatistics              cache of the statistics Kudu keeps about
+   *                                     this table
+   * @param pointLookups                 executor of the queries that read rows by
+   *                                     their primary key
    *
    */
   public CalciteKuduTable(final KuduTable kuduTable, final AsyncKuduClient client,
       final List<Integer> descendingOrderColumnIndexes, final int timestampColumnIndex,
       final List<CalciteKuduTable> cubeTables, final TableType tableType,
-      final CubeTableInfo.EventTimeAggregationType eventTimeAggregationType, final long readSnapshotTimeDifference) {
+      final CubeTableInfo.EventTimeAggregationType eventTimeAggregationType, final long readSnapshotTimeDifference,
+      final long scanMemoryBudgetBytes, final int scannerPrefetchDepth, final int scannerBatchSizeBytes,
+      final long spillMemoryBudgetBytes, final ScanTokenCache scanTokenCache, final QueryResultCache resultCache,
+      final TableStatisticsCache tableStatistics, final PointLookupExecutor pointLookups) {
     super(Object[].class);
     this.kuduTable = kuduTable;
     this.client = client;
@@ -132,13 +190,21 @@ public class CalciteKuduTable extends AbstractQueryableTable implements Translat
     this.timestampColumnIndex = timestampColumnIndex;
     this.eventTimeAggregationType = eventTimeAggregationType;
     this.readSnapshotTimeDifference = readSnapshotTimeDifference;
+    this.scanMemoryBudgetBytes = scanMemoryBudgetBytes;
+    this.scannerPrefetchDepth = scannerPrefetchDepth;
+    this.scannerBatchSizeBytes = scannerBatchSizeBytes;
+    this.spillMemoryBudgetBytes = spillMemoryBudgetBytes;
+    this.scanTokenCache = scanTokenCache;
+    this.resultCache = resultCache;
+    this.tableStatistics = tableStatistics;
+    this.pointLookups = pointLookups;
   }
 
   @Override
   public Statistic getStatistic() {
     final List<ImmutableBitSet> primaryKeys = Collections
         .singletonList(ImmutableBitSet.range(this.kuduTable.getSchema().getPrimaryKeyColumnCount()));
-    return Statistics.of(tableType.getRowCount(), primaryKeys, Collections.emptyList(),
+    return Statistics.of(getEstimatedRowCount(), primaryKeys, Collections.emptyList(),
         // We don't always sort for two reasons:
         // 1. When applying a Filter we want to also sort that doesn't magically happen
         // by
@@ -236,6 +302,11 @@ public class CalciteKuduTable extends AbstractQueryableTable implements Translat
    *                                columns are the same
    * @param sortPkColumns           the indexes of the primary key columns that
    *                                are present in the ORDER BY clause
+   * @param prefetchDepth           number of batches each scanner keeps buffered
+   *                                or in flight, zero or less uses the table
+   *                                default
+   * @param resultCacheKey          describes the projection and filter of the
+   *                                query, null if its rows can't be cached
    * @return Enumeration on the objects, Fields conform to
    *         {@link CalciteKuduTable#getRowType}.
    */
@@ -243,9 +314,107 @@ public class CalciteKuduTable extends AbstractQueryableTable implements Translat
       final List<Integer> columnIndices, final long limit, final long offset, final boolean sorted,
       final boolean groupByLimited, final KuduScanStats scanStats, final AtomicBoolean cancelFlag,
       final Function1<Object, Object> projection, final Predicate1<Object> filterFunction, final boolean isSingleObject,
-      final Function1<Object, Object> sortedPrefixKeySelector, final List<Integer> sortPkColumns) {
+      final Function1<Object, Object> sortedPrefixKeySelector, final List<Integer> sortPkColumns,
+      final int prefetchDepth, final String resultCacheKey) {
     return new KuduEnumerable(predicates, columnIndices, this.client, this, limit, offset, sorted, groupByLimited,
-        scanStats, cancelFlag, projection, filterFunction, isSingleObject, sortedPrefixKeySelector, sortPkColumns);
+        scanStats, cancelFlag, projection, filterFunction, isSingleObject, sortedPrefixKeySelector, sortPkColumns,
+        prefetchDepth, resultCacheKey);
+  }
+
+  /**
+   * Counts the rows that match the predicates with scanners that don't read any
+   * column.
+   *
+   * @param predicates filters for each of the independent scans
+   * @param scanStats  stat collector for the query
+   * @param cancelFlag flag to indicate the query has been canceled
+   * @return Enumeration of a single row, the number of rows
+   */
+  public Enumerable<Object> executeCount(final List<List<CalciteKuduPredicate>> predicates,
+      final KuduScanStats scanStats, final AtomicBoolean cancelFlag) {
+    final KuduEnumerable enumerable = new KuduEnumerable(predicates, Collections.emptyList(), this.client, this, -1, -1,
+        false, false, scanStats, cancelFlag, null, Predicate1.TRUE, true, null, Collections.emptyList(), -1, null);
+    return new AbstractEnumerable<Object>() {
+      @Override
+      public Enumerator<Object> enumerator() {
+        return Linq4j.singletonEnumerator(enumerable.countRows());
+      }
+    };
+  }
+
+  /**
+   * Aggregates the rows that match the predicates, each tablet is aggregated by
+   * the callback of its scanner.
+   *
+   * @param predicates           filters for each of the independent scans
+   * @param columnIndices        the column indexes to fetch from the table
+   * @param scanStats            stat collector for the query
+   * @param cancelFlag           flag to indicate the query has been canceled
+   * @param projection           function to map the
+   *                             {@link org.apache.kudu.client.RowResult} to the
+   *                             row that is aggregated
+   * @param filterFunction       predicate to apply to
+   *                             {@link org.apache.kudu.client.RowResult}
+   * @param isSingleObject       boolean indicating if the projection returns
+   *                             Object[] or Object
+   * @param aggregation          aggregation of the projected rows
+   * @param isSingleObjectResult boolean indicating if a result row is an Object[]
+   *                             or Object
+   * @param partitionWise        boolean indicating if the group keys include
+   *                             every hash partition column
+   * @return Enumeration of a row for each group
+   */
+  public Enumerable<Object> executeAggregation(final List<List<CalciteKuduPredicate>> predicates,
+      final List<Integer> columnIndices, final KuduScanStats scanStats, final AtomicBoolean cancelFlag,
+      final Function1<Object, Object> projection, final Predicate1<Object> filterFunction, final boolean isSingleObject,
+      final ScanAggregation aggregation, final boolean isSingleObjectResult, final boolean partitionWise) {
+    final KuduEnumerable enumerable = new KuduEnumerable(predicates, columnIndices, this.client, this, -1, -1, false,
+        false, scanStats, cancelFlag, projection, filterFunction, isSingleObject, null, Collections.emptyList(), -1,
+        null);
+    return new AbstractEnumerable<Object>() {
+      @Override
+      public Enumerator<Object> enumerator() {
+        if (partitionWise) {
+          return enumerable.partitionAggregationEnumerator(aggregation, isSingleObjectResult);
+        }
+        return enumerable.aggregateRows(aggregation, isSingleObjectResult);
+      }
+    };
+  }
+
+  /**
+   * Returns the first rows that match the predicates in the order of a sort, each
+   * tablet keeps its best rows in the callback of its scanner.
+   *
+   * @param predicates           filters for each of the independent scans
+   * @param columnIndices        the column indexes to fetch from the table
+   * @param scanStats            stat collector for the query
+   * @param cancelFlag           flag to indicate the query has been canceled
+   * @param projection           function to map the
+   *                             {@link org.apache.kudu.client.RowResult} to the
+   *                             row that is sorted
+   * @param filterFunction       predicate to apply to
+   *                             {@link org.apache.kudu.client.RowResult}
+   * @param isSingleObject       boolean indicating if the projection returns
+   *                             Object[] or Object
+   * @param topN                 sort and limit of the projected rows
+   * @param isSingleObjectResult boolean indicating if a result row is an Object[]
+   *                             or Object
+   * @return Enumeration of the rows in sorted order
+   */
+  public Enumerable<Object> executeTopN(final List<List<CalciteKuduPredicate>> predicates,
+      final List<Integer> columnIndices, final KuduScanStats scanStats, final AtomicBoolean cancelFlag,
+      final Function1<Object, Object> projection, final Predicate1<Object> filterFunction, final boolean isSingleObject,
+      final ScanTopN topN, final boolean isSingleObjectResult) {
+    final KuduEnumerable enumerable = new KuduEnumerable(predicates, columnIndices, this.client, this, -1, -1, false,
+        false, scanStats, cancelFlag, projection, filterFunction, isSingleObject, null, Collections.emptyList(), -1,
+        null);
+    return new AbstractEnumerable<Object>() {
+      @Override
+      public Enumerator<Object> enumerator() {
+        return Linq4j.enumerator(enumerable.topNRows(topN, isSingleObjectResult));
+      }
+    };
   }
 
   @Override
@@ -286,7 +455,7 @@ public class CalciteKuduTable extends AbstractQueryableTable implements Translat
       // noinspection unchecked
       final Enumerable<T> enumerable = (Enumerable<T>) getTable().executeQuery(Collections.emptyList(),
           Collections.emptyList(), -1, -1, false, false, new KuduScanStats(), new AtomicBoolean(false), null, null,
-          false, null, null);
+          false, null, null, -1, null);
       return enumerable.enumerator();
     }
 
@@ -327,6 +496,11 @@ public class CalciteKuduTable extends AbstractQueryableTable implements Translat
      *                                columns are the same
      * @param sortPkColumns           the names of the primary key columns that are
      *                                present in the ORDER BY clause
+     * @param prefetchDepth           number of batches each scanner keeps buffered
+     *                                or in flight, zero or less uses the table
+     *                                default
+     * @param resultCacheKey          describes the projection and filter of the
+     *                                query, null if its rows can't be cached
      * @return Enumerable for the query
      */
     public Enumerable<Object> query(final List<List<CalciteKuduPredicate>> predicates,
@@ -334,9 +508,86 @@ public class CalciteKuduTable extends AbstractQueryableTable implements Translat
         final boolean groupByLimited, final KuduScanStats scanStats, final AtomicBoolean cancelFlag,
         final Function1<Object, Object> projection, final Predicate1<Object> filterFunction,
         final boolean isSingleObject, final Function1<Object, Object> sortedPrefixKeySelector,
-        final List<Integer> sortPkColumns) {
+        final List<Integer> sortPkColumns, final int prefetchDepth, final String resultCacheKey) {
       return getTable().executeQuery(predicates, fieldsIndices, limit, offset, sorted, groupByLimited, scanStats,
-          cancelFlag, projection, filterFunction, isSingleObject, sortedPrefixKeySelector, sortPkColumns);
+          cancelFlag, projection, filterFunction, isSingleObject, sortedPrefixKeySelector, sortPkColumns, prefetchDepth,
+          resultCacheKey);
+    }
+
+    /**
+     * This is the method that is called by Code generation to run a query that only
+     * counts rows.
+     *
+     * @param predicates filters for each of the independent scans
+     * @param scanStats  stat collector for the query
+     * @param cancelFlag atomic boolean that is true when the query should be
+     *                   canceled
+     * @return Enumerable of the number of rows
+     */
+    public Enumerable<Object> count(final List<List<CalciteKuduPredicate>> predicates, final KuduScanStats scanStats,
+        final AtomicBoolean cancelFlag) {
+      return getTable().executeCount(predicates, scanStats, cancelFlag);
+    }
+
+    /**
+     * This is the method that is called by Code generation to run a query whose
+     * rows are aggregated by the scanners.
+     *
+     * @param predicates           filters for each of the independent scans
+     * @param fieldsIndices        the column indexes to fetch from the table
+     * @param scanStats            stat collector for the query
+     * @param cancelFlag           atomic boolean that is true when the query should
+     *                             be canceled
+     * @param projection           function to turn
+     *                             {@link org.apache.kudu.client.RowResult} into the
+     *                             row that is aggregated
+     * @param filterFunction       filter applied to all
+     *                             {@link org.apache.kudu.client.RowResult}
+     * @param isSingleObject       indicates whether the projected row is Object or
+     *                             Object[]
+     * @param aggregation          aggregation of the projected rows
+     * @param isSingleObjectResult indicates whether a result row is Object or
+     *                             Object[]
+     * @param partitionWise        indicates whether the group keys include every
+     *                             hash partition column
+     * @return Enumerable of a row for each group
+     */
+    public Enumerable<Object> aggregate(final List<List<CalciteKuduPredicate>> predicates,
+        final List<Integer> fieldsIndices, final KuduScanStats scanStats, final AtomicBoolean cancelFlag,
+        final Function1<Object, Object> projection, final Predicate1<Object> filterFunction,
+        final boolean isSingleObject, final ScanAggregation aggregation, final boolean isSingleObjectResult,
+        final boolean partitionWise) {
+      return getTable().executeAggregation(predicates, fieldsIndices, scanStats, cancelFlag, projection, filterFunction,
+          isSingleObject, aggregation, isSingleObjectResult, partitionWise);
+    }
+
+    /**
+     * This is the method that is called by Code generation to run a query whose
+     * first rows in the order of a sort are kept by the scanners.
+     *
+     * @param predicates           filters for each of the independent scans
+     * @param fieldsIndices        the column indexes to fetch from the table
+     * @param scanStats            stat collector for the query
+     * @param cancelFlag           atomic boolean that is true when the query should
+     *                             be canceled
+     * @param projection           function to turn
+     *                             {@link org.apache.kudu.client.RowResult} into the
+     *                             row that is sorted
+     * @param filterFunction       filter applied to all
+     *                             {@link org.apache.kudu.client.RowResult}
+     * @param isSingleObject       indicates whether the projected row is Object or
+     *                             Object[]
+     * @param topN                 sort and limit of the projected rows
+     * @param isSingleObjectResult indicates whether a result row is Object or
+     *                             Object[]
+     * @return Enumerable of the rows in sorted order
+     */
+    public Enumerable<Object> topN(final List<List<CalciteKuduPredicate>> predicates, final List<Integer> fieldsIndices,
+        final KuduScanStats scanStats, final AtomicBoolean cancelFlag, final Function1<Object, Object> projection,
+        final Predicate1<Object> filterFunction, final boolean isSingleObject, final ScanTopN topN,
+        final boolean isSingleObjectResult) {
+      return getTable().executeTopN(predicates, fieldsIndices, scanStats, cancelFlag, projection, filterFunction,
+          isSingleObject, topN, isSingleObjectResult);
     }
 
     /**
@@ -370,6 +621,32 @@ public class CalciteKuduTable extends AbstractQueryableTable implements Translat
     }
   }
 
+  /**
+   * Returns the number of rows in the table as reported by Kudu, or the estimate
+   * of the table type if the statistics are disabled or unavailable.
+   *
+   * @return estimated row count
+   */
+  public double getEstimatedRowCount() {
+    final TableStatisticsCache.TableStatistics statistics = tableStatistics.get(kuduTable);
+    if (!statistics.isKnown()) {
+      return tableType.getRowCount();
+    }
+    return statistics.getRowCount();
+  }
+
+  public TableStatisticsCache.TableStatistics getTableStatistics() {
+    return tableStatistics.get(kuduTable);
+  }
+
+  /**
+   * @return statistics of each column by column index, empty until the table has
+   *         been sampled or if column statistics are disabled
+   */
+  public List<ColumnStatistics> getColumnStatistics() {
+    return tableStatistics.getColumnStatistics(kuduTable);
+  }
+
   public CubeTableInfo.EventTimeAggregationType getEventTimeAggregationType() {
     return eventTimeAggregationType;
   }
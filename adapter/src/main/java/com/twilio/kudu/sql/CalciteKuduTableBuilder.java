@@ -35,6 +35,14 @@ public class CalciteKuduTableBuilder {
   private boolean enableInserts;
   private boolean disableCubeAggregation;
   private long readSnapshotTimeDifference;
+  private long scanMemoryBudgetBytes = CalciteKuduTable.DEFAULT_SCAN_MEMORY_BUDGET_BYTES;
+  private int scannerPrefetchDepth = ScannerCallback.DEFAULT_PREFETCH_DEPTH;
+  private int scannerBatchSizeBytes;
+  private long spillMemoryBudgetBytes = CalciteKuduTable.DEFAULT_SPILL_MEMORY_BUDGET_BYTES;
+  private ScanTokenCache scanTokenCache = ScanTokenCache.disabled();
+  private QueryResultCache resultCache = QueryResultCache.disabled();
+  private TableStatisticsCache tableStatistics = TableStatisticsCache.disabled();
+  private PointLookupExecutor pointLookups = PointLookupExecutor.unbatched();
 
   public CalciteKuduTableBuilder(KuduTable kuduTable, AsyncKuduClient client) {
     this.kuduTable = kuduTable;
@@ -56,6 +64,46 @@ public class CalciteKuduTableBuilder {
     return this;
   }
 
+  public CalciteKuduTableBuilder setScanMemoryBudgetBytes(long scanMemoryBudgetBytes) {
+    this.scanMemoryBudgetBytes = scanMemoryBudgetBytes;
+    return this;
+  }
+
+  public CalciteKuduTableBuilder setScannerPrefetchDepth(int scannerPrefetchDepth) {
+    this.scannerPrefetchDepth = scannerPrefetchDepth;
+    return this;
+  }
+
+  public CalciteKuduTableBuilder setScannerBatchSizeBytes(int scannerBatchSizeBytes) {
+    this.scannerBatchSizeBytes = scannerBatchSizeBytes;
+    return this;
+  }
+
+  public CalciteKuduTableBuilder setSpillMemoryBudgetBytes(long spillMemoryBudgetBytes) {
+    this.spillMemoryBudgetBytes = spillMemoryBudgetBytes;
+    return this;
+  }
+
+  public CalciteKuduTableBuilder setScanTokenCache(ScanTokenCache scanTokenCache) {
+    this.scanTokenCache = scanTokenCache;
+    return this;
+  }
+
+  public CalciteKuduTableBuilder setResultCache(QueryResultCache resultCache) {
+    this.resultCache = resultCache;
+    return this;
+  }
+
+  public CalciteKuduTableBuilder setTableStatistics(TableStatisticsCache tableStatistics) {
+    this.tableStatistics = tableStatistics;
+    return this;
+  }
+
+  public CalciteKuduTableBuilder setPointLookups(PointLookupExecutor pointLookups) {
+    this.pointLookups = pointLookups;
+    return this;
+  }
+
   public CalciteKuduTableBuilder setDescendingOrderedFieldIndices(List<Integer> descendingOrderedColumnIndices) {
     this.descendingOrderedFieldIndices = descendingOrderedColumnIndices;
     return this;
@@ -85,9 +133,12 @@ public class CalciteKuduTableBuilder {
   public CalciteKuduTable build() {
     if (enableInserts) {
       return new CalciteModifiableKuduTable(kuduTable, client, descendingOrderedFieldIndices, timestampColumnIndex,
-          cubeTabes, tableType, eventTimeAggregationType, readSnapshotTimeDifference, disableCubeAggregation);
+          cubeTabes, tableType, eventTimeAggregationType, readSnapshotTimeDifference, scanMemoryBudgetBytes,
+          scannerPrefetchDepth, scannerBatchSizeBytes, spillMemoryBudgetBytes, scanTokenCache, resultCache,
+          tableStatistics, pointLookups, disableCubeAggregation);
     }
     return new CalciteKuduTable(kuduTable, client, descendingOrderedFieldIndices, timestampColumnIndex, cubeTabes,
-        tableType, eventTimeAggregationType, readSnapshotTimeDifference);
+        tableType, eventTimeAggregationType, readSnapshotTimeDifference, scanMemoryBudgetBytes, scannerPrefetchDepth,
+        scannerBatchSizeBytes, spillMemoryBudgetBytes, scanTokenCache, resultCache, tableStatistics, pointLookups);
   }
 }
@@ -57,9 +57,13 @@ public class CalciteModifiableKuduTable extends CalciteKuduTable implements Modi
       final List<Integer> descendingOrderColumnIndexes, final int timestampColumnIndex,
       final List<CalciteKuduTable> cubeTables, final TableType tableType,
       final CubeTableInfo.EventTimeAggregationType eventTimeAggregationType, final long readSnapshotTimeDifference,
+      final long scanMemoryBudgetBytes, final int scannerPrefetchDepth, final int scannerBatchSizeBytes,
+      final long spillMemoryBudgetBytes, final ScanTokenCache scanTokenCache, final QueryResultCache resultCache,
+      final TableStatisticsCache tableStatistics, final PointLookupExecutor pointLookups,
       final boolean disableCubeAggregations) {
     super(kuduTable, client, descendingOrderColumnIndexes, timestampColumnIndex, cubeTables, tableType,
-        eventTimeAggregationType, readSnapshotTimeDifference);
+        eventTimeAggregationType, readSnapshotTimeDifference, scanMemoryBudgetBytes, scannerPrefetchDepth,
+        scannerBatchSizeBytes, spillMemoryBudgetBytes, scanTokenCache, resultCache, tableStatistics, pointLookups);
     this.disableCubeAggregations = disableCubeAggregations;
   }
 
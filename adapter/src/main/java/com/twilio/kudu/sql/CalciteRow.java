@@ -25,7 +25,8 @@ import java.math.BigDecimal;
  * sort on scans.
  */
 public final class CalciteRow implements Comparable<CalciteRow> {
-  private final Object[] rowData;
+  // accessed directly by CalciteRowComparator
+  final Object[] rowData;
   public final Schema rowSchema;
   public final List<Integer> primaryKeyColumnsInProjection;
   public final List<Integer> descendingSortedFieldIndices;
@@ -92,9 +93,9 @@ public final class CalciteRow implements Comparable<CalciteRow> {
         }
         break;
       case BOOL:
-        if (((Boolean) this.rowData[positionInProjection])
-            .compareTo(((Boolean) o.rowData[positionInProjection])) != 0) {
-          return 1;
+        cmp = ((Boolean) this.rowData[positionInProjection]).compareTo(((Boolean) o.rowData[positionInProjection]));
+        if (cmp != 0) {
+          return cmp;
         }
         break;
       case FLOAT:
@@ -105,7 +106,7 @@ public final class CalciteRow implements Comparable<CalciteRow> {
         break;
       case DOUBLE:
         cmp = ((Double) this.rowData[positionInProjection]).compareTo(((Double) o.rowData[positionInProjection]));
-        if (cmp > 0) {
+        if (cmp != 0) {
           return cmp;
         }
         break;
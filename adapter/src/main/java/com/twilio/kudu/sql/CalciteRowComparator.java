@@ -0,0 +1,137 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+
+/**
+ * {@link Comparator} of {@link CalciteRow}s that orders them the same way as
+ * {@link CalciteRow#compareTo(CalciteRow)}. The column types and sort
+ * directions are resolved once when the comparator is created for a query
+ * instead of on every comparison.
+ */
+public final class CalciteRowComparator implements Comparator<CalciteRow> {
+
+  /**
+   * Compares the values of a single column of two rows.
+   */
+  @FunctionalInterface
+  interface ColumnComparator {
+    int compare(Object left, Object right);
+  }
+
+  private static final ColumnComparator BYTE_ASC = (l, r) -> Byte.compare((Byte) l, (Byte) r);
+  private static final ColumnComparator BYTE_DESC = (l, r) -> Byte.compare((Byte) r, (Byte) l);
+  private static final ColumnComparator SHORT_ASC = (l, r) -> Short.compare((Short) l, (Short) r);
+  private static final ColumnComparator SHORT_DESC = (l, r) -> Short.compare((Short) r, (Short) l);
+  private static final ColumnComparator INT_ASC = (l, r) -> Integer.compare((Integer) l, (Integer) r);
+  private static final ColumnComparator INT_DESC = (l, r) -> Integer.compare((Integer) r, (Integer) l);
+  private static final ColumnComparator LONG_ASC = (l, r) -> Long.compare((Long) l, (Long) r);
+  private static final ColumnComparator LONG_DESC = (l, r) -> Long.compare((Long) r, (Long) l);
+  private static final ColumnComparator STRING = (l, r) -> ((String) l).compareTo((String) r);
+  private static final ColumnComparator BOOL = (l, r) -> Boolean.compare((Boolean) l, (Boolean) r);
+  private static final ColumnComparator FLOAT = (l, r) -> Float.compare((Float) l, (Float) r);
+  private static final ColumnComparator DOUBLE = (l, r) -> Double.compare((Double) l, (Double) r);
+  private static final ColumnComparator DECIMAL = (l, r) -> ((BigDecimal) l).compareTo((BigDecimal) r);
+
+  private final int[] positions;
+  private final ColumnComparator[] columnComparators;
+
+  private CalciteRowComparator(final int[] positions, final ColumnComparator[] columnComparators) {
+    this.positions = positions;
+    this.columnComparators = columnComparators;
+  }
+
+  /**
+   * Create a comparator for rows of a scan.
+   *
+   * @param projectedSchema               schema of the scan projection
+   * @param primaryKeyColumnsInProjection ordered positions of the primary key
+   *                                      columns within the projection
+   * @param descendingSortedFieldIndices  positions of the descending sorted
+   *                                      columns within the projection
+   * @return comparator for rows produced by the scan
+   */
+  public static CalciteRowComparator create(final Schema projectedSchema,
+      final List<Integer> primaryKeyColumnsInProjection, final List<Integer> descendingSortedFieldIndices) {
+    final List<Integer> keyColumns = primaryKeyColumnsInProjection == null ? Collections.emptyList()
+        : primaryKeyColumnsInProjection;
+    final int[] positions = new int[keyColumns.size()];
+    final ColumnComparator[] columnComparators = new ColumnComparator[keyColumns.size()];
+    for (int i = 0; i < positions.length; i++) {
+      final int positionInProjection = keyColumns.get(i);
+      final ColumnSchema columnSchema = projectedSchema.getColumnByIndex(positionInProjection);
+      // only integer columns are stored in descending order, see
+      // CalciteRow#compareTo(CalciteRow)
+      final boolean descending = descendingSortedFieldIndices.contains(positionInProjection);
+      positions[i] = positionInProjection;
+      switch (columnSchema.getType()) {
+      case INT8:
+        columnComparators[i] = descending ? BYTE_DESC : BYTE_ASC;
+        break;
+      case INT16:
+        columnComparators[i] = descending ? SHORT_DESC : SHORT_ASC;
+        break;
+      case INT32:
+        columnComparators[i] = descending ? INT_DESC : INT_ASC;
+        break;
+      case UNIXTIME_MICROS:
+      case INT64:
+        columnComparators[i] = descending ? LONG_DESC : LONG_ASC;
+        break;
+      case STRING:
+        columnComparators[i] = STRING;
+        break;
+      case BOOL:
+        columnComparators[i] = BOOL;
+        break;
+      case FLOAT:
+        columnComparators[i] = FLOAT;
+        break;
+      case DOUBLE:
+        columnComparators[i] = DOUBLE;
+        break;
+      case DECIMAL:
+        columnComparators[i] = DECIMAL;
+        break;
+      default:
+        // Can't compare the others.
+        throw new IllegalArgumentException(
+            "Cannot compare column " + columnSchema.getName() + " of type " + columnSchema.getType());
+      }
+    }
+    return new CalciteRowComparator(positions, columnComparators);
+  }
+
+  @Override
+  public int compare(final CalciteRow left, final CalciteRow right) {
+    final Object[] leftData = left.rowData;
+    final Object[] rightData = right.rowData;
+    for (int i = 0; i < positions.length; i++) {
+      final int position = positions[i];
+      final int cmp = columnComparators[i].compare(leftData[position], rightData[position]);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return 0;
+  }
+}
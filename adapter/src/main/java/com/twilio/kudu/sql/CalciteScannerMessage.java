@@ -14,15 +14,21 @@
  */
 package com.twilio.kudu.sql;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.Objects;
 
 /**
  * Message object represents a Message from an active scanner. There are
  * multiple types defined in {@link MessageType} and each consumer is expected
- * handle each type. Types are 1. ROW -- contains a row 2. CLOSE -- scanner is
- * closing so shouldn't expect any more ROW 3. ERROR -- scanner failed in some
- * manner, contains a failure.
+ * handle each type. Types are 1. ROW -- contains a row 2. ROW_BATCH -- contains
+ * every row projected out of a single scanner RPC along with the
+ * {@link ScannerCallback} that fetched them 3. CLOSE -- scanner is closing so
+ * shouldn't expect any more ROW 4. ERROR -- scanner failed in some manner,
+ * contains a failure.
+ *
+ * When a consumer has read every row out of a ROW_BATCH message it is expected
+ * to call {@link ScannerCallback#nextBatch()} to fetch the next batch.
  *
  * When an ERROR message is received, the producer needs to produce a CLOSE
  * message just after. ERROR message is not terminal, only CLOSE is terminal
@@ -37,11 +43,12 @@ import java.util.Objects;
  */
 public final class CalciteScannerMessage<T> {
   public enum MessageType {
-    ROW, BATCH_COMPLETED, CLOSE, ERROR
+    ROW, ROW_BATCH, CLOSE, ERROR
   }
 
   public final MessageType type;
   public final Optional<T> row;
+  public final Optional<List<T>> rows;
   public final Optional<Exception> failure;
   public final Optional<ScannerCallback> callback;
 
@@ -55,6 +62,7 @@ public final class CalciteScannerMessage<T> {
     Objects.requireNonNull(failure);
     this.type = MessageType.ERROR;
     this.row = Optional.empty();
+    this.rows = Optional.empty();
     this.callback = Optional.empty();
     this.failure = Optional.of(failure);
   }
@@ -68,20 +76,27 @@ public final class CalciteScannerMessage<T> {
     Objects.requireNonNull(row);
     this.type = MessageType.ROW;
     this.row = Optional.of(row);
+    this.rows = Optional.empty();
     this.failure = Optional.empty();
     this.callback = Optional.empty();
   }
 
   /**
-   * Constructs a Batch Completed Scanner Message.
+   * Constructs a Row Batch Scanner Message that contains all the rows from a
+   * single scanner RPC. Rows must be nonNull but can be empty when every row in
+   * the RPC was filtered out.
    *
-   * @param callback the {@link ScannerCallback} that completed it's batch
+   * @param rows     the rows from the RPC in scanner order.
+   * @param callback the {@link ScannerCallback} that completed it's batch, can be
+   *                 null when there is no next batch to fetch.
    */
-  public CalciteScannerMessage(final ScannerCallback callback) {
-    this.type = MessageType.BATCH_COMPLETED;
+  public CalciteScannerMessage(final List<T> rows, final ScannerCallback callback) {
+    Objects.requireNonNull(rows);
+    this.type = MessageType.ROW_BATCH;
     this.row = Optional.empty();
+    this.rows = Optional.of(rows);
     this.failure = Optional.empty();
-    this.callback = Optional.of(callback);
+    this.callback = Optional.ofNullable(callback);
   }
 
   /**
@@ -104,6 +119,7 @@ public final class CalciteScannerMessage<T> {
     }
     this.type = type;
     this.row = Optional.empty();
+    this.rows = Optional.empty();
     this.failure = Optional.empty();
     this.callback = Optional.empty();
   }
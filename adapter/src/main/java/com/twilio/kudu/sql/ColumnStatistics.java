@@ -0,0 +1,257 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import org.apache.kudu.Type;
+import org.apache.kudu.client.KuduPredicate;
+import org.apache.kudu.util.TimestampUtil;
+
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Statistics of a single column computed from a sample of the rows of a table.
+ *
+ * Values are the ones stored in Kudu, the values of columns stored in
+ * descending order are inverted. Numbers and timestamps are compared by their
+ * position on a line, timestamps in microseconds. Strings only have a minimum
+ * and maximum.
+ */
+public final class ColumnStatistics {
+
+  // number of buckets of the histograms of timestamp columns
+  static final int HISTOGRAM_BUCKETS = 32;
+
+  private final double nullFraction;
+  private final double distinctCount;
+  private final Comparable<Object> min;
+  private final Comparable<Object> max;
+  // bounds of equi-depth buckets, each bucket holds the same number of rows
+  private final double[] histogram;
+
+  ColumnStatistics(final double nullFraction, final double distinctCount, final Comparable<Object> min,
+      final Comparable<Object> max, final double[] histogram) {
+    this.nullFraction = nullFraction;
+    this.distinctCount = distinctCount;
+    this.min = min;
+    this.max = max;
+    this.histogram = histogram;
+  }
+
+  public double getNullFraction() {
+    return nullFraction;
+  }
+
+  /**
+   * @return estimated number of distinct non null values in the table
+   */
+  public double getDistinctCount() {
+    return distinctCount;
+  }
+
+  /**
+   * @return bounds of the equi-depth histogram, null if the column doesn't have
+   *         one
+   */
+  public double[] getHistogram() {
+    return histogram;
+  }
+
+  /**
+   * @param value stored value
+   * @return fraction of the rows that are equal to the value
+   */
+  public double equalsSelectivity(final Object value) {
+    if (distinctCount <= 0) {
+      return 0;
+    }
+    final Comparable<Object> comparable = comparable(value);
+    if (comparable != null && min != null && max != null && min.getClass() == comparable.getClass()
+        && (comparable.compareTo(min) < 0 || comparable.compareTo(max) > 0)) {
+      return 0;
+    }
+    return (1 - nullFraction) / distinctCount;
+  }
+
+  /**
+   * @param operation one of the range comparisons
+   * @param value     stored value
+   * @return fraction of the rows that match the comparison, null if the column
+   *         values can't be placed on a line
+   */
+  public Double rangeSelectivity(final KuduPredicate.ComparisonOp operation, final Object value) {
+    final Double position = position(value);
+    if (position == null) {
+      return null;
+    }
+    final Double low = position(min);
+    final Double high = position(max);
+    final double below;
+    if (histogram != null) {
+      below = fractionBelow(histogram, position);
+    } else if (low != null && high != null) {
+      below = high > low ? Math.min(1, Math.max(0, (position - low) / (high - low))) : (position > low ? 1 : 0);
+    } else {
+      return null;
+    }
+    switch (operation) {
+    case LESS:
+    case LESS_EQUAL:
+      return below * (1 - nullFraction);
+    case GREATER:
+    case GREATER_EQUAL:
+      return (1 - below) * (1 - nullFraction);
+    default:
+      return null;
+    }
+  }
+
+  /**
+   * Fraction of the rows of an equi-depth histogram that are less than the value,
+   * rows are assumed to be spread evenly inside a bucket.
+   */
+  static double fractionBelow(final double[] bounds, final double value) {
+    final int buckets = bounds.length - 1;
+    if (buckets < 1 || value <= bounds[0]) {
+      return 0;
+    }
+    if (value > bounds[buckets]) {
+      return 1;
+    }
+    int bucket = Arrays.binarySearch(bounds, value);
+    if (bucket < 0) {
+      bucket = -bucket - 2;
+    } else {
+      // bounds can repeat when a value is very common, use the first one
+      while (bucket > 0 && bounds[bucket - 1] == value) {
+        bucket--;
+      }
+      return (double) bucket / buckets;
+    }
+    final double width = bounds[bucket + 1] - bounds[bucket];
+    final double inside = width > 0 ? (value - bounds[bucket]) / width : 1;
+    return (bucket + inside) / buckets;
+  }
+
+  /**
+   * @param value value of a column
+   * @return position of the value on a line, null if it isn't a number or a
+   *         timestamp
+   */
+  public static Double position(final Object value) {
+    if (value instanceof Timestamp) {
+      return (double) TimestampUtil.timestampToMicros((Timestamp) value);
+    } else if (value instanceof Number) {
+      return ((Number) value).doubleValue();
+    }
+    return null;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Comparable<Object> comparable(final Object value) {
+    final Double position = position(value);
+    if (position != null) {
+      return (Comparable<Object>) (Object) position;
+    } else if (value instanceof String) {
+      return (Comparable<Object>) (Object) value;
+    }
+    return null;
+  }
+
+  /**
+   * Collects the sampled values of a column.
+   */
+  static final class Accumulator {
+    private final Type type;
+    private final Map<Object, Integer> counts = new HashMap<>();
+    private double[] positions = new double[64];
+    private int nonNullCount = 0;
+    private int nullCount = 0;
+    private Comparable<Object> min;
+    private Comparable<Object> max;
+
+    Accumulator(final Type type) {
+      this.type = type;
+    }
+
+    void add(final Object value) {
+      if (value == null) {
+        nullCount++;
+        return;
+      }
+      counts.merge(value instanceof byte[] ? ByteBuffer.wrap((byte[]) value) : value, 1, Integer::sum);
+      final Comparable<Object> comparable = comparable(value);
+      if (comparable != null) {
+        if (min == null || comparable.compareTo(min) < 0) {
+          min = comparable;
+        }
+        if (max == null || comparable.compareTo(max) > 0) {
+          max = comparable;
+        }
+      }
+      if (type == Type.UNIXTIME_MICROS) {
+        if (nonNullCount == positions.length) {
+          positions = Arrays.copyOf(positions, positions.length * 2);
+        }
+        positions[nonNullCount] = position(value);
+      }
+      nonNullCount++;
+    }
+
+    /**
+     * @param rowCount number of rows in the table
+     * @return statistics extrapolated to the whole table
+     */
+    ColumnStatistics build(final long rowCount) {
+      final int sampled = nonNullCount + nullCount;
+      if (sampled == 0) {
+        return new ColumnStatistics(0, 0, null, null, null);
+      }
+      final double nullFraction = (double) nullCount / sampled;
+      final double nonNullRows = Math.max(nonNullCount, rowCount * (1 - nullFraction));
+      final int distinct = counts.size();
+      final long singletons = counts.values().stream().filter(count -> count == 1).count();
+      final double distinctCount;
+      if (nonNullCount == 0 || nonNullCount >= nonNullRows) {
+        distinctCount = distinct;
+      } else {
+        // Duj1 estimator of Haas and Stokes, values seen once in the sample are
+        // likely to have more distinct values like them in the rest of the table
+        final double n = nonNullCount;
+        distinctCount = Math.min(nonNullRows,
+            Math.max(distinct, n * distinct / (n - singletons + singletons * n / nonNullRows)));
+      }
+      return new ColumnStatistics(nullFraction, distinctCount, min, max, histogram());
+    }
+
+    private double[] histogram() {
+      if (type != Type.UNIXTIME_MICROS || nonNullCount == 0) {
+        return null;
+      }
+      final double[] sorted = Arrays.copyOf(positions, nonNullCount);
+      Arrays.sort(sorted);
+      final int buckets = Math.min(HISTOGRAM_BUCKETS, nonNullCount);
+      final double[] bounds = new double[buckets + 1];
+      for (int i = 0; i < buckets; i++) {
+        bounds[i] = sorted[(int) ((long) i * nonNullCount / buckets)];
+      }
+      bounds[buckets] = sorted[nonNullCount - 1];
+      return bounds;
+    }
+  }
+}
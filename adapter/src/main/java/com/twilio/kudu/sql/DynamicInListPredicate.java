@@ -0,0 +1,116 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.client.KuduPredicate;
+
+/**
+ * An implementation of {@link CalciteKuduPredicate} that matches a column
+ * against a list of prepared statement parameters, the parameters are bound
+ * into an {@link InListPredicate} once the statement is executed.
+ */
+public final class DynamicInListPredicate extends CalciteKuduPredicate {
+  public final int columnIdx;
+  public final List<Integer> paramIndexes;
+  public final SqlTypeName paramType;
+
+  public DynamicInListPredicate(final int columnIdx, final List<Integer> paramIndexes, final SqlTypeName paramType) {
+    this.columnIdx = columnIdx;
+    this.paramIndexes = paramIndexes;
+    this.paramType = paramType;
+  }
+
+  @Override
+  public int getColumnIdx() {
+    return columnIdx;
+  }
+
+  @Override
+  public String explainPredicate(final ColumnSchema schema) {
+    return String.format("%s IN %s", schema.getName(),
+        paramIndexes.stream().map(index -> "?" + index).collect(Collectors.toList()));
+  }
+
+  @Override
+  public KuduPredicate toPredicate(final ColumnSchema columnSchema, final boolean invertValue) {
+    throw new IllegalStateException(
+        String.format("Parameters %s must be bound before creating a Kudu predicate", paramIndexes));
+  }
+
+  /**
+   * Null parameters and integers outside of the range of their type never match
+   * and are left out of the {@link InListPredicate}.
+   */
+  @Override
+  public CalciteKuduPredicate bind(final DataContext dataContext) {
+    final List<Object> values = new ArrayList<>(paramIndexes.size());
+    for (int paramIndex : paramIndexes) {
+      final Object value = dataContext.get("?" + paramIndex);
+      if (value != null && DynamicParamPredicate.compareToRange(paramType, value) == 0) {
+        values.add(DynamicParamPredicate.castValue(paramType, value));
+      }
+    }
+    return new InListPredicate(columnIdx, values);
+  }
+
+  @Override
+  public boolean hasParameters() {
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + columnIdx;
+    result = prime * result + ((paramIndexes == null) ? 0 : paramIndexes.hashCode());
+    result = prime * result + ((paramType == null) ? 0 : paramType.hashCode());
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    DynamicInListPredicate other = (DynamicInListPredicate) obj;
+    if (columnIdx != other.columnIdx)
+      return false;
+    if (paramIndexes == null) {
+      if (other.paramIndexes != null)
+        return false;
+    } else if (!paramIndexes.equals(other.paramIndexes))
+      return false;
+    if (paramType != other.paramType)
+      return false;
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "DynamicInListPredicate [columnIdx=" + columnIdx + ", paramIndexes=" + paramIndexes + ", paramType="
+        + paramType + "]";
+  }
+}
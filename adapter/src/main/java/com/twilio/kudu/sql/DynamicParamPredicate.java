@@ -0,0 +1,229 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Date;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.avatica.util.ByteString;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.client.KuduPredicate;
+
+/**
+ * An implementation of {@link CalciteKuduPredicate} that compares a column to a
+ * parameter of a prepared statement. The value of the parameter is only known
+ * once the statement is executed, {@link #bind(DataContext)} turns it into a
+ * {@link ComparisonPredicate} before the scan is created.
+ */
+public final class DynamicParamPredicate extends CalciteKuduPredicate {
+  public final int columnIdx;
+  public final KuduPredicate.ComparisonOp operation;
+  public final int paramIndex;
+  public final SqlTypeName paramType;
+
+  public DynamicParamPredicate(final int columnIdx, final KuduPredicate.ComparisonOp operation, final int paramIndex,
+      final SqlTypeName paramType) {
+    this.columnIdx = columnIdx;
+    this.operation = operation;
+    this.paramIndex = paramIndex;
+    this.paramType = paramType;
+  }
+
+  /**
+   * @param paramType type of the parameter
+   * @return true if values of the type can be bound into a predicate
+   */
+  public static boolean isSupported(final SqlTypeName paramType) {
+    switch (paramType) {
+    case BOOLEAN:
+    case TINYINT:
+    case SMALLINT:
+    case INTEGER:
+    case BIGINT:
+    case FLOAT:
+    case REAL:
+    case DOUBLE:
+    case DECIMAL:
+    case TIMESTAMP:
+    case CHAR:
+    case VARCHAR:
+    case BINARY:
+    case VARBINARY:
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  @Override
+  public int getColumnIdx() {
+    return columnIdx;
+  }
+
+  @Override
+  public String explainPredicate(final ColumnSchema schema) {
+    return String.format("%s %s ?%d", schema.getName(), operation.name(), paramIndex);
+  }
+
+  @Override
+  public KuduPredicate toPredicate(final ColumnSchema columnSchema, final boolean invertValue) {
+    throw new IllegalStateException(
+        String.format("Parameter ?%d must be bound before creating a Kudu predicate", paramIndex));
+  }
+
+  /**
+   * Comparing a column to a null parameter never matches, the predicate then
+   * becomes an empty {@link InListPredicate}. An integer parameter outside of the
+   * range of its type is compared to the bound of the range instead.
+   */
+  @Override
+  public CalciteKuduPredicate bind(final DataContext dataContext) {
+    final Object value = dataContext.get("?" + paramIndex);
+    if (value == null) {
+      return new InListPredicate(columnIdx, Collections.emptyList());
+    }
+    final int range = compareToRange(paramType, value);
+    if (range > 0) {
+      // every value of the column is less than the parameter
+      return operation == KuduPredicate.ComparisonOp.LESS || operation == KuduPredicate.ComparisonOp.LESS_EQUAL
+          ? new ComparisonPredicate(columnIdx, KuduPredicate.ComparisonOp.LESS_EQUAL, maxValue(paramType))
+          : new InListPredicate(columnIdx, Collections.emptyList());
+    } else if (range < 0) {
+      // every value of the column is greater than the parameter
+      return operation == KuduPredicate.ComparisonOp.GREATER || operation == KuduPredicate.ComparisonOp.GREATER_EQUAL
+          ? new ComparisonPredicate(columnIdx, KuduPredicate.ComparisonOp.GREATER_EQUAL, minValue(paramType))
+          : new InListPredicate(columnIdx, Collections.emptyList());
+    }
+    return new ComparisonPredicate(columnIdx, operation, castValue(paramType, value));
+  }
+
+  @Override
+  public boolean hasParameters() {
+    return true;
+  }
+
+  /**
+   * Compares the value of an integer parameter to the range of values of its
+   * type, a value outside of the range can't be cast without wrapping around.
+   *
+   * @return a negative number if the value is below the range, a positive number
+   *         if it is above and 0 if it is within the range or the type isn't a
+   *         fixed width integer
+   */
+  static int compareToRange(final SqlTypeName paramType, final Object value) {
+    switch (paramType) {
+    case TINYINT:
+    case SMALLINT:
+    case INTEGER:
+      final Number number = (Number) value;
+      if (number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte) {
+        final long longValue = number.longValue();
+        return longValue < minValue(paramType) ? -1 : longValue > maxValue(paramType) ? 1 : 0;
+      }
+      final double doubleValue = number.doubleValue();
+      return doubleValue < minValue(paramType) ? -1 : doubleValue > maxValue(paramType) ? 1 : 0;
+    default:
+      return 0;
+    }
+  }
+
+  private static int minValue(final SqlTypeName paramType) {
+    return paramType == SqlTypeName.TINYINT ? Byte.MIN_VALUE
+        : paramType == SqlTypeName.SMALLINT ? Short.MIN_VALUE : Integer.MIN_VALUE;
+  }
+
+  private static int maxValue(final SqlTypeName paramType) {
+    return paramType == SqlTypeName.TINYINT ? Byte.MAX_VALUE
+        : paramType == SqlTypeName.SMALLINT ? Short.MAX_VALUE : Integer.MAX_VALUE;
+  }
+
+  /**
+   * Converts the value of the parameter to the value a literal of the same type
+   * is pushed down with, see {@code KuduPredicatePushDownVisitor}. Integer values
+   * must be within the range of their type, see
+   * {@link #compareToRange(SqlTypeName, Object)}.
+   */
+  static Object castValue(final SqlTypeName paramType, final Object value) {
+    switch (paramType) {
+    case TINYINT:
+    case SMALLINT:
+    case INTEGER:
+      return ((Number) value).intValue();
+    case BIGINT:
+      return ((Number) value).longValue();
+    case FLOAT:
+    case REAL:
+      return ((Number) value).floatValue();
+    case DOUBLE:
+      return ((Number) value).doubleValue();
+    case DECIMAL:
+      return value instanceof BigDecimal ? value : new BigDecimal(value.toString());
+    case TIMESTAMP:
+      // parameters are in milliseconds and Kudu wants microseconds
+      if (value instanceof Date) {
+        return ((Date) value).getTime() * 1000;
+      }
+      return ((Number) value).longValue() * 1000;
+    case CHAR:
+    case VARCHAR:
+      return value.toString();
+    case BINARY:
+    case VARBINARY:
+      return value instanceof ByteString ? ((ByteString) value).getBytes() : value;
+    default:
+      return value;
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + columnIdx;
+    result = prime * result + ((operation == null) ? 0 : operation.hashCode());
+    result = prime * result + paramIndex;
+    result = prime * result + ((paramType == null) ? 0 : paramType.hashCode());
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    DynamicParamPredicate other = (DynamicParamPredicate) obj;
+    if (columnIdx != other.columnIdx)
+      return false;
+    if (operation != other.operation)
+      return false;
+    if (paramIndex != other.paramIndex)
+      return false;
+    if (paramType != other.paramType)
+      return false;
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "DynamicParamPredicate [columnIdx=" + columnIdx + ", operation=" + operation + ", paramIndex=" + paramIndex
+        + ", paramType=" + paramType + "]";
+  }
+}
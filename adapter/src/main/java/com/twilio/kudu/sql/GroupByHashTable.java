@@ -0,0 +1,289 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+import org.apache.calcite.linq4j.AbstractEnumerable2;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.function.Function2;
+
+/**
+ * Hash table of the groups of an aggregation built from flat arrays instead of
+ * one {@link java.util.HashMap} entry per group.
+ *
+ * Groups are appended to dense entry arrays in the order they are first seen
+ * and an open addressing table of entry positions with linear probing points
+ * into them. Growing the table only rehashes the positions using the hash
+ * stored for each entry.
+ *
+ * As long as every key is a {@link Long}, {@link Integer} or {@link Double} (of
+ * the same class) the keys are kept in a {@code long[]} lane so the boxed key
+ * returned by the key selector doesn't outlive the row. The first key of
+ * another class, a {@code null} key or a composite key moves every key into the
+ * object lane. The hash of a key is derived from {@link Object#hashCode()} in
+ * both lanes so moving the keys doesn't rehash them.
+ *
+ * The table holds at most half as many groups as it has slots so probing always
+ * ends at a free slot. Adding a group beyond {@link #MAX_GROUPS} fails instead
+ * of filling the largest table.
+ *
+ * @param <TKey>        type of the group key
+ * @param <TAccumulate> type of the accumulator of each group
+ */
+public final class GroupByHashTable<TKey, TAccumulate> {
+  private static final int INITIAL_CAPACITY = 16;
+  private static final int MAX_TABLE_CAPACITY = 1 << 30;
+  static final int MAX_GROUPS = MAX_TABLE_CAPACITY / 2;
+
+  private enum KeyLane {
+    EMPTY, LONG, INT, DOUBLE, OBJECT
+  }
+
+  private KeyLane lane = KeyLane.EMPTY;
+  // position + 1 of the entry of each slot, 0 when the slot is free
+  private int[] table = new int[INITIAL_CAPACITY * 2];
+  private int[] hashes = new int[INITIAL_CAPACITY];
+  private long[] primitiveKeys = new long[INITIAL_CAPACITY];
+  private Object[] keys;
+  private Object[] accumulators = new Object[INITIAL_CAPACITY];
+  private int size = 0;
+  private final int maxGroups;
+
+  public GroupByHashTable() {
+    this(MAX_GROUPS);
+  }
+
+  GroupByHashTable(final int maxGroups) {
+    this.maxGroups = Math.min(maxGroups, MAX_GROUPS);
+  }
+
+  /**
+   * @return the number of groups
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param key group key
+   * @return position of the entry of the group, or -1 if there isn't one yet
+   */
+  public int indexOf(final TKey key) {
+    final KeyLane keyLane = laneOf(key);
+    if (size == 0 || (keyLane != lane && lane != KeyLane.OBJECT)) {
+      // a key of another lane can't be equal to any key in the table
+      return -1;
+    }
+    final int hash = hash(key);
+    final int mask = table.length - 1;
+    for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+      final int entry = table[slot] - 1;
+      if (entry < 0) {
+        return -1;
+      }
+      if (hashes[entry] == hash && keyEquals(entry, key)) {
+        return entry;
+      }
+    }
+  }
+
+  /**
+   * Adds a group that isn't in the table yet.
+   *
+   * @param key         group key, must not be in the table already
+   * @param accumulator accumulator of the group
+   * @return position of the entry of the group
+   * @throws IllegalStateException if the table already holds the maximum number
+   *                               of groups
+   */
+  public int add(final TKey key, final TAccumulate accumulator) {
+    if (size == maxGroups) {
+      throw new IllegalStateException("Cannot aggregate more than " + maxGroups
+          + " groups in memory, set a positive spillMemoryBudgetBytes to spill them to disk");
+    }
+    final KeyLane keyLane = laneOf(key);
+    if (lane == KeyLane.EMPTY) {
+      lane = keyLane;
+      if (lane == KeyLane.OBJECT) {
+        keys = new Object[accumulators.length];
+        primitiveKeys = null;
+      }
+    } else if (lane != keyLane && lane != KeyLane.OBJECT) {
+      moveToObjectLane();
+    }
+    if (size == accumulators.length) {
+      growEntries();
+    }
+    if ((size + 1) * 2L > table.length && table.length < MAX_TABLE_CAPACITY) {
+      growTable();
+    }
+
+    final int entry = size++;
+    final int hash = hash(key);
+    hashes[entry] = hash;
+    accumulators[entry] = accumulator;
+    if (lane == KeyLane.OBJECT) {
+      keys[entry] = key;
+    } else {
+      primitiveKeys[entry] = toLong(key);
+    }
+    insert(entry, hash);
+    return entry;
+  }
+
+  /**
+   * @param entry position of the entry of a group
+   * @return the accumulator of the group
+   */
+  @SuppressWarnings("unchecked")
+  public TAccumulate getAccumulator(final int entry) {
+    return (TAccumulate) accumulators[entry];
+  }
+
+  /**
+   * @param entry       position of the entry of a group
+   * @param accumulator new accumulator of the group
+   */
+  public void setAccumulator(final int entry, final TAccumulate accumulator) {
+    accumulators[entry] = accumulator;
+  }
+
+  /**
+   * @param entry position of the entry of a group
+   * @return the key of the group, boxed again if it is kept in the primitive lane
+   */
+  @SuppressWarnings("unchecked")
+  public TKey getKey(final int entry) {
+    switch (lane) {
+    case LONG:
+      return (TKey) Long.valueOf(primitiveKeys[entry]);
+    case INT:
+      return (TKey) Integer.valueOf((int) primitiveKeys[entry]);
+    case DOUBLE:
+      return (TKey) Double.valueOf(Double.longBitsToDouble(primitiveKeys[entry]));
+    default:
+      return (TKey) keys[entry];
+    }
+  }
+
+  /**
+   * @param resultSelector creates the result of a group from its key and
+   *                       accumulator
+   * @param <TResult>      type of the results
+   * @return the result of every group in the order the groups were added
+   */
+  public <TResult> Enumerable<TResult> results(final Function2<TKey, TAccumulate, TResult> resultSelector) {
+    return new AbstractEnumerable2<TResult>() {
+      @Override
+      public Iterator<TResult> iterator() {
+        return new Iterator<TResult>() {
+          private int entry = 0;
+
+          @Override
+          public boolean hasNext() {
+            return entry < size;
+          }
+
+          @Override
+          public TResult next() {
+            if (entry >= size) {
+              throw new NoSuchElementException();
+            }
+            final TResult result = resultSelector.apply(getKey(entry), getAccumulator(entry));
+            entry++;
+            return result;
+          }
+        };
+      }
+    };
+  }
+
+  private static KeyLane laneOf(final Object key) {
+    if (key == null) {
+      return KeyLane.OBJECT;
+    }
+    final Class<?> keyClass = key.getClass();
+    if (keyClass == Long.class) {
+      return KeyLane.LONG;
+    } else if (keyClass == Integer.class) {
+      return KeyLane.INT;
+    } else if (keyClass == Double.class) {
+      return KeyLane.DOUBLE;
+    }
+    return KeyLane.OBJECT;
+  }
+
+  private static long toLong(final Object key) {
+    if (key instanceof Double) {
+      // the same bits Double.equals() compares
+      return Double.doubleToLongBits((Double) key);
+    }
+    return ((Number) key).longValue();
+  }
+
+  private static int hash(final Object key) {
+    // spread the bits of hashCode() since the table is indexed with a mask and
+    // the hash codes of sequential ids only differ in their lowest bits
+    final int h = Objects.hashCode(key) * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private boolean keyEquals(final int entry, final Object key) {
+    if (lane == KeyLane.OBJECT) {
+      return Objects.equals(keys[entry], key);
+    }
+    return primitiveKeys[entry] == toLong(key);
+  }
+
+  private void insert(final int entry, final int hash) {
+    final int mask = table.length - 1;
+    int slot = hash & mask;
+    while (table[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = entry + 1;
+  }
+
+  private void moveToObjectLane() {
+    keys = new Object[accumulators.length];
+    for (int entry = 0; entry < size; entry++) {
+      keys[entry] = getKey(entry);
+    }
+    primitiveKeys = null;
+    lane = KeyLane.OBJECT;
+  }
+
+  private void growEntries() {
+    final int capacity = (int) Math.min(maxGroups, accumulators.length + (long) (accumulators.length >> 1));
+    hashes = Arrays.copyOf(hashes, capacity);
+    accumulators = Arrays.copyOf(accumulators, capacity);
+    if (lane == KeyLane.OBJECT) {
+      keys = Arrays.copyOf(keys, capacity);
+    } else {
+      primitiveKeys = Arrays.copyOf(primitiveKeys, capacity);
+    }
+  }
+
+  private void growTable() {
+    table = new int[table.length * 2];
+    for (int entry = 0; entry < size; entry++) {
+      insert(entry, hashes[entry]);
+    }
+  }
+}
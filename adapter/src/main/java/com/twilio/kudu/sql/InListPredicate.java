@@ -43,6 +43,10 @@ public final class InListPredicate extends CalciteKuduPredicate {
     return columnIdx;
   }
 
+  public List<Object> getValues() {
+    return values;
+  }
+
   @Override
   public String explainPredicate(final ColumnSchema schema) {
     return String.format("%s IN %s", schema.getName(), values);
@@ -50,6 +54,10 @@ public final class InListPredicate extends CalciteKuduPredicate {
 
   @Override
   public KuduPredicate toPredicate(final ColumnSchema columnSchema, final boolean invertValue) {
+    // an empty list matches no rows
+    if (this.values.isEmpty()) {
+      return KuduPredicate.newInListPredicate(columnSchema, this.values);
+    }
     switch (columnSchema.getType()) {
     case STRING:
       final List<String> stringValues = this.values.stream().map(o -> o.toString()).collect(Collectors.toList());
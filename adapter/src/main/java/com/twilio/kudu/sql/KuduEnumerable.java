@@ -18,20 +18,24 @@ import com.twilio.kudu.sql.rel.KuduProjectRel;
 import com.twilio.kudu.sql.rules.KuduPredicatePushDownVisitor;
 
 import org.apache.calcite.linq4j.Enumerable;
-import org.apache.calcite.linq4j.EnumerableDefaults;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.primitives.UnsignedBytes;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.kudu.client.KuduScanner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.PriorityQueue;
-import java.util.Queue;
+import java.util.Objects;
+import java.util.TreeMap;
 
 import org.apache.calcite.linq4j.Enumerator;
 import org.apache.calcite.linq4j.Linq4j;
@@ -46,19 +50,26 @@ import org.apache.calcite.sql.SqlKind;
 import java.util.stream.Collectors;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.calcite.linq4j.AbstractEnumerable;
-import org.apache.calcite.linq4j.AbstractEnumerable2;
 
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.kudu.client.AsyncKuduClient;
 import org.apache.kudu.client.AsyncKuduScanner;
+import org.apache.kudu.client.Client;
 import org.apache.kudu.client.KuduScanToken;
+import org.apache.kudu.client.Partition;
+import org.apache.kudu.Common;
 import org.apache.kudu.Schema;
 
 // This class resides in this project under the org.apache namespace
@@ -76,6 +87,33 @@ import org.apache.kudu.Schema;
 public final class KuduEnumerable extends AbstractEnumerable<Object> implements CloneableEnumerable<Object> {
   private static final Logger logger = LoggerFactory.getLogger(KuduEnumerable.class);
 
+  // KuduScanToken can only be turned into a synchronous KuduScanner, the async
+  // scanner it wraps is pulled out of its private field. Kudu doesn't expose the
+  // partition key bounds needed to build the async scanner of a token directly.
+  // The getter is resolved once into a constant MethodHandle, which the JIT
+  // inlines into a plain field read, instead of a reflective Field.get for every
+  // token.
+  private static final MethodHandle ASYNC_SCANNER_GETTER;
+  static {
+    try {
+      final Field asyncScannerField = KuduScanner.class.getDeclaredField("asyncScanner");
+      asyncScannerField.setAccessible(true);
+      ASYNC_SCANNER_GETTER = MethodHandles.lookup().unreflectGetter(asyncScannerField);
+    } catch (NoSuchFieldException | IllegalAccessException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  // Builds the scan tokens of the OR'd sub scans of a query concurrently. Token
+  // building blocks on the master so it doesn't run on the common pool.
+  private static final ExecutorService SCAN_PLANNING_EXECUTOR = Executors.newFixedThreadPool(
+      Math.max(4, Runtime.getRuntime().availableProcessors()),
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("kudu-scan-planning-%d").build());
+
+  // hash buckets scanned at the same time by a partition wise aggregation, the
+  // next bucket is scanned while the groups of the previous one are handed out
+  static final int MAX_HASH_BUCKETS_IN_FLIGHT = 2;
+
   private final AtomicBoolean scansShouldStop;
   private final AtomicBoolean cancelFlag;
 
@@ -96,6 +134,8 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> implements
   private final Function1<Object, Object> projection;
   private final boolean isSingleObject;
   private final Predicate1<Object> filterFunction;
+  private final int prefetchDepth;
+  private final String resultCacheKey;
 
   /**
    * A KuduEnumerable is an {@link Enumerable} for Kudu that can be configured to
@@ -132,12 +172,19 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> implements
    *                                groupBySorted is true)
    * @param sortPkColumns           the indexes of the primary key columns that
    *                                are present in the ORDER BY clause
+   * @param prefetchDepth           number of batches each scanner keeps buffered
+   *                                or in flight, zero or less uses the table
+   *                                default
+   * @param resultCacheKey          describes the projection and filter of the
+   *                                query for the {@link QueryResultCache}, null
+   *                                if the rows of the query can't be cached
    */
   public KuduEnumerable(final List<List<CalciteKuduPredicate>> predicates, final List<Integer> columnIndices,
       final AsyncKuduClient client, final CalciteKuduTable calciteKuduTable, final long limit, final long offset,
       final boolean sort, final boolean groupBySorted, final KuduScanStats scanStats, final AtomicBoolean cancelFlag,
       final Function1<Object, Object> projection, final Predicate1<Object> filterFunction, final boolean isSingleObject,
-      final Function1<Object, Object> sortedPrefixKeySelector, final List<Integer> sortPkColumns) {
+      final Function1<Object, Object> sortedPrefixKeySelector, final List<Integer> sortPkColumns,
+      final int prefetchDepth, final String resultCacheKey) {
     this.scansShouldStop = new AtomicBoolean(false);
     this.cancelFlag = cancelFlag;
     this.limit = limit;
@@ -160,6 +207,8 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> implements
     this.calciteKuduTable = calciteKuduTable;
     this.filterFunction = filterFunction;
     this.isSingleObject = isSingleObject;
+    this.prefetchDepth = prefetchDepth > 0 ? prefetchDepth : calciteKuduTable.scannerPrefetchDepth;
+    this.resultCacheKey = resultCacheKey;
 
     // groupFetchLimit calculates it's size based on offset.
     // When offset is present, it needs to
@@ -175,7 +224,15 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> implements
 
   @VisibleForTesting
   List<AsyncKuduScanner> getScanners() {
-    return createScanners();
+    return createScanners(currentSnapshotTimestampMicros(), false, false, false, null);
+  }
+
+  /**
+   * @return snapshot to read, set from CalciteKuduTable or else default to
+   *         0ms/current time
+   */
+  private long currentSnapshotTimestampMicros() {
+    return (System.currentTimeMillis() * 1000) - (calciteKuduTable.readSnapshotTimeDifference * 1000);
   }
 
   private boolean checkLimitReached(int totalMoves) {
@@ -191,10 +248,14 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> implements
   }
 
   public Enumerator<Object> unsortedEnumerator(final List<AsyncKuduScanner> scanners,
-      final BlockingQueue<CalciteScannerMessage<CalciteRow>> messages) {
+      final BlockingQueue<CalciteScannerMessage<CalciteRow>> messages, final ScanMemoryBudget memoryBudget) {
     return new Enumerator<Object>() {
       private int finishedScanners = 0;
       private Object next = null;
+      // rows from the ROW_BATCH message that is currently being iterated over
+      private List<CalciteRow> batch = Collections.emptyList();
+      private int batchIndex = 0;
+      private ScannerCallback batchCallback = null;
       private boolean finished = false;
       private int totalMoves = 0;
       private boolean movedToOffset = false;
@@ -215,54 +276,65 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> implements
         if (!movedToOffset) {
           moveToOffset();
         }
-        CalciteScannerMessage<CalciteRow> fetched;
-        do {
+        while (batchIndex >= batch.size()) {
+          // Current batch is exhausted, ask the scanner for the next one before
+          // waiting on the queue.
+          if (batchCallback != null) {
+            batchCallback.nextBatch();
+            batchCallback = null;
+          }
+          // Every scanner ends with a CLOSE or ERROR message so this wakes up as
+          // soon as a callback hands over a batch and can't wait forever.
+          CalciteScannerMessage<CalciteRow> fetched;
           try {
-            fetched = messages.poll(350, TimeUnit.MILLISECONDS);
+            fetched = messages.take();
           } catch (InterruptedException interrupted) {
             fetched = CalciteScannerMessage.createEndMessage();
             Thread.currentThread().interrupt();
           }
-          if (fetched != null) {
-            if (fetched.type == CalciteScannerMessage.MessageType.ERROR) {
-              final Optional<Exception> failureReason = fetched.failure;
-              if (failureReason.isPresent()) {
-                throw new RuntimeException("A scanner failed, failing whole query", failureReason.get());
-              } else {
-                throw new RuntimeException("A scanner failed, failed for unreported reason. Failing query");
-              }
+          switch (fetched.type) {
+          case ERROR:
+            final Optional<Exception> failureReason = fetched.failure;
+            if (failureReason.isPresent()) {
+              throw new RuntimeException("A scanner failed, failing whole query", failureReason.get());
+            } else {
+              throw new RuntimeException("A scanner failed, failed for unreported reason. Failing query");
             }
-            if (fetched.type == CalciteScannerMessage.MessageType.CLOSE) {
-              if (++finishedScanners >= scanners.size()) {
-                finished = true;
-                return false;
-              }
+          case CLOSE:
+            if (++finishedScanners >= scanners.size()) {
+              finished = true;
+              return false;
+            }
+            break;
+          case ROW:
+            final Optional<CalciteRow> rowData = fetched.row;
+            if (rowData.isPresent()) {
+              batch = Collections.singletonList(rowData.get());
+              batchIndex = 0;
+            } else {
+              logger.error("Polled a {} message and expected a CalciteRow. The message doesn't contain a row: {} ",
+                  fetched.type, fetched);
+              return false;
             }
-            if (fetched.type == CalciteScannerMessage.MessageType.BATCH_COMPLETED) {
-              final Optional<ScannerCallback> callback = fetched.callback;
-              if (callback.isPresent()) {
-                callback.get().nextBatch();
-              } else {
-                logger.error(
-                    "Scanner sent a BATCH_COMPLETED message but didn't provide a reference to it. This shouldn't happen");
-                return false;
-              }
+            break;
+          case ROW_BATCH:
+            final Optional<List<CalciteRow>> rows = fetched.rows;
+            if (rows.isPresent()) {
+              batch = rows.get();
+              batchIndex = 0;
+              batchCallback = fetched.callback.orElse(null);
+            } else {
+              logger.error("Polled a {} message and expected rows. The message doesn't contain rows: {} ", fetched.type,
+                  fetched);
+              return false;
             }
           }
-
-        } while (fetched == null || fetched.type != CalciteScannerMessage.MessageType.ROW);
+        }
         // Indicates this is the first move.
         if (next == null) {
           scanStats.setTimeToFirstRowMs();
         }
-        final Optional<CalciteRow> rowData = fetched.row;
-        if (rowData.isPresent()) {
-          next = rowData.get().getRowData();
-        } else {
-          logger.error("Polled a {} message and expected a CalciteRow. The message doesn't contain a row: {} ",
-              fetched.type, fetched);
-          return false;
-        }
+        next = batch.get(batchIndex++).getRowData();
         totalMoves++;
         boolean limitReached = checkLimitReached(totalMoves);
         if (limitReached) {
@@ -284,6 +356,14 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> implements
       @Override
       public void close() {
         scansShouldStop.set(true);
+        // callbacks waiting for their batches to be drained or for room in the
+        // budget close their scanners once they are released
+        if (batchCallback != null) {
+          batchCallback.nextBatch();
+          batchCallback = null;
+        }
+        ScannerCallback.releaseUnreadBatches(messages);
+        memoryBudget.close();
         scanStats.setTotalTimeMs();
         List<ScannerMetrics> scannerMetricsList = scanners.stream().map(scanner -> new ScannerMetrics(scanner))
             .collect(Collectors.toList());
@@ -293,25 +373,14 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> implements
   }
 
   public Enumerator<Object> sortedEnumerator(final List<AsyncKuduScanner> scanners,
-      final List<Enumerator<CalciteRow>> subEnumerables) {
-
-    class EnumerableComparator implements Comparator<Enumerator<CalciteRow>> {
-      @Override
-      public int compare(Enumerator<CalciteRow> o1, Enumerator<CalciteRow> o2) {
-        // assumes that moveNext has been called on the enumerators and that they havent
-        // reached
-        // the end of their respective collections
-        return o1.current().compareTo(o2.current());
-      }
-    }
+      final List<Enumerator<CalciteRow>> subEnumerables, final Comparator<CalciteRow> rowComparator,
+      final ScanMemoryBudget memoryBudget) {
 
     return new Enumerator<Object>() {
       private Object next = null;
-      // use a min heap to keep track of the smallest record from each of the
-      // subEnumerables
-      // (which returned rows sorted)
-      private PriorityQueue<Enumerator<CalciteRow>> minQueue = new PriorityQueue<>(subEnumerables.size(),
-          new EnumerableComparator());
+      // use a loser tree to keep track of the smallest record from each of the
+      // subEnumerables (which returned rows sorted)
+      private LoserTree<CalciteRow> mergeTree = null;
       private int totalMoves = 0;
 
       private void moveToOffset() {
@@ -330,29 +399,19 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> implements
           return false;
         }
 
-        if (minQueue.isEmpty()) {
-          for (int idx = 0; idx < subEnumerables.size(); idx++) {
-            if (subEnumerables.get(idx).moveNext()) {
-              minQueue.add(subEnumerables.get(idx));
-            }
-          }
-          moveToOffset();
+        if (mergeTree == null) {
+          mergeTree = new LoserTree<>(subEnumerables, rowComparator);
           logger.trace("Setup enumerables for {} scanners", subEnumerables.size());
+          moveToOffset();
         }
-        if (minQueue.isEmpty()) {
+        if (!mergeTree.moveNext()) {
           return false;
         }
-        Enumerator<CalciteRow> smallestEnumerator = minQueue.poll();
         // Indicates this is the first move.
         if (next == null) {
           scanStats.setTimeToFirstRowMs();
         }
-        next = smallestEnumerator.current().getRowData();
-
-        // Move the chosen one forward.
-        if (smallestEnumerator.moveNext()) {
-          minQueue.add(smallestEnumerator);
-        }
+        next = mergeTree.current().getRowData();
         totalMoves++;
         boolean limitReached = checkLimitReached(totalMoves);
 
@@ -375,6 +434,7 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> implements
       @Override
       public void close() {
         subEnumerables.stream().forEach(enumerable -> enumerable.close());
+        memoryBudget.close();
         scanStats.setTotalTimeMs();
         List<ScannerMetrics> scannerMetricsList = scanners.stream().map(scanner -> new ScannerMetrics(scanner))
             .collect(Collectors.toList());
@@ -389,7 +449,44 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> implements
 
   @Override
   public Enumerator<Object> enumerator() {
-    final List<AsyncKuduScanner> scanners = createScanners();
+    scanStats.setScanStartTime();
+    final QueryResultCache resultCache = calciteKuduTable.resultCache;
+    if (resultCacheKey == null || !resultCache.isEnabled()) {
+      return scanEnumerator(currentSnapshotTimestampMicros(), false);
+    }
+    // Read the snapshot at the start of the bucket so every execution within the
+    // bucket returns the same rows.
+    final long snapshotTimestampMicros = resultCache.bucketSnapshot(currentSnapshotTimestampMicros());
+    final QueryResultCache.Key key = new QueryResultCache.Key(resultCacheKey,
+        calciteKuduTable.getKuduTable().getTableId(), predicates, columnIndices, limit, offset, sort, groupBySorted,
+        snapshotTimestampMicros);
+    final List<Object> cachedRows = resultCache.get(key);
+    if (cachedRows != null) {
+      scanStats.incrementResultCacheHitCount();
+      scanStats.setTimeToFirstRowMs();
+      scanStats.setTotalTimeMs();
+      return Linq4j.enumerator(cachedRows);
+    }
+    scanStats.incrementResultCacheMissCount();
+    return resultCache.recording(key, scanEnumerator(snapshotTimestampMicros, true), cancelFlag::get);
+  }
+
+  private Enumerator<Object> scanEnumerator(final long snapshotTimestampMicros, final boolean readAtSnapshot) {
+    // Rows that are read by their primary key don't need scan tokens. More than
+    // one key is only read this way if the rows don't have to be sorted.
+    if (!groupBySorted) {
+      final List<PointLookupExecutor.Key> keys = PointLookupExecutor.keys(calciteKuduTable, predicates,
+          sort ? 1 : PointLookupExecutor.MAX_KEYS);
+      if (keys != null) {
+        return pointLookupEnumerator(keys, snapshotTimestampMicros, readAtSnapshot);
+      }
+    }
+    // the rows of a sort led by the range partition column are read one range
+    // partition at a time
+    final Map<AsyncKuduScanner, Partition> tabletPartitions = isSortedByRangePartition() ? new ConcurrentHashMap<>()
+        : null;
+    final List<AsyncKuduScanner> scanners = createScanners(snapshotTimestampMicros, readAtSnapshot, false,
+        tabletPartitions != null, tabletPartitions);
 
     if (scanners.isEmpty()) {
       // if there are predicates but they result in an empty scan list that means this
@@ -398,107 +495,467 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> implements
       return Linq4j.emptyEnumerator();
     }
 
+    final ScanMemoryBudget memoryBudget = new ScanMemoryBudget(calciteKuduTable.scanMemoryBudgetBytes, scanStats);
     if (sort) {
-      final List<ScannerCallback> callbacks = scanners.stream().map(scanner -> {
-        final BlockingQueue<CalciteScannerMessage<CalciteRow>> rowResults = new LinkedBlockingQueue<>();
-        return new ScannerCallback(calciteKuduTable, scanner, rowResults, scansShouldStop, cancelFlag,
-            scanner.getProjectionSchema(), scanStats, true, projection, filterFunction, isSingleObject, sortPkColumns);
-      }).collect(Collectors.toList());
-      callbacks.stream().forEach(callback -> callback.nextBatch());
-
-      return sortedEnumerator(scanners, callbacks.stream().map(callback -> {
-        return new CalciteKuduEnumerable(callback.rowResults, scansShouldStop);
-      }).map(enumerable -> enumerable.enumerator()).collect(Collectors.toList()));
+      // The comparator is compiled once from the projection, all the scanners
+      // share it.
+      final Schema projectedSchema = scanners.get(0).getProjectionSchema();
+      final CalciteRowComparator rowComparator = CalciteRowComparator.create(projectedSchema, sortPkColumns,
+          calciteKuduTable.getDescendingColumnsIndicesInProjection(projectedSchema));
+      final List<List<AsyncKuduScanner>> waves = tabletPartitions != null
+          ? rangePartitionWaves(scanners, tabletPartitions)
+          : null;
+      if (waves != null && waves.size() > 1) {
+        final RangePartitionWaveEnumerator waveEnumerator = new RangePartitionWaveEnumerator(waves, memoryBudget,
+            rowComparator);
+        return sortedEnumerator(waveEnumerator.startedScanners, Collections.singletonList(waveEnumerator),
+            rowComparator, memoryBudget);
+      }
+      return sortedEnumerator(scanners,
+          scanners.stream().map(scanner -> startSortedScanner(scanner, memoryBudget)).collect(Collectors.toList()),
+          rowComparator, memoryBudget);
     }
     final BlockingQueue<CalciteScannerMessage<CalciteRow>> messages = new LinkedBlockingQueue<>();
     scanners.stream().map(scanner -> {
       return new ScannerCallback(calciteKuduTable, scanner, messages, scansShouldStop, cancelFlag,
-          scanner.getProjectionSchema(), scanStats, false, projection, filterFunction, isSingleObject, sortPkColumns);
-    }).forEach(callback -> callback.nextBatch());
+          scanner.getProjectionSchema(), scanStats, false, projection, filterFunction, isSingleObject, sortPkColumns,
+          memoryBudget, prefetchDepth);
+    }).forEach(callback -> callback.start());
 
-    return unsortedEnumerator(scanners, messages);
+    return unsortedEnumerator(scanners, messages, memoryBudget);
   }
 
-  // Copied from Calcite as that class is private
   /**
-   * Reads a populated map, applying a selector function.
+   * Starts a scanner that returns the rows of its tablet in primary key order.
    *
-   * @param <TResult>     result type
-   * @param <TKey>        key type
-   * @param <TAccumulate> accumulator type
+   * @return the rows of the scanner
    */
-  private static class LookupResultEnumerable<TResult, TKey, TAccumulate> extends AbstractEnumerable2<TResult> {
-    private final Map<TKey, TAccumulate> map;
-    private final Function2<TKey, TAccumulate, TResult> resultSelector;
+  private Enumerator<CalciteRow> startSortedScanner(final AsyncKuduScanner scanner,
+      final ScanMemoryBudget memoryBudget) {
+    final BlockingQueue<CalciteScannerMessage<CalciteRow>> rowResults = new LinkedBlockingQueue<>();
+    new ScannerCallback(calciteKuduTable, scanner, rowResults, scansShouldStop, cancelFlag,
+        scanner.getProjectionSchema(), scanStats, true, projection, filterFunction, isSingleObject, sortPkColumns,
+        memoryBudget, prefetchDepth).start();
+    return new CalciteKuduEnumerable(rowResults, scansShouldStop).enumerator();
+  }
 
-    LookupResultEnumerable(Map<TKey, TAccumulate> map, Function2<TKey, TAccumulate, TResult> resultSelector) {
-      this.map = map;
-      this.resultSelector = resultSelector;
+  /**
+   * @return true if the rows are sorted by the range partition column first and
+   *         limited, so the rows of a range partition all come before the rows of
+   *         the next one and most queries only need the first few partitions
+   */
+  private boolean isSortedByRangePartition() {
+    if (!sort || groupBySorted || limit <= 0 || sortPkColumns.isEmpty() || columnIndices.isEmpty()) {
+      return false;
+    }
+    final List<Integer> rangeColumnIds = calciteKuduTable.getKuduTable().getPartitionSchema().getRangeSchema()
+        .getColumnIds();
+    return rangeColumnIds.size() == 1
+        && getTableSchema().getColumnIndex(rangeColumnIds.get(0)) == columnIndices.get(sortPkColumns.get(0));
+  }
+
+  /**
+   * Groups the scanners by the range partition of their tablet. Kudu returns rows
+   * in the order the primary key is stored, which is the order of the range keys,
+   * so the groups are ordered by the start of their range.
+   *
+   * @return the scanners of each range partition in sort order, null if the
+   *         partition of a tablet isn't known
+   */
+  private static List<List<AsyncKuduScanner>> rangePartitionWaves(final List<AsyncKuduScanner> scanners,
+      final Map<AsyncKuduScanner, Partition> tabletPartitions) {
+    final Map<byte[], List<AsyncKuduScanner>> waves = new TreeMap<>(UnsignedBytes.lexicographicalComparator());
+    for (AsyncKuduScanner scanner : scanners) {
+      final Partition partition = tabletPartitions.get(scanner);
+      if (partition == null) {
+        return null;
+      }
+      waves.computeIfAbsent(partition.getRangeKeyStart(), k -> new ArrayList<>()).add(scanner);
+    }
+    return new ArrayList<>(waves.values());
+  }
+
+  /**
+   * Merges the sorted rows of one range partition at a time. The scanners of the
+   * next partition are only started once the rows of the previous ones have been
+   * returned and fewer than {@code offset + limit} rows were found, so a query
+   * for the latest rows of a table with many time partitions only opens the
+   * scanners of the newest ones.
+   */
+  private final class RangePartitionWaveEnumerator implements Enumerator<CalciteRow> {
+    private final List<List<AsyncKuduScanner>> waves;
+    private final ScanMemoryBudget memoryBudget;
+    private final Comparator<CalciteRow> rowComparator;
+    private final long rowsNeeded;
+    // scanners of the waves that were started, for the scan metrics
+    final List<AsyncKuduScanner> startedScanners = new ArrayList<>();
+    private final List<Enumerator<CalciteRow>> startedSources = new ArrayList<>();
+    private LoserTree<CalciteRow> wave = null;
+    private int nextWave = 0;
+    private long rowCount = 0L;
+
+    RangePartitionWaveEnumerator(final List<List<AsyncKuduScanner>> waves, final ScanMemoryBudget memoryBudget,
+        final Comparator<CalciteRow> rowComparator) {
+      this.waves = waves;
+      this.memoryBudget = memoryBudget;
+      this.rowComparator = rowComparator;
+      this.rowsNeeded = offset > 0 ? offset + limit : limit;
     }
 
     @Override
-    public Iterator<TResult> iterator() {
-      final Iterator<Map.Entry<TKey, TAccumulate>> iterator = map.entrySet().iterator();
-      return new Iterator<TResult>() {
-        @Override
-        public boolean hasNext() {
-          return iterator.hasNext();
+    public boolean moveNext() {
+      while (wave == null || !wave.moveNext()) {
+        if (nextWave >= waves.size() || rowCount >= rowsNeeded || scansShouldStop.get()) {
+          return false;
+        }
+        final List<AsyncKuduScanner> scanners = waves.get(nextWave++);
+        final List<Enumerator<CalciteRow>> sources = new ArrayList<>(scanners.size());
+        for (AsyncKuduScanner scanner : scanners) {
+          sources.add(startSortedScanner(scanner, memoryBudget));
+        }
+        startedScanners.addAll(scanners);
+        startedSources.addAll(sources);
+        wave = new LoserTree<>(sources, rowComparator);
+      }
+      rowCount++;
+      return true;
+    }
+
+    @Override
+    public CalciteRow current() {
+      return wave.current();
+    }
+
+    @Override
+    public void reset() {
+      throw new RuntimeException("Cannot reset a RangePartitionWaveEnumerator");
+    }
+
+    @Override
+    public void close() {
+      startedSources.forEach(Enumerator::close);
+    }
+  }
+
+  private Enumerator<Object> pointLookupEnumerator(final List<PointLookupExecutor.Key> keys,
+      final long snapshotTimestampMicros, final boolean readAtSnapshot) {
+    if (cancelFlag != null && cancelFlag.get()) {
+      return Linq4j.emptyEnumerator();
+    }
+    scanStats.incrementPointLookupCount();
+    final List<Object> rows = calciteKuduTable.pointLookups.lookup(calciteKuduTable, keys, columnIndices,
+        snapshotTimestampMicros, readAtSnapshot, projection, filterFunction, isSingleObject, scanStats);
+    if (!rows.isEmpty()) {
+      scanStats.setTimeToFirstRowMs();
+    }
+    scanStats.setTotalTimeMs();
+    final int fromIndex = (int) Math.min(rows.size(), Math.max(offset, 0L));
+    final int toIndex = limit > 0 ? (int) Math.min(rows.size(), fromIndex + limit) : rows.size();
+    return Linq4j.enumerator(rows.subList(fromIndex, toIndex));
+  }
+
+  /**
+   * Counts the rows that match the predicates. The scanners don't read any
+   * column, each batch only carries its number of rows, and all of them run
+   * concurrently.
+   *
+   * @return number of rows
+   */
+  public long countRows() {
+    scanStats.setScanStartTime();
+    final List<AsyncKuduScanner> scanners = createScanners(currentSnapshotTimestampMicros(), false, true, true, null);
+    final AtomicLong rowCount = new AtomicLong();
+    final BlockingQueue<CalciteScannerMessage<CalciteRow>> messages = new LinkedBlockingQueue<>();
+    final ScanMemoryBudget memoryBudget = new ScanMemoryBudget(calciteKuduTable.scanMemoryBudgetBytes, scanStats);
+    scanners.stream().map(scanner -> new ScannerCallback(calciteKuduTable, scanner, messages, scansShouldStop,
+        cancelFlag, scanStats, memoryBudget, rowCount)).forEach(callback -> callback.start());
+    awaitScanners(scanners, messages);
+    return rowCount.get();
+  }
+
+  /**
+   * Aggregates the rows that match the predicates. Each scanner aggregates the
+   * rows of its tablet on the thread that receives its batches, the groups of all
+   * the scanners are merged once they are done.
+   *
+   * @param aggregation          aggregation of the projected rows
+   * @param isSingleObjectResult whether a result row is a single value instead of
+   *                             an Object[]
+   * @return Enumerator of a row for each group
+   */
+  public Enumerator<Object> aggregateRows(final ScanAggregation aggregation, final boolean isSingleObjectResult) {
+    scanStats.setScanStartTime();
+    final List<AsyncKuduScanner> scanners = createScanners(currentSnapshotTimestampMicros(), false, false, true, null);
+    final BlockingQueue<CalciteScannerMessage<CalciteRow>> messages = new LinkedBlockingQueue<>();
+    final ScanMemoryBudget memoryBudget = new ScanMemoryBudget(calciteKuduTable.scanMemoryBudgetBytes, scanStats);
+    final ScanAggregation.GroupBudget groupBudget = newGroupBudget();
+    final List<ScanAggregation.Partial> partials = new ArrayList<>(scanners.size());
+    for (AsyncKuduScanner scanner : scanners) {
+      final ScanAggregation.Partial partial = aggregation.newPartial(groupBudget);
+      partials.add(partial);
+      new ScannerCallback(calciteKuduTable, scanner, messages, scansShouldStop, cancelFlag, scanStats, memoryBudget,
+          projection, filterFunction, isSingleObject, partial).start();
+    }
+    try {
+      awaitScanners(scanners, messages);
+    } catch (RuntimeException e) {
+      partials.forEach(ScanAggregation.Partial::discard);
+      throw e;
+    }
+    return aggregation.merge(partials, isSingleObjectResult);
+  }
+
+  /**
+   * @return the budget of the groups the scanners of an aggregation keep in
+   *         memory before spilling them, null if they never spill
+   */
+  private ScanAggregation.GroupBudget newGroupBudget() {
+    return calciteKuduTable.spillMemoryBudgetBytes > 0
+        ? new ScanAggregation.GroupBudget(calciteKuduTable.spillMemoryBudgetBytes, scanStats)
+        : null;
+  }
+
+  /**
+   * Returns the first rows that match the predicates in the order of a sort. Each
+   * scanner keeps the best rows of its tablet on the thread that receives its
+   * batches, only those rows are sorted once all the scanners are done.
+   *
+   * @param topN                 sort and limit of the projected rows
+   * @param isSingleObjectResult whether a result row is a single value instead of
+   *                             an Object[]
+   * @return the rows in sorted order
+   */
+  public List<Object> topNRows(final ScanTopN topN, final boolean isSingleObjectResult) {
+    scanStats.setScanStartTime();
+    final List<AsyncKuduScanner> scanners = createScanners(currentSnapshotTimestampMicros(), false, false, true, null);
+    final BlockingQueue<CalciteScannerMessage<CalciteRow>> messages = new LinkedBlockingQueue<>();
+    final ScanMemoryBudget memoryBudget = new ScanMemoryBudget(calciteKuduTable.scanMemoryBudgetBytes, scanStats);
+    final List<ScanTopN.Partial> partials = new ArrayList<>(scanners.size());
+    for (AsyncKuduScanner scanner : scanners) {
+      final ScanTopN.Partial partial = topN.newPartial();
+      partials.add(partial);
+      new ScannerCallback(calciteKuduTable, scanner, messages, scansShouldStop, cancelFlag, scanStats, memoryBudget,
+          projection, filterFunction, isSingleObject, partial).start();
+    }
+    awaitScanners(scanners, messages);
+    return topN.merge(partials, isSingleObjectResult);
+  }
+
+  /**
+   * Aggregates the rows that match the predicates when the group keys include
+   * every hash partition column, so a group never spans two hash buckets. The
+   * partial aggregations of the tablets of a bucket are merged and handed out as
+   * soon as all of them are done, there is no hash table of all the groups. At
+   * most {@link #MAX_HASH_BUCKETS_IN_FLIGHT} buckets are scanned at a time, the
+   * scanners of the next bucket start once the groups of a bucket are handed out
+   * so only the partials of the buckets in flight are held in memory.
+   *
+   * @param aggregation          aggregation of the projected rows
+   * @param isSingleObjectResult whether a result row is a single value instead of
+   *                             an Object[]
+   * @return Enumerator of a row for each group
+   */
+  public Enumerator<Object> partitionAggregationEnumerator(final ScanAggregation aggregation,
+      final boolean isSingleObjectResult) {
+    scanStats.setScanStartTime();
+    final Map<AsyncKuduScanner, Partition> tabletPartitions = new ConcurrentHashMap<>();
+    final List<AsyncKuduScanner> scanners = createScanners(currentSnapshotTimestampMicros(), false, false, true,
+        tabletPartitions);
+    final BlockingQueue<CalciteScannerMessage<CalciteRow>> messages = new LinkedBlockingQueue<>();
+    final ScanMemoryBudget memoryBudget = new ScanMemoryBudget(calciteKuduTable.scanMemoryBudgetBytes, scanStats);
+    final ScanAggregation.GroupBudget groupBudget = newGroupBudget();
+    // scanners of the tablets of each hash bucket
+    final Map<List<Integer>, List<AsyncKuduScanner>> bucketScanners = new LinkedHashMap<>();
+    for (AsyncKuduScanner scanner : scanners) {
+      final Partition partition = tabletPartitions.get(scanner);
+      bucketScanners.computeIfAbsent(partition == null ? Collections.emptyList() : partition.getHashBuckets(),
+          k -> new ArrayList<>()).add(scanner);
+    }
+
+    return new Enumerator<Object>() {
+      private final Iterator<List<AsyncKuduScanner>> pendingBuckets = bucketScanners.values().iterator();
+      // partial aggregations of the tablets of each bucket in flight
+      private final List<List<ScanAggregation.Partial>> buckets = new ArrayList<>();
+      private final List<AsyncKuduScanner> startedScanners = new ArrayList<>();
+      private int finishedScanners = 0;
+      private Enumerator<Object> rows = Linq4j.emptyEnumerator();
+      private Object next = null;
+
+      {
+        while (buckets.size() < MAX_HASH_BUCKETS_IN_FLIGHT && pendingBuckets.hasNext()) {
+          startBucket(pendingBuckets.next());
+        }
+      }
+
+      private void startBucket(final List<AsyncKuduScanner> tabletScanners) {
+        final List<ScanAggregation.Partial> partials = new ArrayList<>(tabletScanners.size());
+        for (AsyncKuduScanner scanner : tabletScanners) {
+          final ScanAggregation.Partial partial = aggregation.newPartial();
+          partials.add(partial);
+          new ScannerCallback(calciteKuduTable, scanner, messages, scansShouldStop, cancelFlag, scanStats, memoryBudget,
+              projection, filterFunction, isSingleObject, partial).start();
+        }
+        startedScanners.addAll(tabletScanners);
+        buckets.add(partials);
+      }
+
+      @Override
+      public boolean moveNext() {
+        while (!rows.moveNext()) {
+          final List<ScanAggregation.Partial> completeBucket = removeCompleteBucket();
+          if (completeBucket != null) {
+            if (pendingBuckets.hasNext() && !scansShouldStop.get()) {
+              startBucket(pendingBuckets.next());
+            }
+            rows.close();
+            rows = aggregation.merge(completeBucket, isSingleObjectResult);
+            continue;
+          }
+          if (buckets.isEmpty()) {
+            return false;
+          }
+          if (finishedScanners >= startedScanners.size()) {
+            throw new RuntimeException("A scanner stopped before reading its whole tablet, failing query");
+          }
+          final CalciteScannerMessage<CalciteRow> fetched;
+          try {
+            fetched = messages.take();
+          } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the scanners", interrupted);
+          }
+          if (fetched.type == CalciteScannerMessage.MessageType.ERROR) {
+            if (fetched.failure.isPresent()) {
+              throw new RuntimeException("A scanner failed, failing whole query", fetched.failure.get());
+            }
+            throw new RuntimeException("A scanner failed, failed for unreported reason. Failing query");
+          }
+          if (fetched.type == CalciteScannerMessage.MessageType.CLOSE) {
+            finishedScanners++;
+          }
         }
+        // Indicates this is the first move.
+        if (next == null) {
+          scanStats.setTimeToFirstRowMs();
+        }
+        next = rows.current();
+        return true;
+      }
 
-        @Override
-        public TResult next() {
-          final Map.Entry<TKey, TAccumulate> entry = iterator.next();
-          return resultSelector.apply(entry.getKey(), entry.getValue());
+      private List<ScanAggregation.Partial> removeCompleteBucket() {
+        final Iterator<List<ScanAggregation.Partial>> iterator = buckets.iterator();
+        while (iterator.hasNext()) {
+          final List<ScanAggregation.Partial> partials = iterator.next();
+          if (partials.stream().allMatch(ScanAggregation.Partial::isComplete)) {
+            iterator.remove();
+            return partials;
+          }
         }
+        return null;
+      }
+
+      @Override
+      public Object current() {
+        return next;
+      }
 
-        @Override
-        public void remove() {
-          throw new UnsupportedOperationException();
+      @Override
+      public void reset() {
+        throw new RuntimeException("Cannot reset a partition aggregation");
+      }
+
+      @Override
+      public void close() {
+        scansShouldStop.set(true);
+        rows.close();
+        buckets.forEach(partials -> partials.forEach(ScanAggregation.Partial::discard));
+        scanStats.setTotalTimeMs();
+        scanStats.addScannerMetricsList(
+            startedScanners.stream().map(scanner -> new ScannerMetrics(scanner)).collect(Collectors.toList()));
+      }
+    };
+  }
+
+  /**
+   * Waits for the CLOSE message of every scanner of a count or aggregation, whose
+   * callbacks don't hand over any row.
+   */
+  private void awaitScanners(final List<AsyncKuduScanner> scanners,
+      final BlockingQueue<CalciteScannerMessage<CalciteRow>> messages) {
+    try {
+      int finishedScanners = 0;
+      while (finishedScanners < scanners.size()) {
+        final CalciteScannerMessage<CalciteRow> fetched = messages.take();
+        if (fetched.type == CalciteScannerMessage.MessageType.ERROR) {
+          if (fetched.failure.isPresent()) {
+            throw new RuntimeException("A scanner failed, failing whole query", fetched.failure.get());
+          }
+          throw new RuntimeException("A scanner failed, failed for unreported reason. Failing query");
+        }
+        if (fetched.type == CalciteScannerMessage.MessageType.CLOSE) {
+          finishedScanners++;
         }
-      };
+      }
+    } catch (InterruptedException interrupted) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for the scanners", interrupted);
+    } finally {
+      scansShouldStop.set(true);
+      scanStats.setTimeToFirstRowMs();
+      scanStats.setTotalTimeMs();
+      scanStats.addScannerMetricsList(
+          scanners.stream().map(scanner -> new ScannerMetrics(scanner)).collect(Collectors.toList()));
     }
   }
 
   // modified from Calcite to stop reading rows once we have enough unique groups
-  private <TSource, TKey, TAccumulate, TResult> Enumerable<TResult> groupBy_(final Map<TKey, TAccumulate> map,
-      Enumerable<TSource> enumerable, Function1<TSource, TKey> keySelector,
-      Function0<TAccumulate> accumulatorInitializer, Function2<TAccumulate, TSource, TAccumulate> accumulatorAdder,
+  // and to keep the groups in a GroupByHashTable instead of a HashMap
+  private <TSource, TKey, TAccumulate, TResult> Enumerable<TResult> groupBy_(Enumerable<TSource> enumerable,
+      Function1<TSource, TKey> keySelector, Function0<TAccumulate> accumulatorInitializer,
+      Function2<TAccumulate, TSource, TAccumulate> accumulatorAdder,
       final Function2<TKey, TAccumulate, TResult> resultSelector) {
+    final GroupByHashTable<TKey, TAccumulate> groups = new GroupByHashTable<>();
     Object lastSortedKey = null;
     try (Enumerator<TSource> os = enumerable.enumerator()) {
       while (os.moveNext()) {
         TSource o = os.current();
         TKey key = keySelector.apply(o);
-        @SuppressWarnings("argument.type.incompatible")
-        TAccumulate accumulator = map.get(key);
-        final Object sortedKey = sortedPrefixKeySelector.apply(o);
-        // If sortedPrefixKeySelector is not null, we can only stop reading rows when
-        // the sorted
-        // key prefix changes and we have enough unique groups since the rows have to be
-        // sorted
-        // on the client we have to read all the rows that have the same sorted primary
-        // key prefix)
-        if (lastSortedKey != null && !sortedKey.equals(lastSortedKey) && map.size() > groupFetchLimit) {
-          logger.debug("sortedKey {} lastSortedKey {} uniqueGroupCount {} groupFetchLimit {}", sortedKey, lastSortedKey,
-              map.size(), groupFetchLimit);
-          break;
+        if (sortedPrefixKeySelector != null) {
+          final Object sortedKey = sortedPrefixKeySelector.apply(o);
+          // If sortedPrefixKeySelector is not null, we can only stop reading rows when
+          // the sorted
+          // key prefix changes and we have enough unique groups since the rows have to
+          // be sorted
+          // on the client we have to read all the rows that have the same sorted primary
+          // key prefix)
+          if (lastSortedKey != null && !sortedKey.equals(lastSortedKey) && groups.size() > groupFetchLimit) {
+            logger.debug("sortedKey {} lastSortedKey {} uniqueGroupCount {} groupFetchLimit {}", sortedKey,
+                lastSortedKey, groups.size(), groupFetchLimit);
+            break;
+          }
+          lastSortedKey = sortedKey;
+          logger.debug("sortedKey {} uniqueGroupCount{}", sortedKey, groups.size());
         }
-        lastSortedKey = sortedKey;
-        logger.debug("sortedKey {} uniqueGroupCount{}", sortedKey, map.size());
-        if (accumulator == null) {
-          accumulator = accumulatorInitializer.apply();
-          accumulator = accumulatorAdder.apply(accumulator, o);
-          map.put(key, accumulator);
+        final int entry = groups.indexOf(key);
+        if (entry < 0) {
+          groups.add(key, accumulatorAdder.apply(accumulatorInitializer.apply(), o));
         } else {
-          TAccumulate accumulator0 = accumulator;
-          accumulator = accumulatorAdder.apply(accumulator, o);
+          TAccumulate accumulator0 = groups.getAccumulator(entry);
+          TAccumulate accumulator = accumulatorAdder.apply(accumulator0, o);
           if (accumulator != accumulator0) {
-            map.put(key, accumulator);
+            groups.setAccumulator(entry, accumulator);
           }
         }
       }
     }
-    return new LookupResultEnumerable<>(map, resultSelector);
+    return groups.results(resultSelector);
+  }
+
+  @Override
+  public <TKey> Enumerable<Object> orderBy(Function1<Object, TKey> keySelector, Comparator<TKey> comparator) {
+    // a sort that couldn't be pushed down to Kudu holds every row, spill sorted
+    // runs to disk once they exceed the memory budget
+    return SpillingSort.orderBy(getThis(), keySelector, comparator, calciteKuduTable.spillMemoryBudgetBytes, scanStats);
   }
 
   @Override
@@ -506,132 +963,303 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> implements
       Function0<TAccumulate> accumulatorInitializer, Function2<TAccumulate, Object, TAccumulate> accumulatorAdder,
       Function2<TKey, TAccumulate, TResult> resultSelector) {
     if (sortedPrefixKeySelector != null) {
-      return groupBy_(new HashMap<>(), getThis(), keySelector, accumulatorInitializer, accumulatorAdder,
-          resultSelector);
+      return groupBy_(getThis(), keySelector, accumulatorInitializer, accumulatorAdder, resultSelector);
     }
     // When Grouping rows but the aggregation is not sorted by primary key direction
     // or there is no
     // limit to the grouping, read every single matching row for this query.
     // This implies sorted = false.
     if (!groupBySorted) {
-      return EnumerableDefaults.groupBy(getThis(), keySelector, accumulatorInitializer, accumulatorAdder,
-          resultSelector);
-    }
-
-    int uniqueGroupCount = 0;
-    TKey lastKey = null;
-    final Queue<TResult> sortedResults = new LinkedList<TResult>();
-    try (Enumerator<Object> objectEnumeration = getThis().enumerator()) {
-      TAccumulate accumulator = null;
-
-      while (objectEnumeration.moveNext()) {
-        Object o = objectEnumeration.current();
-        final TKey key = keySelector.apply(o);
-
-        // If there hasn't been a key yet or if there is a new key
-        if (lastKey == null || !key.equals(lastKey)) {
-          // If there is an accumulator, save the results into the queue and reset
-          // accumulator.
-          if (accumulator != null) {
-            sortedResults.offer(resultSelector.apply(lastKey, accumulator));
-            accumulator = null;
-          }
-          uniqueGroupCount++;
-
-          // When we have seen limit + 1 unique group by keys, exit.
-          // or in the case of an offset, limit + offset + 1 unique group by keys.
-          if (uniqueGroupCount > groupFetchLimit) {
-            break;
-          }
-          logger.debug("key {} uniqueGroupCount{}", key, uniqueGroupCount);
-          lastKey = key;
-        }
-
-        if (offset > 0 && uniqueGroupCount <= offset) {
-          // We are still skipping group by keys.
-          continue;
-        }
-
-        // First Kudu record matching key. Init the accumulator function.
-        if (accumulator == null) {
-          accumulator = accumulatorInitializer.apply();
-        }
-        accumulator = accumulatorAdder.apply(accumulator, o);
-      }
-
-      // If the source Enumerator -- objectEnumeration -- runs out of rows and we have
-      // an accumulator in progress
-      // Apply it and save it.
-      if (accumulator != null) {
-        sortedResults.offer(resultSelector.apply(lastKey, accumulator));
+      // every group is kept until all the rows are read, spill them to disk once
+      // they exceed the memory budget
+      if (calciteKuduTable.spillMemoryBudgetBytes > 0) {
+        return SpillingAggregation.groupBy(getThis(), keySelector, accumulatorInitializer, accumulatorAdder,
+            resultSelector, calciteKuduTable.spillMemoryBudgetBytes, scanStats);
       }
+      return groupBy_(getThis(), keySelector, accumulatorInitializer, accumulatorAdder, resultSelector);
     }
-    return new AbstractEnumerable2<TResult>() {
+
+    // The rows are sorted by the group key so a group is complete as soon as the
+    // key changes, emit it right away instead of reading every group first.
+    return new AbstractEnumerable<TResult>() {
       @Override
-      public Iterator<TResult> iterator() {
-        return sortedResults.iterator();
+      public Enumerator<TResult> enumerator() {
+        return new SortedGroupByEnumerator<>(KuduEnumerable.this.enumerator(), keySelector, accumulatorInitializer,
+            accumulatorAdder, resultSelector, groupFetchLimit, offset);
       }
     };
   }
 
-  private List<AsyncKuduScanner> createScanners() {
-    // This builds a List AsyncKuduScanners.
-    // Each member of this list represents an OR query on a given partition
-    // in Kudu Table
-    List<AsyncKuduScanner> scanners = predicates.stream().map(subScan -> {
-      KuduScanToken.KuduScanTokenBuilder tokenBuilder = client.syncClient()
-          .newScanTokenBuilder(calciteKuduTable.getKuduTable());
-      // Allows for consistent row order in reads as it puts in ORDERED by Pk when
-      // faultTolerant is set to true
-      // setFaultTolerant to true sets the ReadMode to READ_AT_SNAPSHOT
-      // setting snapshot time to time set from CalciteKuduTable or else default to
-      // 0ms/current time.
-      tokenBuilder.snapshotTimestampMicros(
-          (System.currentTimeMillis() * 1000) - (calciteKuduTable.readSnapshotTimeDifference * 1000));
-      tokenBuilder.setFaultTolerant(true);
-
-      if (!columnIndices.isEmpty()) {
-        tokenBuilder.setProjectedColumnIndexes(columnIndices);
-      }
-      // Push down the limit if present AND
-      // 1. Not doing a group aggregation.
-      // 2. All the predicates are pushed into the scan.
-      // When those are true, the Scanners can inform the datanode that it only
-      // requires a small number of rows.
-      if (limit > 0 && !groupBySorted && filterFunction == Predicate1.TRUE) {
-        if (offset > 0) {
-          tokenBuilder.limit(offset + limit);
+  /**
+   * Aggregates rows that are sorted by their group key one group at a time. The
+   * first row of the next group is kept until {@link #moveNext()} is called
+   * again. Stops reading rows and closes the source once groupFetchLimit groups
+   * have been seen and skips the first offset groups without aggregating them.
+   */
+  static final class SortedGroupByEnumerator<TKey, TAccumulate, TResult> implements Enumerator<TResult> {
+    private final Enumerator<Object> source;
+    private final Function1<Object, TKey> keySelector;
+    private final Function0<TAccumulate> accumulatorInitializer;
+    private final Function2<TAccumulate, Object, TAccumulate> accumulatorAdder;
+    private final Function2<TKey, TAccumulate, TResult> resultSelector;
+    private final long groupFetchLimit;
+    private final long offset;
+
+    private Object nextGroupRow;
+    private boolean hasNextGroupRow = false;
+    private boolean sourceExhausted = false;
+    private boolean closed = false;
+    private long uniqueGroupCount = 0;
+    private TResult current;
+
+    SortedGroupByEnumerator(final Enumerator<Object> source, final Function1<Object, TKey> keySelector,
+        final Function0<TAccumulate> accumulatorInitializer,
+        final Function2<TAccumulate, Object, TAccumulate> accumulatorAdder,
+        final Function2<TKey, TAccumulate, TResult> resultSelector, final long groupFetchLimit, final long offset) {
+      this.source = source;
+      this.keySelector = keySelector;
+      this.accumulatorInitializer = accumulatorInitializer;
+      this.accumulatorAdder = accumulatorAdder;
+      this.resultSelector = resultSelector;
+      this.groupFetchLimit = groupFetchLimit;
+      this.offset = offset;
+    }
+
+    private boolean nextRow() {
+      if (sourceExhausted) {
+        return false;
+      }
+      if (!source.moveNext()) {
+        sourceExhausted = true;
+        return false;
+      }
+      return true;
+    }
+
+    @Override
+    public TResult current() {
+      return current;
+    }
+
+    @Override
+    public boolean moveNext() {
+      while (true) {
+        final Object firstRow;
+        if (hasNextGroupRow) {
+          firstRow = nextGroupRow;
+          nextGroupRow = null;
+          hasNextGroupRow = false;
+        } else if (nextRow()) {
+          firstRow = source.current();
         } else {
-          tokenBuilder.limit(limit);
+          return false;
+        }
+
+        final TKey key = keySelector.apply(firstRow);
+        uniqueGroupCount++;
+        // When we have seen limit + 1 unique group by keys, exit.
+        // or in the case of an offset, limit + offset + 1 unique group by keys.
+        if (uniqueGroupCount > groupFetchLimit) {
+          sourceExhausted = true;
+          // stop the scanners now rather than when the results are closed
+          close();
+          return false;
+        }
+        logger.debug("key {} uniqueGroupCount{}", key, uniqueGroupCount);
+
+        final boolean skipGroup = offset > 0 && uniqueGroupCount <= offset;
+        TAccumulate accumulator = skipGroup ? null : accumulatorAdder.apply(accumulatorInitializer.apply(), firstRow);
+        while (nextRow()) {
+          final Object row = source.current();
+          if (!Objects.equals(key, keySelector.apply(row))) {
+            nextGroupRow = row;
+            hasNextGroupRow = true;
+            break;
+          }
+          if (!skipGroup) {
+            accumulator = accumulatorAdder.apply(accumulator, row);
+          }
+        }
+        if (!skipGroup) {
+          current = resultSelector.apply(key, accumulator);
+          return true;
         }
       }
-      subScan.stream().forEach(predicate -> {
-        tokenBuilder.addPredicate(predicate.toPredicate(calciteKuduTable));
-      });
-      return tokenBuilder.build();
-    }).flatMap(tokens -> tokens.stream().map(token -> {
-      try {
-        KuduScanner scanner = token.intoScanner(client.syncClient());
-        Field asyncScannerField = KuduScanner.class.getDeclaredField("asyncScanner");
-        asyncScannerField.setAccessible(true);
-        return (AsyncKuduScanner) asyncScannerField.get(scanner);
-      } catch (Exception e) {
-        throw new RuntimeException("Failed to setup scanner from token.", e);
+    }
+
+    @Override
+    public void reset() {
+      throw new RuntimeException("Cannot reset a sorted group by");
+    }
+
+    @Override
+    public void close() {
+      if (!closed) {
+        closed = true;
+        source.close();
       }
-    })).collect(Collectors.toList());
+    }
+  }
 
-    if (predicates.isEmpty()) {
+  /**
+   * @param snapshotTimestampMicros snapshot all the scanners read
+   * @param readAtSnapshot          whether a scan of the whole table has to read
+   *                                the snapshot as well
+   * @param countOnly               whether the scanners don't read any column
+   * @param perTablet               whether a scan of the whole table has to use a
+   *                                scanner for each tablet as well
+   * @param tabletPartitions        receives the partition of the tablet of each
+   *                                scanner, can be null
+   */
+  private List<AsyncKuduScanner> createScanners(final long snapshotTimestampMicros, final boolean readAtSnapshot,
+      final boolean countOnly, final boolean perTablet, final Map<AsyncKuduScanner, Partition> tabletPartitions) {
+    final long planningStart = System.nanoTime();
+    final List<AsyncKuduScanner> scanners;
+    if (predicates.isEmpty() && perTablet) {
+      // a sub scan without predicates has a token for every tablet
+      scanners = createSubScanners(Collections.emptyList(), snapshotTimestampMicros, countOnly, tabletPartitions);
+    } else if (predicates.isEmpty()) {
       // Scan the whole table !
       final AsyncKuduScanner.AsyncKuduScannerBuilder allBuilder = client
           .newScannerBuilder(calciteKuduTable.getKuduTable());
-      if (!columnIndices.isEmpty()) {
+      if (countOnly || !columnIndices.isEmpty()) {
         allBuilder.setProjectedColumnIndexes(columnIndices);
       }
+      if (calciteKuduTable.scannerBatchSizeBytes > 0) {
+        allBuilder.batchSizeBytes(calciteKuduTable.scannerBatchSizeBytes);
+      }
+      if (readAtSnapshot) {
+        allBuilder.readMode(AsyncKuduScanner.ReadMode.READ_AT_SNAPSHOT)
+            .snapshotTimestampMicros(snapshotTimestampMicros);
+      }
       scanners = Collections.singletonList(allBuilder.build());
+    } else {
+      // All the sub scans read the same snapshot.
+      if (predicates.size() == 1) {
+        scanners = createSubScanners(predicates.get(0), snapshotTimestampMicros, countOnly, tabletPartitions);
+      } else {
+        // Building the tokens of a sub scan blocks on tablet location lookups, so
+        // build the tokens of all the OR'd sub scans concurrently.
+        final List<CompletableFuture<List<AsyncKuduScanner>>> subScans = predicates.stream()
+            .map(subScan -> CompletableFuture.supplyAsync(
+                () -> createSubScanners(subScan, snapshotTimestampMicros, countOnly, tabletPartitions),
+                SCAN_PLANNING_EXECUTOR))
+            .collect(Collectors.toList());
+        try {
+          scanners = subScans.stream().flatMap(subScan -> subScan.join().stream()).collect(Collectors.toList());
+        } catch (CompletionException e) {
+          throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+      }
     }
+    scanStats.incrementScanPlanningTimeNanos(System.nanoTime() - planningStart);
     return scanners;
   }
 
+  /**
+   * Builds the scan tokens of one OR'd sub scan, or reuses the ones cached by a
+   * previous execution, and turns each of them into an {@link AsyncKuduScanner}
+   * over a single tablet reading the given snapshot.
+   */
+  private List<AsyncKuduScanner> createSubScanners(final List<CalciteKuduPredicate> subScan,
+      final long snapshotTimestampMicros, final boolean countOnly,
+      final Map<AsyncKuduScanner, Partition> tabletPartitions) {
+    // Push down the limit if present AND
+    // 1. Not doing a group aggregation.
+    // 2. All the predicates are pushed into the scan.
+    // When those are true, the Scanners can inform the datanode that it only
+    // requires a small number of rows.
+    final long scanLimit;
+    if (limit > 0 && !groupBySorted && filterFunction == Predicate1.TRUE) {
+      scanLimit = offset > 0 ? offset + limit : limit;
+    } else {
+      scanLimit = -1;
+    }
+    final List<byte[]> serializedTokens = calciteKuduTable.scanTokenCache.get(
+        calciteKuduTable.getKuduTable().getTableId(), subScan, columnIndices, countOnly, scanLimit,
+        calciteKuduTable.scannerBatchSizeBytes,
+        () -> buildSubScanTokens(subScan, snapshotTimestampMicros, scanLimit, countOnly));
+    final List<AsyncKuduScanner> scanners = new ArrayList<>(serializedTokens.size());
+    for (byte[] serializedToken : serializedTokens) {
+      try {
+        // The token may have been built by an earlier execution, always read the
+        // snapshot of this one.
+        final KuduScanner scanner = KuduScanToken.deserializeIntoScannerBuilder(serializedToken, client.syncClient())
+            .snapshotTimestampMicros(snapshotTimestampMicros).build();
+        final AsyncKuduScanner asyncScanner = asyncScanner(scanner);
+        if (tabletPartitions != null) {
+          final Partition partition = getTabletPartition(serializedToken);
+          if (partition != null) {
+            tabletPartitions.put(asyncScanner, partition);
+          }
+        }
+        scanners.add(asyncScanner);
+      } catch (Exception e) {
+        throw new RuntimeException("Failed to setup scanner from token.", e);
+      }
+    }
+    return scanners;
+  }
+
+  private static AsyncKuduScanner asyncScanner(final KuduScanner scanner) {
+    try {
+      return (AsyncKuduScanner) ASYNC_SCANNER_GETTER.invokeExact(scanner);
+    } catch (Throwable e) {
+      throw new RuntimeException("Failed to read the async scanner of a KuduScanner", e);
+    }
+  }
+
+  /**
+   * Reads the partition of the tablet from the tablet metadata a serialized token
+   * carries.
+   *
+   * @return the hash buckets and range of the tablet, null if the token doesn't
+   *         carry the metadata of its tablet
+   */
+  private static Partition getTabletPartition(final byte[] serializedToken) throws IOException {
+    final Client.ScanTokenPB token = Client.ScanTokenPB.parseFrom(serializedToken);
+    if (!token.hasTabletMetadata()) {
+      return null;
+    }
+    final Common.PartitionPB partition = token.getTabletMetadata().getPartition();
+    return new Partition(partition.getPartitionKeyStart().toByteArray(), partition.getPartitionKeyEnd().toByteArray(),
+        partition.getHashBucketsList());
+  }
+
+  /**
+   * Asks the master for the tablets the sub scan has to read and serializes a
+   * scan token for each of them.
+   */
+  private List<byte[]> buildSubScanTokens(final List<CalciteKuduPredicate> subScan, final long snapshotTimestampMicros,
+      final long scanLimit, final boolean countOnly) throws IOException {
+    KuduScanToken.KuduScanTokenBuilder tokenBuilder = client.syncClient()
+        .newScanTokenBuilder(calciteKuduTable.getKuduTable());
+    // Allows for consistent row order in reads as it puts in ORDERED by Pk when
+    // faultTolerant is set to true
+    // setFaultTolerant to true sets the ReadMode to READ_AT_SNAPSHOT
+    tokenBuilder.snapshotTimestampMicros(snapshotTimestampMicros);
+    tokenBuilder.setFaultTolerant(true);
+    if (calciteKuduTable.scannerBatchSizeBytes > 0) {
+      tokenBuilder.batchSizeBytes(calciteKuduTable.scannerBatchSizeBytes);
+    }
+
+    if (countOnly || !columnIndices.isEmpty()) {
+      tokenBuilder.setProjectedColumnIndexes(columnIndices);
+    }
+    if (scanLimit > 0) {
+      tokenBuilder.limit(scanLimit);
+    }
+    subScan.stream().forEach(predicate -> {
+      tokenBuilder.addPredicate(predicate.toPredicate(calciteKuduTable));
+    });
+    final List<KuduScanToken> tokens = tokenBuilder.build();
+    final List<byte[]> serializedTokens = new ArrayList<>(tokens.size());
+    for (KuduScanToken token : tokens) {
+      serializedTokens.add(token.serialize());
+    }
+    return serializedTokens;
+  }
+
   @Override
   public CloneableEnumerable<Object> clone(final List<List<CalciteKuduPredicate>> conjunctions) {
     // The result of the merge can be an empty list. That means we are scanning
@@ -641,7 +1269,8 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> implements
     final List<List<CalciteKuduPredicate>> merged = KuduPredicatePushDownVisitor.mergePredicateLists(SqlKind.AND,
         this.predicates, conjunctions);
     return new KuduEnumerable(merged, columnIndices, client, calciteKuduTable, limit, offset, sort, groupBySorted,
-        scanStats, cancelFlag, projection, filterFunction, isSingleObject, sortedPrefixKeySelector, sortPkColumns);
+        scanStats, cancelFlag, projection, filterFunction, isSingleObject, sortedPrefixKeySelector, sortPkColumns,
+        prefetchDepth, resultCacheKey);
   }
 
   /**
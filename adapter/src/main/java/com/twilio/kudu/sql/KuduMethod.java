@@ -20,6 +20,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.google.common.collect.ImmutableMap;
 
+import org.apache.calcite.DataContext;
 import org.apache.calcite.linq4j.function.Function1;
 import org.apache.calcite.linq4j.function.Predicate1;
 import org.apache.calcite.linq4j.tree.Types;
@@ -31,10 +32,18 @@ import org.apache.calcite.rel.core.Join;
 public enum KuduMethod {
   KUDU_QUERY_METHOD(CalciteKuduTable.KuduQueryable.class, "query", List.class, List.class, int.class, int.class,
       boolean.class, boolean.class, KuduScanStats.class, AtomicBoolean.class, Function1.class, Predicate1.class,
-      boolean.class, Function1.class, List.class),
+      boolean.class, Function1.class, List.class, int.class, String.class),
+  KUDU_COUNT_METHOD(CalciteKuduTable.KuduQueryable.class, "count", List.class, KuduScanStats.class,
+      AtomicBoolean.class),
+  KUDU_AGGREGATE_METHOD(CalciteKuduTable.KuduQueryable.class, "aggregate", List.class, List.class, KuduScanStats.class,
+      AtomicBoolean.class, Function1.class, Predicate1.class, boolean.class, ScanAggregation.class, boolean.class,
+      boolean.class),
+  KUDU_TOP_N_METHOD(CalciteKuduTable.KuduQueryable.class, "topN", List.class, List.class, KuduScanStats.class,
+      AtomicBoolean.class, Function1.class, Predicate1.class, boolean.class, ScanTopN.class, boolean.class),
   KUDU_MUTATE_TUPLES_METHOD(CalciteKuduTable.KuduQueryable.class, "mutateTuples", List.class, List.class),
   KUDU_MUTATE_ROW_METHOD(CalciteKuduTable.KuduQueryable.class, "mutateRow", List.class, List.class),
-  NESTED_JOIN_PREDICATES(KuduEnumerable.class, "nestedJoinPredicates", Join.class);
+  NESTED_JOIN_PREDICATES(KuduEnumerable.class, "nestedJoinPredicates", Join.class),
+  BIND_PREDICATES(CalciteKuduPredicate.class, "bindPredicates", List.class, DataContext.class);
 
   public final Method method;
 
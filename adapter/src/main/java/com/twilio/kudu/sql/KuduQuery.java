@@ -41,9 +41,16 @@ import java.util.List;
 public final class KuduQuery extends TableScan implements KuduRelNode {
   final public CalciteKuduTable calciteKuduTable;
 
+  /**
+   * Table hint {@code SCANNER_PREFETCH_DEPTH(n)} that sets the number of batches
+   * each scanner keeps buffered or in flight for this query.
+   */
+  public static final String PREFETCH_DEPTH_HINT_NAME = "SCANNER_PREFETCH_DEPTH";
+
   public static HintStrategyTable KUDU_HINT_STRATEGY_TABLE = HintStrategyTable.builder()
       .hintStrategy(KuduNestedJoinRule.HINT_NAME, HintPredicates.JOIN)
-      .hintStrategy(KuduFilterRule.HINT_NAME, HintPredicates.TABLE_SCAN).build();
+      .hintStrategy(KuduFilterRule.HINT_NAME, HintPredicates.TABLE_SCAN)
+      .hintStrategy(PREFETCH_DEPTH_HINT_NAME, HintPredicates.TABLE_SCAN).build();
 
   /**
    * List of column indices that are stored in reverse order.
@@ -125,5 +132,25 @@ public final class KuduQuery extends TableScan implements KuduRelNode {
     impl.descendingColumns = this.calciteKuduTable.getDescendingOrderedColumnIndexes();
     impl.table = this.table;
     impl.tableDataType = getRowType();
+    impl.prefetchDepth = getPrefetchDepth();
+  }
+
+  /**
+   * @return the prefetch depth requested with {@link #PREFETCH_DEPTH_HINT_NAME},
+   *         or -1 to use the default of the table
+   */
+  private int getPrefetchDepth() {
+    return getHints().stream().filter(h -> h.hintName.equalsIgnoreCase(PREFETCH_DEPTH_HINT_NAME)).findFirst().map(h -> {
+      if (h.listOptions.size() != 1) {
+        throw new IllegalArgumentException(
+            PREFETCH_DEPTH_HINT_NAME + " hint expects a single positive integer: " + h.listOptions);
+      }
+      final int prefetchDepth = Integer.parseInt(h.listOptions.get(0));
+      if (prefetchDepth <= 0) {
+        throw new IllegalArgumentException(
+            PREFETCH_DEPTH_HINT_NAME + " hint expects a single positive integer: " + h.listOptions);
+      }
+      return prefetchDepth;
+    }).orElse(-1);
   }
 }
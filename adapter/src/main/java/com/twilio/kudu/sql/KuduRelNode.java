@@ -80,6 +80,9 @@ public interface KuduRelNode extends RelNode {
     // that means we are sorting by the same columns as we are grouping by
     public List<RelFieldCollation> sortPkPrefixColumns = new ArrayList<>();
     public List<Integer> sortPkColumns = new ArrayList<>();
+    // number of batches each scanner keeps buffered or in flight, -1 uses the
+    // table default
+    public int prefetchDepth = -1;
 
     // information required for executing an update
     public List<Integer> columnIndexes;
@@ -34,18 +34,45 @@ public final class KuduScanStats {
 
   private AtomicLong scannerRpcCount = new AtomicLong(0L);
 
+  // bytes of projected rows buffered for the consumer, see ScanMemoryBudget
+  private AtomicLong bufferedBytes = new AtomicLong(0L);
+
+  private AtomicLong peakBufferedBytes = new AtomicLong(0L);
+
+  private AtomicLong scannerPauseTimeNanos = new AtomicLong(0L);
+
+  // time spent building scan tokens and scanners before the first RPC
+  private AtomicLong scanPlanningTimeNanos = new AtomicLong(0L);
+
+  private AtomicLong resultCacheHitCount = new AtomicLong(0L);
+
+  private AtomicLong resultCacheMissCount = new AtomicLong(0L);
+
+  private AtomicLong pointLookupCount = new AtomicLong(0L);
+
+  // temporary files written by sorts and aggregations that exceeded their memory
+  // budget, see SpillFile
+  private AtomicLong spillFileCount = new AtomicLong(0L);
+
+  private AtomicLong spilledBytes = new AtomicLong(0L);
+
   private long timeToFirstRowMs = -1L;
 
   private long totalTimeMs = -1L;
 
   private final long startTime;
 
+  // time the scanners of the most recent execution were being created, the
+  // same stats object can be passed to several executions of a KuduEnumerable
+  private volatile long scanStartTime;
+
   private long scannerCount = 0L;
 
   private List<ScannerMetrics> scannerMetricsList = Lists.newArrayList();
 
   public KuduScanStats() {
     this.startTime = System.currentTimeMillis();
+    this.scanStartTime = this.startTime;
   }
 
   public void incrementRowsScannedCount(final long additionalRows) {
@@ -56,9 +83,47 @@ public final class KuduScanStats {
     this.scannerRpcCount.updateAndGet(current -> current + additionalRpcs);
   }
 
+  public void updateBufferedBytes(final long currentBufferedBytes) {
+    this.bufferedBytes.set(currentBufferedBytes);
+    this.peakBufferedBytes.accumulateAndGet(currentBufferedBytes, Math::max);
+  }
+
+  public void incrementScannerPauseTimeNanos(final long additionalNanos) {
+    this.scannerPauseTimeNanos.updateAndGet(current -> current + additionalNanos);
+  }
+
+  public void incrementScanPlanningTimeNanos(final long additionalNanos) {
+    this.scanPlanningTimeNanos.updateAndGet(current -> current + additionalNanos);
+  }
+
+  public void incrementResultCacheHitCount() {
+    this.resultCacheHitCount.incrementAndGet();
+  }
+
+  public void incrementResultCacheMissCount() {
+    this.resultCacheMissCount.incrementAndGet();
+  }
+
+  public void incrementPointLookupCount() {
+    this.pointLookupCount.incrementAndGet();
+  }
+
+  public void incrementSpillFileCount() {
+    this.spillFileCount.incrementAndGet();
+  }
+
+  public void incrementSpilledBytes(final long additionalBytes) {
+    this.spilledBytes.updateAndGet(current -> current + additionalBytes);
+  }
+
+  public void setScanStartTime() {
+    this.scanStartTime = System.currentTimeMillis();
+    this.timeToFirstRowMs = -1L;
+  }
+
   public void setTimeToFirstRowMs() {
-    if (this.timeToFirstRowMs != -1) {
-      this.timeToFirstRowMs = System.currentTimeMillis() - this.startTime;
+    if (this.timeToFirstRowMs == -1) {
+      this.timeToFirstRowMs = System.currentTimeMillis() - this.scanStartTime;
     }
   }
 
@@ -89,10 +154,86 @@ public final class KuduScanStats {
     return this.scannerRpcCount.longValue();
   }
 
+  /**
+   * @return estimated bytes of rows currently buffered and not yet read by the
+   *         consumer
+   */
+  public long getBufferedBytes() {
+    return this.bufferedBytes.longValue();
+  }
+
+  /**
+   * @return the highest value {@link #getBufferedBytes()} reached during the
+   *         query
+   */
+  public long getPeakBufferedBytes() {
+    return this.peakBufferedBytes.longValue();
+  }
+
+  /**
+   * @return total time scanners spent paused because the scan memory budget was
+   *         exhausted, summed over all scanners
+   */
+  public long getScannerPauseTimeMs() {
+    return this.scannerPauseTimeNanos.longValue() / 1_000_000L;
+  }
+
+  /**
+   * @return time spent building the scan tokens and scanners of the query, this
+   *         is included in {@link #getTimeToFirstRowMs()}
+   */
+  public long getScanPlanningTimeMs() {
+    return this.scanPlanningTimeNanos.longValue() / 1_000_000L;
+  }
+
+  /**
+   * @return time from the start of the scan until the consumer received the first
+   *         row, -1 if no row has been returned yet
+   */
   public long getTimeToFirstRowMs() {
     return this.timeToFirstRowMs;
   }
 
+  /**
+   * @return number of executions whose rows were returned from the
+   *         {@link QueryResultCache} without scanning Kudu
+   */
+  public long getResultCacheHitCount() {
+    return this.resultCacheHitCount.longValue();
+  }
+
+  /**
+   * @return number of executions that could have used the
+   *         {@link QueryResultCache} but had to scan Kudu
+   */
+  public long getResultCacheMissCount() {
+    return this.resultCacheMissCount.longValue();
+  }
+
+  /**
+   * @return number of executions that read rows by their primary key with a
+   *         {@link PointLookupExecutor} instead of scan tokens
+   */
+  public long getPointLookupCount() {
+    return this.pointLookupCount.longValue();
+  }
+
+  /**
+   * @return number of temporary files client side sorts and aggregations of the
+   *         query spilled rows to
+   */
+  public long getSpillFileCount() {
+    return this.spillFileCount.longValue();
+  }
+
+  /**
+   * @return bytes of rows written to the files counted by
+   *         {@link #getSpillFileCount()}
+   */
+  public long getSpilledBytes() {
+    return this.spilledBytes.longValue();
+  }
+
   public long getTotalTimeMs() {
     return this.totalTimeMs;
   }
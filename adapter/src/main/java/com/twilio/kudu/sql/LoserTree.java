@@ -0,0 +1,149 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.calcite.linq4j.Enumerator;
+
+/**
+ * Merges sorted {@link Enumerator}s with a tournament tree of losers.
+ *
+ * Each internal node holds the source that lost the match played at that node
+ * and {@code tree[0]} holds the overall winner. Advancing the winner replays
+ * only the matches on the path from its leaf to the root, which is exactly
+ * {@code log2(k)} comparisons per row. A binary heap needs up to twice that
+ * when sifting down.
+ *
+ * Ties are broken by the position of the source so the order is deterministic.
+ *
+ * @param <T> type of the rows being merged
+ */
+public final class LoserTree<T> {
+  private final List<? extends Enumerator<T>> sources;
+  private final Comparator<? super T> comparator;
+  private final int k;
+  // tree[1..k-1] are the internal nodes, leaves are the implicit nodes k..2k-1
+  private final int[] tree;
+  private final Object[] heads;
+  private final boolean[] exhausted;
+  private boolean initialized = false;
+
+  /**
+   * @param sources    enumerators that each return rows in the order of the
+   *                   comparator, none of them should have been moved yet
+   * @param comparator order of the rows
+   */
+  public LoserTree(final List<? extends Enumerator<T>> sources, final Comparator<? super T> comparator) {
+    this.sources = sources;
+    this.comparator = comparator;
+    this.k = sources.size();
+    this.tree = new int[Math.max(k, 1)];
+    this.heads = new Object[k];
+    this.exhausted = new boolean[k];
+  }
+
+  /**
+   * Moves to the next smallest row across all the sources.
+   *
+   * @return false once every source is exhausted
+   */
+  public boolean moveNext() {
+    if (k == 0) {
+      return false;
+    }
+    if (!initialized) {
+      initialized = true;
+      for (int source = 0; source < k; source++) {
+        advance(source);
+      }
+      tree[0] = build(1);
+    } else {
+      final int winner = tree[0];
+      if (exhausted[winner]) {
+        return false;
+      }
+      advance(winner);
+      replay(winner);
+    }
+    return !exhausted[tree[0]];
+  }
+
+  /**
+   * @return the row found by the last call to {@link #moveNext()} that returned
+   *         true
+   */
+  @SuppressWarnings("unchecked")
+  public T current() {
+    return (T) heads[tree[0]];
+  }
+
+  private void advance(final int source) {
+    final Enumerator<T> enumerator = sources.get(source);
+    if (enumerator.moveNext()) {
+      heads[source] = enumerator.current();
+    } else {
+      heads[source] = null;
+      exhausted[source] = true;
+    }
+  }
+
+  /**
+   * Plays the matches of the subtree rooted at node, storing the losers.
+   *
+   * @return the winner of the subtree
+   */
+  private int build(final int node) {
+    if (node >= k) {
+      return node - k;
+    }
+    final int left = build(2 * node);
+    final int right = build(2 * node + 1);
+    if (beats(left, right)) {
+      tree[node] = right;
+      return left;
+    }
+    tree[node] = left;
+    return right;
+  }
+
+  /**
+   * Replays the matches from the leaf of source up to the root.
+   */
+  private void replay(final int source) {
+    int winner = source;
+    for (int node = (source + k) >> 1; node > 0; node >>= 1) {
+      final int loser = tree[node];
+      if (beats(loser, winner)) {
+        tree[node] = winner;
+        winner = loser;
+      }
+    }
+    tree[0] = winner;
+  }
+
+  @SuppressWarnings("unchecked")
+  private boolean beats(final int source, final int other) {
+    if (exhausted[source]) {
+      return false;
+    }
+    if (exhausted[other]) {
+      return true;
+    }
+    final int cmp = comparator.compare((T) heads[source], (T) heads[other]);
+    return cmp < 0 || (cmp == 0 && source < other);
+  }
+}
@@ -38,6 +38,10 @@ public final class NullPredicate extends CalciteKuduPredicate {
     return columnIdx;
   }
 
+  public boolean isNotNull() {
+    return not;
+  }
+
   @Override
   public String explainPredicate(final ColumnSchema schema) {
     if (not) {
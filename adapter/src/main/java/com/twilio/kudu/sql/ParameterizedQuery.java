@@ -0,0 +1,304 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import com.twilio.kudu.sql.rules.KuduCubeRewriteRule;
+import org.apache.calcite.DataContext;
+import org.apache.calcite.adapter.java.JavaTypeFactory;
+import org.apache.calcite.avatica.AvaticaParameter;
+import org.apache.calcite.avatica.util.TimeUnitRange;
+import org.apache.calcite.linq4j.QueryProvider;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.sql.SqlCall;
+import org.apache.calcite.sql.SqlCharStringLiteral;
+import org.apache.calcite.sql.SqlDynamicParam;
+import org.apache.calcite.sql.SqlIdentifier;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.SqlLiteral;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.SqlNodeList;
+import org.apache.calcite.sql.SqlNumericLiteral;
+import org.apache.calcite.sql.SqlTimestampLiteral;
+import org.apache.calcite.sql.parser.SqlParserPos;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.sql.util.SqlBasicVisitor;
+import org.apache.calcite.util.TimestampString;
+
+import java.math.BigDecimal;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A statement whose literals were replaced by parameters so that statements
+ * that only differ in their constants share one compiled plan, see
+ * {@link PlanCache}.
+ *
+ * Only literals that are compared to a column are replaced, their value never
+ * changes the shape of the plan. Literals such as LIMIT values, FLOOR time
+ * units or projected constants stay part of the text of the statement.
+ * Timestamps that fall on the time unit of a cube are kept as well, they decide
+ * whether a query can be answered by the cube.
+ */
+public final class ParameterizedQuery {
+
+  // an IN list with more values is planned as a join with VALUES that requires
+  // literals, see SqlToRelConverter.Config#getInSubQueryThreshold()
+  static final int MAX_IN_LIST_SIZE = 19;
+
+  private static final Set<SqlKind> COMPARISONS = EnumSet.of(SqlKind.EQUALS, SqlKind.NOT_EQUALS, SqlKind.LESS_THAN,
+      SqlKind.LESS_THAN_OR_EQUAL, SqlKind.GREATER_THAN, SqlKind.GREATER_THAN_OR_EQUAL);
+
+  private static final Pattern TIMESTAMP_LITERAL = Pattern.compile("(?is)TIMESTAMP\\s*'.*'");
+
+  /**
+   * Text of the statement with a parameter in place of every replaced literal.
+   */
+  public final String sql;
+
+  // values of the replaced literals, strings, decimals and timestamps in
+  // milliseconds
+  private final List<Object> values;
+
+  private ParameterizedQuery(final String sql, final List<Object> values) {
+    this.sql = sql;
+    this.values = values;
+  }
+
+  /**
+   * @param sql          text of the statement
+   * @param node         parsed statement
+   * @param cubeTimeUnit finest time unit of the cubes of the schema, null if
+   *                     there are no cubes
+   * @return the parameterized statement, null if the statement has no literals to
+   *         replace or already has parameters
+   */
+  public static ParameterizedQuery of(final String sql, final SqlNode node, final TimeUnitRange cubeTimeUnit) {
+    if (!node.isA(SqlKind.QUERY)) {
+      return null;
+    }
+    final LiteralFinder finder = new LiteralFinder(cubeTimeUnit);
+    node.accept(finder);
+    if (finder.hasDynamicParams || finder.literals.isEmpty()) {
+      return null;
+    }
+    finder.literals.sort(Comparator.comparingInt((SqlLiteral literal) -> literal.getParserPosition().getLineNum())
+        .thenComparingInt(literal -> literal.getParserPosition().getColumnNum()));
+
+    final int[] lineOffsets = lineOffsets(sql);
+    final StringBuilder sb = new StringBuilder(sql.length());
+    final List<Object> values = new ArrayList<>(finder.literals.size());
+    int copied = 0;
+    for (SqlLiteral literal : finder.literals) {
+      final SqlParserPos pos = literal.getParserPosition();
+      if (pos.getLineNum() < 1 || pos.getEndLineNum() > lineOffsets.length) {
+        return null;
+      }
+      final int start = lineOffsets[pos.getLineNum() - 1] + pos.getColumnNum() - 1;
+      final int end = lineOffsets[pos.getEndLineNum() - 1] + pos.getEndColumnNum();
+      if (start < copied || end > sql.length() || !matches(literal, sql.substring(start, end))) {
+        // the position doesn't point at the literal, leave the statement alone
+        return null;
+      }
+      sb.append(sql, copied, start).append('?');
+      values.add(value(literal));
+      copied = end;
+    }
+    sb.append(sql, copied, sql.length());
+    return new ParameterizedQuery(sb.toString(), values);
+  }
+
+  /**
+   * Converts the values of the replaced literals to the types the parameters were
+   * given when the statement was validated.
+   *
+   * @param parameters parameters of the prepared statement
+   * @return values of the parameters, null if a literal can't be converted
+   *         without changing the meaning of the statement
+   */
+  public Object[] bind(final List<AvaticaParameter> parameters) {
+    if (parameters.size() != values.size()) {
+      return null;
+    }
+    final Object[] bound = new Object[values.size()];
+    for (int i = 0; i < bound.length; i++) {
+      bound[i] = convert(values.get(i), parameters.get(i));
+      if (bound[i] == null) {
+        return null;
+      }
+    }
+    return bound;
+  }
+
+  /**
+   * @param root   context of the execution
+   * @param values values returned by {@link #bind(List)}
+   * @return context that holds the values of the replaced literals
+   */
+  public static DataContext dataContext(final DataContext root, final Object[] values) {
+    return new DataContext() {
+      @Override
+      public SchemaPlus getRootSchema() {
+        return root.getRootSchema();
+      }
+
+      @Override
+      public JavaTypeFactory getTypeFactory() {
+        return root.getTypeFactory();
+      }
+
+      @Override
+      public QueryProvider getQueryProvider() {
+        return root.getQueryProvider();
+      }
+
+      @Override
+      public Object get(final String name) {
+        if (name.startsWith("?")) {
+          try {
+            return values[Integer.parseInt(name.substring(1))];
+          } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            // not one of the replaced literals
+          }
+        }
+        return root.get(name);
+      }
+    };
+  }
+
+  private static Object convert(final Object value, final AvaticaParameter parameter) {
+    try {
+      switch (parameter.parameterType) {
+      case Types.CHAR:
+      case Types.VARCHAR:
+        return value instanceof String ? value : null;
+      case Types.TINYINT:
+        return value instanceof BigDecimal ? ((BigDecimal) value).byteValueExact() : null;
+      case Types.SMALLINT:
+        return value instanceof BigDecimal ? ((BigDecimal) value).shortValueExact() : null;
+      case Types.INTEGER:
+        return value instanceof BigDecimal ? ((BigDecimal) value).intValueExact() : null;
+      case Types.BIGINT:
+        return value instanceof BigDecimal ? ((BigDecimal) value).longValueExact() : null;
+      case Types.DECIMAL:
+        return value instanceof BigDecimal && ((BigDecimal) value).scale() <= parameter.scale ? value : null;
+      case Types.REAL:
+        return value instanceof BigDecimal ? ((BigDecimal) value).floatValue() : null;
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        return value instanceof BigDecimal ? ((BigDecimal) value).doubleValue() : null;
+      case Types.TIMESTAMP:
+        return value instanceof Long ? value : null;
+      default:
+        return null;
+      }
+    } catch (ArithmeticException e) {
+      // the number has a fraction or doesn't fit the type of the column
+      return null;
+    }
+  }
+
+  private static Object value(final SqlLiteral literal) {
+    if (literal instanceof SqlTimestampLiteral) {
+      return literal.getValueAs(TimestampString.class).getMillisSinceEpoch();
+    } else if (literal instanceof SqlNumericLiteral) {
+      return literal.getValueAs(BigDecimal.class);
+    }
+    return literal.getValueAs(String.class);
+  }
+
+  private static boolean matches(final SqlLiteral literal, final String text) {
+    if (literal instanceof SqlTimestampLiteral) {
+      return TIMESTAMP_LITERAL.matcher(text).matches();
+    } else if (literal instanceof SqlNumericLiteral) {
+      try {
+        return new BigDecimal(text).compareTo(literal.getValueAs(BigDecimal.class)) == 0;
+      } catch (NumberFormatException e) {
+        return false;
+      }
+    }
+    return text.length() > 1 && text.charAt(0) == '\'' && text.charAt(text.length() - 1) == '\'';
+  }
+
+  /**
+   * @return offset of the first character of each line, lines end the way the
+   *         parser counts them
+   */
+  private static int[] lineOffsets(final String sql) {
+    final List<Integer> offsets = new ArrayList<>();
+    offsets.add(0);
+    for (int i = 0; i < sql.length(); i++) {
+      final char c = sql.charAt(i);
+      if (c == '\r' && i + 1 < sql.length() && sql.charAt(i + 1) == '\n') {
+        i++;
+      }
+      if (c == '\r' || c == '\n') {
+        offsets.add(i + 1);
+      }
+    }
+    return offsets.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /**
+   * Collects the literals that are compared to a column.
+   */
+  private static final class LiteralFinder extends SqlBasicVisitor<Void> {
+    private final TimeUnitRange cubeTimeUnit;
+    private final List<SqlLiteral> literals = new ArrayList<>();
+    private boolean hasDynamicParams = false;
+
+    LiteralFinder(final TimeUnitRange cubeTimeUnit) {
+      this.cubeTimeUnit = cubeTimeUnit;
+    }
+
+    @Override
+    public Void visit(final SqlDynamicParam param) {
+      hasDynamicParams = true;
+      return null;
+    }
+
+    @Override
+    public Void visit(final SqlCall call) {
+      final List<SqlNode> operands = call.getOperandList();
+      if (COMPARISONS.contains(call.getKind()) && operands.size() == 2) {
+        if (operands.get(0) instanceof SqlIdentifier && isReplaceable(operands.get(1))) {
+          literals.add((SqlLiteral) operands.get(1));
+        } else if (operands.get(1) instanceof SqlIdentifier && isReplaceable(operands.get(0))) {
+          literals.add((SqlLiteral) operands.get(0));
+        }
+      } else if (call.getKind() == SqlKind.IN && operands.size() == 2 && operands.get(0) instanceof SqlIdentifier
+          && operands.get(1) instanceof SqlNodeList) {
+        final SqlNodeList list = (SqlNodeList) operands.get(1);
+        if (list.size() <= MAX_IN_LIST_SIZE && list.getList().stream().allMatch(this::isReplaceable)) {
+          list.forEach(value -> literals.add((SqlLiteral) value));
+        }
+      }
+      return super.visit(call);
+    }
+
+    private boolean isReplaceable(final SqlNode node) {
+      if (node instanceof SqlTimestampLiteral) {
+        final long millis = ((SqlTimestampLiteral) node).getValueAs(TimestampString.class).getMillisSinceEpoch();
+        return cubeTimeUnit == null || KuduCubeRewriteRule.floorTimestamp(cubeTimeUnit, millis) != millis;
+      }
+      return node instanceof SqlNumericLiteral
+          || (node instanceof SqlCharStringLiteral && ((SqlLiteral) node).getTypeName() == SqlTypeName.CHAR);
+    }
+  }
+}
@@ -0,0 +1,211 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.apache.calcite.jdbc.CalcitePrepare;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the prepared and compiled plans of read only statements so that
+ * executing the same SQL again skips parsing, validation, planning and code
+ * generation.
+ *
+ * A compiled plan only refers to tables through the schema of the connection
+ * executing it, so it can be shared between connections. Prepared statement
+ * parameters are bound when the plan is executed. The whole cache is
+ * invalidated whenever the schema reloads its tables, plans that were being
+ * prepared at that time are not cached.
+ *
+ * The cache is only enabled if the {@code planCacheMaxEntries} schema property
+ * is set. Executing a cached plan doesn't run the planner or the hooks Calcite
+ * calls while preparing a statement such as {@code Hook.PROGRAM}, and a plan
+ * keeps the statistics the tables had when it was prepared.
+ */
+public final class PlanCache {
+
+  private final Cache<Key, CalcitePrepare.CalciteSignature<?>> cache;
+
+  // incremented every time the cache is invalidated
+  private final AtomicLong version = new AtomicLong(0L);
+
+  /**
+   * @param maxEntries maximum number of plans to hold, zero or less disables the
+   *                   cache
+   */
+  public PlanCache(final long maxEntries) {
+    if (maxEntries > 0) {
+      this.cache = CacheBuilder.newBuilder().maximumSize(maxEntries).recordStats().build();
+    } else {
+      this.cache = null;
+    }
+  }
+
+  public boolean isEnabled() {
+    return cache != null;
+  }
+
+  /**
+   * @return version of the schema the plans are prepared against, has to be read
+   *         before preparing a plan that will be put in the cache
+   */
+  public long version() {
+    return version.get();
+  }
+
+  /**
+   * @param key key of the statement
+   * @return the cached plan, null if the statement has to be prepared
+   */
+  public CalcitePrepare.CalciteSignature<?> get(final Key key) {
+    return cache == null ? null : cache.getIfPresent(key);
+  }
+
+  /**
+   * Caches a plan unless the cache was invalidated while it was being prepared.
+   *
+   * @param version   version returned by {@link #version()} before preparing
+   * @param key       key of the statement
+   * @param signature the prepared plan
+   */
+  public void put(final long version, final Key key, final CalcitePrepare.CalciteSignature<?> signature) {
+    if (cache != null && version == this.version.get()) {
+      cache.put(key, signature);
+      // drop the plan if the cache was invalidated concurrently
+      if (version != this.version.get()) {
+        cache.invalidate(key);
+      }
+    }
+  }
+
+  /**
+   * Drops every cached plan, called when tables might have been created, altered
+   * or dropped.
+   */
+  public void invalidateAll() {
+    version.incrementAndGet();
+    if (cache != null) {
+      cache.invalidateAll();
+    }
+  }
+
+  public long size() {
+    return cache == null ? 0 : cache.size();
+  }
+
+  public CacheStats stats() {
+    return cache == null ? new CacheStats(0, 0, 0, 0, 0, 0) : cache.stats();
+  }
+
+  /**
+   * Collapses whitespace outside of quoted literals and identifiers and removes
+   * comments so that statements that only differ in formatting share a plan.
+   * Hints change the plan and are kept.
+   *
+   * @param sql text of the statement
+   * @return normalized text
+   */
+  public static String normalize(final String sql) {
+    final StringBuilder sb = new StringBuilder(sql.length());
+    char quote = 0;
+    boolean pendingSpace = false;
+    for (int i = 0; i < sql.length(); i++) {
+      final char c = sql.charAt(i);
+      if (quote == 0) {
+        final int commentEnd = commentEnd(sql, i);
+        if (commentEnd > i) {
+          // a comment separates tokens like whitespace does
+          pendingSpace = sb.length() > 0;
+          i = commentEnd - 1;
+          continue;
+        }
+        if (Character.isWhitespace(c)) {
+          pendingSpace = sb.length() > 0;
+          continue;
+        }
+      }
+      if (pendingSpace) {
+        sb.append(' ');
+        pendingSpace = false;
+      }
+      if (quote == 0 && (c == '\'' || c == '"')) {
+        quote = c;
+      } else if (c == quote) {
+        // a doubled quote is an escaped quote and reopens the literal right away
+        quote = 0;
+      }
+      sb.append(c);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @return the index after the comment that starts at {@code start}, or
+   *         {@code start} if no comment starts there, it is a hint or it isn't
+   *         closed
+   */
+  private static int commentEnd(final String sql, final int start) {
+    if (sql.startsWith("--", start) || sql.startsWith("//", start)) {
+      // a line comment ends with the line
+      int end = start + 2;
+      while (end < sql.length() && sql.charAt(end) != '\n' && sql.charAt(end) != '\r') {
+        end++;
+      }
+      return end;
+    }
+    if (sql.startsWith("/*", start) && !sql.startsWith("/*+", start)) {
+      final int end = sql.indexOf("*/", start + 2);
+      return end < 0 ? start : end + 2;
+    }
+    return start;
+  }
+
+  public static final class Key {
+    private final String sql;
+    private final List<Object> settings;
+
+    /**
+     * @param sql      normalized text of the statement
+     * @param settings connection settings and prepare arguments that change the
+     *                 plan of the statement
+     */
+    public Key(final String sql, final List<Object> settings) {
+      this.sql = sql;
+      this.settings = settings;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(sql, settings);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) obj;
+      return sql.equals(other.sql) && settings.equals(other.settings);
+    }
+  }
+}
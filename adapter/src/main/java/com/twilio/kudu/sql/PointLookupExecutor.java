@@ -0,0 +1,627 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.calcite.linq4j.function.Function1;
+import org.apache.calcite.linq4j.function.Predicate1;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Common;
+import org.apache.kudu.Schema;
+import org.apache.kudu.client.AsyncKuduScanner;
+import org.apache.kudu.client.KuduException;
+import org.apache.kudu.client.KuduPartitioner;
+import org.apache.kudu.client.KuduPredicate;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.NonCoveredRangeException;
+import org.apache.kudu.client.PartialRow;
+import org.apache.kudu.client.RowResult;
+import org.apache.kudu.client.RowResultIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads rows by their full primary key without building scan tokens. Each
+ * lookup is a single {@link AsyncKuduScanner} with an equality predicate on
+ * every primary key column, the client prunes it to the one tablet that can
+ * hold the row and the rows are read on the calling thread.
+ *
+ * Lookups of a single row that are executed concurrently and fall into the same
+ * tablet are batched. The tablet of a key is computed locally by a
+ * {@link KuduPartitioner} from the partition schema of the table. While a scan
+ * of a tablet is in flight the lookups of that tablet queue up and are read
+ * together by the next scan, using an in list predicate on every primary key
+ * column. A lookup that arrives while the tablet is idle is scanned right away
+ * so batching never delays a lookup that doesn't have to wait anyway.
+ */
+public final class PointLookupExecutor {
+
+  private static final Logger logger = LoggerFactory.getLogger(PointLookupExecutor.class);
+
+  public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+  // a query that reads more keys is scanned with scan tokens, the in lists of a
+  // single scan would match too many rows that weren't looked up
+  static final int MAX_KEYS = 64;
+
+  // partitioners are rebuilt after this time so that new range partitions are
+  // picked up, a stale partitioner only makes batching less effective
+  static final long PARTITIONER_TTL_MS = 60_000L;
+
+  // Building a partitioner blocks on the master so it doesn't run on the thread
+  // of a lookup or the common pool.
+  private static final ExecutorService PARTITIONER_EXECUTOR = Executors.newSingleThreadExecutor(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("kudu-point-lookup-partitioner-%d").build());
+
+  private final int maxBatchSize;
+
+  private final Cache<String, CompletableFuture<KuduPartitioner>> partitioners = CacheBuilder.newBuilder()
+      .expireAfterWrite(PARTITIONER_TTL_MS, TimeUnit.MILLISECONDS).build();
+
+  private final ConcurrentHashMap<BatchKey, Batcher> batchers = new ConcurrentHashMap<>();
+
+  private final AtomicLong scanCount = new AtomicLong(0L);
+
+  /**
+   * @param maxBatchSize maximum number of lookups read by one scan, one or less
+   *                     disables batching
+   */
+  public PointLookupExecutor(final int maxBatchSize) {
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  /**
+   * @return an executor that scans every lookup on its own
+   */
+  public static PointLookupExecutor unbatched() {
+    return new PointLookupExecutor(1);
+  }
+
+  public boolean isBatchingEnabled() {
+    return maxBatchSize > 1;
+  }
+
+  /**
+   * Drops the partitioners, the tablets or partitions of the tables may have
+   * changed.
+   */
+  public void invalidateAll() {
+    partitioners.invalidateAll();
+  }
+
+  /**
+   * @return number of scans issued, lookups that were batched together count once
+   */
+  @VisibleForTesting
+  long getScanCount() {
+    return scanCount.get();
+  }
+
+  /**
+   * Primary key of a row to look up along with the Kudu predicates that read it.
+   */
+  static final class Key {
+    // encoded value of the equality predicate on each primary key column
+    private final Common.ColumnPredicatePB[] equalities;
+    // values of the primary key columns as they are stored, in the types
+    // RowResult#getObject returns
+    private final Object[] values;
+    private final PartialRow row;
+    private final List<KuduPredicate> predicates;
+    private final boolean hasOtherPredicates;
+
+    private Key(final Common.ColumnPredicatePB[] equalities, final Object[] values, final PartialRow row,
+        final List<KuduPredicate> predicates, final boolean hasOtherPredicates) {
+      this.equalities = equalities;
+      this.values = values;
+      this.row = row;
+      this.predicates = predicates;
+      this.hasOtherPredicates = hasOtherPredicates;
+    }
+
+    private boolean matches(final RowResult result, final int[] keyPositions) {
+      for (int i = 0; i < values.length; i++) {
+        if (!Objects.deepEquals(values[i], result.getObject(keyPositions[i]))) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Returns the primary keys of the rows the query reads if every sub scan has an
+   * equality predicate on each primary key column. A single sub scan may also
+   * filter other columns, those predicates are pushed into the scan as well.
+   *
+   * @param calciteKuduTable table the query reads
+   * @param predicates       predicates of each sub scan
+   * @param maxKeys          maximum number of keys the query may read
+   * @return the distinct keys in the order of the sub scans, null if the query
+   *         doesn't read rows by their primary key
+   */
+  static List<Key> keys(final CalciteKuduTable calciteKuduTable, final List<List<CalciteKuduPredicate>> predicates,
+      final int maxKeys) {
+    if (predicates.isEmpty() || predicates.size() > maxKeys) {
+      return null;
+    }
+    final Schema schema = calciteKuduTable.getKuduTable().getSchema();
+    final int keyColumnCount = schema.getPrimaryKeyColumnCount();
+    final List<Key> keys = new ArrayList<>(predicates.size());
+    for (List<CalciteKuduPredicate> subScan : predicates) {
+      final ComparisonPredicate[] keyPredicates = new ComparisonPredicate[keyColumnCount];
+      final List<KuduPredicate> otherPredicates = new ArrayList<>();
+      for (CalciteKuduPredicate predicate : subScan) {
+        final int columnIdx = predicate.getColumnIdx();
+        if (columnIdx < keyColumnCount && keyPredicates[columnIdx] == null && predicate instanceof ComparisonPredicate
+            && ((ComparisonPredicate) predicate).operation == KuduPredicate.ComparisonOp.EQUAL) {
+          keyPredicates[columnIdx] = (ComparisonPredicate) predicate;
+        } else {
+          otherPredicates.add(predicate.toPredicate(calciteKuduTable));
+        }
+      }
+      // a lookup that filters other columns can't share a scan with other keys
+      if (!otherPredicates.isEmpty() && predicates.size() > 1) {
+        return null;
+      }
+      final Common.ColumnPredicatePB[] equalities = new Common.ColumnPredicatePB[keyColumnCount];
+      final Object[] values = new Object[keyColumnCount];
+      final PartialRow row = schema.newPartialRow();
+      final List<KuduPredicate> kuduPredicates = new ArrayList<>(keyColumnCount + otherPredicates.size());
+      for (int i = 0; i < keyColumnCount; i++) {
+        if (keyPredicates[i] == null) {
+          return null;
+        }
+        final KuduPredicate equality = keyPredicates[i].toPredicate(calciteKuduTable);
+        equalities[i] = equality.toPB();
+        // a value that doesn't fit the type of the column isn't an equality
+        // anymore, the regular scan handles it
+        if (!equalities[i].hasEquality()) {
+          return null;
+        }
+        setKeyValue(row, schema.getColumnByIndex(i), i, equalities[i].getEquality().getValue().toByteArray());
+        values[i] = row.getObject(i);
+        kuduPredicates.add(equality);
+      }
+      kuduPredicates.addAll(otherPredicates);
+      // sub scans that read the same key return its row once
+      if (keys.stream().noneMatch(key -> Arrays.deepEquals(key.values, values))) {
+        keys.add(new Key(equalities, values, row, kuduPredicates, !otherPredicates.isEmpty()));
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Sets a primary key column of the row to the value of an equality predicate.
+   * The predicate holds the value after it was converted to the type of the
+   * column, and inverted for descending columns, encoded the way Kudu stores it:
+   * little endian for numbers and the bytes of strings and binaries.
+   */
+  @VisibleForTesting
+  static void setKeyValue(final PartialRow row, final ColumnSchema column, final int columnIdx, final byte[] value) {
+    final ByteBuffer buffer = ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN);
+    switch (column.getType()) {
+    case BOOL:
+      row.addBoolean(columnIdx, value[0] != 0);
+      break;
+    case INT8:
+      row.addByte(columnIdx, value[0]);
+      break;
+    case INT16:
+      row.addShort(columnIdx, buffer.getShort());
+      break;
+    case INT32:
+      row.addInt(columnIdx, buffer.getInt());
+      break;
+    case DATE:
+      row.addDate(columnIdx, Date.valueOf(LocalDate.ofEpochDay(buffer.getInt())));
+      break;
+    case INT64:
+    case UNIXTIME_MICROS:
+      row.addLong(columnIdx, buffer.getLong());
+      break;
+    case FLOAT:
+      row.addFloat(columnIdx, buffer.getFloat());
+      break;
+    case DOUBLE:
+      row.addDouble(columnIdx, buffer.getDouble());
+      break;
+    case DECIMAL:
+      final BigInteger unscaled;
+      if (value.length == Integer.BYTES) {
+        unscaled = BigInteger.valueOf(buffer.getInt());
+      } else if (value.length == Long.BYTES) {
+        unscaled = BigInteger.valueOf(buffer.getLong());
+      } else {
+        final byte[] bigEndian = new byte[value.length];
+        for (int i = 0; i < value.length; i++) {
+          bigEndian[i] = value[value.length - 1 - i];
+        }
+        unscaled = new BigInteger(bigEndian);
+      }
+      row.addDecimal(columnIdx, new BigDecimal(unscaled, column.getTypeAttributes().getScale()));
+      break;
+    case STRING:
+      row.addStringUtf8(columnIdx, value);
+      break;
+    case VARCHAR:
+      row.addVarchar(columnIdx, new String(value, StandardCharsets.UTF_8));
+      break;
+    case BINARY:
+      row.addBinary(columnIdx, value);
+      break;
+    default:
+      throw new IllegalArgumentException("Unsupported primary key type " + column.getType());
+    }
+  }
+
+  /**
+   * Reads the rows of the keys.
+   *
+   * @param calciteKuduTable        table to read
+   * @param keys                    keys returned by
+   *                                {@link #keys(CalciteKuduTable, List, int)}
+   * @param columnIndices           the column indexes to fetch from the table
+   * @param snapshotTimestampMicros snapshot to read
+   * @param readAtSnapshot          whether the exact snapshot has to be read,
+   *                                otherwise the lookup may share a scan that
+   *                                reads a slightly later snapshot
+   * @param projection              function to translate a {@link RowResult} into
+   *                                Calcite
+   * @param filterFunction          filter applied to every {@link RowResult}
+   * @param isSingleObject          whether or not Calcite object is an Object or
+   *                                an Object[]
+   * @param scanStats               stats of the query
+   * @return the rows of the keys that exist and pass the filter
+   */
+  List<Object> lookup(final CalciteKuduTable calciteKuduTable, final List<Key> keys, final List<Integer> columnIndices,
+      final long snapshotTimestampMicros, final boolean readAtSnapshot, final Function1<Object, Object> projection,
+      final Predicate1<Object> filterFunction, final boolean isSingleObject, final KuduScanStats scanStats) {
+    final List<Lookup> lookups = new ArrayList<>(keys.size());
+    for (Key key : keys) {
+      lookups.add(new Lookup(key, snapshotTimestampMicros, projection, filterFunction, isSingleObject, scanStats));
+    }
+    if (lookups.size() > 1 || !isBatchingEnabled() || keys.get(0).hasOtherPredicates) {
+      scan(calciteKuduTable, columnIndices, lookups);
+      if (lookups.size() == 1) {
+        return lookups.get(0).result();
+      }
+      final List<Object> rows = new ArrayList<>();
+      for (Lookup lookup : lookups) {
+        rows.addAll(lookup.result());
+      }
+      return rows;
+    }
+
+    final Lookup lookup = lookups.get(0);
+    final Integer partition = partition(calciteKuduTable.getKuduTable(), lookup.key.row);
+    if (partition == null) {
+      scan(calciteKuduTable, columnIndices, lookups);
+      return lookup.result();
+    }
+    final BatchKey batchKey = new BatchKey(calciteKuduTable.getKuduTable().getTableId(), partition, columnIndices,
+        readAtSnapshot ? snapshotTimestampMicros : -1L);
+    final Batcher batcher = batchers.computeIfAbsent(batchKey, k -> new Batcher());
+    List<Lookup> batch;
+    synchronized (batcher) {
+      if (batcher.scanning) {
+        batcher.waiting.add(lookup);
+        batch = null;
+      } else {
+        batcher.scanning = true;
+        batch = Collections.singletonList(lookup);
+      }
+    }
+    if (batch == null) {
+      // wait until a scan read the row, or until this lookup has to scan the
+      // lookups that queued up behind the previous scan
+      try {
+        batch = awaitTurn(calciteKuduTable, batcher, lookup);
+      } catch (CompletionException e) {
+        throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+      }
+    }
+    if (batch != null) {
+      lead(calciteKuduTable, columnIndices, batchKey, batcher, batch);
+    }
+    return lookup.result();
+  }
+
+  /**
+   * Waits for the turn of a lookup that queued up behind the scan of its tablet
+   * for at most the operation timeout of the client, like a scanner RPC.
+   */
+  private List<Lookup> awaitTurn(final CalciteKuduTable calciteKuduTable, final Batcher batcher, final Lookup lookup) {
+    final long timeoutMs = calciteKuduTable.getClient().getDefaultOperationTimeoutMs();
+    try {
+      return lookup.turn.get(timeoutMs, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      // the batch is handed over while holding the lock, a lookup that gave up is
+      // never asked to scan the lookups behind it
+      synchronized (batcher) {
+        if (lookup.turn.completeExceptionally(new RuntimeException(
+            "Point lookup timed out after " + timeoutMs + " ms waiting for the scan of its tablet", e))) {
+          batcher.waiting.remove(lookup);
+        }
+      }
+      return lookup.turn.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for a point lookup", e);
+    } catch (ExecutionException e) {
+      throw new CompletionException(e.getCause());
+    }
+  }
+
+  /**
+   * Scans the batch on the calling thread, then hands the lookups that queued up
+   * in the meantime to the first of them.
+   */
+  private void lead(final CalciteKuduTable calciteKuduTable, final List<Integer> columnIndices, final BatchKey batchKey,
+      final Batcher batcher, final List<Lookup> batch) {
+    try {
+      scan(calciteKuduTable, columnIndices, batch);
+    } catch (RuntimeException e) {
+      batch.forEach(lookup -> lookup.failure = e);
+    } finally {
+      final List<Lookup> next = new ArrayList<>();
+      synchronized (batcher) {
+        while (next.size() < maxBatchSize && !batcher.waiting.isEmpty()) {
+          next.add(batcher.waiting.poll());
+        }
+        if (next.isEmpty()) {
+          batcher.scanning = false;
+          batchers.remove(batchKey, batcher);
+        } else {
+          next.get(0).turn.complete(next);
+        }
+      }
+      // the first lookup of the batch is run by the calling thread
+      for (int i = 1; i < batch.size(); i++) {
+        batch.get(i).turn.complete(null);
+      }
+    }
+  }
+
+  /**
+   * @return index of the partition of the key, null if the partitioner of the
+   *         table isn't built yet or the key isn't covered by a partition
+   */
+  private Integer partition(final KuduTable table, final PartialRow row) {
+    try {
+      final KuduPartitioner partitioner = partitioners
+          .get(table.getTableId(), () -> CompletableFuture.supplyAsync(() -> {
+            try {
+              return new KuduPartitioner.KuduPartitionerBuilder(table).build();
+            } catch (KuduException e) {
+              throw new CompletionException(e);
+            }
+          }, PARTITIONER_EXECUTOR)).getNow(null);
+      return partitioner == null ? null : partitioner.partitionRow(row);
+    } catch (ExecutionException | CompletionException | NonCoveredRangeException e) {
+      logger.debug("Scanning point lookup of {} without batching", table.getName(), e);
+      return null;
+    }
+  }
+
+  /**
+   * Reads the rows of the lookups with a single scanner. A single lookup is read
+   * with its own predicates, lookups of different keys are read with an in list
+   * on every primary key column which can match more rows than were looked up,
+   * each row is only returned to the lookups of its key.
+   */
+  private void scan(final CalciteKuduTable calciteKuduTable, final List<Integer> columnIndices,
+      final List<Lookup> lookups) {
+    final KuduTable table = calciteKuduTable.getKuduTable();
+    final Schema schema = table.getSchema();
+    final int keyColumnCount = schema.getPrimaryKeyColumnCount();
+    final long snapshotTimestampMicros = lookups.stream().mapToLong(lookup -> lookup.snapshotTimestampMicros).max()
+        .getAsLong();
+    final AsyncKuduScanner.AsyncKuduScannerBuilder builder = calciteKuduTable.getClient().newScannerBuilder(table)
+        .readMode(AsyncKuduScanner.ReadMode.READ_AT_SNAPSHOT).snapshotTimestampMicros(snapshotTimestampMicros);
+    if (calciteKuduTable.scannerBatchSizeBytes > 0) {
+      builder.batchSizeBytes(calciteKuduTable.scannerBatchSizeBytes);
+    }
+    final int[] keyPositions;
+    if (lookups.size() == 1) {
+      lookups.get(0).key.predicates.forEach(builder::addPredicate);
+      if (!columnIndices.isEmpty()) {
+        builder.setProjectedColumnIndexes(columnIndices);
+      }
+      keyPositions = null;
+    } else {
+      for (int i = 0; i < keyColumnCount; i++) {
+        final Common.ColumnPredicatePB.InList.Builder inList = Common.ColumnPredicatePB.InList.newBuilder();
+        for (Lookup lookup : lookups) {
+          inList.addValues(lookup.key.equalities[i].getEquality().getValue());
+        }
+        builder.addPredicate(KuduPredicate.fromPB(schema, Common.ColumnPredicatePB.newBuilder()
+            .setColumn(schema.getColumnByIndex(i).getName()).setInList(inList).build()));
+      }
+      // the primary key columns are needed to match the rows to the lookups, the
+      // projection function only reads the columns that come before them
+      keyPositions = new int[keyColumnCount];
+      if (columnIndices.isEmpty()) {
+        for (int i = 0; i < keyColumnCount; i++) {
+          keyPositions[i] = i;
+        }
+      } else {
+        final List<Integer> projectedColumns = new ArrayList<>(columnIndices);
+        for (int i = 0; i < keyColumnCount; i++) {
+          int position = projectedColumns.indexOf(i);
+          if (position < 0) {
+            position = projectedColumns.size();
+            projectedColumns.add(i);
+          }
+          keyPositions[i] = position;
+        }
+        builder.setProjectedColumnIndexes(projectedColumns);
+      }
+    }
+
+    final AsyncKuduScanner scanner = builder.build();
+    scanCount.incrementAndGet();
+    final long timeoutMs = calciteKuduTable.getClient().getDefaultOperationTimeoutMs();
+    long rpcCount = 0;
+    try {
+      while (scanner.hasMoreRows()) {
+        final RowResultIterator results = scanner.nextRows().join(timeoutMs);
+        rpcCount++;
+        while (results != null && results.hasNext()) {
+          final RowResult row = results.next();
+          for (Lookup lookup : lookups) {
+            if (keyPositions == null || lookup.key.matches(row, keyPositions)) {
+              lookup.add(row);
+            }
+          }
+        }
+      }
+    } catch (Exception e) {
+      throw new RuntimeException("Point lookup failed, failing whole query", e);
+    } finally {
+      scanner.close();
+    }
+    for (Lookup lookup : lookups) {
+      lookup.scanStats.incrementScannerRpcCount(rpcCount);
+      lookup.scanStats.incrementRowsScannedCount(lookup.rowsScanned);
+    }
+  }
+
+  /**
+   * Lookup of one key by one query.
+   */
+  private static final class Lookup {
+    private final Key key;
+    private final long snapshotTimestampMicros;
+    private final Function1<Object, Object> projection;
+    private final Predicate1<Object> filterFunction;
+    private final boolean isSingleObject;
+    private final KuduScanStats scanStats;
+    // completed with the batch this lookup has to scan, with null once another
+    // lookup scanned its row, or exceptionally if the lookup stopped waiting
+    private final CompletableFuture<List<Lookup>> turn = new CompletableFuture<>();
+
+    // The fields below are written by the thread that scans the lookup before
+    // turn is completed.
+    private final List<Object> rows = new ArrayList<>(1);
+    private long rowsScanned = 0;
+    private RuntimeException failure = null;
+
+    Lookup(final Key key, final long snapshotTimestampMicros, final Function1<Object, Object> projection,
+        final Predicate1<Object> filterFunction, final boolean isSingleObject, final KuduScanStats scanStats) {
+      this.key = key;
+      this.snapshotTimestampMicros = snapshotTimestampMicros;
+      this.projection = projection;
+      this.filterFunction = filterFunction;
+      this.isSingleObject = isSingleObject;
+      this.scanStats = scanStats;
+    }
+
+    // the RowResult is reused by the iterator, it has to be projected right away
+    private void add(final RowResult row) {
+      rowsScanned++;
+      if (!filterFunction.apply(row)) {
+        return;
+      }
+      final Object[] rowData;
+      if (!isSingleObject) {
+        rowData = (Object[]) projection.apply(row);
+      } else {
+        rowData = new Object[] { projection.apply(row) };
+      }
+      rows.add(rowData.length == 1 ? rowData[0] : rowData);
+    }
+
+    private List<Object> result() {
+      if (failure != null) {
+        throw failure;
+      }
+      return rows;
+    }
+  }
+
+  /**
+   * Lookups with the same key share scans. Lookups that read an exact snapshot
+   * only share scans of that snapshot.
+   */
+  private static final class BatchKey {
+    private final String tableId;
+    private final int partition;
+    private final List<Integer> columnIndices;
+    private final long snapshotTimestampMicros;
+
+    BatchKey(final String tableId, final int partition, final List<Integer> columnIndices,
+        final long snapshotTimestampMicros) {
+      this.tableId = tableId;
+      this.partition = partition;
+      this.columnIndices = columnIndices;
+      this.snapshotTimestampMicros = snapshotTimestampMicros;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      final BatchKey other = (BatchKey) o;
+      return partition == other.partition && snapshotTimestampMicros == other.snapshotTimestampMicros
+          && tableId.equals(other.tableId) && columnIndices.equals(other.columnIndices);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(tableId, partition, columnIndices, snapshotTimestampMicros);
+    }
+  }
+
+  /**
+   * Lookups of one tablet waiting for the scan that is in flight.
+   */
+  private static final class Batcher {
+    // The fields below are guarded by this.
+    private boolean scanning = false;
+    private final ArrayDeque<Lookup> waiting = new ArrayDeque<>();
+  }
+}
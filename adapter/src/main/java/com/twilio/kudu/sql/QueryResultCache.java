@@ -0,0 +1,265 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.apache.calcite.linq4j.Enumerator;
+
+/**
+ * Caches the rows returned by a {@link KuduEnumerable} so that running the same
+ * read only query again doesn't scan Kudu.
+ *
+ * Queries on a table that uses the cache read a snapshot rounded down to the
+ * start of a fixed size bucket instead of the current time. Every execution
+ * that falls into the same bucket reads the exact same snapshot, so a cached
+ * result is identical to what a new scan would return. The price is that such
+ * queries see data that is up to one bucket older than they would otherwise.
+ *
+ * The cache is bounded by the estimated size of the rows it holds. A single
+ * result may use at most a quarter of the cache, larger results are not cached.
+ */
+public final class QueryResultCache {
+
+  public static final long DEFAULT_SNAPSHOT_BUCKET_MS = 60_000L;
+
+  private static final QueryResultCache DISABLED = new QueryResultCache(0L, DEFAULT_SNAPSHOT_BUCKET_MS);
+
+  private final Cache<Key, List<Object>> cache;
+  private final long maxEntryBytes;
+  private final long snapshotBucketMicros;
+
+  /**
+   * @param maxBytes         maximum estimated size of all the cached rows, zero
+   *                         or less disables the cache
+   * @param snapshotBucketMs size of the buckets the snapshot time is rounded down
+   *                         to
+   */
+  public QueryResultCache(final long maxBytes, final long snapshotBucketMs) {
+    this.snapshotBucketMicros = Math.max(1L, snapshotBucketMs) * 1000L;
+    this.maxEntryBytes = maxBytes / 4;
+    if (maxBytes > 0) {
+      // A single segment so the whole weight is available to every entry, the
+      // cache is only accessed once per query.
+      this.cache = CacheBuilder.newBuilder().concurrencyLevel(1).maximumWeight(maxBytes)
+          .<Key, List<Object>>weigher((key, rows) -> (int) Math.min(Integer.MAX_VALUE, key.bytes))
+          .expireAfterWrite(snapshotBucketMs * 2, TimeUnit.MILLISECONDS).recordStats().build();
+    } else {
+      this.cache = null;
+    }
+  }
+
+  /**
+   * @return a cache that never holds any rows
+   */
+  public static QueryResultCache disabled() {
+    return DISABLED;
+  }
+
+  public boolean isEnabled() {
+    return cache != null;
+  }
+
+  /**
+   * @param snapshotTimestampMicros snapshot the query would read without the
+   *                                cache
+   * @return the start of the bucket the snapshot falls into
+   */
+  public long bucketSnapshot(final long snapshotTimestampMicros) {
+    return snapshotTimestampMicros - (snapshotTimestampMicros % snapshotBucketMicros);
+  }
+
+  /**
+   * @param key key of the query
+   * @return the cached rows of the query or null if they aren't cached
+   */
+  public List<Object> get(final Key key) {
+    return cache == null ? null : cache.getIfPresent(key);
+  }
+
+  /**
+   * Wraps the enumerator of a query so that its rows are cached once it is
+   * exhausted. Rows of a query that is closed early, canceled or fails are
+   * discarded.
+   *
+   * @param key        key of the query
+   * @param enumerator enumerator that scans Kudu
+   * @param canceled   returns true if the query was canceled
+   * @return enumerator that returns the same rows as the given one
+   */
+  public Enumerator<Object> recording(final Key key, final Enumerator<Object> enumerator,
+      final BooleanSupplier canceled) {
+    return new Enumerator<Object>() {
+      private List<Object> rows = new ArrayList<>();
+      private long bytes = 0L;
+
+      @Override
+      public Object current() {
+        return enumerator.current();
+      }
+
+      @Override
+      public boolean moveNext() {
+        final boolean moved = enumerator.moveNext();
+        if (rows == null) {
+          return moved;
+        }
+        if (moved) {
+          final Object row = enumerator.current();
+          bytes += estimateBytes(row);
+          if (bytes > maxEntryBytes) {
+            rows = null;
+          } else {
+            rows.add(row);
+          }
+        } else if (!canceled.getAsBoolean()) {
+          key.bytes = bytes;
+          cache.put(key, rows);
+          rows = null;
+        }
+        return moved;
+      }
+
+      @Override
+      public void reset() {
+        rows = null;
+        enumerator.reset();
+      }
+
+      @Override
+      public void close() {
+        rows = null;
+        enumerator.close();
+      }
+    };
+  }
+
+  public void invalidateAll() {
+    if (cache != null) {
+      cache.invalidateAll();
+    }
+  }
+
+  /**
+   * @return estimated bytes of the cached rows
+   */
+  public long weightedSize() {
+    if (cache == null) {
+      return 0L;
+    }
+    return cache.asMap().keySet().stream().mapToLong(key -> key.bytes).sum();
+  }
+
+  public CacheStats stats() {
+    return cache == null ? new CacheStats(0, 0, 0, 0, 0, 0) : cache.stats();
+  }
+
+  /**
+   * Estimates the heap used by a row returned by a {@link KuduEnumerable}.
+   */
+  static long estimateBytes(final Object value) {
+    if (value == null) {
+      return 8L;
+    }
+    if (value instanceof Object[]) {
+      final Object[] values = (Object[]) value;
+      long bytes = 16L + 8L * values.length;
+      for (Object columnValue : values) {
+        bytes += estimateBytes(columnValue);
+      }
+      return bytes;
+    }
+    if (value instanceof String) {
+      return 40L + 2L * ((String) value).length();
+    }
+    if (value instanceof byte[]) {
+      return 16L + ((byte[]) value).length;
+    }
+    // boxed primitives, timestamps and decimals
+    return 32L;
+  }
+
+  /**
+   * Identifies the rows returned by a query.
+   */
+  public static final class Key {
+    private final String queryKey;
+    private final String tableId;
+    private final List<List<CalciteKuduPredicate>> predicates;
+    private final List<Integer> columnIndices;
+    private final long limit;
+    private final long offset;
+    private final boolean sort;
+    private final boolean groupBySorted;
+    private final long snapshotTimestampMicros;
+    // estimated size of the rows, set once they are cached
+    private volatile long bytes;
+
+    /**
+     * @param queryKey                describes the projection and in memory filter
+     *                                applied to the rows
+     * @param tableId                 id of the Kudu table being scanned
+     * @param predicates              predicates of the sub scans
+     * @param columnIndices           projected column indices
+     * @param limit                   limit of the query
+     * @param offset                  offset of the query
+     * @param sort                    whether rows are sorted by primary key
+     * @param groupBySorted           whether rows are read for a sorted group by
+     * @param snapshotTimestampMicros bucketed snapshot the query reads
+     */
+    public Key(final String queryKey, final String tableId, final List<List<CalciteKuduPredicate>> predicates,
+        final List<Integer> columnIndices, final long limit, final long offset, final boolean sort,
+        final boolean groupBySorted, final long snapshotTimestampMicros) {
+      this.queryKey = queryKey;
+      this.tableId = tableId;
+      this.predicates = predicates;
+      this.columnIndices = columnIndices;
+      this.limit = limit;
+      this.offset = offset;
+      this.sort = sort;
+      this.groupBySorted = groupBySorted;
+      this.snapshotTimestampMicros = snapshotTimestampMicros;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(queryKey, tableId, predicates, columnIndices, limit, offset, sort, groupBySorted,
+          snapshotTimestampMicros);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) obj;
+      return limit == other.limit && offset == other.offset && sort == other.sort
+          && groupBySorted == other.groupBySorted && snapshotTimestampMicros == other.snapshotTimestampMicros
+          && queryKey.equals(other.queryKey) && tableId.equals(other.tableId) && predicates.equals(other.predicates)
+          && columnIndices.equals(other.columnIndices);
+    }
+  }
+}
@@ -0,0 +1,809 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.Linq4j;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.sql.type.SqlTypeName;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregates the projected rows of a scan. Every scanner feeds its rows into
+ * its own {@link Partial} from the thread that receives its batches, once all
+ * the scanners are done the partial states are merged into the result rows.
+ *
+ * Supports {@code COUNT}, {@code SUM}, {@code $SUM0}, {@code MIN}, {@code MAX}
+ * and {@code AVG} without {@code DISTINCT} or {@code FILTER}, see
+ * {@link #create(Aggregate)}.
+ *
+ * The partials of a query can share a {@link GroupBudget}. A partial that adds
+ * a group once the groups of all the partials exceed the budget writes its
+ * groups to {@link SpillFile}s picked by the hash of their key. When any group
+ * was spilled the partials are merged one hash partition at a time, so only the
+ * groups of a single partition are in memory at once.
+ */
+public final class ScanAggregation {
+
+  private enum Function {
+    COUNT, SUM, SUM0, MIN, MAX, AVG
+  }
+
+  /**
+   * Java type a numeric aggregate is returned as, the representation Calcite uses
+   * for the SQL type.
+   */
+  private enum NumericType {
+    BYTE, SHORT, INT, LONG, FLOAT, DOUBLE, DECIMAL, NONE;
+
+    static NumericType of(final SqlTypeName typeName) {
+      switch (typeName) {
+      case TINYINT:
+        return BYTE;
+      case SMALLINT:
+        return SHORT;
+      case INTEGER:
+        return INT;
+      case BIGINT:
+        return LONG;
+      case REAL:
+        return FLOAT;
+      case FLOAT:
+      case DOUBLE:
+        return DOUBLE;
+      case DECIMAL:
+        return DECIMAL;
+      default:
+        return NONE;
+      }
+    }
+
+    boolean isIntegral() {
+      return this == BYTE || this == SHORT || this == INT || this == LONG;
+    }
+
+    Object fromLong(final long value) {
+      switch (this) {
+      case BYTE:
+        return (byte) value;
+      case SHORT:
+        return (short) value;
+      case INT:
+        return (int) value;
+      default:
+        return value;
+      }
+    }
+
+    Object fromDouble(final double value) {
+      return this == FLOAT ? (Object) (float) value : (Object) value;
+    }
+  }
+
+  private static final class Call {
+    final Function function;
+    // index of the argument in the projected row, -1 for COUNT(*)
+    final int arg;
+    final NumericType type;
+
+    Call(final Function function, final int arg, final NumericType type) {
+      this.function = function;
+      this.arg = arg;
+      this.type = type;
+    }
+
+    Accumulator newAccumulator() {
+      switch (function) {
+      case COUNT:
+        return new CountAccumulator(arg < 0);
+      case MIN:
+      case MAX:
+        return new MinMaxAccumulator(function == Function.MAX);
+      case AVG:
+        return new AvgAccumulator(type);
+      default:
+        if (type.isIntegral()) {
+          return new LongSumAccumulator(type, function == Function.SUM0);
+        } else if (type == NumericType.DECIMAL) {
+          return new DecimalSumAccumulator(function == Function.SUM0);
+        }
+        return new DoubleSumAccumulator(type, function == Function.SUM0);
+      }
+    }
+  }
+
+  // estimated bytes of a group besides its key: its entry in the hash table and
+  // the array of accumulators
+  private static final long GROUP_OVERHEAD_BYTES = 64L;
+  private static final long ACCUMULATOR_BYTES = 32L;
+
+  private final int[] groupKeys;
+  private final List<Call> calls;
+
+  private ScanAggregation(final int[] groupKeys, final List<Call> calls) {
+    this.groupKeys = groupKeys;
+    this.calls = calls;
+  }
+
+  /**
+   * Estimated bytes of the groups the partials of a query keep in memory, shared
+   * by the callbacks of all its scanners.
+   */
+  public static final class GroupBudget {
+    private final long budgetBytes;
+    private final KuduScanStats scanStats;
+    private final AtomicLong groupBytes = new AtomicLong();
+
+    /**
+     * @param budgetBytes estimated bytes of groups to keep in memory before
+     *                    spilling them, must be positive
+     * @param scanStats   stats of the query the groups belong to
+     */
+    public GroupBudget(final long budgetBytes, final KuduScanStats scanStats) {
+      this.budgetBytes = budgetBytes;
+      this.scanStats = scanStats;
+    }
+  }
+
+  /**
+   * @param aggregate aggregate over the projected rows of a scan
+   * @return the aggregation, null if one of the aggregate calls isn't supported
+   */
+  public static ScanAggregation create(final Aggregate aggregate) {
+    if (aggregate.getGroupType() != Aggregate.Group.SIMPLE) {
+      return null;
+    }
+    final List<RelDataType> inputTypes = new ArrayList<>();
+    aggregate.getInput().getRowType().getFieldList().forEach(field -> inputTypes.add(field.getType()));
+    final List<Call> calls = new ArrayList<>();
+    for (AggregateCall aggregateCall : aggregate.getAggCallList()) {
+      if (aggregateCall.isDistinct() || aggregateCall.hasFilter() || aggregateCall.isApproximate()
+          || !aggregateCall.getCollation().getFieldCollations().isEmpty() || aggregateCall.getArgList().size() > 1) {
+        return null;
+      }
+      final int arg = aggregateCall.getArgList().isEmpty() ? -1 : aggregateCall.getArgList().get(0);
+      final NumericType type = NumericType.of(aggregateCall.getType().getSqlTypeName());
+      final Function function;
+      switch (aggregateCall.getAggregation().getKind()) {
+      case COUNT:
+        function = Function.COUNT;
+        break;
+      case MIN:
+        function = Function.MIN;
+        break;
+      case MAX:
+        function = Function.MAX;
+        break;
+      case SUM:
+        function = Function.SUM;
+        break;
+      case SUM0:
+        function = Function.SUM0;
+        break;
+      case AVG:
+        // the scale of an average of decimals depends on the type system
+        function = Function.AVG;
+        if (type == NumericType.DECIMAL) {
+          return null;
+        }
+        break;
+      default:
+        return null;
+      }
+      if (function != Function.COUNT && arg < 0) {
+        return null;
+      }
+      if ((function == Function.SUM || function == Function.SUM0 || function == Function.AVG)
+          && (type == NumericType.NONE || NumericType.of(inputTypes.get(arg).getSqlTypeName()) == NumericType.NONE)) {
+        return null;
+      }
+      calls.add(new Call(function, arg, type));
+    }
+    return new ScanAggregation(aggregate.getGroupSet().toArray(), calls);
+  }
+
+  /**
+   * @return an empty partial aggregation for a single scanner that keeps all its
+   *         groups in memory
+   */
+  public Partial newPartial() {
+    return new Partial(null);
+  }
+
+  /**
+   * @param budget memory budget shared by the partials of the query, null to keep
+   *               all the groups in memory
+   * @return an empty partial aggregation for a single scanner
+   */
+  public Partial newPartial(final GroupBudget budget) {
+    return new Partial(budget);
+  }
+
+  /**
+   * Merges the partial aggregations of the scanners of a query. Closing the
+   * enumerator deletes the groups the partials spilled.
+   *
+   * @param partials       partial aggregation of each scanner
+   * @param isSingleObject whether a result row is a single value instead of an
+   *                       Object[]
+   * @return a row for each group, the group keys followed by the aggregates
+   */
+  public Enumerator<Object> merge(final List<Partial> partials, final boolean isSingleObject) {
+    if (partials.stream().anyMatch(partial -> partial.spilled != null)) {
+      return mergeSpilled(partials, isSingleObject);
+    }
+    Partial merged = null;
+    for (Partial partial : partials) {
+      if (merged == null || partial.groups.size() > merged.groups.size()) {
+        // merge into the largest table so that fewer groups are copied
+        if (merged != null) {
+          partial.mergeFrom(merged);
+        }
+        merged = partial;
+      } else {
+        merged.mergeFrom(partial);
+      }
+    }
+    // the groups are owned by the enumerator from now on
+    partials.forEach(Partial::releaseBudget);
+    final Map<Object, Accumulator[]> groups = merged == null ? Collections.emptyMap() : merged.groups;
+    if (groupKeys.length == 0 && groups.isEmpty()) {
+      // an aggregate without a group by returns a row even if there are no rows
+      return Linq4j.singletonEnumerator(toRow(null, newAccumulators(), isSingleObject));
+    }
+    return Linq4j.transform(Linq4j.iterableEnumerator(groups.entrySet()),
+        group -> toRow(group.getKey(), group.getValue(), isSingleObject));
+  }
+
+  /**
+   * Spills the groups every partial still has in memory and merges the spilled
+   * groups of one hash partition at a time.
+   */
+  private Enumerator<Object> mergeSpilled(final List<Partial> partials, final boolean isSingleObject) {
+    partials.forEach(Partial::spillGroups);
+    return new Enumerator<Object>() {
+      private int partition = 0;
+      private Iterator<Map.Entry<Object, Accumulator[]>> groups = Collections.emptyIterator();
+      private Object current;
+
+      @Override
+      public Object current() {
+        return current;
+      }
+
+      @Override
+      public boolean moveNext() {
+        while (!groups.hasNext()) {
+          if (partition == SpillingAggregation.PARTITIONS) {
+            return false;
+          }
+          groups = readPartition(partials, partition++).entrySet().iterator();
+        }
+        final Map.Entry<Object, Accumulator[]> group = groups.next();
+        current = toRow(group.getKey(), group.getValue(), isSingleObject);
+        return true;
+      }
+
+      @Override
+      public void reset() {
+        throw new RuntimeException("Cannot reset a spilled aggregation");
+      }
+
+      @Override
+      public void close() {
+        partials.forEach(Partial::discard);
+      }
+    };
+  }
+
+  private Map<Object, Accumulator[]> readPartition(final List<Partial> partials, final int partition) {
+    final Map<Object, Accumulator[]> groups = new HashMap<>();
+    for (Partial partial : partials) {
+      final SpillFile file = partial.spilled[partition];
+      if (file == null) {
+        continue;
+      }
+      partial.spilled[partition] = null;
+      try (Enumerator<Object> states = file.read()) {
+        while (states.moveNext()) {
+          final Object[] state = (Object[]) states.current();
+          final Object key = groupKeys.length > 1 ? new KeyList((Object[]) state[0]) : state[0];
+          Accumulator[] accumulators = groups.get(key);
+          if (accumulators == null) {
+            accumulators = newAccumulators();
+            groups.put(key, accumulators);
+          }
+          for (int i = 0; i < accumulators.length; i++) {
+            accumulators[i].mergeState(state[i + 1]);
+          }
+        }
+      }
+    }
+    return groups;
+  }
+
+  private Object toRow(final Object key, final Accumulator[] accumulators, final boolean isSingleObject) {
+    final Object[] row = new Object[groupKeys.length + accumulators.length];
+    if (groupKeys.length == 1) {
+      row[0] = key;
+    } else if (groupKeys.length > 1) {
+      System.arraycopy(((KeyList) key).values, 0, row, 0, groupKeys.length);
+    }
+    for (int i = 0; i < accumulators.length; i++) {
+      row[groupKeys.length + i] = accumulators[i].result();
+    }
+    return isSingleObject ? row[0] : row;
+  }
+
+  private Accumulator[] newAccumulators() {
+    final Accumulator[] accumulators = new Accumulator[calls.size()];
+    for (int i = 0; i < accumulators.length; i++) {
+      accumulators[i] = calls.get(i).newAccumulator();
+    }
+    return accumulators;
+  }
+
+  /**
+   * Hash table of the groups of the rows of a single scanner. Not thread safe,
+   * rows are only added by the callback of the scanner.
+   */
+  public final class Partial implements ScanRowSink {
+    private final GroupBudget budget;
+    private Map<Object, Accumulator[]> groups = new HashMap<>();
+    // estimated bytes of the groups in memory, counted in the budget
+    private long groupBytes = 0L;
+    // groups written to disk by the hash partition of their key, null if none
+    // were spilled
+    private SpillFile[] spilled = null;
+    // set once the query no longer needs the groups, a callback still adding rows
+    // drops them instead of spilling
+    private boolean discarded = false;
+    // set by the callback once its scanner has read every row of its tablet
+    private volatile boolean complete = false;
+
+    private Partial(final GroupBudget budget) {
+      this.budget = budget;
+    }
+
+    /**
+     * @param row projected row, the group keys and aggregate arguments are read by
+     *            their position
+     */
+    @Override
+    public void add(final Object[] row) {
+      final Object key;
+      if (groupKeys.length == 0) {
+        key = Boolean.TRUE;
+      } else if (groupKeys.length == 1) {
+        key = row[groupKeys[0]];
+      } else {
+        final Object[] values = new Object[groupKeys.length];
+        for (int i = 0; i < groupKeys.length; i++) {
+          values[i] = row[groupKeys[i]];
+        }
+        key = new KeyList(values);
+      }
+      Accumulator[] accumulators = groups.get(key);
+      final boolean newGroup = accumulators == null;
+      if (newGroup) {
+        accumulators = newAccumulators();
+        groups.put(key, accumulators);
+      }
+      for (int i = 0; i < accumulators.length; i++) {
+        final int arg = calls.get(i).arg;
+        accumulators[i].add(arg < 0 ? Boolean.TRUE : row[arg]);
+      }
+      if (newGroup && budget != null) {
+        final long bytes = SpillFile.estimateSize(key) + GROUP_OVERHEAD_BYTES + ACCUMULATOR_BYTES * calls.size();
+        groupBytes += bytes;
+        if (budget.groupBytes.addAndGet(bytes) > budget.budgetBytes) {
+          spillGroups();
+        }
+      }
+    }
+
+    public int size() {
+      return groups.size();
+    }
+
+    /**
+     * Marks the partial aggregation as holding every row of its scanner.
+     */
+    @Override
+    public void complete() {
+      complete = true;
+    }
+
+    /**
+     * @return true if the scanner read every row of its tablet without failing
+     */
+    public boolean isComplete() {
+      return complete;
+    }
+
+    /**
+     * Writes the key and the state of the accumulators of every group in memory to
+     * the spill file of the hash partition of the key.
+     */
+    private synchronized void spillGroups() {
+      if (groups.isEmpty()) {
+        return;
+      }
+      if (discarded) {
+        groups = new HashMap<>();
+        releaseBudget();
+        return;
+      }
+      if (spilled == null) {
+        spilled = new SpillFile[SpillingAggregation.PARTITIONS];
+      }
+      groups.forEach((key, accumulators) -> {
+        final int partition = SpillingAggregation.partition(key, 0);
+        if (spilled[partition] == null) {
+          spilled[partition] = new SpillFile(budget.scanStats);
+        }
+        final Object[] state = new Object[accumulators.length + 1];
+        state[0] = key instanceof KeyList ? ((KeyList) key).values : key;
+        for (int i = 0; i < accumulators.length; i++) {
+          state[i + 1] = accumulators[i].state();
+        }
+        spilled[partition].write(state);
+      });
+      // a new table so the memory of the old one is released
+      groups = new HashMap<>();
+      releaseBudget();
+    }
+
+    private void releaseBudget() {
+      if (budget != null) {
+        budget.groupBytes.addAndGet(-groupBytes);
+        groupBytes = 0L;
+      }
+    }
+
+    /**
+     * Deletes the groups this partial spilled, used when the query fails or is
+     * closed before they are merged.
+     */
+    public synchronized void discard() {
+      discarded = true;
+      if (spilled != null) {
+        for (int i = 0; i < spilled.length; i++) {
+          if (spilled[i] != null) {
+            spilled[i].delete();
+            spilled[i] = null;
+          }
+        }
+      }
+      releaseBudget();
+    }
+
+    private void mergeFrom(final Partial other) {
+      other.groups.forEach((key, otherAccumulators) -> {
+        final Accumulator[] accumulators = groups.putIfAbsent(key, otherAccumulators);
+        if (accumulators != null) {
+          for (int i = 0; i < accumulators.length; i++) {
+            accumulators[i].merge(otherAccumulators[i]);
+          }
+        }
+      });
+    }
+  }
+
+  // key of a group by more than one column
+  private static final class KeyList {
+    final Object[] values;
+    final int hash;
+
+    KeyList(final Object[] values) {
+      this.values = values;
+      this.hash = Arrays.hashCode(values);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      return obj instanceof KeyList && Arrays.equals(values, ((KeyList) obj).values);
+    }
+  }
+
+  private abstract static class Accumulator {
+    // value is null if the argument is null
+    abstract void add(Object value);
+
+    abstract void merge(Accumulator other);
+
+    abstract Object result();
+
+    // the state of the accumulator as a value a SpillFile can write
+    abstract Object state();
+
+    // merges a state returned by state() into this accumulator
+    abstract void mergeState(Object state);
+  }
+
+  private static final class CountAccumulator extends Accumulator {
+    private final boolean countNulls;
+    private long count;
+
+    CountAccumulator(final boolean countNulls) {
+      this.countNulls = countNulls;
+    }
+
+    @Override
+    void add(final Object value) {
+      if (countNulls || value != null) {
+        count++;
+      }
+    }
+
+    @Override
+    void merge(final Accumulator other) {
+      count += ((CountAccumulator) other).count;
+    }
+
+    @Override
+    Object result() {
+      return count;
+    }
+
+    @Override
+    Object state() {
+      return count;
+    }
+
+    @Override
+    void mergeState(final Object state) {
+      count += (Long) state;
+    }
+  }
+
+  private static final class LongSumAccumulator extends Accumulator {
+    private final NumericType type;
+    private final boolean zeroIfEmpty;
+    private long sum;
+    private boolean empty = true;
+
+    LongSumAccumulator(final NumericType type, final boolean zeroIfEmpty) {
+      this.type = type;
+      this.zeroIfEmpty = zeroIfEmpty;
+    }
+
+    @Override
+    void add(final Object value) {
+      if (value != null) {
+        sum += ((Number) value).longValue();
+        empty = false;
+      }
+    }
+
+    @Override
+    void merge(final Accumulator other) {
+      final LongSumAccumulator otherSum = (LongSumAccumulator) other;
+      sum += otherSum.sum;
+      empty &= otherSum.empty;
+    }
+
+    @Override
+    Object result() {
+      return empty && !zeroIfEmpty ? null : type.fromLong(sum);
+    }
+
+    @Override
+    Object state() {
+      return empty ? null : sum;
+    }
+
+    @Override
+    void mergeState(final Object state) {
+      if (state != null) {
+        sum += (Long) state;
+        empty = false;
+      }
+    }
+  }
+
+  private static final class DoubleSumAccumulator extends Accumulator {
+    private final NumericType type;
+    private final boolean zeroIfEmpty;
+    private double sum;
+    private boolean empty = true;
+
+    DoubleSumAccumulator(final NumericType type, final boolean zeroIfEmpty) {
+      this.type = type;
+      this.zeroIfEmpty = zeroIfEmpty;
+    }
+
+    @Override
+    void add(final Object value) {
+      if (value != null) {
+        sum += ((Number) value).doubleValue();
+        empty = false;
+      }
+    }
+
+    @Override
+    void merge(final Accumulator other) {
+      final DoubleSumAccumulator otherSum = (DoubleSumAccumulator) other;
+      sum += otherSum.sum;
+      empty &= otherSum.empty;
+    }
+
+    @Override
+    Object result() {
+      return empty && !zeroIfEmpty ? null : type.fromDouble(sum);
+    }
+
+    @Override
+    Object state() {
+      return empty ? null : sum;
+    }
+
+    @Override
+    void mergeState(final Object state) {
+      if (state != null) {
+        sum += (Double) state;
+        empty = false;
+      }
+    }
+  }
+
+  private static final class DecimalSumAccumulator extends Accumulator {
+    private final boolean zeroIfEmpty;
+    private BigDecimal sum;
+
+    DecimalSumAccumulator(final boolean zeroIfEmpty) {
+      this.zeroIfEmpty = zeroIfEmpty;
+    }
+
+    @Override
+    void add(final Object value) {
+      if (value != null) {
+        final BigDecimal decimal = value instanceof BigDecimal ? (BigDecimal) value
+            : BigDecimal.valueOf(((Number) value).longValue());
+        sum = sum == null ? decimal : sum.add(decimal);
+      }
+    }
+
+    @Override
+    void merge(final Accumulator other) {
+      mergeState(((DecimalSumAccumulator) other).sum);
+    }
+
+    @Override
+    Object result() {
+      return sum == null && zeroIfEmpty ? BigDecimal.ZERO : sum;
+    }
+
+    @Override
+    Object state() {
+      return sum;
+    }
+
+    @Override
+    void mergeState(final Object state) {
+      if (state != null) {
+        sum = sum == null ? (BigDecimal) state : sum.add((BigDecimal) state);
+      }
+    }
+  }
+
+  private static final class MinMaxAccumulator extends Accumulator {
+    private final boolean max;
+    private Comparable<Object> value;
+
+    MinMaxAccumulator(final boolean max) {
+      this.max = max;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    void add(final Object candidate) {
+      if (candidate != null) {
+        final int comparison = value == null ? 0 : value.compareTo(candidate);
+        if (value == null || (max ? comparison < 0 : comparison > 0)) {
+          value = (Comparable<Object>) candidate;
+        }
+      }
+    }
+
+    @Override
+    void merge(final Accumulator other) {
+      add(((MinMaxAccumulator) other).value);
+    }
+
+    @Override
+    Object result() {
+      return value;
+    }
+
+    @Override
+    Object state() {
+      return value;
+    }
+
+    @Override
+    void mergeState(final Object state) {
+      add(state);
+    }
+  }
+
+  private static final class AvgAccumulator extends Accumulator {
+    private final NumericType type;
+    private long longSum;
+    private double doubleSum;
+    private long count;
+
+    AvgAccumulator(final NumericType type) {
+      this.type = type;
+    }
+
+    @Override
+    void add(final Object value) {
+      if (value != null) {
+        if (type.isIntegral()) {
+          longSum += ((Number) value).longValue();
+        } else {
+          doubleSum += ((Number) value).doubleValue();
+        }
+        count++;
+      }
+    }
+
+    @Override
+    void merge(final Accumulator other) {
+      final AvgAccumulator otherAvg = (AvgAccumulator) other;
+      longSum += otherAvg.longSum;
+      doubleSum += otherAvg.doubleSum;
+      count += otherAvg.count;
+    }
+
+    @Override
+    Object result() {
+      if (count == 0) {
+        return null;
+      }
+      return type.isIntegral() ? type.fromLong(longSum / count) : type.fromDouble(doubleSum / count);
+    }
+
+    @Override
+    Object state() {
+      return new Object[] { longSum, doubleSum, count };
+    }
+
+    @Override
+    void mergeState(final Object state) {
+      final Object[] values = (Object[]) state;
+      longSum += (Long) values[0];
+      doubleSum += (Double) values[1];
+      count += (Long) values[2];
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounds the number of bytes of projected rows that all the
+ * {@link ScannerCallback}s of a single query are allowed to buffer before the
+ * consumer reads them.
+ *
+ * Bytes are reserved by the callback when a batch arrives and released once the
+ * consumer has drained the batch. A callback that wants to fetch the next batch
+ * while the budget is exhausted is parked instead of issuing the RPC and is
+ * resumed from {@link #release(long)}. Nothing here blocks, so the Kudu
+ * callback thread is never stalled by a slow consumer. Once the consumer is
+ * closed {@link #close()} resumes the parked callbacks so they close their
+ * scanners.
+ */
+public final class ScanMemoryBudget {
+
+  private final long budgetBytes;
+  private final KuduScanStats scanStats;
+  private final ArrayDeque<Runnable> pausedCallbacks = new ArrayDeque<>();
+  private final ArrayDeque<Long> pausedSince = new ArrayDeque<>();
+
+  private long bufferedBytes = 0L;
+  private long reservedBatches = 0L;
+  private long reservedBytes = 0L;
+  private boolean closed = false;
+
+  /**
+   * @param budgetBytes maximum number of bytes to buffer, zero or less disables
+   *                    the budget
+   * @param scanStats   stats of the query the budget belongs to
+   */
+  public ScanMemoryBudget(final long budgetBytes, final KuduScanStats scanStats) {
+    this.budgetBytes = budgetBytes;
+    this.scanStats = scanStats;
+  }
+
+  public boolean isBounded() {
+    return budgetBytes > 0;
+  }
+
+  /**
+   * Accounts for a batch that has been buffered for the consumer. Reserving
+   * always succeeds as the rows are already in memory, it only affects whether
+   * further fetches are paused.
+   *
+   * @param bytes estimated size of the batch
+   */
+  public void reserve(final long bytes) {
+    final long current;
+    synchronized (this) {
+      bufferedBytes += bytes;
+      reservedBytes += bytes;
+      reservedBatches++;
+      current = bufferedBytes;
+    }
+    scanStats.updateBufferedBytes(current);
+  }
+
+  /**
+   * Parks the callback if the budget is exhausted. The caller must only ask to
+   * pause when some other buffered batch is guaranteed to be drained, otherwise
+   * nothing would resume it.
+   *
+   * @param resume issues the next RPC once the callback is resumed
+   * @return true if the callback was parked and must not fetch now
+   */
+  public boolean pauseIfExhausted(final Runnable resume) {
+    synchronized (this) {
+      if (closed || !isBounded() || bufferedBytes < budgetBytes) {
+        return false;
+      }
+      pausedCallbacks.add(resume);
+      pausedSince.add(System.nanoTime());
+      return true;
+    }
+  }
+
+  /**
+   * Releases the bytes of a batch the consumer has drained and resumes as many
+   * parked callbacks as the freed space is expected to hold.
+   *
+   * @param bytes estimated size of the drained batch
+   */
+  public void release(final long bytes) {
+    final List<Runnable> toResume = new ArrayList<>();
+    final long current;
+    long pausedNanos = 0L;
+    synchronized (this) {
+      bufferedBytes -= bytes;
+      current = bufferedBytes;
+      final long averageBatchBytes = reservedBatches == 0 ? 0 : reservedBytes / reservedBatches;
+      long expectedBytes = bufferedBytes;
+      final long now = System.nanoTime();
+      // Always resume at least one callback once nothing is buffered, otherwise
+      // a budget smaller than a single batch would stall the query.
+      while (!pausedCallbacks.isEmpty()
+          && (expectedBytes < budgetBytes || (toResume.isEmpty() && bufferedBytes <= 0))) {
+        toResume.add(pausedCallbacks.poll());
+        pausedNanos += now - pausedSince.poll();
+        expectedBytes += averageBatchBytes;
+      }
+    }
+    scanStats.updateBufferedBytes(current);
+    if (pausedNanos > 0) {
+      scanStats.incrementScannerPauseTimeNanos(pausedNanos);
+    }
+    // Issue the RPCs outside of the lock.
+    toResume.forEach(Runnable::run);
+  }
+
+  /**
+   * Resumes every parked callback once the consumer stopped reading, they find
+   * the scan has to stop and close their scanners instead of waiting for a
+   * release that never comes. No callback is parked afterwards.
+   */
+  public void close() {
+    final List<Runnable> toResume;
+    synchronized (this) {
+      closed = true;
+      toResume = new ArrayList<>(pausedCallbacks);
+      pausedCallbacks.clear();
+      pausedSince.clear();
+    }
+    // Issue the RPCs outside of the lock.
+    toResume.forEach(Runnable::run);
+  }
+}
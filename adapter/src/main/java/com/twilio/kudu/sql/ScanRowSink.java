@@ -0,0 +1,36 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+/**
+ * Receives the projected rows of a single scanner from the callback that reads
+ * its batches, see {@link ScanAggregation.Partial} and
+ * {@link ScanTopN.Partial}. Not thread safe, rows are only added by the
+ * callback of the scanner.
+ */
+public interface ScanRowSink {
+
+  /**
+   * @param row projected row, columns are read by their position
+   */
+  void add(Object[] row);
+
+  /**
+   * Marks the sink as holding every row of its scanner, does nothing unless the
+   * rows are consumed before all the scanners are done.
+   */
+  default void complete() {
+  }
+}
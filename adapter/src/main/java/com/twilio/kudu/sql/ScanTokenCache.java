@@ -0,0 +1,167 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the serialized scan tokens of a sub scan so that executing the same
+ * query again doesn't have to ask the master for the tablet locations and prune
+ * the partitions again.
+ *
+ * A serialized token carries the tablet it reads, its location and the scan
+ * options. The snapshot timestamp it was built with is overwritten every time
+ * the token is turned back into a scanner, so cached tokens never read stale
+ * data. They can however miss tablets if the partitioning of the table changes,
+ * e.g. when a range partition is added, until their entry expires or the schema
+ * reloads its tables. The cache is therefore only enabled when a ttl is
+ * configured, for tables whose partitions don't change or clients that can
+ * tolerate missing rows of new partitions for up to the ttl.
+ */
+public final class ScanTokenCache {
+
+  public static final long DEFAULT_MAX_ENTRIES = 10_000L;
+
+  private static final ScanTokenCache DISABLED = new ScanTokenCache(0L, 0L);
+
+  private final Cache<Key, List<byte[]>> cache;
+
+  /**
+   * @param ttlMs      time after which an entry is rebuilt, zero or less disables
+   *                   the cache
+   * @param maxEntries maximum number of sub scans to hold, zero or less disables
+   *                   the cache
+   */
+  public ScanTokenCache(final long ttlMs, final long maxEntries) {
+    if (ttlMs > 0 && maxEntries > 0) {
+      this.cache = CacheBuilder.newBuilder().expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS).maximumSize(maxEntries)
+          .recordStats().build();
+    } else {
+      this.cache = null;
+    }
+  }
+
+  /**
+   * @return a cache that always builds the tokens
+   */
+  public static ScanTokenCache disabled() {
+    return DISABLED;
+  }
+
+  public boolean isEnabled() {
+    return cache != null;
+  }
+
+  /**
+   * Returns the serialized tokens of the sub scan, building them if they are not
+   * cached.
+   *
+   * @param tableId        id of the Kudu table being scanned
+   * @param subScan        predicates of the sub scan
+   * @param columnIndices  projected column indices
+   * @param countOnly      whether the scan doesn't read any column and only
+   *                       counts rows
+   * @param limit          limit pushed into the scan, zero or less when there is
+   *                       none
+   * @param batchSizeBytes batch size of the scan, zero or less for the default
+   * @param loader         builds and serializes the tokens
+   * @return serialized tokens, one for each tablet that has to be scanned
+   */
+  public List<byte[]> get(final String tableId, final List<CalciteKuduPredicate> subScan,
+      final List<Integer> columnIndices, final boolean countOnly, final long limit, final int batchSizeBytes,
+      final Callable<List<byte[]>> loader) {
+    if (cache == null) {
+      try {
+        return loader.call();
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+    try {
+      return cache.get(new Key(tableId, subScan, columnIndices, countOnly, limit, batchSizeBytes), loader);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } catch (UncheckedExecutionException e) {
+      throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+    }
+  }
+
+  /**
+   * Drops every cached token, called when tables might have been created, altered
+   * or dropped.
+   */
+  public void invalidateAll() {
+    if (cache != null) {
+      cache.invalidateAll();
+    }
+  }
+
+  public long size() {
+    return cache == null ? 0 : cache.size();
+  }
+
+  public CacheStats stats() {
+    return cache == null ? new CacheStats(0, 0, 0, 0, 0, 0) : cache.stats();
+  }
+
+  private static final class Key {
+    private final String tableId;
+    private final List<CalciteKuduPredicate> subScan;
+    private final List<Integer> columnIndices;
+    private final boolean countOnly;
+    private final long limit;
+    private final int batchSizeBytes;
+
+    Key(final String tableId, final List<CalciteKuduPredicate> subScan, final List<Integer> columnIndices,
+        final boolean countOnly, final long limit, final int batchSizeBytes) {
+      this.tableId = tableId;
+      this.subScan = subScan;
+      this.columnIndices = columnIndices;
+      this.countOnly = countOnly;
+      this.limit = limit;
+      this.batchSizeBytes = batchSizeBytes;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(tableId, subScan, columnIndices, countOnly, limit, batchSizeBytes);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) obj;
+      return countOnly == other.countOnly && limit == other.limit && batchSizeBytes == other.batchSizeBytes
+          && tableId.equals(other.tableId) && subScan.equals(other.subScan)
+          && columnIndices.equals(other.columnIndices);
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import org.apache.calcite.rel.RelFieldCollation;
+import org.apache.calcite.rel.core.Sort;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the first rows of a scan in the order of an {@code ORDER BY} with a
+ * {@code LIMIT}. Every scanner feeds its rows into its own {@link Partial}, a
+ * heap of the best {@code offset + fetch} rows of its tablet, from the thread
+ * that receives its batches. Once all the scanners are done only the rows of
+ * the heaps are sorted, see {@link #merge(List, boolean)}.
+ */
+public final class ScanTopN {
+
+  /**
+   * Largest {@code offset + fetch} kept by each scanner, larger limits are sorted
+   * on the client.
+   */
+  public static final int MAX_ROWS = 10_000;
+
+  private final Comparator<Object[]> comparator;
+  private final int offset;
+  private final int fetch;
+
+  private ScanTopN(final Comparator<Object[]> comparator, final int offset, final int fetch) {
+    this.comparator = comparator;
+    this.offset = offset;
+    this.fetch = fetch;
+  }
+
+  /**
+   * @param sort sort with a limit over the projected rows of a scan
+   * @return the top N, null if the sort has no collation, the offset or fetch
+   *         isn't a literal or they add up to more than {@link #MAX_ROWS}
+   */
+  public static ScanTopN create(final Sort sort) {
+    if (sort.getCollation().getFieldCollations().isEmpty() || sort.fetch == null) {
+      return null;
+    }
+    final int offset = sort.offset == null ? 0 : literalValue(sort.offset);
+    final int fetch = literalValue(sort.fetch);
+    if (offset < 0 || fetch < 0 || (long) offset + fetch > MAX_ROWS) {
+      return null;
+    }
+    Comparator<Object[]> comparator = null;
+    for (RelFieldCollation fieldCollation : sort.getCollation().getFieldCollations()) {
+      final Comparator<Object[]> fieldComparator = fieldComparator(fieldCollation);
+      comparator = comparator == null ? fieldComparator : comparator.thenComparing(fieldComparator);
+    }
+    return new ScanTopN(comparator, offset, fetch);
+  }
+
+  // -1 if the offset or fetch is a dynamic parameter
+  private static int literalValue(final RexNode node) {
+    return node instanceof RexLiteral ? RexLiteral.intValue(node) : -1;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Comparator<Object[]> fieldComparator(final RelFieldCollation fieldCollation) {
+    final int index = fieldCollation.getFieldIndex();
+    final boolean descending = fieldCollation.getDirection().isDescending();
+    final RelFieldCollation.NullDirection nullDirection = fieldCollation.nullDirection == RelFieldCollation.NullDirection.UNSPECIFIED
+        ? fieldCollation.getDirection().defaultNullDirection()
+        : fieldCollation.nullDirection;
+    final int nullsFirst = nullDirection == RelFieldCollation.NullDirection.FIRST ? -1 : 1;
+    return (row1, row2) -> {
+      final Object value1 = row1[index];
+      final Object value2 = row2[index];
+      if (value1 == null || value2 == null) {
+        return value1 == value2 ? 0 : (value1 == null ? nullsFirst : -nullsFirst);
+      }
+      final int compare = ((Comparable<Object>) value1).compareTo(value2);
+      return descending ? -compare : compare;
+    };
+  }
+
+  /**
+   * @return an empty top N for a single scanner
+   */
+  public Partial newPartial() {
+    return new Partial();
+  }
+
+  /**
+   * Merges the top rows of the scanners of a query.
+   *
+   * @param partials       top rows of each scanner
+   * @param isSingleObject whether a result row is a single value instead of an
+   *                       Object[]
+   * @return at most {@code fetch} rows in order, after skipping {@code offset}
+   *         rows
+   */
+  public List<Object> merge(final List<Partial> partials, final boolean isSingleObject) {
+    final List<Object[]> rows = new ArrayList<>();
+    for (Partial partial : partials) {
+      rows.addAll(partial.rows);
+    }
+    rows.sort(comparator);
+    if (rows.size() <= offset) {
+      return Collections.emptyList();
+    }
+    final List<Object[]> topRows = rows.subList(offset, Math.min(rows.size(), offset + fetch));
+    final List<Object> results = new ArrayList<>(topRows.size());
+    for (Object[] row : topRows) {
+      results.add(isSingleObject ? row[0] : row);
+    }
+    return results;
+  }
+
+  /**
+   * Heap of the best {@code offset + fetch} rows of a single scanner, the worst
+   * of them on top. Not thread safe, rows are only added by the callback of the
+   * scanner.
+   */
+  public final class Partial implements ScanRowSink {
+    private final PriorityQueue<Object[]> rows = new PriorityQueue<>(Math.max(1, offset + fetch),
+        comparator.reversed());
+
+    @Override
+    public void add(final Object[] row) {
+      if (rows.size() < offset + fetch) {
+        rows.add(row);
+      } else if (!rows.isEmpty() && comparator.compare(row, rows.peek()) < 0) {
+        // the row replaces the worst row kept so far
+        rows.poll();
+        rows.add(row);
+      }
+    }
+
+    public int size() {
+      return rows.size();
+    }
+  }
+}
@@ -20,7 +20,11 @@ import org.apache.kudu.client.RowResultIterator;
 import org.apache.kudu.client.RowResult;
 
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.kudu.client.Partition;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.calcite.linq4j.function.Function1;
@@ -46,6 +50,10 @@ final public class ScannerCallback implements Callback<Deferred<Void>, RowResult
   private static final CalciteScannerMessage<CalciteRow> CLOSE_MESSAGE = CalciteScannerMessage
       .<CalciteRow>createEndMessage();
 
+  // number of batches a scanner keeps buffered or in flight ahead of the
+  // consumer
+  public static final int DEFAULT_PREFETCH_DEPTH = 2;
+
   final AsyncKuduScanner scanner;
   final BlockingQueue<CalciteScannerMessage<CalciteRow>> rowResults;
   final AtomicBoolean scansShouldStop;
@@ -57,12 +65,95 @@ final public class ScannerCallback implements Callback<Deferred<Void>, RowResult
   final Function1<Object, Object> projectionMapper;
   final Predicate1<Object> filterFunction;
   final boolean isSingleObject;
+  final boolean isScannerSorted;
+  final ScanMemoryBudget memoryBudget;
+  final long estimatedRowBytes;
+  final int prefetchDepth;
+  // null unless the callback only counts the rows of the scanner
+  final AtomicLong rowCount;
+  // null unless the callback aggregates the rows of the scanner or keeps its
+  // top rows
+  final ScanRowSink rowSink;
+
+  // The fields below are guarded by this.
+  // estimated bytes of every batch handed to the consumer that it hasn't drained
+  // yet, oldest first
+  private final ArrayDeque<Long> bufferedBatchBytes = new ArrayDeque<>();
+  private boolean rpcInFlight = false;
+  private boolean paused = false;
+  private boolean closed = false;
 
   public ScannerCallback(final CalciteKuduTable calciteKuduTable, final AsyncKuduScanner scanner,
       final BlockingQueue<CalciteScannerMessage<CalciteRow>> rowResults, final AtomicBoolean scansShouldStop,
       final AtomicBoolean cancelFlag, final Schema projectedSchema, final KuduScanStats scanStats,
       final boolean isScannerSorted, final Function1<Object, Object> projectionMapper,
-      final Predicate1<Object> filterFunction, final boolean isSingleObject, final List<Integer> sortPkColumns) {
+      final Predicate1<Object> filterFunction, final boolean isSingleObject, final List<Integer> sortPkColumns,
+      final ScanMemoryBudget memoryBudget, final int prefetchDepth) {
+    this(calciteKuduTable, scanner, rowResults, scansShouldStop, cancelFlag, projectedSchema, scanStats,
+        isScannerSorted, projectionMapper, filterFunction, isSingleObject, sortPkColumns, memoryBudget, prefetchDepth,
+        null, null);
+  }
+
+  /**
+   * Creates a callback for a scanner that doesn't project any column and only
+   * adds the number of rows of every batch to {@code rowCount}. Only the CLOSE or
+   * ERROR message is put into {@code rowResults}, the next RPC is issued as soon
+   * as a batch arrives.
+   *
+   * @param calciteKuduTable table that is scanned
+   * @param scanner          scanner with an empty projection
+   * @param rowResults       queue that receives the CLOSE or ERROR message
+   * @param scansShouldStop  set when every scanner of the query has to stop
+   * @param cancelFlag       set when the query is canceled, can be null
+   * @param scanStats        stat collector for the query
+   * @param memoryBudget     budget of the query, nothing is reserved from it
+   * @param rowCount         sum of the rows of all the scanners of the query
+   */
+  public ScannerCallback(final CalciteKuduTable calciteKuduTable, final AsyncKuduScanner scanner,
+      final BlockingQueue<CalciteScannerMessage<CalciteRow>> rowResults, final AtomicBoolean scansShouldStop,
+      final AtomicBoolean cancelFlag, final KuduScanStats scanStats, final ScanMemoryBudget memoryBudget,
+      final AtomicLong rowCount) {
+    this(calciteKuduTable, scanner, rowResults, scansShouldStop, cancelFlag, scanner.getProjectionSchema(), scanStats,
+        false, null, Predicate1.TRUE, true, Collections.emptyList(), memoryBudget, 1, rowCount, null);
+  }
+
+  /**
+   * Creates a callback that adds the projected rows of every batch that pass the
+   * filter to {@code rowSink}. Like a callback that counts rows only the CLOSE or
+   * ERROR message is put into {@code rowResults} and the next RPC is issued as
+   * soon as a batch has been aggregated.
+   *
+   * @param calciteKuduTable table that is scanned
+   * @param scanner          scanner of a single tablet
+   * @param rowResults       queue that receives the CLOSE or ERROR message
+   * @param scansShouldStop  set when every scanner of the query has to stop
+   * @param cancelFlag       set when the query is canceled, can be null
+   * @param scanStats        stat collector for the query
+   * @param memoryBudget     budget of the query, nothing is reserved from it
+   * @param projectionMapper function to map the {@link RowResult} to the
+   *                         projected row
+   * @param filterFunction   predicate to apply to the {@link RowResult}
+   * @param isSingleObject   whether the projection returns Object instead of
+   *                         Object[]
+   * @param rowSink          groups or top rows of this scanner
+   */
+  public ScannerCallback(final CalciteKuduTable calciteKuduTable, final AsyncKuduScanner scanner,
+      final BlockingQueue<CalciteScannerMessage<CalciteRow>> rowResults, final AtomicBoolean scansShouldStop,
+      final AtomicBoolean cancelFlag, final KuduScanStats scanStats, final ScanMemoryBudget memoryBudget,
+      final Function1<Object, Object> projectionMapper, final Predicate1<Object> filterFunction,
+      final boolean isSingleObject, final ScanRowSink rowSink) {
+    this(calciteKuduTable, scanner, rowResults, scansShouldStop, cancelFlag, scanner.getProjectionSchema(), scanStats,
+        false, projectionMapper, filterFunction, isSingleObject, Collections.emptyList(), memoryBudget, 1, null,
+        rowSink);
+  }
+
+  private ScannerCallback(final CalciteKuduTable calciteKuduTable, final AsyncKuduScanner scanner,
+      final BlockingQueue<CalciteScannerMessage<CalciteRow>> rowResults, final AtomicBoolean scansShouldStop,
+      final AtomicBoolean cancelFlag, final Schema projectedSchema, final KuduScanStats scanStats,
+      final boolean isScannerSorted, final Function1<Object, Object> projectionMapper,
+      final Predicate1<Object> filterFunction, final boolean isSingleObject, final List<Integer> sortPkColumns,
+      final ScanMemoryBudget memoryBudget, final int prefetchDepth, final AtomicLong rowCount,
+      final ScanRowSink rowSink) {
 
     this.scanner = scanner;
     this.rowResults = rowResults;
@@ -81,23 +172,110 @@ final public class ScannerCallback implements Callback<Deferred<Void>, RowResult
     this.projectionMapper = projectionMapper;
     this.filterFunction = filterFunction;
     this.isSingleObject = isSingleObject;
+    this.isScannerSorted = isScannerSorted;
+    this.memoryBudget = memoryBudget;
+    this.prefetchDepth = prefetchDepth;
+    this.estimatedRowBytes = estimateRowBytes(projectedSchema);
+    this.rowCount = rowCount;
+    this.rowSink = rowSink;
 
     logger.debug("ScannerCallback created for scanner" + scanner);
   }
 
   /**
-   * After an Batch is completed, this method should be called to fetch the next
+   * Rough size of a projected row held in memory: the Kudu encoded size of the
+   * projected columns plus the {@link CalciteRow}, the Object[] and one boxed
+   * value per column.
+   */
+  static long estimateRowBytes(final Schema projectedSchema) {
+    return 48L + projectedSchema.getRowSize() + 24L * projectedSchema.getColumnCount();
+  }
+
+  /**
+   * Issues the first RPC of the scan. Later RPCs are issued by this callback as
+   * batches arrive and are drained.
+   */
+  public void start() {
+    fetchIfAllowed();
+  }
+
+  /**
+   * After an Batch is completed, this method should be called to fetch the next.
+   * Releases the batch from the {@link ScanMemoryBudget} and issues the next RPC
+   * if the scanner was waiting for room in its prefetch window.
    */
   public void nextBatch() {
-    // @TODO: How to protect this method from being called while a batch is being
-    // processed?
+    final Long drainedBytes;
+    synchronized (this) {
+      drainedBytes = bufferedBatchBytes.poll();
+    }
+    if (drainedBytes != null) {
+      memoryBudget.release(drainedBytes);
+    }
+    fetchIfAllowed();
+  }
+
+  /**
+   * Hands the batches the consumer didn't read back to their callbacks once it
+   * stopped reading. A callback whose prefetch window is full only checks whether
+   * the scan has to stop when one of its batches is drained, so otherwise it
+   * would never close its scanner.
+   *
+   * @param rowResults messages left over by the consumer
+   */
+  static void releaseUnreadBatches(final BlockingQueue<CalciteScannerMessage<CalciteRow>> rowResults) {
+    CalciteScannerMessage<CalciteRow> message;
+    while ((message = rowResults.poll()) != null) {
+      message.callback.ifPresent(ScannerCallback::nextBatch);
+    }
+  }
+
+  private void resume() {
+    synchronized (this) {
+      paused = false;
+    }
+    fetchIfAllowed();
+  }
 
-    // If the scanner can continue and we are not stopping
-    if (scanner.hasMoreRows() && !scansShouldStop.get() && !earlyExit.get() &&
+  private boolean fetchAllowed() {
     // allow `null` as cancel flag isn't guaranteed to be set. Instead of handling
-    // null
-    // in constructor check it here, .get() can be costly as it is atomic.
-        (cancelFlag == null || !cancelFlag.get())) {
+    // null in constructor check it here, .get() can be costly as it is atomic.
+    return scanner.hasMoreRows() && !scansShouldStop.get() && !earlyExit.get()
+        && (cancelFlag == null || !cancelFlag.get());
+  }
+
+  /**
+   * Issues the next RPC unless one is already outstanding, the prefetch window is
+   * full or the memory budget is exhausted. Called from the consumer thread when
+   * a batch is drained and from the Kudu callback thread when a batch arrives, so
+   * the next RPC goes out without waiting for the consumer.
+   */
+  private void fetchIfAllowed() {
+    final boolean issueRpc;
+    synchronized (this) {
+      if (rpcInFlight || closed) {
+        return;
+      }
+      if (fetchAllowed()) {
+        // A scanner with nothing buffered must always be allowed to fetch,
+        // a sorted merge can't make progress without its next row.
+        final boolean canPause = !isScannerSorted || !bufferedBatchBytes.isEmpty();
+        if (bufferedBatchBytes.size() >= prefetchDepth || (paused && canPause)) {
+          return;
+        }
+        if (canPause && memoryBudget.pauseIfExhausted(this::resume)) {
+          paused = true;
+          return;
+        }
+        rpcInFlight = true;
+        issueRpc = true;
+      } else {
+        closed = true;
+        issueRpc = false;
+      }
+    }
+
+    if (issueRpc) {
       final Deferred<RowResultIterator> nextRowsRpc = scanner.nextRows();
       nextRowsRpc.addCallbackDeferring(this).addErrback(new Callback<Void, Exception>() {
         @Override
@@ -111,8 +289,10 @@ final public class ScannerCallback implements Callback<Deferred<Void>, RowResult
       // Else -> scanner has completed, notify the consumer of rowResults
       try {
         // This blocks to ensure the query finishes.
-        logger.debug("Closing scanner: {} {} {} {}", scanner.hasMoreRows(), earlyExit, scansShouldStop,
-            cancelFlag.get());
+        logger.debug("Closing scanner: {} {} {} {}", scanner.hasMoreRows(), earlyExit, scansShouldStop, cancelFlag);
+        if (rowSink != null && !scanner.hasMoreRows() && !earlyExit.get()) {
+          rowSink.complete();
+        }
         rowResults.put(CLOSE_MESSAGE);
       } catch (InterruptedException threadInterrupted) {
         logger.error("Interrupted while closing. Means queue is full. Closing scanner");
@@ -132,12 +312,45 @@ final public class ScannerCallback implements Callback<Deferred<Void>, RowResult
     }
   }
 
+  private void aggregate(final RowResultIterator nextBatch) {
+    try {
+      while (!earlyExit.get() && nextBatch.hasNext()) {
+        final RowResult row = nextBatch.next();
+        if (filterFunction.apply(row)) {
+          rowSink.add(
+              isSingleObject ? new Object[] { projectionMapper.apply(row) } : (Object[]) projectionMapper.apply(row));
+        }
+      }
+    } catch (Exception failure) {
+      logger.error("Failed to aggregate rows. Setting early exit", failure);
+      exitScansWithFailure(failure);
+    }
+  }
+
   @Override
   public Deferred<Void> call(final RowResultIterator nextBatch) {
     scanStats.incrementScannerRpcCount(1L);
     if (nextBatch != null) {
       scanStats.incrementRowsScannedCount(nextBatch.getNumRows());
     }
+    if (rowCount != null || rowSink != null) {
+      // nothing is buffered for the consumer, the scanner keeps fetching until it
+      // is done
+      if (nextBatch != null && rowCount != null) {
+        rowCount.addAndGet(nextBatch.getNumRows());
+      } else if (nextBatch != null) {
+        aggregate(nextBatch);
+      }
+      synchronized (this) {
+        rpcInFlight = false;
+      }
+      fetchIfAllowed();
+      return null;
+    }
+    // Project the entire RPC response into a single array backed batch so the
+    // consumer only has to take one message out of the queue per RPC.
+    final CalciteRow[] projectedRows = new CalciteRow[nextBatch != null ? nextBatch.getNumRows() : 0];
+    int projectedCount = 0;
     try {
       if (!earlyExit.get()) {
         while (nextBatch != null && nextBatch.hasNext()) {
@@ -145,20 +358,14 @@ final public class ScannerCallback implements Callback<Deferred<Void>, RowResult
           if (!filterFunction.apply(row)) {
             continue;
           }
-          final CalciteScannerMessage<CalciteRow> wrappedRow;
+          final Object[] rowData;
           if (!isSingleObject) {
-            wrappedRow = new CalciteScannerMessage<>(new CalciteRow(row.getSchema(),
-                ((Object[]) projectionMapper.apply(row)), sortPkColumns, descendingSortedFieldIndices));
+            rowData = (Object[]) projectionMapper.apply(row);
           } else {
-            final Object mapResult = ((Object) projectionMapper.apply(row));
-            final Object[] rowData = new Object[] { mapResult };
-            wrappedRow = new CalciteScannerMessage<>(
-                new CalciteRow(row.getSchema(), rowData, sortPkColumns, descendingSortedFieldIndices));
+            rowData = new Object[] { projectionMapper.apply(row) };
           }
-          // Blocks if the queue is full.
-          // @TODO: How to we protect it from locking up here because nothing is consuming
-          // from the queue.
-          rowResults.put(wrappedRow);
+          projectedRows[projectedCount++] = new CalciteRow(row.getSchema(), rowData, sortPkColumns,
+              descendingSortedFieldIndices);
         }
       }
     } catch (Exception failure) {
@@ -166,15 +373,27 @@ final public class ScannerCallback implements Callback<Deferred<Void>, RowResult
       // this means we have to abort this scan.
       logger.error("Failed to parse out row. Setting early exit", failure);
       exitScansWithFailure(failure);
+      projectedCount = 0;
     }
 
-    try {
-      rowResults.put(new CalciteScannerMessage<CalciteRow>(this));
-    } catch (InterruptedException ignored) {
-      // Set the early exit to protect ourselves and close the scanner.
-      exitScansWithFailure(ignored);
-      Thread.currentThread().interrupt();
+    final long batchBytes = projectedCount * estimatedRowBytes;
+    memoryBudget.reserve(batchBytes);
+    // Hand the batch over while holding the lock so a concurrent
+    // fetchIfAllowed() can't queue the CLOSE message ahead of it.
+    synchronized (this) {
+      rpcInFlight = false;
+      bufferedBatchBytes.add(batchBytes);
+      try {
+        rowResults
+            .put(new CalciteScannerMessage<CalciteRow>(Arrays.asList(projectedRows).subList(0, projectedCount), this));
+      } catch (InterruptedException ignored) {
+        // Set the early exit to protect ourselves and close the scanner.
+        exitScansWithFailure(ignored);
+        Thread.currentThread().interrupt();
+      }
     }
+    // Prefetch the next batch straight from the callback thread.
+    fetchIfAllowed();
     return null;
   }
 }
@@ -0,0 +1,359 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.calcite.avatica.util.ByteString;
+import org.apache.calcite.linq4j.Enumerator;
+
+/**
+ * Temporary file of rows written by an operator that ran out of memory, see
+ * {@link SpillingSort} and {@link SpillingAggregation}.
+ *
+ * Rows are written in a compact binary format, every value is a one byte type
+ * tag followed by the value. Rows are either a single value or an
+ * {@code Object[]} of values like the rows of a {@link KuduEnumerable}. Values
+ * can be of any type a Kudu column is read as, either by {@code RowResult} or
+ * in the representation Calcite uses for the column's SQL type, as well as
+ * lists of such values. The file is deleted once it has been read or when the
+ * operator is closed.
+ */
+final class SpillFile {
+  private static final byte NULL = 0;
+  private static final byte ROW = 1;
+  private static final byte BOOLEAN = 2;
+  private static final byte BYTE = 3;
+  private static final byte SHORT = 4;
+  private static final byte INT = 5;
+  private static final byte LONG = 6;
+  private static final byte FLOAT = 7;
+  private static final byte DOUBLE = 8;
+  private static final byte STRING = 9;
+  private static final byte DECIMAL = 10;
+  private static final byte BYTES = 11;
+  private static final byte BYTE_STRING = 12;
+  private static final byte TIMESTAMP = 13;
+  private static final byte DATE = 14;
+  private static final byte TIME = 15;
+  private static final byte UTIL_DATE = 16;
+  private static final byte CHARACTER = 17;
+  private static final byte BIG_INTEGER = 18;
+  private static final byte LIST = 19;
+
+  private final Path path;
+  private final KuduScanStats scanStats;
+  private DataOutputStream out;
+  private long rowCount = 0L;
+
+  SpillFile(final KuduScanStats scanStats) {
+    this.scanStats = scanStats;
+    try {
+      this.path = Files.createTempFile("kudu-sql-", ".spill");
+      this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+    } catch (IOException e) {
+      throw new RuntimeException("Unable to create a file to spill rows to", e);
+    }
+    scanStats.incrementSpillFileCount();
+  }
+
+  long getRowCount() {
+    return rowCount;
+  }
+
+  void write(final Object row) {
+    try {
+      writeValue(out, row);
+    } catch (IOException e) {
+      throw new RuntimeException("Unable to spill rows to " + path, e);
+    }
+    rowCount++;
+  }
+
+  /**
+   * Finishes writing the file and reads its rows back in the order they were
+   * written. Closing the enumerator deletes the file.
+   *
+   * @return the rows of the file
+   */
+  Enumerator<Object> read() {
+    final DataInputStream in;
+    try {
+      closeOutput();
+      scanStats.incrementSpilledBytes(Files.size(path));
+      in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+    } catch (IOException e) {
+      delete();
+      throw new RuntimeException("Unable to read rows spilled to " + path, e);
+    }
+    return new Enumerator<Object>() {
+      private long rowsRead = 0L;
+      private Object current;
+
+      @Override
+      public Object current() {
+        return current;
+      }
+
+      @Override
+      public boolean moveNext() {
+        if (rowsRead == rowCount) {
+          return false;
+        }
+        try {
+          current = readValue(in);
+        } catch (IOException e) {
+          throw new RuntimeException("Unable to read rows spilled to " + path, e);
+        }
+        rowsRead++;
+        return true;
+      }
+
+      @Override
+      public void reset() {
+        throw new RuntimeException("Cannot reset a SpillFile");
+      }
+
+      @Override
+      public void close() {
+        try {
+          in.close();
+        } catch (IOException e) {
+          // the file is deleted regardless
+        }
+        delete();
+      }
+    };
+  }
+
+  /**
+   * Deletes the file, rows can no longer be written or read.
+   */
+  void delete() {
+    try {
+      closeOutput();
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      throw new RuntimeException("Unable to delete " + path, e);
+    }
+  }
+
+  private void closeOutput() throws IOException {
+    if (out != null) {
+      out.close();
+      out = null;
+    }
+  }
+
+  /**
+   * Estimates the bytes a row takes on the heap, used to decide when an operator
+   * has to spill.
+   *
+   * @param value a row or a value of a row
+   * @return estimated size in bytes
+   */
+  static long estimateSize(final Object value) {
+    if (value == null) {
+      return 8L;
+    } else if (value instanceof Object[]) {
+      final Object[] row = (Object[]) value;
+      long size = 16L + 8L * row.length;
+      for (Object column : row) {
+        size += estimateSize(column);
+      }
+      return size;
+    } else if (value instanceof String) {
+      return 40L + 2L * ((String) value).length();
+    } else if (value instanceof BigDecimal) {
+      return 64L;
+    } else if (value instanceof byte[]) {
+      return 16L + ((byte[]) value).length;
+    } else if (value instanceof ByteString) {
+      return 32L + ((ByteString) value).length();
+    } else if (value instanceof Date) {
+      return 32L;
+    } else if (value instanceof List) {
+      long size = 40L;
+      for (Object element : (List<?>) value) {
+        size += 8L + estimateSize(element);
+      }
+      return size;
+    }
+    return 16L;
+  }
+
+  private static void writeValue(final DataOutputStream out, final Object value) throws IOException {
+    if (value == null) {
+      out.writeByte(NULL);
+    } else if (value instanceof Object[]) {
+      final Object[] row = (Object[]) value;
+      out.writeByte(ROW);
+      out.writeInt(row.length);
+      for (Object column : row) {
+        writeValue(out, column);
+      }
+    } else if (value instanceof Boolean) {
+      out.writeByte(BOOLEAN);
+      out.writeBoolean((Boolean) value);
+    } else if (value instanceof Byte) {
+      out.writeByte(BYTE);
+      out.writeByte((Byte) value);
+    } else if (value instanceof Short) {
+      out.writeByte(SHORT);
+      out.writeShort((Short) value);
+    } else if (value instanceof Integer) {
+      out.writeByte(INT);
+      out.writeInt((Integer) value);
+    } else if (value instanceof Long) {
+      out.writeByte(LONG);
+      out.writeLong((Long) value);
+    } else if (value instanceof Float) {
+      out.writeByte(FLOAT);
+      out.writeFloat((Float) value);
+    } else if (value instanceof Double) {
+      out.writeByte(DOUBLE);
+      out.writeDouble((Double) value);
+    } else if (value instanceof String) {
+      out.writeByte(STRING);
+      writeBytes(out, ((String) value).getBytes(StandardCharsets.UTF_8));
+    } else if (value instanceof BigDecimal) {
+      final BigDecimal decimal = (BigDecimal) value;
+      out.writeByte(DECIMAL);
+      out.writeInt(decimal.scale());
+      writeBytes(out, decimal.unscaledValue().toByteArray());
+    } else if (value instanceof byte[]) {
+      out.writeByte(BYTES);
+      writeBytes(out, (byte[]) value);
+    } else if (value instanceof ByteString) {
+      out.writeByte(BYTE_STRING);
+      writeBytes(out, ((ByteString) value).getBytes());
+    } else if (value instanceof Timestamp) {
+      // the milliseconds don't hold the nanoseconds beyond the millisecond
+      final Timestamp timestamp = (Timestamp) value;
+      out.writeByte(TIMESTAMP);
+      out.writeLong(timestamp.getTime());
+      out.writeInt(timestamp.getNanos());
+    } else if (value instanceof java.sql.Date) {
+      out.writeByte(DATE);
+      out.writeLong(((java.sql.Date) value).getTime());
+    } else if (value instanceof Time) {
+      out.writeByte(TIME);
+      out.writeLong(((Time) value).getTime());
+    } else if (value instanceof Date) {
+      out.writeByte(UTIL_DATE);
+      out.writeLong(((Date) value).getTime());
+    } else if (value instanceof Character) {
+      out.writeByte(CHARACTER);
+      out.writeChar((Character) value);
+    } else if (value instanceof BigInteger) {
+      out.writeByte(BIG_INTEGER);
+      writeBytes(out, ((BigInteger) value).toByteArray());
+    } else if (value instanceof List) {
+      final List<?> list = (List<?>) value;
+      out.writeByte(LIST);
+      out.writeInt(list.size());
+      for (Object element : list) {
+        writeValue(out, element);
+      }
+    } else {
+      throw new IllegalArgumentException("Cannot spill a value of " + value.getClass());
+    }
+  }
+
+  private static void writeBytes(final DataOutputStream out, final byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static byte[] readBytes(final DataInputStream in) throws IOException {
+    final byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  private static Object readValue(final DataInputStream in) throws IOException {
+    final byte tag = in.readByte();
+    switch (tag) {
+    case NULL:
+      return null;
+    case ROW:
+      final Object[] row = new Object[in.readInt()];
+      for (int i = 0; i < row.length; i++) {
+        row[i] = readValue(in);
+      }
+      return row;
+    case BOOLEAN:
+      return in.readBoolean();
+    case BYTE:
+      return in.readByte();
+    case SHORT:
+      return in.readShort();
+    case INT:
+      return in.readInt();
+    case LONG:
+      return in.readLong();
+    case FLOAT:
+      return in.readFloat();
+    case DOUBLE:
+      return in.readDouble();
+    case STRING:
+      return new String(readBytes(in), StandardCharsets.UTF_8);
+    case DECIMAL:
+      final int scale = in.readInt();
+      return new BigDecimal(new BigInteger(readBytes(in)), scale);
+    case BYTES:
+      return readBytes(in);
+    case BYTE_STRING:
+      return new ByteString(readBytes(in));
+    case TIMESTAMP:
+      final Timestamp timestamp = new Timestamp(in.readLong());
+      timestamp.setNanos(in.readInt());
+      return timestamp;
+    case DATE:
+      return new java.sql.Date(in.readLong());
+    case TIME:
+      return new Time(in.readLong());
+    case UTIL_DATE:
+      return new Date(in.readLong());
+    case CHARACTER:
+      return in.readChar();
+    case BIG_INTEGER:
+      return new BigInteger(readBytes(in));
+    case LIST:
+      final int size = in.readInt();
+      final List<Object> list = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        list.add(readValue(in));
+      }
+      return list;
+    default:
+      throw new IOException("Unknown type tag " + tag);
+    }
+  }
+}
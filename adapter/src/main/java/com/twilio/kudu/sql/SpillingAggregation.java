@@ -0,0 +1,196 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+
+import org.apache.calcite.linq4j.AbstractEnumerable;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.function.Function0;
+import org.apache.calcite.linq4j.function.Function1;
+import org.apache.calcite.linq4j.function.Function2;
+
+/**
+ * Hash aggregation that keeps at most a memory budget of groups in a
+ * {@link GroupByHashTable}.
+ *
+ * Once the groups exceed the budget no new group is added. Rows of the groups
+ * already in the table are still aggregated in memory, rows of any other group
+ * are written to one of {@link #PARTITIONS} {@link SpillFile}s picked by the
+ * hash of their key. After the groups in memory have been returned each
+ * partition is aggregated the same way, partitioning on other bits of the hash
+ * if it doesn't fit either. The accumulators are generated by Calcite and can't
+ * be written to disk, which is why the rows are spilled instead of partial
+ * groups.
+ *
+ * @param <TSource>     type of the rows
+ * @param <TKey>        type of the group key
+ * @param <TAccumulate> type of the accumulator of each group
+ * @param <TResult>     type of the results
+ */
+public final class SpillingAggregation<TSource, TKey, TAccumulate, TResult> {
+  static final int PARTITIONS = 16;
+  // each level partitions on the next four bits of the hash, the last level
+  // keeps all its groups in memory
+  private static final int MAX_DEPTH = 4;
+  // estimated bytes of a group besides its key: its slot and entry in the hash
+  // table and the accumulator
+  private static final long GROUP_OVERHEAD_BYTES = 96L;
+
+  private final Function1<TSource, TKey> keySelector;
+  private final Function0<TAccumulate> accumulatorInitializer;
+  private final Function2<TAccumulate, TSource, TAccumulate> accumulatorAdder;
+  private final Function2<TKey, TAccumulate, TResult> resultSelector;
+  private final long memoryBudgetBytes;
+  private final KuduScanStats scanStats;
+
+  private SpillingAggregation(final Function1<TSource, TKey> keySelector,
+      final Function0<TAccumulate> accumulatorInitializer,
+      final Function2<TAccumulate, TSource, TAccumulate> accumulatorAdder,
+      final Function2<TKey, TAccumulate, TResult> resultSelector, final long memoryBudgetBytes,
+      final KuduScanStats scanStats) {
+    this.keySelector = keySelector;
+    this.accumulatorInitializer = accumulatorInitializer;
+    this.accumulatorAdder = accumulatorAdder;
+    this.resultSelector = resultSelector;
+    this.memoryBudgetBytes = memoryBudgetBytes;
+    this.scanStats = scanStats;
+  }
+
+  /**
+   * @param source                 rows to aggregate
+   * @param keySelector            returns the group key of a row
+   * @param accumulatorInitializer creates the accumulator of a new group
+   * @param accumulatorAdder       adds a row to the accumulator of its group
+   * @param resultSelector         creates the result of a group
+   * @param memoryBudgetBytes      estimated bytes of groups to keep in memory
+   *                               before spilling rows, must be positive
+   * @param scanStats              stats of the query the rows belong to
+   * @param <TSource>              type of the rows
+   * @param <TKey>                 type of the group key
+   * @param <TAccumulate>          type of the accumulator of each group
+   * @param <TResult>              type of the results
+   * @return the result of every group
+   */
+  public static <TSource, TKey, TAccumulate, TResult> Enumerable<TResult> groupBy(final Enumerable<TSource> source,
+      final Function1<TSource, TKey> keySelector, final Function0<TAccumulate> accumulatorInitializer,
+      final Function2<TAccumulate, TSource, TAccumulate> accumulatorAdder,
+      final Function2<TKey, TAccumulate, TResult> resultSelector, final long memoryBudgetBytes,
+      final KuduScanStats scanStats) {
+    final SpillingAggregation<TSource, TKey, TAccumulate, TResult> aggregation = new SpillingAggregation<>(keySelector,
+        accumulatorInitializer, accumulatorAdder, resultSelector, memoryBudgetBytes, scanStats);
+    return new AbstractEnumerable<TResult>() {
+      @Override
+      public Enumerator<TResult> enumerator() {
+        return aggregation.aggregate(source.enumerator(), 0);
+      }
+    };
+  }
+
+  // also picks the partition of the groups spilled by a ScanAggregation
+  static int partition(final Object key, final int depth) {
+    final int hash = Objects.hashCode(key) * 0x9E3779B9;
+    return (hash >>> (28 - 4 * depth)) & (PARTITIONS - 1);
+  }
+
+  @SuppressWarnings("unchecked")
+  private Enumerator<TResult> aggregate(final Enumerator<TSource> source, final int depth) {
+    final GroupByHashTable<TKey, TAccumulate> groups = new GroupByHashTable<>();
+    SpillFile[] partitions = null;
+    long groupBytes = 0L;
+    try (Enumerator<TSource> rows = source) {
+      while (rows.moveNext()) {
+        final TSource row = rows.current();
+        final TKey key = keySelector.apply(row);
+        final int entry = groups.indexOf(key);
+        if (entry >= 0) {
+          final TAccumulate accumulator0 = groups.getAccumulator(entry);
+          final TAccumulate accumulator = accumulatorAdder.apply(accumulator0, row);
+          if (accumulator != accumulator0) {
+            groups.setAccumulator(entry, accumulator);
+          }
+        } else if (partitions != null) {
+          final int partition = partition(key, depth);
+          if (partitions[partition] == null) {
+            partitions[partition] = new SpillFile(scanStats);
+          }
+          partitions[partition].write(row);
+        } else {
+          groups.add(key, accumulatorAdder.apply(accumulatorInitializer.apply(), row));
+          groupBytes += SpillFile.estimateSize(key) + GROUP_OVERHEAD_BYTES;
+          if (groupBytes > memoryBudgetBytes && depth < MAX_DEPTH) {
+            partitions = new SpillFile[PARTITIONS];
+          }
+        }
+      }
+    } catch (RuntimeException e) {
+      if (partitions != null) {
+        for (SpillFile partition : partitions) {
+          if (partition != null) {
+            partition.delete();
+          }
+        }
+      }
+      throw e;
+    }
+
+    final ArrayDeque<SpillFile> spilled = new ArrayDeque<>();
+    if (partitions != null) {
+      for (SpillFile partition : partitions) {
+        if (partition != null) {
+          spilled.add(partition);
+        }
+      }
+    }
+    final Enumerator<TResult> inMemory = groups.results(resultSelector).enumerator();
+    if (spilled.isEmpty()) {
+      return inMemory;
+    }
+    return new Enumerator<TResult>() {
+      private Enumerator<TResult> current = inMemory;
+
+      @Override
+      public TResult current() {
+        return current.current();
+      }
+
+      @Override
+      public boolean moveNext() {
+        while (!current.moveNext()) {
+          current.close();
+          if (spilled.isEmpty()) {
+            return false;
+          }
+          current = aggregate((Enumerator<TSource>) spilled.poll().read(), depth + 1);
+        }
+        return true;
+      }
+
+      @Override
+      public void reset() {
+        throw new RuntimeException("Cannot reset a SpillingAggregation");
+      }
+
+      @Override
+      public void close() {
+        current.close();
+        spilled.forEach(SpillFile::delete);
+        spilled.clear();
+      }
+    };
+  }
+}
@@ -0,0 +1,127 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.calcite.linq4j.AbstractEnumerable;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.EnumerableDefaults;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.Linq4j;
+import org.apache.calcite.linq4j.function.Function1;
+
+/**
+ * Sorts the rows of a client side sort within a memory budget.
+ *
+ * Rows are buffered until their estimated size exceeds the budget, then the
+ * buffer is sorted and written to a {@link SpillFile} as a sorted run. Once
+ * every row has been read the runs and the rows still buffered are merged with
+ * a {@link LoserTree}. Rows with equal keys keep the order they were read in,
+ * like {@link EnumerableDefaults#orderBy(Enumerable, Function1, Comparator)}.
+ */
+public final class SpillingSort {
+
+  private SpillingSort() {
+  }
+
+  /**
+   * @param source            rows to sort
+   * @param keySelector       returns the sort key of a row
+   * @param comparator        order of the sort keys
+   * @param memoryBudgetBytes bytes of rows to buffer before spilling a sorted
+   *                          run, zero or less never spills
+   * @param scanStats         stats of the query the rows belong to
+   * @param <TSource>         type of the rows
+   * @param <TKey>            type of the sort key
+   * @return the sorted rows
+   */
+  public static <TSource, TKey> Enumerable<TSource> orderBy(final Enumerable<TSource> source,
+      final Function1<TSource, TKey> keySelector, final Comparator<TKey> comparator, final long memoryBudgetBytes,
+      final KuduScanStats scanStats) {
+    if (memoryBudgetBytes <= 0) {
+      return EnumerableDefaults.orderBy(source, keySelector, comparator);
+    }
+    final Comparator<TSource> rowComparator = (row1, row2) -> comparator.compare(keySelector.apply(row1),
+        keySelector.apply(row2));
+    return new AbstractEnumerable<TSource>() {
+      @Override
+      public Enumerator<TSource> enumerator() {
+        return sort(source, rowComparator, memoryBudgetBytes, scanStats);
+      }
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <TSource> Enumerator<TSource> sort(final Enumerable<TSource> source,
+      final Comparator<TSource> rowComparator, final long memoryBudgetBytes, final KuduScanStats scanStats) {
+    final List<SpillFile> runs = new ArrayList<>();
+    final List<TSource> buffer = new ArrayList<>();
+    long bufferedBytes = 0L;
+    try (Enumerator<TSource> rows = source.enumerator()) {
+      while (rows.moveNext()) {
+        final TSource row = rows.current();
+        buffer.add(row);
+        bufferedBytes += SpillFile.estimateSize(row);
+        if (bufferedBytes > memoryBudgetBytes) {
+          buffer.sort(rowComparator);
+          final SpillFile run = new SpillFile(scanStats);
+          runs.add(run);
+          buffer.forEach(run::write);
+          buffer.clear();
+          bufferedBytes = 0L;
+        }
+      }
+    } catch (RuntimeException e) {
+      runs.forEach(SpillFile::delete);
+      throw e;
+    }
+    buffer.sort(rowComparator);
+    if (runs.isEmpty()) {
+      return Linq4j.enumerator(buffer);
+    }
+
+    // the runs come first so rows with equal keys stay in the order they were read
+    final List<Enumerator<TSource>> sources = new ArrayList<>(runs.size() + 1);
+    for (SpillFile run : runs) {
+      sources.add((Enumerator<TSource>) run.read());
+    }
+    sources.add(Linq4j.enumerator(buffer));
+    final LoserTree<TSource> tree = new LoserTree<>(sources, rowComparator);
+    return new Enumerator<TSource>() {
+      @Override
+      public TSource current() {
+        return tree.current();
+      }
+
+      @Override
+      public boolean moveNext() {
+        return tree.moveNext();
+      }
+
+      @Override
+      public void reset() {
+        throw new RuntimeException("Cannot reset a SpillingSort");
+      }
+
+      @Override
+      public void close() {
+        sources.forEach(Enumerator::close);
+      }
+    };
+  }
+}
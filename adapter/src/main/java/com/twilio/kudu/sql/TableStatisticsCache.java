@@ -0,0 +1,462 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.primitives.UnsignedBytes;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.client.KuduClient;
+import org.apache.kudu.client.KuduScanToken;
+import org.apache.kudu.client.KuduScanner;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.KuduTableStatistics;
+import org.apache.kudu.client.LocatedTablet;
+import org.apache.kudu.client.Partition;
+import org.apache.kudu.client.RowResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the statistics Kudu keeps about each table so the planner can use real
+ * row counts instead of the estimate of the {@link TableType}.
+ *
+ * The row count is the live row count the master aggregates from the tablet
+ * servers. The row count of each range partition is estimated from the share of
+ * the tablets of the table that belong to the range as Kudu doesn't report row
+ * counts per tablet.
+ *
+ * Statistics are loaded in the background the first time a table is planned,
+ * until they arrive the table is planned with the estimate of its table type.
+ * Once they are older than the refresh interval the next lookup returns the
+ * current statistics and reloads them in the background, planning never waits
+ * for the master.
+ *
+ * Column statistics are optional as they require reading rows. They are always
+ * loaded in the background. Tablets are sorted by primary key, so reading only
+ * the first rows of each tablet would bias the leading primary key columns
+ * towards its lowest keys. Instead every tablet is split into key ranges of
+ * about the same size with one scan token each, and the sample of every range
+ * is drawn uniformly from its first rows with a reservoir. Kudu only splits
+ * tablets at the boundaries of their rowsets, so a small tablet is a single
+ * range which the reservoir usually reads entirely.
+ */
+public final class TableStatisticsCache {
+  private static final Logger logger = LoggerFactory.getLogger(TableStatisticsCache.class);
+
+  // sampling reads rows so column statistics are refreshed less often
+  private static final int COLUMN_STATISTICS_REFRESH_MULTIPLIER = 10;
+
+  // number of key ranges of each tablet the sample is read from
+  static final int SAMPLE_RANGES_PER_TABLET = 16;
+  // number of rows read from a key range for each row of its sample
+  static final int SAMPLE_SCAN_MULTIPLIER = 100;
+
+  private static final TableStatisticsCache DISABLED = new TableStatisticsCache(0L, 0);
+
+  private static final ExecutorService REFRESH_EXECUTOR = Executors.newSingleThreadExecutor(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("kudu-table-statistics-%d").build());
+
+  private final LoadingCache<TableKey, TableStatistics> cache;
+  private final LoadingCache<TableKey, List<ColumnStatistics>> columnCache;
+  // tables whose statistics are being loaded for the first time
+  private final Set<TableKey> pendingLoads = ConcurrentHashMap.newKeySet();
+  // tables whose column statistics are being sampled for the first time
+  private final Set<TableKey> pendingSamples = ConcurrentHashMap.newKeySet();
+
+  /**
+   * @param refreshMs  time after which statistics are reloaded in the background,
+   *                   zero or less disables the cache
+   * @param sampleRows number of rows read to compute the column statistics of a
+   *                   table, zero or less disables column statistics
+   */
+  public TableStatisticsCache(final long refreshMs, final int sampleRows) {
+    if (refreshMs > 0) {
+      // entries of tables that are no longer planned, for instance after the
+      // schema reloaded its tables, are eventually dropped
+      this.cache = CacheBuilder.newBuilder().refreshAfterWrite(refreshMs, TimeUnit.MILLISECONDS)
+          .expireAfterAccess(refreshMs * 10, TimeUnit.MILLISECONDS)
+          .build(CacheLoader.asyncReloading(new CacheLoader<TableKey, TableStatistics>() {
+            @Override
+            public TableStatistics load(final TableKey key) {
+              return fetch(key.kuduTable);
+            }
+          }, REFRESH_EXECUTOR));
+    } else {
+      this.cache = null;
+    }
+    if (cache != null && sampleRows > 0) {
+      final long sampleRefreshMs = refreshMs * COLUMN_STATISTICS_REFRESH_MULTIPLIER;
+      this.columnCache = CacheBuilder.newBuilder().refreshAfterWrite(sampleRefreshMs, TimeUnit.MILLISECONDS)
+          .expireAfterAccess(sampleRefreshMs * 10, TimeUnit.MILLISECONDS)
+          .build(CacheLoader.asyncReloading(new CacheLoader<TableKey, List<ColumnStatistics>>() {
+            @Override
+            public List<ColumnStatistics> load(final TableKey key) {
+              return sample(key.kuduTable, sampleRows, cache.getUnchecked(key).getRowCount());
+            }
+          }, REFRESH_EXECUTOR));
+    } else {
+      this.columnCache = null;
+    }
+  }
+
+  /**
+   * @return a cache that never has statistics for any table
+   */
+  public static TableStatisticsCache disabled() {
+    return DISABLED;
+  }
+
+  public boolean isEnabled() {
+    return cache != null;
+  }
+
+  /**
+   * Returns the statistics of the table without waiting for them, the first call
+   * for a table starts loading them in the background.
+   *
+   * @param kuduTable table to return the statistics of
+   * @return statistics of the table, {@link TableStatistics#UNKNOWN} if the cache
+   *         is disabled, they are not loaded yet or Kudu didn't return them
+   */
+  public TableStatistics get(final KuduTable kuduTable) {
+    if (cache == null) {
+      return TableStatistics.UNKNOWN;
+    }
+    final TableKey key = new TableKey(kuduTable);
+    final TableStatistics statistics = cache.getIfPresent(key);
+    if (statistics != null) {
+      return statistics;
+    }
+    if (pendingLoads.add(key)) {
+      REFRESH_EXECUTOR.execute(() -> {
+        try {
+          cache.getUnchecked(key);
+        } catch (UncheckedExecutionException e) {
+          logger.debug("Unable to load the statistics of table " + kuduTable.getName(), e);
+        } finally {
+          pendingLoads.remove(key);
+        }
+      });
+    }
+    return TableStatistics.UNKNOWN;
+  }
+
+  /**
+   * Returns the column statistics of the table without waiting for them, the
+   * first call for a table starts sampling it in the background.
+   *
+   * @param kuduTable table to return the column statistics of
+   * @return statistics of each column by column index, empty if they are disabled
+   *         or not sampled yet
+   */
+  public List<ColumnStatistics> getColumnStatistics(final KuduTable kuduTable) {
+    if (columnCache == null) {
+      return Collections.emptyList();
+    }
+    final TableKey key = new TableKey(kuduTable);
+    final List<ColumnStatistics> columnStatistics = columnCache.getIfPresent(key);
+    if (columnStatistics != null) {
+      return columnStatistics;
+    }
+    if (pendingSamples.add(key)) {
+      REFRESH_EXECUTOR.execute(() -> {
+        try {
+          columnCache.getUnchecked(key);
+        } catch (UncheckedExecutionException e) {
+          logger.debug("Unable to sample table " + kuduTable.getName(), e);
+        } finally {
+          pendingSamples.remove(key);
+        }
+      });
+    }
+    return Collections.emptyList();
+  }
+
+  public void invalidateAll() {
+    if (cache != null) {
+      cache.invalidateAll();
+    }
+    if (columnCache != null) {
+      columnCache.invalidateAll();
+    }
+  }
+
+  /**
+   * Asks the master for the statistics and the tablets of the table.
+   */
+  static TableStatistics fetch(final KuduTable kuduTable) {
+    final long rowCount;
+    try {
+      final KuduTableStatistics statistics = kuduTable.getTableStatistics();
+      rowCount = statistics.getLiveRowCount();
+    } catch (Exception e) {
+      logger.debug("Unable to fetch the statistics of table " + kuduTable.getName(), e);
+      return TableStatistics.UNKNOWN;
+    }
+    if (rowCount <= 0) {
+      // tablet servers that don't report live row counts, or that haven't sent
+      // their metrics to the master yet which happens for a while after a table
+      // is created and can't be told apart from an empty table
+      return TableStatistics.UNKNOWN;
+    }
+
+    List<LocatedTablet> tablets;
+    try {
+      tablets = kuduTable.getTabletsLocations(kuduTable.getAsyncClient().getDefaultAdminOperationTimeoutMs());
+    } catch (Exception e) {
+      logger.debug("Unable to fetch the tablets of table " + kuduTable.getName(), e);
+      tablets = Collections.emptyList();
+    }
+    return new TableStatistics(rowCount, estimateRangePartitions(rowCount, tablets));
+  }
+
+  /**
+   * Samples up to sampleRows rows spread evenly over key ranges of every tablet
+   * of the table.
+   */
+  static List<ColumnStatistics> sample(final KuduTable kuduTable, final int sampleRows, final long rowCount) {
+    final Schema schema = kuduTable.getSchema();
+    final List<ColumnStatistics.Accumulator> accumulators = new ArrayList<>(schema.getColumnCount());
+    for (ColumnSchema columnSchema : schema.getColumns()) {
+      accumulators.add(new ColumnStatistics.Accumulator(columnSchema.getType()));
+    }
+    final KuduClient client = kuduTable.getAsyncClient().syncClient();
+    try {
+      final List<KuduScanToken> tokens = splitTablets(kuduTable, client);
+      if (tokens.isEmpty()) {
+        return Collections.emptyList();
+      }
+      final int rowsPerRange = Math.max(1, sampleRows / tokens.size());
+      final long scannedRowsPerRange = (long) rowsPerRange * SAMPLE_SCAN_MULTIPLIER;
+      final Random random = new Random();
+      final List<Object[]> reservoir = new ArrayList<>(rowsPerRange);
+      long sampled = 0;
+      for (KuduScanToken token : tokens) {
+        reservoir.clear();
+        final KuduScanner scanner = token.intoScanner(client);
+        try {
+          long rangeRows = 0;
+          while (scanner.hasMoreRows() && rangeRows < scannedRowsPerRange) {
+            for (RowResult row : scanner.nextRows()) {
+              // keeps each of the rows read so far with the same probability
+              final long slot = rangeRows < rowsPerRange ? rangeRows : (long) (random.nextDouble() * (rangeRows + 1));
+              if (slot < rowsPerRange) {
+                final Object[] values = new Object[accumulators.size()];
+                for (int column = 0; column < values.length; column++) {
+                  values[column] = row.isNull(column) ? null : row.getObject(column);
+                }
+                if (slot == reservoir.size()) {
+                  reservoir.add(values);
+                } else {
+                  reservoir.set((int) slot, values);
+                }
+              }
+              if (++rangeRows == scannedRowsPerRange) {
+                break;
+              }
+            }
+          }
+        } finally {
+          scanner.close();
+        }
+        for (Object[] values : reservoir) {
+          for (int column = 0; column < values.length; column++) {
+            accumulators.get(column).add(values[column]);
+          }
+        }
+        sampled += reservoir.size();
+      }
+      if (sampled == 0) {
+        return Collections.emptyList();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    final List<ColumnStatistics> columnStatistics = new ArrayList<>(accumulators.size());
+    for (ColumnStatistics.Accumulator accumulator : accumulators) {
+      columnStatistics.add(accumulator.build(rowCount));
+    }
+    return Collections.unmodifiableList(columnStatistics);
+  }
+
+  /**
+   * Builds scan tokens over key ranges of about the same size, roughly
+   * {@link #SAMPLE_RANGES_PER_TABLET} per tablet. Falls back to one token per
+   * tablet if the size of the table is unknown or the tablet servers can't split
+   * their tablets.
+   */
+  static List<KuduScanToken> splitTablets(final KuduTable kuduTable, final KuduClient client) {
+    final List<KuduScanToken> tokens = client.newScanTokenBuilder(kuduTable).build();
+    if (tokens.isEmpty()) {
+      return tokens;
+    }
+    final long onDiskSize;
+    try {
+      onDiskSize = kuduTable.getTableStatistics().getOnDiskSize();
+    } catch (Exception e) {
+      logger.debug("Unable to fetch the size of table " + kuduTable.getName(), e);
+      return tokens;
+    }
+    final long splitSizeBytes = onDiskSize / ((long) tokens.size() * SAMPLE_RANGES_PER_TABLET);
+    if (splitSizeBytes <= 0) {
+      return tokens;
+    }
+    try {
+      return client.newScanTokenBuilder(kuduTable).setSplitSizeBytes(splitSizeBytes).build();
+    } catch (RuntimeException e) {
+      logger.debug("Unable to split the tablets of table " + kuduTable.getName(), e);
+      return tokens;
+    }
+  }
+
+  /**
+   * Spreads the row count of the table over its range partitions in proportion to
+   * the number of tablets of each range.
+   */
+  static List<RangePartitionStatistics> estimateRangePartitions(final long rowCount,
+      final List<LocatedTablet> tablets) {
+    if (tablets.isEmpty()) {
+      return Collections.emptyList();
+    }
+    // tablets are returned in partition key order, hash buckets come first so the
+    // same range is found once per bucket
+    final Map<ByteBuffer, Partition> ranges = new LinkedHashMap<>();
+    final Map<ByteBuffer, Integer> tabletCounts = new LinkedHashMap<>();
+    for (LocatedTablet tablet : tablets) {
+      final Partition partition = tablet.getPartition();
+      final ByteBuffer rangeKey = ByteBuffer
+          .allocate(partition.getRangeKeyStart().length + partition.getRangeKeyEnd().length + Integer.BYTES);
+      rangeKey.putInt(partition.getRangeKeyStart().length).put(partition.getRangeKeyStart())
+          .put(partition.getRangeKeyEnd()).flip();
+      ranges.putIfAbsent(rangeKey, partition);
+      tabletCounts.merge(rangeKey, 1, Integer::sum);
+    }
+    final List<RangePartitionStatistics> rangePartitions = new ArrayList<>(ranges.size());
+    for (Map.Entry<ByteBuffer, Partition> entry : ranges.entrySet()) {
+      final int tabletCount = tabletCounts.get(entry.getKey());
+      rangePartitions.add(new RangePartitionStatistics(entry.getValue(), tabletCount,
+          (double) rowCount * tabletCount / tablets.size()));
+    }
+    // range keys are compared as unsigned bytes
+    rangePartitions.sort((left, right) -> UnsignedBytes.lexicographicalComparator()
+        .compare(left.partition.getRangeKeyStart(), right.partition.getRangeKeyStart()));
+    return Collections.unmodifiableList(rangePartitions);
+  }
+
+  /**
+   * Statistics of a single table.
+   */
+  public static final class TableStatistics {
+    public static final TableStatistics UNKNOWN = new TableStatistics(-1L, Collections.emptyList());
+
+    private final long rowCount;
+    private final List<RangePartitionStatistics> rangePartitions;
+
+    TableStatistics(final long rowCount, final List<RangePartitionStatistics> rangePartitions) {
+      this.rowCount = rowCount;
+      this.rangePartitions = rangePartitions;
+    }
+
+    public boolean isKnown() {
+      return rowCount >= 0;
+    }
+
+    /**
+     * @return number of live rows, negative if unknown
+     */
+    public long getRowCount() {
+      return rowCount;
+    }
+
+    /**
+     * @return statistics of each range partition ordered by range, empty if the
+     *         table isn't range partitioned or the tablets are unknown
+     */
+    public List<RangePartitionStatistics> getRangePartitions() {
+      return rangePartitions;
+    }
+  }
+
+  /**
+   * Estimated statistics of a single range partition.
+   */
+  public static final class RangePartitionStatistics {
+    private final Partition partition;
+    private final int tabletCount;
+    private final double estimatedRowCount;
+
+    RangePartitionStatistics(final Partition partition, final int tabletCount, final double estimatedRowCount) {
+      this.partition = partition;
+      this.tabletCount = tabletCount;
+      this.estimatedRowCount = estimatedRowCount;
+    }
+
+    /**
+     * @return partition of one of the tablets of the range, use its range keys
+     */
+    public Partition getPartition() {
+      return partition;
+    }
+
+    public int getTabletCount() {
+      return tabletCount;
+    }
+
+    public double getEstimatedRowCount() {
+      return estimatedRowCount;
+    }
+  }
+
+  /**
+   * Identifies a table by its id so that the same table opened twice shares its
+   * statistics.
+   */
+  private static final class TableKey {
+    private final KuduTable kuduTable;
+
+    TableKey(final KuduTable kuduTable) {
+      this.kuduTable = kuduTable;
+    }
+
+    @Override
+    public int hashCode() {
+      return kuduTable.getTableId().hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof TableKey && ((TableKey) obj).kuduTable.getTableId().equals(kuduTable.getTableId());
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.metadata;
+
+import com.google.common.collect.ImmutableList;
+import com.twilio.kudu.sql.CalciteKuduPredicate;
+import com.twilio.kudu.sql.KuduQuery;
+import com.twilio.kudu.sql.rules.KuduPredicatePushDownVisitor;
+import com.twilio.kudu.sql.rules.RowValueExpressionConverter;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.volcano.RelSubset;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.metadata.BuiltInMetadata;
+import org.apache.calcite.rel.metadata.ChainedRelMetadataProvider;
+import org.apache.calcite.rel.metadata.DefaultRelMetadataProvider;
+import org.apache.calcite.rel.metadata.MetadataDef;
+import org.apache.calcite.rel.metadata.MetadataHandler;
+import org.apache.calcite.rel.metadata.ReflectiveRelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMdUtil;
+import org.apache.calcite.rel.metadata.RelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.util.BuiltInMethod;
+import org.apache.calcite.util.Util;
+
+import java.util.List;
+
+/**
+ * Estimates the selectivity of a filter on a {@link KuduQuery} from the column
+ * statistics of the table, see {@link ScanSelectivity}. Row counts follow as
+ * Calcite estimates the rows of a filter from the selectivity of its condition
+ * on the input.
+ *
+ * Each conjunction of the condition that can be pushed into Kudu is estimated
+ * from the statistics, the others get the guess Calcite makes by default.
+ * Tables that have not been sampled are always guessed.
+ */
+public class KuduRelMdSelectivity implements MetadataHandler<BuiltInMetadata.Selectivity> {
+  public static final RelMetadataProvider SOURCE = ReflectiveRelMetadataProvider
+      .reflectiveSource(BuiltInMethod.SELECTIVITY.method, new KuduRelMdSelectivity());
+
+  /**
+   * Metadata provider used to plan queries on Kudu tables.
+   */
+  public static final RelMetadataProvider PROVIDER = ChainedRelMetadataProvider
+      .of(ImmutableList.of(SOURCE, DefaultRelMetadataProvider.INSTANCE));
+
+  protected KuduRelMdSelectivity() {
+  }
+
+  @Override
+  public MetadataDef<BuiltInMetadata.Selectivity> getDef() {
+    return BuiltInMetadata.Selectivity.DEF;
+  }
+
+  public Double getSelectivity(final KuduQuery query, final RelMetadataQuery mq, final RexNode predicate) {
+    if (predicate == null || predicate.isAlwaysTrue()) {
+      return 1.0;
+    }
+    if (query.projectRowType != null || query.calciteKuduTable.getColumnStatistics().isEmpty()) {
+      return RelMdUtil.guessSelectivity(predicate);
+    }
+    final RexBuilder rexBuilder = query.getCluster().getRexBuilder();
+    final int primaryKeyColumnCount = query.calciteKuduTable.getKuduTable().getSchema().getPrimaryKeyColumnCount();
+    double selectivity = 1;
+    for (RexNode conjunction : RelOptUtil.conjunctions(predicate)) {
+      final RexNode condition = conjunction.accept(new RowValueExpressionConverter(rexBuilder, query.calciteKuduTable));
+      final KuduPredicatePushDownVisitor predicateParser = new KuduPredicatePushDownVisitor(rexBuilder,
+          primaryKeyColumnCount, false);
+      final List<List<CalciteKuduPredicate>> subScans = condition.accept(predicateParser, null);
+      if (subScans.isEmpty() || !predicateParser.areAllFiltersApplied()) {
+        selectivity *= RelMdUtil.guessSelectivity(conjunction);
+      } else {
+        selectivity *= ScanSelectivity.selectivity(query.calciteKuduTable, subScans);
+      }
+    }
+    return selectivity;
+  }
+
+  // subsets are guessed by default, look through the ones that scan a Kudu table
+  public Double getSelectivity(final RelSubset subset, final RelMetadataQuery mq, final RexNode predicate) {
+    final RelNode rel = Util.first(subset.getBest(), subset.getOriginal());
+    if (rel instanceof KuduQuery) {
+      return mq.getSelectivity(rel, predicate);
+    }
+    return RelMdUtil.guessSelectivity(predicate);
+  }
+}
@@ -0,0 +1,311 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.metadata;
+
+import com.twilio.kudu.sql.CalciteKuduPredicate;
+import com.twilio.kudu.sql.CalciteKuduTable;
+import com.twilio.kudu.sql.ColumnStatistics;
+import com.twilio.kudu.sql.ComparisonPredicate;
+import com.twilio.kudu.sql.DynamicInListPredicate;
+import com.twilio.kudu.sql.DynamicParamPredicate;
+import com.twilio.kudu.sql.InListPredicate;
+import com.twilio.kudu.sql.NullPredicate;
+import com.twilio.kudu.sql.TableStatisticsCache;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.KuduPredicate;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.PartialRow;
+import org.apache.kudu.client.PartitionSchema;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Estimates how many rows of a table match the predicates pushed into Kudu and
+ * how much of the table Kudu has to read to find them.
+ *
+ * Predicates are given as sub scans, each sub scan is a list of predicates that
+ * all have to match and the rows of the sub scans are combined. Columns are
+ * assumed to be independent. Without column statistics the selectivity of each
+ * predicate is the same guess Calcite makes for a filter.
+ */
+public final class ScanSelectivity {
+
+  // guesses of RelMdUtil.guessSelectivity
+  static final double EQUALS_GUESS = 0.15;
+  static final double COMPARISON_GUESS = 0.5;
+  static final double IS_NOT_NULL_GUESS = 0.9;
+  static final double OTHER_GUESS = 0.25;
+
+  private ScanSelectivity() {
+  }
+
+  /**
+   * @param table    table being scanned
+   * @param subScans predicates of each sub scan
+   * @return fraction of the rows of the table returned by the sub scans
+   */
+  public static double selectivity(final CalciteKuduTable table, final List<List<CalciteKuduPredicate>> subScans) {
+    final List<ColumnStatistics> columnStatistics = table.getColumnStatistics();
+    double selectivity = 0;
+    for (List<CalciteKuduPredicate> subScan : subScans) {
+      double subScanSelectivity = 1;
+      for (CalciteKuduPredicate predicate : subScan) {
+        subScanSelectivity *= selectivity(table, columnStatistics, predicate);
+      }
+      selectivity += subScanSelectivity;
+    }
+    // a filter returns at least one row
+    return Math.max(Math.min(1, selectivity), 1 / Math.max(1, table.getEstimatedRowCount()));
+  }
+
+  /**
+   * Estimates the fraction of the table Kudu reads to return the rows of the sub
+   * scans. A sub scan only reads the key range of the equality predicates on a
+   * prefix of the primary key, followed by the range predicates on the next key
+   * column. It also only reads the tablets that are left once Kudu has pruned the
+   * partitions, whichever is smaller.
+   *
+   * @param table    table being scanned
+   * @param subScans predicates of each sub scan
+   * @return fraction of the rows of the table that are read
+   */
+  public static double scannedFraction(final CalciteKuduTable table, final List<List<CalciteKuduPredicate>> subScans) {
+    final List<ColumnStatistics> columnStatistics = table.getColumnStatistics();
+    final TableStatisticsCache.TableStatistics tableStatistics = table.getTableStatistics();
+    double scanned = 0;
+    for (List<CalciteKuduPredicate> subScan : subScans) {
+      final double keyRange = primaryKeyFraction(table, columnStatistics, subScan);
+      final double tablets = hashPartitionFraction(table, subScan)
+          * rangePartitionFraction(table, tableStatistics, subScan);
+      scanned += Math.min(keyRange, tablets);
+    }
+    return Math.min(1, scanned);
+  }
+
+  static double primaryKeyFraction(final CalciteKuduTable table, final List<ColumnStatistics> columnStatistics,
+      final List<CalciteKuduPredicate> subScan) {
+    final int primaryKeyColumnCount = table.getKuduTable().getSchema().getPrimaryKeyColumnCount();
+    double fraction = 1;
+    for (int column = 0; column < primaryKeyColumnCount; column++) {
+      final List<CalciteKuduPredicate> equalities = new ArrayList<>();
+      final List<CalciteKuduPredicate> ranges = new ArrayList<>();
+      for (CalciteKuduPredicate predicate : subScan) {
+        if (predicate.getColumnIdx() != column) {
+          continue;
+        }
+        if (equalityValueCount(predicate) > 0) {
+          equalities.add(predicate);
+        } else if (predicate instanceof ComparisonPredicate || predicate instanceof DynamicParamPredicate) {
+          ranges.add(predicate);
+        }
+      }
+      if (!equalities.isEmpty()) {
+        for (CalciteKuduPredicate predicate : equalities) {
+          fraction *= selectivity(table, columnStatistics, predicate);
+        }
+        continue;
+      }
+      for (CalciteKuduPredicate predicate : ranges) {
+        fraction *= selectivity(table, columnStatistics, predicate);
+      }
+      break;
+    }
+    return fraction;
+  }
+
+  /**
+   * A hash partition is pruned when all of its columns are compared to values.
+   */
+  static double hashPartitionFraction(final CalciteKuduTable table, final List<CalciteKuduPredicate> subScan) {
+    final KuduTable kuduTable = table.getKuduTable();
+    final Schema schema = kuduTable.getSchema();
+    double fraction = 1;
+    for (PartitionSchema.HashBucketSchema hashBucketSchema : kuduTable.getPartitionSchema().getHashBucketSchemas()) {
+      long values = 1;
+      for (int columnId : hashBucketSchema.getColumnIds()) {
+        final int column = schema.getColumnIndex(columnId);
+        long columnValues = 0;
+        for (CalciteKuduPredicate predicate : subScan) {
+          if (predicate.getColumnIdx() == column && equalityValueCount(predicate) > 0) {
+            columnValues = columnValues == 0 ? equalityValueCount(predicate)
+                : Math.min(columnValues, equalityValueCount(predicate));
+          }
+        }
+        values *= columnValues;
+      }
+      if (values > 0) {
+        fraction *= Math.min(1d, (double) values / hashBucketSchema.getNumBuckets());
+      }
+    }
+    return fraction;
+  }
+
+  /**
+   * Range partitions are pruned by the predicates on the range column, only
+   * tables range partitioned on a single column are considered.
+   */
+  static double rangePartitionFraction(final CalciteKuduTable table,
+      final TableStatisticsCache.TableStatistics tableStatistics, final List<CalciteKuduPredicate> subScan) {
+    final KuduTable kuduTable = table.getKuduTable();
+    final List<Integer> rangeColumnIds = kuduTable.getPartitionSchema().getRangeSchema().getColumnIds();
+    if (tableStatistics.getRangePartitions().isEmpty() || rangeColumnIds.size() != 1) {
+      return 1;
+    }
+    final int column = kuduTable.getSchema().getColumnIndex(rangeColumnIds.get(0));
+    final List<ComparisonPredicate> predicates = new ArrayList<>();
+    for (CalciteKuduPredicate predicate : subScan) {
+      if (predicate.getColumnIdx() == column && predicate instanceof ComparisonPredicate) {
+        predicates.add((ComparisonPredicate) predicate);
+      }
+    }
+    if (predicates.isEmpty()) {
+      return 1;
+    }
+    double total = 0;
+    double touched = 0;
+    for (TableStatisticsCache.RangePartitionStatistics range : tableStatistics.getRangePartitions()) {
+      total += range.getEstimatedRowCount();
+      final double start = boundPosition(range.getPartition().getDecodedRangeKeyStart(kuduTable), column,
+          Double.NEGATIVE_INFINITY);
+      final double end = boundPosition(range.getPartition().getDecodedRangeKeyEnd(kuduTable), column,
+          Double.POSITIVE_INFINITY);
+      boolean overlaps = true;
+      for (ComparisonPredicate predicate : predicates) {
+        KuduPredicate.ComparisonOp operation = predicate.operation;
+        Object value = predicate.rightHandValue;
+        if (table.isColumnOrderedDesc(column)) {
+          operation = CalciteKuduPredicate.invertComparisonOp(operation);
+          value = invert(kuduTable.getSchema().getColumnByIndex(column).getType(), value);
+        }
+        final Double position = ColumnStatistics.position(value);
+        if (position == null) {
+          continue;
+        }
+        switch (operation) {
+        case EQUAL:
+          overlaps &= start <= position && position < end;
+          break;
+        case LESS:
+          overlaps &= start < position;
+          break;
+        case LESS_EQUAL:
+          overlaps &= start <= position;
+          break;
+        case GREATER:
+        case GREATER_EQUAL:
+          overlaps &= position < end;
+          break;
+        default:
+          break;
+        }
+      }
+      if (overlaps) {
+        touched += range.getEstimatedRowCount();
+      }
+    }
+    return total > 0 ? touched / total : 1;
+  }
+
+  private static double boundPosition(final PartialRow bound, final int column, final double unbounded) {
+    if (!bound.isSet(column)) {
+      return unbounded;
+    }
+    final Double position = ColumnStatistics.position(bound.getObject(column));
+    return position == null ? unbounded : position;
+  }
+
+  /**
+   * @return number of values an equality or in list predicate matches, zero for
+   *         other predicates
+   */
+  private static int equalityValueCount(final CalciteKuduPredicate predicate) {
+    if (predicate instanceof ComparisonPredicate
+        && ((ComparisonPredicate) predicate).operation == KuduPredicate.ComparisonOp.EQUAL) {
+      return 1;
+    } else if (predicate instanceof InListPredicate) {
+      return ((InListPredicate) predicate).getValues().size();
+    } else if (predicate instanceof DynamicParamPredicate
+        && ((DynamicParamPredicate) predicate).operation == KuduPredicate.ComparisonOp.EQUAL) {
+      return 1;
+    } else if (predicate instanceof DynamicInListPredicate) {
+      return ((DynamicInListPredicate) predicate).paramIndexes.size();
+    }
+    return 0;
+  }
+
+  static double selectivity(final CalciteKuduTable table, final List<ColumnStatistics> columnStatistics,
+      final CalciteKuduPredicate predicate) {
+    final int column = predicate.getColumnIdx();
+    final ColumnStatistics statistics = column < columnStatistics.size() ? columnStatistics.get(column) : null;
+    final boolean descending = table.isColumnOrderedDesc(column);
+    final Type type = table.getKuduTable().getSchema().getColumnByIndex(column).getType();
+    if (predicate instanceof NullPredicate) {
+      final boolean notNull = ((NullPredicate) predicate).isNotNull();
+      if (statistics == null) {
+        return notNull ? IS_NOT_NULL_GUESS : OTHER_GUESS;
+      }
+      return notNull ? 1 - statistics.getNullFraction() : statistics.getNullFraction();
+    } else if (predicate instanceof InListPredicate) {
+      double selectivity = 0;
+      for (Object value : ((InListPredicate) predicate).getValues()) {
+        selectivity += statistics == null ? EQUALS_GUESS
+            : statistics.equalsSelectivity(descending ? invert(type, value) : value);
+      }
+      return Math.min(1, selectivity);
+    } else if (predicate instanceof ComparisonPredicate) {
+      final ComparisonPredicate comparison = (ComparisonPredicate) predicate;
+      KuduPredicate.ComparisonOp operation = comparison.operation;
+      Object value = comparison.rightHandValue;
+      if (descending) {
+        operation = CalciteKuduPredicate.invertComparisonOp(operation);
+        value = invert(type, value);
+      }
+      if (operation == KuduPredicate.ComparisonOp.EQUAL) {
+        return statistics == null ? EQUALS_GUESS : statistics.equalsSelectivity(value);
+      }
+      final Double selectivity = statistics == null ? null : statistics.rangeSelectivity(operation, value);
+      return selectivity == null ? COMPARISON_GUESS : selectivity;
+    } else if (predicate instanceof DynamicParamPredicate) {
+      // the value is only known when the query is executed
+      if (((DynamicParamPredicate) predicate).operation == KuduPredicate.ComparisonOp.EQUAL) {
+        return statistics == null ? EQUALS_GUESS : statistics.equalsSelectivity(null);
+      }
+      return COMPARISON_GUESS;
+    } else if (predicate instanceof DynamicInListPredicate) {
+      final int valueCount = ((DynamicInListPredicate) predicate).paramIndexes.size();
+      return Math.min(1, valueCount * (statistics == null ? EQUALS_GUESS : statistics.equalsSelectivity(null)));
+    }
+    return OTHER_GUESS;
+  }
+
+  /**
+   * Converts the value of a column stored in descending order to the value Kudu
+   * stores, see {@link ComparisonPredicate#toPredicate}.
+   *
+   * @return the stored value, null if it can't be converted
+   */
+  static Object invert(final Type type, final Object value) {
+    if (type == Type.UNIXTIME_MICROS) {
+      final Double micros = ColumnStatistics.position(value);
+      return micros == null ? null : CalciteKuduTable.EPOCH_FOR_REVERSE_SORT_IN_MICROSECONDS - micros.longValue();
+    } else if (value instanceof Number && !(value instanceof BigDecimal)) {
+      return -1L - ((Number) value).longValue();
+    }
+    return null;
+  }
+}
@@ -0,0 +1,113 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.rel;
+
+import com.twilio.kudu.sql.CalciteKuduTable;
+import com.twilio.kudu.sql.KuduRelNode;
+import com.twilio.kudu.sql.ScanAggregation;
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
+import org.apache.calcite.adapter.enumerable.EnumerableRelImplementor;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelWriter;
+import org.apache.calcite.rel.SingleRel;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.apache.calcite.util.Pair;
+
+import java.util.List;
+
+/**
+ * Aggregates the rows of a Kudu scan inside the callbacks of its scanners. Each
+ * scanner, one per tablet, groups the rows of its batches into its own hash
+ * table as they arrive and the tables are merged once all of them are done, so
+ * the rows of the scan are never queued for the consumer.
+ *
+ * When the group keys include every hash partition column of the table a group
+ * never spans two hash buckets, the aggregation is partition wise and the
+ * groups of a bucket are handed out as soon as its tablets are done.
+ *
+ * Like {@link KuduCountRel} it turns its input into a call on the
+ * {@link CalciteKuduTable.KuduQueryable}, it isn't a {@link KuduRelNode} itself
+ * so no other Kudu relation can be pushed on top of it.
+ */
+public class KuduAggregationRel extends SingleRel implements EnumerableRel {
+
+  private final ImmutableBitSet groupSet;
+  private final List<AggregateCall> aggCalls;
+  private final ScanAggregation aggregation;
+  private final boolean partitionWise;
+
+  public KuduAggregationRel(final RelOptCluster cluster, final RelTraitSet traitSet, final RelNode input,
+      final RelDataType rowType, final ImmutableBitSet groupSet, final List<AggregateCall> aggCalls,
+      final ScanAggregation aggregation, final boolean partitionWise) {
+    super(cluster, traitSet, input);
+    this.rowType = rowType;
+    this.groupSet = groupSet;
+    this.aggCalls = aggCalls;
+    this.aggregation = aggregation;
+    this.partitionWise = partitionWise;
+    assert input.getConvention() == KuduRelNode.CONVENTION;
+  }
+
+  @Override
+  public double estimateRowCount(final RelMetadataQuery mq) {
+    // same estimate as an Aggregate
+    if (groupSet.isEmpty()) {
+      return 1D;
+    }
+    return mq.getRowCount(getInput()) * (1.0 - Math.pow(.5, groupSet.cardinality()));
+  }
+
+  @Override
+  public RelOptCost computeSelfCost(final RelOptPlanner planner, final RelMetadataQuery mq) {
+    // a fraction of the rows that are scanned so that aggregating in the scanners
+    // is cheaper than aggregating the rows they return, but more expensive than
+    // counting them in Kudu
+    return planner.getCostFactory().makeCost(mq.getRowCount(getInput()) * 0.05, 0, 0);
+  }
+
+  @Override
+  public KuduAggregationRel copy(final RelTraitSet traitSet, final List<RelNode> newInputs) {
+    return new KuduAggregationRel(getCluster(), traitSet, sole(newInputs), rowType, groupSet, aggCalls, aggregation,
+        partitionWise);
+  }
+
+  @Override
+  protected RelDataType deriveRowType() {
+    return rowType;
+  }
+
+  @Override
+  public RelWriter explainTerms(final RelWriter pw) {
+    super.explainTerms(pw).item("group", groupSet);
+    for (Pair<AggregateCall, String> aggCall : Pair.zip(aggCalls,
+        rowType.getFieldNames().subList(groupSet.cardinality(), rowType.getFieldCount()))) {
+      pw.item(aggCall.right, aggCall.left);
+    }
+    return pw.itemIf("partitionWise", partitionWise, partitionWise);
+  }
+
+  @Override
+  public Result implement(final EnumerableRelImplementor implementor, final Prefer pref) {
+    return KuduToEnumerableRel.executeQuery(implementor, pref, getInput(), aggregation, getRowType(), partitionWise,
+        null);
+  }
+}
@@ -0,0 +1,105 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.rel;
+
+import com.twilio.kudu.sql.CalciteKuduTable;
+import com.twilio.kudu.sql.KuduMethod;
+import com.twilio.kudu.sql.KuduRelNode;
+import com.twilio.kudu.sql.rules.KuduToEnumerableConverter;
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
+import org.apache.calcite.adapter.enumerable.EnumerableRelImplementor;
+import org.apache.calcite.adapter.enumerable.JavaRowFormat;
+import org.apache.calcite.adapter.enumerable.PhysType;
+import org.apache.calcite.adapter.enumerable.PhysTypeImpl;
+import org.apache.calcite.linq4j.tree.BlockBuilder;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.SingleRel;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.runtime.Hook;
+
+import java.util.List;
+
+/**
+ * Counts the rows of a Kudu scan with scanners that don't read any column, Kudu
+ * only returns the number of rows of each batch. Replaces a {@code COUNT(*)}
+ * without a group by whose predicates are all pushed down.
+ *
+ * Like {@link KuduToEnumerableRel} it turns its input into a call on the
+ * {@link CalciteKuduTable.KuduQueryable}, it isn't a {@link KuduRelNode} itself
+ * so no other Kudu relation can be pushed on top of it.
+ */
+public class KuduCountRel extends SingleRel implements EnumerableRel {
+
+  public KuduCountRel(final RelOptCluster cluster, final RelTraitSet traitSet, final RelNode input,
+      final RelDataType rowType) {
+    super(cluster, traitSet, input);
+    this.rowType = rowType;
+    assert input.getConvention() == KuduRelNode.CONVENTION;
+  }
+
+  @Override
+  public double estimateRowCount(final RelMetadataQuery mq) {
+    return 1D;
+  }
+
+  @Override
+  public RelOptCost computeSelfCost(final RelOptPlanner planner, final RelMetadataQuery mq) {
+    // a small fraction of the rows that are scanned so that counting in Kudu is
+    // always cheaper than aggregating the rows it returns
+    return planner.getCostFactory().makeCost(mq.getRowCount(getInput()) * 0.01, 0, 0);
+  }
+
+  @Override
+  public KuduCountRel copy(final RelTraitSet traitSet, final List<RelNode> newInputs) {
+    return new KuduCountRel(getCluster(), traitSet, sole(newInputs), rowType);
+  }
+
+  @Override
+  protected RelDataType deriveRowType() {
+    return rowType;
+  }
+
+  @Override
+  public Result implement(final EnumerableRelImplementor implementor, final Prefer pref) {
+    // Generates a call to "count" with the predicates of the scan
+    final BlockBuilder list = new BlockBuilder();
+    final KuduRelNode.Implementor kuduImplementor = new KuduRelNode.Implementor();
+    kuduImplementor.visitChild(0, getInput());
+    final PhysType physType = PhysTypeImpl.of(implementor.getTypeFactory(), getRowType(),
+        pref.prefer(JavaRowFormat.ARRAY));
+
+    final Expression predicates = KuduToEnumerableRel.appendPredicates(implementor, list, kuduImplementor);
+    final Expression table = list.append("table",
+        kuduImplementor.table.getExpression(CalciteKuduTable.KuduQueryable.class));
+    final Expression scanStats = KuduToEnumerableRel.appendScanStats(list);
+    final Expression cancelBoolean = KuduToEnumerableRel.appendCancelFlag(list);
+
+    final Expression enumerable = list.append("enumerable",
+        Expressions.call(table, KuduMethod.KUDU_COUNT_METHOD.method, predicates, scanStats, cancelBoolean));
+
+    Hook.QUERY_PLAN.run(predicates);
+    list.add(Expressions.return_(null, enumerable));
+
+    KuduToEnumerableConverter.logger.debug("Created a KuduQueryable count " + list.toBlock());
+    return implementor.result(physType, list.toBlock());
+  }
+}
@@ -15,7 +15,9 @@
 package com.twilio.kudu.sql.rel;
 
 import com.twilio.kudu.sql.CalciteKuduPredicate;
+import com.twilio.kudu.sql.CalciteKuduTable;
 import com.twilio.kudu.sql.KuduRelNode;
+import com.twilio.kudu.sql.metadata.ScanSelectivity;
 import com.twilio.kudu.sql.rel.KuduProjectRel.KuduColumnVisitor;
 
 import org.apache.calcite.plan.RelOptCluster;
@@ -33,28 +35,30 @@ import java.util.List;
 
 public class KuduFilterRel extends Filter implements KuduRelNode {
   public final List<List<CalciteKuduPredicate>> scanPredicates;
+  public final CalciteKuduTable calciteKuduTable;
   public final Schema kuduSchema;
   public final boolean useInMemoryFiltering;
 
   public KuduFilterRel(final RelOptCluster cluster, final RelTraitSet traitSet, final RelNode child,
-      final RexNode condition, final List<List<CalciteKuduPredicate>> predicates, final Schema kuduSchema,
-      boolean useInMemoryFiltering) {
+      final RexNode condition, final List<List<CalciteKuduPredicate>> predicates,
+      final CalciteKuduTable calciteKuduTable, boolean useInMemoryFiltering) {
     super(cluster, traitSet, child, condition);
     this.scanPredicates = predicates;
-    this.kuduSchema = kuduSchema;
+    this.calciteKuduTable = calciteKuduTable;
+    this.kuduSchema = calciteKuduTable.getKuduTable().getSchema();
     this.useInMemoryFiltering = useInMemoryFiltering;
   }
 
   @Override
   public RelOptCost computeSelfCost(final RelOptPlanner planner, final RelMetadataQuery mq) {
-    // Really lower the cost.
-    // @TODO: consider if the predicates include primary keys
-    // and adjust the cost accordingly.
-    return super.computeSelfCost(planner, mq).multiplyBy(0.1);
+    // Really lower the cost, and lower it further when the predicates restrict the
+    // primary key range or the tablets Kudu has to read.
+    final double scannedFraction = ScanSelectivity.scannedFraction(calciteKuduTable, scanPredicates);
+    return super.computeSelfCost(planner, mq).multiplyBy(0.1 * scannedFraction);
   }
 
   public KuduFilterRel copy(final RelTraitSet traitSet, final RelNode input, final RexNode condition) {
-    return new KuduFilterRel(getCluster(), traitSet, input, condition, this.scanPredicates, kuduSchema,
+    return new KuduFilterRel(getCluster(), traitSet, input, condition, this.scanPredicates, calciteKuduTable,
         useInMemoryFiltering);
   }
 
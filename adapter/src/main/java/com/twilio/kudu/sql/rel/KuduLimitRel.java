@@ -41,7 +41,18 @@ public class KuduLimitRel extends SingleRel implements KuduRelNode {
 
   @Override
   public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
-    return planner.getCostFactory().makeTinyCost();
+    // a small fraction of the rows that are returned so that limiting in Kudu is
+    // always cheaper than limiting the rows it returns, whatever the size of the
+    // table. The row count metadata of a SingleRel is the one of its input so
+    // apply the offset and fetch here.
+    double dRows = mq.getRowCount(getInput());
+    if (offset != null) {
+      dRows = Math.max(dRows - RexLiteral.intValue(offset), 0D);
+    }
+    if (fetch != null) {
+      dRows = Math.min(dRows, RexLiteral.intValue(fetch));
+    }
+    return planner.getCostFactory().makeCost(dRows * 0.01, 0, 0);
   }
 
   @Override
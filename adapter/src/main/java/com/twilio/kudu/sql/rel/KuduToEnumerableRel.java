@@ -15,12 +15,15 @@
 package com.twilio.kudu.sql.rel;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.twilio.kudu.sql.CalciteKuduPredicate;
 import com.twilio.kudu.sql.KuduEnumerable;
 import com.twilio.kudu.sql.KuduMethod;
 import com.twilio.kudu.sql.KuduPhysType;
 import com.twilio.kudu.sql.KuduRelNode;
 import com.twilio.kudu.sql.KuduScanStats;
 import com.twilio.kudu.sql.KuduWrite;
+import com.twilio.kudu.sql.ScanAggregation;
+import com.twilio.kudu.sql.ScanTopN;
 import com.twilio.kudu.sql.rules.KuduToEnumerableConverter;
 
 import org.apache.calcite.DataContext;
@@ -49,13 +52,18 @@ import org.apache.calcite.rel.convert.ConverterImpl;
 import org.apache.calcite.rel.metadata.RelMetadataQuery;
 import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexCorrelVariable;
+import org.apache.calcite.rex.RexDynamicParam;
 import org.apache.calcite.rex.RexLocalRef;
 import org.apache.calcite.rex.RexNode;
 import org.apache.calcite.rex.RexProgram;
 import org.apache.calcite.rex.RexProgramBuilder;
+import org.apache.calcite.rex.RexVisitorImpl;
 import org.apache.calcite.runtime.Hook;
 import org.apache.calcite.util.BuiltInMethod;
 import org.apache.calcite.util.Pair;
+import org.apache.calcite.util.Util;
 import org.apache.kudu.client.RowResult;
 
 import java.lang.reflect.Modifier;
@@ -86,26 +94,39 @@ public class KuduToEnumerableRel extends ConverterImpl implements EnumerableRel
     if (input instanceof KuduWrite) {
       return executeMutation(implementor, pref);
     } else {
-      return executeQuery(implementor, pref);
+      return executeQuery(implementor, pref, getInput(), null, null, false, null);
     }
   }
 
   /**
    * This does the bulk of the work, creating a compile-able query to execute.
+   *
+   * @param input             the Kudu relation that is executed
+   * @param aggregation       aggregation the scanners apply to the rows of the
+   *                          input, null to return the rows
+   * @param aggregatedRowType row type of the aggregation, null to return the rows
+   * @param partitionWise     whether the groups of the aggregation never span two
+   *                          hash buckets
+   * @param topN              sort and limit the scanners apply to the rows of the
+   *                          input, null to return the rows
    */
-  private Result executeQuery(EnumerableRelImplementor implementor, Prefer pref) {
+  static Result executeQuery(final EnumerableRelImplementor implementor, final Prefer pref, final RelNode input,
+      final ScanAggregation aggregation, final RelDataType aggregatedRowType, final boolean partitionWise,
+      final ScanTopN topN) {
     // Generates a call to "query" with the appropriate fields and predicates
     final BlockBuilder list = new BlockBuilder();
     final KuduRelNode.Implementor kuduImplementor = new KuduRelNode.Implementor();
     // This goes and visits the entire tree, setting up kuduImplementor
     // with predicates, fields and limits.
-    kuduImplementor.visitChild(0, getInput());
-    final RelDataType rowType = getRowType();
-    final PhysType physType = PhysTypeImpl.of(implementor.getTypeFactory(), rowType, pref.prefer(JavaRowFormat.ARRAY));
+    kuduImplementor.visitChild(0, input);
+    final RelDataType rowType = input.getRowType();
+    // the rows handed to an aggregation or top N are always Object[] or Object
+    final PhysType physType = PhysTypeImpl.of(implementor.getTypeFactory(), rowType,
+        aggregation != null || topN != null ? JavaRowFormat.ARRAY : pref.prefer(JavaRowFormat.ARRAY));
 
     // Now build the Java code that represents the Physical scan of a
     // Kudu Table.
-    final Expression predicates = list.append("predicates", implementor.stash(kuduImplementor.predicates, List.class));
+    final Expression predicates = appendPredicates(implementor, list, kuduImplementor);
 
     final Expression limit = list.append("limit", Expressions.constant(kuduImplementor.limit));
 
@@ -116,11 +137,9 @@ public class KuduToEnumerableRel extends ConverterImpl implements EnumerableRel
     final Expression table = list.append("table",
         kuduImplementor.table.getExpression(CalciteKuduTable.KuduQueryable.class));
 
-    final Expression scanStats = list.append("scanStats", implementor.stash(new KuduScanStats(), KuduScanStats.class));
+    final Expression scanStats = appendScanStats(list);
 
-    final Expression cancelBoolean = list.append("cancelBoolean",
-        Expressions.convert_(Expressions.call(DataContext.ROOT, BuiltInMethod.DATA_CONTEXT_GET.method,
-            Expressions.constant(DataContext.Variable.CANCEL_FLAG.camelName)), AtomicBoolean.class));
+    final Expression cancelBoolean = appendCancelFlag(list);
 
     // @TODO: for correlation variables, for $batchSize,
     // acquire the InputGetter("$cor" + i). Then for all fields, call
@@ -153,7 +172,7 @@ public class KuduToEnumerableRel extends ConverterImpl implements EnumerableRel
     // If we have selected columns add them to the RexProgram as such.
     final List<Pair<RexNode, String>> namedProjects;
     if (!kuduImplementor.projections.isEmpty()) {
-      namedProjects = Pair.zip(kuduImplementor.projections, getRowType().getFieldNames());
+      namedProjects = Pair.zip(kuduImplementor.projections, rowType.getFieldNames());
     } else {
       // Create a Projection that includes every column in the table schema.
       namedProjects = kuduColumnIndices.stream().map(indx -> {
@@ -162,7 +181,8 @@ public class KuduToEnumerableRel extends ConverterImpl implements EnumerableRel
         return Pair.of(ref, field.getName());
       }).collect(Collectors.toList());
     }
-    final RexProgramBuilder builder = new RexProgramBuilder(tablePhystype.getRowType(), getCluster().getRexBuilder());
+    final RexProgramBuilder builder = new RexProgramBuilder(tablePhystype.getRowType(),
+        input.getCluster().getRexBuilder());
 
     // Adds all the references we will be using. This might be unnecessary as
     // addProject and
@@ -219,6 +239,34 @@ public class KuduToEnumerableRel extends ConverterImpl implements EnumerableRel
     // If the output type has a Single column, inform the ScannerCallback.
     final Expression isSingleObject = Expressions.constant(physType.getRowType().getFieldCount() == 1);
 
+    if (aggregation != null) {
+      final PhysType aggregatedPhysType = PhysTypeImpl.of(implementor.getTypeFactory(), aggregatedRowType,
+          JavaRowFormat.ARRAY);
+      final Expression enumerable = list.append("enumerable",
+          Expressions.call(table, KuduMethod.KUDU_AGGREGATE_METHOD.method, predicates, fields, scanStats, cancelBoolean,
+              mapFunction, filterFunction, isSingleObject, implementor.stash(aggregation, ScanAggregation.class),
+              Expressions.constant(aggregatedPhysType.getRowType().getFieldCount() == 1),
+              Expressions.constant(partitionWise)));
+
+      Hook.QUERY_PLAN.run(predicates);
+      list.add(Expressions.return_(null, enumerable));
+
+      KuduToEnumerableConverter.logger.debug("Created a KuduQueryable aggregation " + list.toBlock());
+      return implementor.result(aggregatedPhysType, list.toBlock());
+    }
+
+    if (topN != null) {
+      final Expression enumerable = list.append("enumerable",
+          Expressions.call(table, KuduMethod.KUDU_TOP_N_METHOD.method, predicates, fields, scanStats, cancelBoolean,
+              mapFunction, filterFunction, isSingleObject, implementor.stash(topN, ScanTopN.class), isSingleObject));
+
+      Hook.QUERY_PLAN.run(predicates);
+      list.add(Expressions.return_(null, enumerable));
+
+      KuduToEnumerableConverter.logger.debug("Created a KuduQueryable top N " + list.toBlock());
+      return implementor.result(physType, list.toBlock());
+    }
+
     final Expression sortedPrefixKeySelector;
     if (!kuduImplementor.sortPkPrefixColumns.isEmpty()) {
       sortedPrefixKeySelector = physType.generateCollationKey(kuduImplementor.sortPkPrefixColumns).left;
@@ -233,7 +281,8 @@ public class KuduToEnumerableRel extends ConverterImpl implements EnumerableRel
     final Expression enumerable = list.append("enumerable",
         Expressions.call(table, KuduMethod.KUDU_QUERY_METHOD.method, predicates, fields, limit, offset, sorted,
             Expressions.constant(kuduImplementor.groupByLimited), scanStats, cancelBoolean, mapFunction, filterFunction,
-            isSingleObject, sortedPrefixKeySelector, sortPkColumns));
+            isSingleObject, sortedPrefixKeySelector, sortPkColumns, Expressions.constant(kuduImplementor.prefetchDepth),
+            Expressions.constant(getResultCacheKey(projectionFunctions, physType), String.class)));
 
     Hook.QUERY_PLAN.run(predicates);
     list.add(Expressions.return_(null, enumerable));
@@ -242,6 +291,73 @@ public class KuduToEnumerableRel extends ConverterImpl implements EnumerableRel
     return implementor.result(physType, list.toBlock());
   }
 
+  /**
+   * Appends the predicates of the scan to the block, parameters of prepared
+   * statements are bound each time the query is executed.
+   */
+  static Expression appendPredicates(final EnumerableRelImplementor implementor, final BlockBuilder list,
+      final KuduRelNode.Implementor kuduImplementor) {
+    final Expression stashedPredicates = implementor.stash(kuduImplementor.predicates, List.class);
+    return list.append("predicates",
+        kuduImplementor.predicates.stream().flatMap(List::stream).anyMatch(CalciteKuduPredicate::hasParameters)
+            ? Expressions.call(KuduMethod.BIND_PREDICATES.method, stashedPredicates, DataContext.ROOT)
+            : stashedPredicates);
+  }
+
+  /**
+   * Appends the stats of the scan to the block. They are created every time the
+   * plan is executed as the compiled plan is shared by every execution of the
+   * statement, see {@link com.twilio.kudu.sql.PlanCache}.
+   */
+  static Expression appendScanStats(final BlockBuilder list) {
+    return list.append("scanStats", Expressions.new_(KuduScanStats.class));
+  }
+
+  /**
+   * Appends the flag that is set when the query is canceled to the block.
+   */
+  static Expression appendCancelFlag(final BlockBuilder list) {
+    return list.append("cancelBoolean",
+        Expressions.convert_(Expressions.call(DataContext.ROOT, BuiltInMethod.DATA_CONTEXT_GET.method,
+            Expressions.constant(DataContext.Variable.CANCEL_FLAG.camelName)), AtomicBoolean.class));
+  }
+
+  /**
+   * Describes the projection and in memory filter applied to the rows of the scan
+   * so that the rows of two executions can be shared by the
+   * {@link com.twilio.kudu.sql.QueryResultCache}.
+   *
+   * @return null if the program depends on anything besides the row, like dynamic
+   *         parameters, correlation variables or the current time
+   */
+  private static String getResultCacheKey(final RexProgram program, final PhysType physType) {
+    final RexVisitorImpl<Boolean> dependsOnContext = new RexVisitorImpl<Boolean>(true) {
+      @Override
+      public Boolean visitDynamicParam(RexDynamicParam dynamicParam) {
+        throw Util.FoundOne.NULL;
+      }
+
+      @Override
+      public Boolean visitCorrelVariable(RexCorrelVariable correlVariable) {
+        throw Util.FoundOne.NULL;
+      }
+
+      @Override
+      public Boolean visitCall(RexCall call) {
+        if (!call.getOperator().isDeterministic() || call.getOperator().isDynamicFunction()) {
+          throw Util.FoundOne.NULL;
+        }
+        return super.visitCall(call);
+      }
+    };
+    try {
+      program.getExprList().forEach(expr -> expr.accept(dependsOnContext));
+    } catch (Util.FoundOne e) {
+      return null;
+    }
+    return program.toString() + ":" + physType.getRowType().getFullTypeString() + ":" + physType.getFormat();
+  }
+
   /**
    * Return the Integer indices in the Row Projection that match the primary key
    * columns and in the order they need to match. This lays out how to compare two
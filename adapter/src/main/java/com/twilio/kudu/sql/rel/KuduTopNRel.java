@@ -0,0 +1,103 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.rel;
+
+import com.twilio.kudu.sql.CalciteKuduTable;
+import com.twilio.kudu.sql.KuduRelNode;
+import com.twilio.kudu.sql.ScanTopN;
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
+import org.apache.calcite.adapter.enumerable.EnumerableRelImplementor;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelCollation;
+import org.apache.calcite.rel.RelFieldCollation;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelWriter;
+import org.apache.calcite.rel.SingleRel;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+
+import java.util.List;
+
+/**
+ * Returns the first rows of a Kudu scan in the order of a sort that Kudu can't
+ * return them in. Each scanner, one per tablet, keeps a heap of the best
+ * {@code offset + fetch} rows of its batches as they arrive and only the rows
+ * of the heaps are sorted once all of them are done, so the rows of the scan
+ * are never queued for the consumer.
+ *
+ * Like {@link KuduAggregationRel} it turns its input into a call on the
+ * {@link CalciteKuduTable.KuduQueryable}, it isn't a {@link KuduRelNode} itself
+ * so no other Kudu relation can be pushed on top of it.
+ */
+public class KuduTopNRel extends SingleRel implements EnumerableRel {
+
+  private final RelCollation collation;
+  private final RexNode offset;
+  private final RexNode fetch;
+  private final ScanTopN topN;
+
+  public KuduTopNRel(final RelOptCluster cluster, final RelTraitSet traitSet, final RelNode input,
+      final RelCollation collation, final RexNode offset, final RexNode fetch, final ScanTopN topN) {
+    super(cluster, traitSet, input);
+    this.collation = collation;
+    this.offset = offset;
+    this.fetch = fetch;
+    this.topN = topN;
+    assert input.getConvention() == KuduRelNode.CONVENTION;
+  }
+
+  @Override
+  public double estimateRowCount(final RelMetadataQuery mq) {
+    final double inputRowCount = mq.getRowCount(getInput());
+    final int skipped = offset == null ? 0 : RexLiteral.intValue(offset);
+    return Math.max(0D, Math.min(RexLiteral.intValue(fetch), inputRowCount - skipped));
+  }
+
+  @Override
+  public RelOptCost computeSelfCost(final RelOptPlanner planner, final RelMetadataQuery mq) {
+    // the cost of a KuduToEnumerableRel over the same input, so that keeping the
+    // top rows in the scanners is cheaper than sorting the rows they return but a
+    // sort that Kudu returns the rows in is cheaper still
+    return planner.getCostFactory().makeCost(mq.getRowCount(getInput()) * 0.1, 0, 0);
+  }
+
+  @Override
+  public KuduTopNRel copy(final RelTraitSet traitSet, final List<RelNode> newInputs) {
+    return new KuduTopNRel(getCluster(), traitSet, sole(newInputs), collation, offset, fetch, topN);
+  }
+
+  @Override
+  public RelWriter explainTerms(final RelWriter pw) {
+    // same terms as a Sort
+    super.explainTerms(pw);
+    final List<RelFieldCollation> fieldCollations = collation.getFieldCollations();
+    for (int i = 0; i < fieldCollations.size(); i++) {
+      pw.item("sort" + i, "$" + fieldCollations.get(i).getFieldIndex());
+    }
+    for (int i = 0; i < fieldCollations.size(); i++) {
+      pw.item("dir" + i, fieldCollations.get(i).shortString());
+    }
+    return pw.itemIf("offset", offset, offset != null).item("fetch", fetch);
+  }
+
+  @Override
+  public Result implement(final EnumerableRelImplementor implementor, final Prefer pref) {
+    return KuduToEnumerableRel.executeQuery(implementor, pref, getInput(), null, null, false, topN);
+  }
+}
@@ -0,0 +1,128 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.rules;
+
+import com.twilio.kudu.sql.CalciteKuduTable;
+import com.twilio.kudu.sql.KuduQuery;
+import com.twilio.kudu.sql.KuduRelNode;
+import com.twilio.kudu.sql.ScanAggregation;
+import com.twilio.kudu.sql.rel.KuduAggregationRel;
+import com.twilio.kudu.sql.rel.KuduFilterRel;
+import com.twilio.kudu.sql.rel.KuduProjectRel;
+import com.twilio.kudu.sql.rel.KuduToEnumerableRel;
+import org.apache.calcite.adapter.enumerable.EnumerableConvention;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.plan.RelOptRuleOperand;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.RelFactories;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.tools.RelBuilderFactory;
+import org.apache.kudu.Schema;
+import org.apache.kudu.client.PartitionSchema;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rule that matches an aggregation over an unsorted Kudu scan and replaces it
+ * with a {@link KuduAggregationRel}, so every scanner aggregates the rows of
+ * its tablet as they arrive instead of handing them over to the
+ * {@link org.apache.calcite.adapter.enumerable.EnumerableAggregate}.
+ *
+ * If the group keys include every hash partition column of the table the
+ * aggregation is partition wise, a group never spans two hash buckets so the
+ * groups of each bucket are returned without merging them with the others.
+ *
+ * Sorted and limited scans are left to {@link KuduSortedAggregationRule} and
+ * {@link KuduAggregationLimitRule}, a {@code COUNT(*)} to
+ * {@link KuduCountRule}.
+ */
+public class KuduAggregationRule extends RelOptRule {
+
+  private static final RelOptRuleOperand PROJECT_OPERAND = operand(Aggregate.class,
+      operand(KuduToEnumerableRel.class, operand(KuduProjectRel.class, operand(KuduRelNode.class, any()))));
+
+  private static final RelOptRuleOperand SIMPLE_OPERAND = operand(Aggregate.class,
+      operand(KuduToEnumerableRel.class, operand(KuduRelNode.class, any())));
+
+  public static final RelOptRule AGGREGATION_RULE = new KuduAggregationRule(PROJECT_OPERAND,
+      RelFactories.LOGICAL_BUILDER, "KuduAggregationRule: Projection");
+  public static final RelOptRule SIMPLE_AGGREGATION_RULE = new KuduAggregationRule(SIMPLE_OPERAND,
+      RelFactories.LOGICAL_BUILDER, "KuduAggregationRule: Simple");
+
+  public KuduAggregationRule(final RelOptRuleOperand operand, final RelBuilderFactory relBuilderFactory,
+      final String description) {
+    super(operand, relBuilderFactory, description);
+  }
+
+  @Override
+  public void onMatch(final RelOptRuleCall call) {
+    final Aggregate aggregate = call.rel(0);
+    final RelNode input = call.rel(2);
+    final RelNode scan = call.rel(call.getRelList().size() - 1);
+    if (!isUnsortedScan(scan) || (KuduCountRule.isCountStar(aggregate) && KuduCountRule.isScan(scan))) {
+      return;
+    }
+    final ScanAggregation aggregation = ScanAggregation.create(aggregate);
+    if (aggregation == null) {
+      return;
+    }
+    call.transformTo(new KuduAggregationRel(input.getCluster(),
+        aggregate.getTraitSet().replace(EnumerableConvention.INSTANCE), input, aggregate.getRowType(),
+        aggregate.getGroupSet(), aggregate.getAggCallList(), aggregation, isPartitionWise(aggregate, input, scan)));
+  }
+
+  /**
+   * @return true if the group keys include every hash partition column of the
+   *         table, group keys that are expressions of a column don't count
+   */
+  private static boolean isPartitionWise(final Aggregate aggregate, final RelNode input, final RelNode scan) {
+    final CalciteKuduTable calciteKuduTable = scan instanceof KuduQuery ? ((KuduQuery) scan).calciteKuduTable
+        : ((KuduFilterRel) scan).calciteKuduTable;
+    final Schema schema = calciteKuduTable.getKuduTable().getSchema();
+    final List<PartitionSchema.HashBucketSchema> hashBucketSchemas = calciteKuduTable.getKuduTable()
+        .getPartitionSchema().getHashBucketSchemas();
+    if (hashBucketSchemas.isEmpty() || scan.getRowType().getFieldCount() != schema.getColumnCount()) {
+      return false;
+    }
+    // the rows of the scan are the columns of the table
+    final Set<Integer> groupColumns = new HashSet<>();
+    for (int groupKey : aggregate.getGroupSet()) {
+      if (input instanceof KuduProjectRel) {
+        final RexNode project = ((KuduProjectRel) input).getProjects().get(groupKey);
+        if (project instanceof RexInputRef) {
+          groupColumns.add(((RexInputRef) project).getIndex());
+        }
+      } else {
+        groupColumns.add(groupKey);
+      }
+    }
+    return hashBucketSchemas.stream().flatMap(hashBucketSchema -> hashBucketSchema.getColumnIds().stream())
+        .allMatch(columnId -> groupColumns.contains(schema.getColumnIndex(columnId)));
+  }
+
+  /**
+   * @return true if the rows of the input are the rows of the table in no
+   *         particular order, a {@link KuduFilterRel} is always over a
+   *         {@link KuduQuery}
+   */
+  private static boolean isUnsortedScan(final RelNode input) {
+    return input instanceof KuduQuery || input instanceof KuduFilterRel;
+  }
+}
@@ -0,0 +1,87 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.rules;
+
+import com.twilio.kudu.sql.KuduQuery;
+import com.twilio.kudu.sql.KuduRelNode;
+import com.twilio.kudu.sql.rel.KuduCountRel;
+import com.twilio.kudu.sql.rel.KuduFilterRel;
+import com.twilio.kudu.sql.rel.KuduProjectRel;
+import com.twilio.kudu.sql.rel.KuduToEnumerableRel;
+import org.apache.calcite.adapter.enumerable.EnumerableConvention;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.plan.RelOptRuleOperand;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.core.RelFactories;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.tools.RelBuilderFactory;
+
+/**
+ * Rule that matches a {@code COUNT(*)} without a group by over a Kudu scan
+ * whose predicates are all pushed down and replaces the aggregation with a
+ * {@link KuduCountRel}, so the rows are counted without reading any column.
+ */
+public class KuduCountRule extends RelOptRule {
+
+  private static final RelOptRuleOperand PROJECT_OPERAND = operand(Aggregate.class,
+      operand(KuduToEnumerableRel.class, operand(KuduProjectRel.class, operand(KuduRelNode.class, any()))));
+
+  private static final RelOptRuleOperand SIMPLE_OPERAND = operand(Aggregate.class,
+      operand(KuduToEnumerableRel.class, operand(KuduRelNode.class, any())));
+
+  public static final RelOptRule COUNT_RULE = new KuduCountRule(PROJECT_OPERAND, RelFactories.LOGICAL_BUILDER,
+      "KuduCountRule: Projection");
+  public static final RelOptRule SIMPLE_COUNT_RULE = new KuduCountRule(SIMPLE_OPERAND, RelFactories.LOGICAL_BUILDER,
+      "KuduCountRule: Simple");
+
+  public KuduCountRule(final RelOptRuleOperand operand, final RelBuilderFactory relBuilderFactory,
+      final String description) {
+    super(operand, relBuilderFactory, description);
+  }
+
+  @Override
+  public void onMatch(final RelOptRuleCall call) {
+    final Aggregate aggregate = call.rel(0);
+    final RelNode input = call.rel(call.getRelList().size() - 1);
+    if (!isCountStar(aggregate) || !isScan(input)) {
+      return;
+    }
+    call.transformTo(new KuduCountRel(input.getCluster(),
+        aggregate.getTraitSet().replace(EnumerableConvention.INSTANCE), input, aggregate.getRowType()));
+  }
+
+  static boolean isCountStar(final Aggregate aggregate) {
+    if (aggregate.getGroupSet().isEmpty() && aggregate.getGroupType() == Aggregate.Group.SIMPLE
+        && aggregate.getAggCallList().size() == 1) {
+      final AggregateCall aggregateCall = aggregate.getAggCallList().get(0);
+      return aggregateCall.getAggregation().getKind() == SqlKind.COUNT && aggregateCall.getArgList().isEmpty()
+          && !aggregateCall.isDistinct() && !aggregateCall.hasFilter();
+    }
+    return false;
+  }
+
+  /**
+   * @return true if every row of the input is a row of the table that matches the
+   *         predicates Kudu evaluates, a {@link KuduFilterRel} is always over a
+   *         {@link KuduQuery}
+   */
+  static boolean isScan(final RelNode input) {
+    return input instanceof KuduQuery
+        || (input instanceof KuduFilterRel && !((KuduFilterRel) input).useInMemoryFiltering);
+  }
+}
@@ -0,0 +1,495 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.rules;
+
+import com.twilio.kudu.sql.CalciteKuduTable;
+import com.twilio.kudu.sql.CalciteModifiableKuduTable;
+import com.twilio.kudu.sql.KuduQuery;
+import com.twilio.kudu.sql.TableType;
+import org.apache.calcite.avatica.util.DateTimeUtils;
+import org.apache.calcite.avatica.util.TimeUnitRange;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.plan.RelOptRuleOperand;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.ViewExpanders;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.core.RelFactories;
+import org.apache.calcite.rel.logical.LogicalAggregate;
+import org.apache.calcite.rel.logical.LogicalFilter;
+import org.apache.calcite.rel.logical.LogicalProject;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexShuttle;
+import org.apache.calcite.rex.RexUtil;
+import org.apache.calcite.rex.RexVisitorImpl;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.tools.RelBuilderFactory;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.apache.calcite.util.Util;
+import org.apache.kudu.Schema;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rule that answers an aggregation over a fact table from one of its cube
+ * tables (created with {@code CREATE MATERIALIZED VIEW}) instead of scanning
+ * the fact table.
+ *
+ * A cube can be used if every group by column and every column referenced by
+ * the filter is a dimension of the cube. Grouping by the timestamp column is
+ * only possible using {@code FLOOR(timestamp TO unit)} with the unit of the
+ * cube or a coarser unit whose boundaries are also boundaries of the cube unit,
+ * for eg daily totals can be rolled up from an hourly cube. A filter can only
+ * compare the timestamp column using {@code >=} and {@code <} against values
+ * that are aligned with the unit of the cube, any other filter would include a
+ * partial cube row.
+ *
+ * The measures of a cube are maintained by summing the values of each fact row
+ * so only SUM(column) and COUNT(*) can be answered from measures, COUNT(*) is
+ * rewritten to a sum of {@code count_records}. MIN and MAX can be answered if
+ * they are computed over a dimension other than the timestamp.
+ *
+ * If several cubes can be used a cube with the unit of the query is preferred
+ * over one that has to be rolled up, within those the cube with the fewest rows
+ * is chosen.
+ */
+public class KuduCubeRewriteRule extends RelOptRule {
+
+  public static final String COUNT_RECORDS_COLUMN = "count_records";
+
+  // time units from finest to coarsest
+  private static final List<TimeUnitRange> ROLLUP_ORDER = Arrays.asList(TimeUnitRange.SECOND, TimeUnitRange.MINUTE,
+      TimeUnitRange.HOUR, TimeUnitRange.DAY, TimeUnitRange.WEEK, TimeUnitRange.MONTH, TimeUnitRange.QUARTER,
+      TimeUnitRange.YEAR);
+
+  private static final RelOptRuleOperand FILTER_OPERAND = operand(LogicalAggregate.class,
+      operand(LogicalProject.class, operand(LogicalFilter.class, operand(KuduQuery.class, none()))));
+
+  private static final RelOptRuleOperand OPERAND = operand(LogicalAggregate.class,
+      operand(LogicalProject.class, operand(KuduQuery.class, none())));
+
+  public static final RelOptRule CUBE_REWRITE_FILTER_RULE = new KuduCubeRewriteRule(FILTER_OPERAND,
+      RelFactories.LOGICAL_BUILDER, "KuduCubeRewriteRule:filter");
+
+  public static final RelOptRule CUBE_REWRITE_RULE = new KuduCubeRewriteRule(OPERAND, RelFactories.LOGICAL_BUILDER,
+      "KuduCubeRewriteRule");
+
+  /**
+   * @param unit   time unit of a cube
+   * @param millis timestamp in milliseconds
+   * @return start of the cube row the timestamp is aggregated into
+   */
+  public static long floorTimestamp(final TimeUnitRange unit, final long millis) {
+    switch (unit) {
+    case SECOND:
+      return millis - Math.floorMod(millis, DateTimeUtils.MILLIS_PER_SECOND);
+    case MINUTE:
+      return millis - Math.floorMod(millis, DateTimeUtils.MILLIS_PER_MINUTE);
+    case HOUR:
+      return millis - Math.floorMod(millis, DateTimeUtils.MILLIS_PER_HOUR);
+    default:
+      // only handles units of at least a day
+      return DateTimeUtils.unixTimestampFloor(unit, millis);
+    }
+  }
+
+  public KuduCubeRewriteRule(final RelOptRuleOperand operand, final RelBuilderFactory relBuilderFactory,
+      final String description) {
+    super(operand, relBuilderFactory, description);
+  }
+
+  @Override
+  public void onMatch(final RelOptRuleCall call) {
+    final List<RelNode> rels = call.getRelList();
+    final LogicalAggregate aggregate = (LogicalAggregate) rels.get(0);
+    final LogicalProject project = (LogicalProject) rels.get(1);
+    final LogicalFilter filter = rels.size() == 4 ? (LogicalFilter) rels.get(2) : null;
+    final KuduQuery query = (KuduQuery) rels.get(rels.size() - 1);
+
+    final CalciteKuduTable factTable = query.calciteKuduTable;
+    if (factTable.getTableType() != TableType.FACT || factTable.getCubeTables() == null
+        || factTable.getCubeTables().isEmpty() || aggregate.getGroupType() != Aggregate.Group.SIMPLE) {
+      return;
+    }
+
+    CubeMapping best = null;
+    boolean bestIsExact = false;
+    double bestRowCount = Double.MAX_VALUE;
+    for (CalciteKuduTable cubeTable : factTable.getCubeTables()) {
+      final CubeMapping mapping = CubeMapping.create(factTable, cubeTable);
+      if (mapping == null || !mapping.canAnswer(aggregate, project, filter)) {
+        continue;
+      }
+      final boolean isExact = mapping.isExactTimeUnit(aggregate, project);
+      final double rowCount = cubeTable.getEstimatedRowCount();
+      if (best == null || (isExact && !bestIsExact) || (isExact == bestIsExact && rowCount < bestRowCount)) {
+        best = mapping;
+        bestIsExact = isExact;
+        bestRowCount = rowCount;
+      }
+    }
+    if (best == null) {
+      return;
+    }
+
+    final RelOptTable cubeRelOptTable = getCubeRelOptTable(query, best.cubeTable);
+    if (cubeRelOptTable == null) {
+      return;
+    }
+    final RelNode cubeScan = cubeRelOptTable.toRel(ViewExpanders.simpleContext(query.getCluster(), query.getHints()));
+    call.transformTo(best.rewrite(call.builder(), cubeScan, aggregate, project, filter));
+  }
+
+  private static RelOptTable getCubeRelOptTable(final KuduQuery query, final CalciteKuduTable cubeTable) {
+    final RelOptTable factRelOptTable = query.getTable();
+    if (factRelOptTable.getRelOptSchema() == null) {
+      return null;
+    }
+    final List<String> names = new ArrayList<>(factRelOptTable.getQualifiedName());
+    names.set(names.size() - 1, cubeTable.getKuduTable().getName());
+    return factRelOptTable.getRelOptSchema().getTableForMember(names);
+  }
+
+  /**
+   * Maps the columns of a fact table to the columns of one of its cubes.
+   */
+  static final class CubeMapping {
+    private final CalciteKuduTable cubeTable;
+    private final TimeUnitRange cubeTimeUnit;
+    private final int factTimestampIndex;
+    private final Schema factSchema;
+    // fact column index to cube dimension index
+    private final Map<Integer, Integer> dimensions;
+    // fact column index to cube SUM_ measure index
+    private final Map<Integer, Integer> sumMeasures;
+    private final int countRecordsIndex;
+
+    private CubeMapping(final CalciteKuduTable cubeTable, final TimeUnitRange cubeTimeUnit,
+        final int factTimestampIndex, final Schema factSchema, final Map<Integer, Integer> dimensions,
+        final Map<Integer, Integer> sumMeasures, final int countRecordsIndex) {
+      this.cubeTable = cubeTable;
+      this.cubeTimeUnit = cubeTimeUnit;
+      this.factTimestampIndex = factTimestampIndex;
+      this.factSchema = factSchema;
+      this.dimensions = dimensions;
+      this.sumMeasures = sumMeasures;
+      this.countRecordsIndex = countRecordsIndex;
+    }
+
+    /**
+     * @return the mapping or null if the cube can't be used to answer queries
+     */
+    static CubeMapping create(final CalciteKuduTable factTable, final CalciteKuduTable cubeTable) {
+      if (cubeTable.getEventTimeAggregationType() == null || (cubeTable instanceof CalciteModifiableKuduTable
+          && ((CalciteModifiableKuduTable) cubeTable).isDisableCubeAggregations())) {
+        // cube rows only hold the delta of the last write when aggregations are
+        // disabled
+        return null;
+      }
+      final Schema factSchema = factTable.getKuduTable().getSchema();
+      final Schema cubeSchema = cubeTable.getKuduTable().getSchema();
+      final Map<Integer, Integer> dimensions = new HashMap<>();
+      final Map<Integer, Integer> sumMeasures = new HashMap<>();
+      int countRecordsIndex = -1;
+      for (int cubeIndex = 0; cubeIndex < cubeSchema.getColumnCount(); cubeIndex++) {
+        final String cubeColumnName = cubeSchema.getColumnByIndex(cubeIndex).getName();
+        if (cubeIndex < cubeSchema.getPrimaryKeyColumnCount()) {
+          if (!factSchema.hasColumn(cubeColumnName)) {
+            return null;
+          }
+          dimensions.put(factSchema.getColumnIndex(cubeColumnName), cubeIndex);
+        } else if (cubeColumnName.equals(COUNT_RECORDS_COLUMN)) {
+          countRecordsIndex = cubeIndex;
+        } else {
+          final int separator = cubeColumnName.indexOf('_');
+          final String factColumnName = cubeColumnName.substring(separator + 1);
+          if (separator > 0 && cubeColumnName.substring(0, separator).equalsIgnoreCase("sum")
+              && factSchema.hasColumn(factColumnName)) {
+            sumMeasures.put(factSchema.getColumnIndex(factColumnName), cubeIndex);
+          }
+        }
+      }
+      final int factTimestampIndex = factTable.getTimestampColumnIndex();
+      if (!dimensions.containsKey(factTimestampIndex)) {
+        return null;
+      }
+      final TimeUnitRange cubeTimeUnit = TimeUnitRange
+          .valueOf(cubeTable.getEventTimeAggregationType().name().toUpperCase());
+      return new CubeMapping(cubeTable, cubeTimeUnit, factTimestampIndex, factSchema, dimensions, sumMeasures,
+          countRecordsIndex);
+    }
+
+    boolean canAnswer(final Aggregate aggregate, final LogicalProject project, final LogicalFilter filter) {
+      for (int groupKey : aggregate.getGroupSet()) {
+        if (!isGroupKeySupported(project.getProjects().get(groupKey))) {
+          return false;
+        }
+      }
+      for (AggregateCall aggregateCall : aggregate.getAggCallList()) {
+        if (getMeasureIndex(aggregateCall, project) < 0) {
+          return false;
+        }
+      }
+      if (filter != null) {
+        final RexNode condition = RexUtil.expandSearch(filter.getCluster().getRexBuilder(), null,
+            filter.getCondition());
+        for (RexNode conjunction : RelOptUtil.conjunctions(condition)) {
+          if (!isTimestampRangeBound(conjunction) && !referencesOnlyDimensions(conjunction)) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+
+    private boolean isGroupKeySupported(final RexNode groupKey) {
+      if (groupKey instanceof RexInputRef) {
+        final int index = ((RexInputRef) groupKey).getIndex();
+        return index != factTimestampIndex && dimensions.containsKey(index);
+      }
+      return isFloorOfTimestamp(groupKey);
+    }
+
+    /**
+     * @return true if the expression is {@code FLOOR(timestamp TO unit)} and unit
+     *         can be rolled up from the unit of the cube
+     */
+    private boolean isFloorOfTimestamp(final RexNode node) {
+      final TimeUnitRange unit = getFloorUnit(node);
+      return unit != null && canRollUp(cubeTimeUnit, unit);
+    }
+
+    /**
+     * @return the unit of {@code FLOOR(timestamp TO unit)} or null if the
+     *         expression is something else
+     */
+    private TimeUnitRange getFloorUnit(final RexNode node) {
+      if (node.getKind() != SqlKind.FLOOR || ((RexCall) node).getOperands().size() != 2) {
+        return null;
+      }
+      final RexNode operand = ((RexCall) node).getOperands().get(0);
+      final RexNode unit = ((RexCall) node).getOperands().get(1);
+      if (operand instanceof RexInputRef && ((RexInputRef) operand).getIndex() == factTimestampIndex
+          && unit instanceof RexLiteral && ((RexLiteral) unit).getValue() instanceof TimeUnitRange) {
+        return (TimeUnitRange) ((RexLiteral) unit).getValue();
+      }
+      return null;
+    }
+
+    /**
+     * @return true if the aggregate doesn't have to roll up the cube rows to a
+     *         coarser unit
+     */
+    boolean isExactTimeUnit(final Aggregate aggregate, final LogicalProject project) {
+      for (int groupKey : aggregate.getGroupSet()) {
+        final TimeUnitRange unit = getFloorUnit(project.getProjects().get(groupKey));
+        if (unit != null && unit != cubeTimeUnit) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * @return true if the expression is {@code timestamp >= value} or
+     *         {@code timestamp < value} where value is the start of a cube row
+     */
+    private boolean isTimestampRangeBound(final RexNode node) {
+      if (!(node instanceof RexCall) || ((RexCall) node).getOperands().size() != 2) {
+        return false;
+      }
+      SqlKind kind = node.getKind();
+      RexNode left = ((RexCall) node).getOperands().get(0);
+      RexNode right = ((RexCall) node).getOperands().get(1);
+      if (left instanceof RexLiteral) {
+        final RexNode swap = left;
+        left = right;
+        right = swap;
+        kind = kind.reverse();
+      }
+      if (kind != SqlKind.GREATER_THAN_OR_EQUAL && kind != SqlKind.LESS_THAN) {
+        return false;
+      }
+      if (!(left instanceof RexInputRef) || ((RexInputRef) left).getIndex() != factTimestampIndex
+          || !(right instanceof RexLiteral)) {
+        return false;
+      }
+      final Long millis = ((RexLiteral) right).getValueAs(Long.class);
+      return millis != null && floorTimestamp(cubeTimeUnit, millis) == millis;
+    }
+
+    /**
+     * @return true if the expression is deterministic and only references
+     *         dimensions of the cube, the timestamp may only be referenced using
+     *         {@link #isFloorOfTimestamp(RexNode)}
+     */
+    private boolean referencesOnlyDimensions(final RexNode node) {
+      if (!RexUtil.isDeterministic(node)) {
+        return false;
+      }
+      try {
+        node.accept(new RexVisitorImpl<Void>(true) {
+          @Override
+          public Void visitCall(final RexCall call) {
+            if (isFloorOfTimestamp(call)) {
+              return null;
+            }
+            return super.visitCall(call);
+          }
+
+          @Override
+          public Void visitInputRef(final RexInputRef inputRef) {
+            if (inputRef.getIndex() == factTimestampIndex || !dimensions.containsKey(inputRef.getIndex())) {
+              throw Util.FoundOne.NULL;
+            }
+            return null;
+          }
+        });
+        return true;
+      } catch (Util.FoundOne e) {
+        return false;
+      }
+    }
+
+    /**
+     * @return the index of the cube column the aggregate is computed over or -1 if
+     *         the aggregate can't be answered by the cube
+     */
+    private int getMeasureIndex(final AggregateCall aggregateCall, final LogicalProject project) {
+      if (aggregateCall.isDistinct() || aggregateCall.hasFilter() || aggregateCall.isApproximate()
+          || !aggregateCall.getCollation().getFieldCollations().isEmpty()) {
+        return -1;
+      }
+      final List<Integer> args = aggregateCall.getArgList();
+      if (args.size() > 1) {
+        return -1;
+      }
+      final RexNode arg = args.isEmpty() ? null : project.getProjects().get(args.get(0));
+      if (arg != null && !(arg instanceof RexInputRef)) {
+        return -1;
+      }
+      final int factIndex = arg == null ? -1 : ((RexInputRef) arg).getIndex();
+      switch (aggregateCall.getAggregation().getKind()) {
+      case COUNT:
+        // COUNT(column) is the same as COUNT(*) if the column can't be null
+        if (arg == null || !factSchema.getColumnByIndex(factIndex).isNullable()) {
+          return countRecordsIndex;
+        }
+        return -1;
+      case SUM:
+      case SUM0:
+        return arg == null ? -1 : sumMeasures.getOrDefault(factIndex, -1);
+      case MIN:
+      case MAX:
+        if (arg == null || factIndex == factTimestampIndex) {
+          return -1;
+        }
+        return dimensions.getOrDefault(factIndex, -1);
+      default:
+        return -1;
+      }
+    }
+
+    /**
+     * @return true if every boundary of the query unit is also a boundary of the
+     *         cube unit so that floored cube timestamps floor to the same value as
+     *         the fact timestamps
+     */
+    static boolean canRollUp(final TimeUnitRange cubeUnit, final TimeUnitRange queryUnit) {
+      if (cubeUnit == queryUnit) {
+        return true;
+      }
+      // only true for coarser units as weeks are the only units that don't start
+      // at the start of the next coarser unit and cubes are never weekly
+      final int cubeRank = ROLLUP_ORDER.indexOf(cubeUnit);
+      return cubeRank >= 0 && ROLLUP_ORDER.indexOf(queryUnit) > cubeRank;
+    }
+
+    /**
+     * Builds an aggregate over the cube that returns the same rows as the given
+     * aggregate over the fact table.
+     */
+    RelNode rewrite(final RelBuilder relBuilder, final RelNode cubeScan, final Aggregate aggregate,
+        final LogicalProject project, final LogicalFilter filter) {
+      final RexShuttle factToCube = new RexShuttle() {
+        @Override
+        public RexNode visitInputRef(final RexInputRef inputRef) {
+          final int cubeIndex = dimensions.get(inputRef.getIndex());
+          return new RexInputRef(cubeIndex, cubeScan.getRowType().getFieldList().get(cubeIndex).getType());
+        }
+      };
+
+      relBuilder.push(cubeScan);
+      if (filter != null) {
+        relBuilder.filter(filter.getCondition().accept(factToCube));
+      }
+
+      final List<RexNode> projects = new ArrayList<>();
+      for (int groupKey : aggregate.getGroupSet()) {
+        projects.add(project.getProjects().get(groupKey).accept(factToCube));
+      }
+      final int groupCount = projects.size();
+      final List<RelBuilder.AggCall> aggCalls = new ArrayList<>();
+      for (AggregateCall aggregateCall : aggregate.getAggCallList()) {
+        final int cubeIndex = getMeasureIndex(aggregateCall, project);
+        final RexNode measure = relBuilder.field(cubeIndex);
+        int position = projects.indexOf(measure);
+        if (position < 0) {
+          position = projects.size();
+          projects.add(measure);
+        }
+        final RexNode input = relBuilder.getRexBuilder().makeInputRef(measure.getType(), position);
+        switch (aggregateCall.getAggregation().getKind()) {
+        case COUNT:
+          // the sum of an empty group is null but its count is zero
+          aggCalls.add(relBuilder.aggregateCall(SqlStdOperatorTable.SUM0, input).as(aggregateCall.getName()));
+          break;
+        case SUM0:
+          aggCalls.add(relBuilder.aggregateCall(SqlStdOperatorTable.SUM0, input).as(aggregateCall.getName()));
+          break;
+        case SUM:
+          aggCalls.add(relBuilder.sum(input).as(aggregateCall.getName()));
+          break;
+        case MIN:
+          aggCalls.add(relBuilder.min(input).as(aggregateCall.getName()));
+          break;
+        case MAX:
+          aggCalls.add(relBuilder.max(input).as(aggregateCall.getName()));
+          break;
+        default:
+          throw new IllegalStateException("Unexpected aggregate " + aggregateCall);
+        }
+      }
+
+      relBuilder.project(projects);
+      relBuilder.aggregate(relBuilder.groupKey(ImmutableBitSet.range(groupCount)), aggCalls);
+      // the cube columns are not nullable, cast back to the types of the fact table
+      relBuilder.convert(aggregate.getRowType(), true);
+      return relBuilder.build();
+    }
+  }
+}
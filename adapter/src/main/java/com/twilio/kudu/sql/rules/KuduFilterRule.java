@@ -66,8 +66,7 @@ public class KuduFilterRule extends RelOptRule {
       }
       final RelNode converted = new KuduFilterRel(filter.getCluster(),
           filter.getTraitSet().replace(KuduRelNode.CONVENTION), convert(filter.getInput(), KuduRelNode.CONVENTION),
-          condition, predicates, kuduQuery.calciteKuduTable.getKuduTable().getSchema(),
-          !predicateParser.areAllFiltersApplied());
+          condition, predicates, kuduQuery.calciteKuduTable, !predicateParser.areAllFiltersApplied());
 
       call.transformTo(converted);
     }
@@ -0,0 +1,176 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.rules;
+
+import com.twilio.kudu.sql.KuduQuery;
+import com.twilio.kudu.sql.KuduRelNode;
+import com.twilio.kudu.sql.rel.KuduToEnumerableRel;
+import org.apache.calcite.adapter.enumerable.EnumerableConvention;
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.RelOptLattice;
+import org.apache.calcite.plan.RelOptMaterialization;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.plan.hep.HepMatchOrder;
+import org.apache.calcite.plan.hep.HepPlanner;
+import org.apache.calcite.plan.hep.HepProgram;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.logical.LogicalFilter;
+import org.apache.calcite.rel.logical.LogicalProject;
+import org.apache.calcite.rel.logical.LogicalSort;
+import org.apache.calcite.rel.rules.CoreRules;
+import org.apache.calcite.rel.rules.ProjectRemoveRule;
+import org.apache.calcite.rel.rules.SortProjectTransposeRule;
+import org.apache.calcite.rex.RexUtil;
+import org.apache.calcite.tools.Program;
+import org.apache.calcite.tools.Programs;
+import org.apache.calcite.util.trace.CalciteTrace;
+import org.slf4j.Logger;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Plans queries that read a single Kudu table with a {@link HepPlanner} instead
+ * of the cost based search of the volcano planner.
+ *
+ * A query is eligible if it only filters, projects, sorts and limits the rows
+ * of one table. The filter, sort, limit and projection are pushed down in that
+ * order by the same rules the volcano planner uses, see {@link KuduRules}. If
+ * any of them can't be pushed down, or the query has a different shape, the
+ * query is planned by {@link Programs#standard()}.
+ */
+public final class KuduHeuristicProgram implements Program {
+
+  public static final Logger logger = CalciteTrace.getPlannerTracer();
+
+  public static final KuduHeuristicProgram INSTANCE = new KuduHeuristicProgram();
+
+  private static final Program STANDARD = Programs.standard();
+
+  // the volcano planner keeps a limit without a collation or offset above the
+  // projection, other sorts are pushed below it to become a KuduSortRel
+  private static final RelOptRule SORT_PROJECT_TRANSPOSE = SortProjectTransposeRule.Config.DEFAULT
+      .withOperandSupplier(b0 -> b0.operand(LogicalSort.class)
+          .predicate(sort -> !sort.getCollation().getFieldCollations().isEmpty() || sort.offset != null)
+          .oneInput(b1 -> b1.operand(LogicalProject.class).anyInputs()))
+      .as(SortProjectTransposeRule.Config.class).toRule();
+
+  private KuduHeuristicProgram() {
+  }
+
+  @Override
+  public RelNode run(final RelOptPlanner planner, final RelNode rel, final RelTraitSet requiredOutputTraits,
+      final List<RelOptMaterialization> materializations, final List<RelOptLattice> lattices) {
+    final RelNode plan = isEligible(rel) ? plan(planner, rel, requiredOutputTraits) : null;
+    if (plan == null) {
+      return STANDARD.run(planner, rel, requiredOutputTraits, materializations, lattices);
+    }
+    return plan;
+  }
+
+  /**
+   * @return the plan of the query, null if part of it can't be pushed down to
+   *         Kudu
+   */
+  private static RelNode plan(final RelOptPlanner planner, final RelNode rel, final RelTraitSet requiredOutputTraits) {
+    rel.getCluster().setHintStrategies(KuduQuery.KUDU_HINT_STRATEGY_TABLE);
+
+    // simplify the filter (which turns a disjunction of equalities into an in
+    // list) and move filters and sorts below projections so they sit directly on
+    // the scan
+    RelNode current = run(planner, removeTrivialProjects(rel), CoreRules.FILTER_REDUCE_EXPRESSIONS,
+        CoreRules.FILTER_PROJECT_TRANSPOSE, SORT_PROJECT_TRANSPOSE, CoreRules.PROJECT_MERGE);
+
+    // each stage only runs if the inputs of the nodes it converts are already
+    // pushed down, the rules convert their inputs with the planner of the cluster
+    current = run(planner, current, KuduRules.FILTER);
+    if (contains(current, node -> node instanceof LogicalFilter)) {
+      return null;
+    }
+    current = run(planner, current, KuduRules.FILTER_SORT, KuduRules.SORT);
+    if (contains(current, node -> node instanceof LogicalSort && !isLimit((LogicalSort) node))) {
+      return null;
+    }
+    // bottom up so that the input of each limit and projection is converted first
+    current = run(planner, current, KuduRules.LIMIT, KuduRules.PROJECT);
+    if (contains(current, node -> node.getConvention() != KuduRelNode.CONVENTION)) {
+      return null;
+    }
+
+    final RelNode plan = new KuduToEnumerableRel(current.getCluster(),
+        current.getTraitSet().replace(EnumerableConvention.INSTANCE), current);
+    if (!plan.getTraitSet().satisfies(requiredOutputTraits)) {
+      return null;
+    }
+    logger.debug("Planned {} without cost based search", rel);
+    return plan;
+  }
+
+  private static boolean isLimit(final LogicalSort sort) {
+    return sort.getCollation().getFieldCollations().isEmpty() && (sort.fetch != null || sort.offset != null);
+  }
+
+  private static RelNode run(final RelOptPlanner planner, final RelNode rel, final RelOptRule... rules) {
+    final HepProgram program = HepProgram.builder().addMatchOrder(HepMatchOrder.BOTTOM_UP)
+        .addRuleCollection(Arrays.asList(rules)).build();
+    final HepPlanner hepPlanner = new HepPlanner(program, planner.getContext());
+    hepPlanner.setExecutor(planner.getExecutor());
+    hepPlanner.setRoot(rel);
+    return hepPlanner.findBestExp();
+  }
+
+  /**
+   * @return true if the query only filters, projects, sorts and limits the rows
+   *         of a single table
+   */
+  static boolean isEligible(final RelNode rel) {
+    if (rel instanceof KuduQuery) {
+      return true;
+    }
+    if (rel instanceof LogicalFilter) {
+      if (RexUtil.SubQueryFinder.containsSubQuery((LogicalFilter) rel)) {
+        return false;
+      }
+    } else if (rel instanceof LogicalProject) {
+      if (RexUtil.SubQueryFinder.containsSubQuery((LogicalProject) rel) || ((LogicalProject) rel).containsOver()) {
+        return false;
+      }
+    } else if (!(rel instanceof LogicalSort)) {
+      return false;
+    }
+    return rel.getConvention() == Convention.NONE && isEligible(rel.getInput(0));
+  }
+
+  // ProjectRemoveRule can't be used as it converts the input of the projection
+  // with the planner of the cluster
+  private static RelNode removeTrivialProjects(final RelNode rel) {
+    if (rel instanceof KuduQuery) {
+      return rel;
+    }
+    final RelNode input = removeTrivialProjects(rel.getInput(0));
+    if (rel instanceof LogicalProject && ProjectRemoveRule.isTrivial((LogicalProject) rel)) {
+      return input;
+    }
+    return input == rel.getInput(0) ? rel : rel.copy(rel.getTraitSet(), Collections.singletonList(input));
+  }
+
+  private static boolean contains(final RelNode rel, final Predicate<RelNode> predicate) {
+    return predicate.test(rel) || rel.getInputs().stream().anyMatch(input -> contains(input, predicate));
+  }
+}
@@ -16,6 +16,7 @@ package com.twilio.kudu.sql.rules;
 
 import com.twilio.kudu.sql.KuduRelNode;
 import com.twilio.kudu.sql.rel.KuduLimitRel;
+import org.apache.calcite.plan.Convention;
 import org.apache.calcite.plan.RelOptRule;
 import org.apache.calcite.plan.RelOptRuleCall;
 import org.apache.calcite.plan.RelTraitSet;
@@ -37,7 +38,9 @@ public class KuduLimitRule extends RelOptRule {
 
   public void onMatch(RelOptRuleCall call) {
     final Sort limit = call.rel(0);
-    if (limit.getCollation() == RelCollations.EMPTY && (limit.fetch != null || limit.offset != null)) {
+    // a KuduSortRel already applies its own offset and fetch
+    if (limit.getConvention() == Convention.NONE && limit.getCollation() == RelCollations.EMPTY
+        && (limit.fetch != null || limit.offset != null)) {
       final RelNode converted = convert(limit);
       if (converted != null) {
         call.transformTo(converted);
@@ -25,6 +25,8 @@ import java.util.List;
 
 import com.twilio.kudu.sql.CalciteKuduPredicate;
 import com.twilio.kudu.sql.ComparisonPredicate;
+import com.twilio.kudu.sql.DynamicInListPredicate;
+import com.twilio.kudu.sql.DynamicParamPredicate;
 import com.twilio.kudu.sql.InListPredicate;
 import com.twilio.kudu.sql.NullPredicate;
 
@@ -219,6 +221,8 @@ public class KuduPredicatePushDownVisitor implements RexBiVisitor<List<List<Calc
     case LESS_THAN_OR_EQUAL:
       return call.operands.get(1).accept(this, call);
     case OR:
+      return mergeDynamicInList(call.operands.stream().map(rexNode -> rexNode.accept(this, call)).reduce(null,
+          (left, right) -> mergeBoolean(callType, left, right)));
     case AND:
       return call.operands.stream().map(rexNode -> rexNode.accept(this, call)).reduce(null,
           (left, right) -> mergeBoolean(callType, left, right));
@@ -232,6 +236,35 @@ public class KuduPredicatePushDownVisitor implements RexBiVisitor<List<List<Calc
     return setEmpty();
   }
 
+  /**
+   * Calcite can't turn a disjunction of parameters into a search argument the way
+   * it does for literals. If every sub scan compares the same column to a
+   * parameter, scan the column once with an in list of the bound values instead.
+   */
+  private List<List<CalciteKuduPredicate>> mergeDynamicInList(List<List<CalciteKuduPredicate>> predicates) {
+    if (disableInListOptimization || predicates.size() < 2) {
+      return predicates;
+    }
+    final List<Integer> paramIndexes = new ArrayList<>();
+    DynamicParamPredicate first = null;
+    for (List<CalciteKuduPredicate> subScan : predicates) {
+      if (subScan.size() != 1 || !(subScan.get(0) instanceof DynamicParamPredicate)) {
+        return predicates;
+      }
+      final DynamicParamPredicate predicate = (DynamicParamPredicate) subScan.get(0);
+      if (predicate.operation != KuduPredicate.ComparisonOp.EQUAL
+          || (first != null && (first.columnIdx != predicate.columnIdx || first.paramType != predicate.paramType))) {
+        return predicates;
+      }
+      if (first == null) {
+        first = predicate;
+      }
+      paramIndexes.add(predicate.paramIndex);
+    }
+    return Collections.singletonList(
+        Collections.singletonList(new DynamicInListPredicate(first.columnIdx, paramIndexes, first.paramType)));
+  }
+
   private Optional<KuduPredicate.ComparisonOp> findKuduOp(RexCall functionCall) {
     final SqlKind callType = functionCall.getOperator().getKind();
     switch (callType) {
@@ -663,7 +696,20 @@ public class KuduPredicatePushDownVisitor implements RexBiVisitor<List<List<Calc
     return setEmpty();
   }
 
+  /**
+   * Pushes down the comparison of a column to a parameter of a prepared
+   * statement, the value of the parameter is bound when the query is executed.
+   */
   public List<List<CalciteKuduPredicate>> visitDynamicParam(RexDynamicParam dynamicParam, RexCall parent) {
+    if (parent != null && parent.operands.get(0).getKind() == SqlKind.INPUT_REF
+        && DynamicParamPredicate.isSupported(dynamicParam.getType().getSqlTypeName())) {
+      final Optional<KuduPredicate.ComparisonOp> maybeOp = findKuduOp(parent);
+      if (maybeOp.isPresent()) {
+        return Collections
+            .singletonList(Collections.singletonList(new DynamicParamPredicate(getColumnIndex(parent.operands.get(0)),
+                maybeOp.get(), dynamicParam.getIndex(), dynamicParam.getType().getSqlTypeName())));
+      }
+    }
     return setEmpty();
   }
 
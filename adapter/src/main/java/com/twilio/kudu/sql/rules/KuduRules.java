@@ -33,5 +33,8 @@ public class KuduRules {
   public static List<RelOptRule> ENUMERABLE_RULES = Arrays.asList(NESTED_JOIN, KuduToEnumerableConverter.INSTANCE);
   public static List<RelOptRule> CORE_RULES = Arrays.asList(FILTER, PROJECT, SORT, FILTER_SORT, LIMIT,
       SORT_OVER_JOIN_TRANSPOSE, KuduSortedAggregationRule.SORTED_AGGREGATION_RULE,
-      KuduAggregationLimitRule.AGGREGATION_LIMIT_RULE, KuduFilterIntoJoinRule.KUDU_FILTER_INTO_JOIN);
+      KuduAggregationLimitRule.AGGREGATION_LIMIT_RULE, KuduCountRule.COUNT_RULE, KuduCountRule.SIMPLE_COUNT_RULE,
+      KuduAggregationRule.AGGREGATION_RULE, KuduAggregationRule.SIMPLE_AGGREGATION_RULE, KuduTopNRule.TOP_N_RULE,
+      KuduTopNRule.SIMPLE_TOP_N_RULE, KuduFilterIntoJoinRule.KUDU_FILTER_INTO_JOIN,
+      KuduCubeRewriteRule.CUBE_REWRITE_RULE, KuduCubeRewriteRule.CUBE_REWRITE_FILTER_RULE);
 }
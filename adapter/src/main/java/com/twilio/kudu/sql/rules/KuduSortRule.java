@@ -74,6 +74,11 @@ public abstract class KuduSortRule extends RelOptRule {
     if (query.getHints().stream().map(h -> h.hintName).anyMatch(s -> s.equalsIgnoreCase(KuduFilterRule.HINT_NAME))) {
       isDisableInListOptimizationHintPresent = true;
     }
+    // the sort was already pushed down
+    if (sortTraits.contains(KuduRelNode.CONVENTION)) {
+      return false;
+    }
+
     // If there is no sort -- i.e. there is only a limit
     // don't pay the cost of returning rows in sorted order.
     final RelCollation collation = sortTraits.getTrait(RelCollationTraitDef.INSTANCE);
@@ -91,10 +96,6 @@ public abstract class KuduSortRule extends RelOptRule {
       }
     }
 
-    if (sortTraits.contains(KuduRelNode.CONVENTION)) {
-      return false;
-    }
-
     int pkColumnIndex = 0;
     pkSortColumns.clear();
     for (final RelFieldCollation sortField : collation.getFieldCollations()) {
@@ -0,0 +1,77 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.rules;
+
+import com.twilio.kudu.sql.KuduQuery;
+import com.twilio.kudu.sql.KuduRelNode;
+import com.twilio.kudu.sql.ScanTopN;
+import com.twilio.kudu.sql.rel.KuduFilterRel;
+import com.twilio.kudu.sql.rel.KuduProjectRel;
+import com.twilio.kudu.sql.rel.KuduToEnumerableRel;
+import com.twilio.kudu.sql.rel.KuduTopNRel;
+import org.apache.calcite.adapter.enumerable.EnumerableConvention;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.plan.RelOptRuleOperand;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.RelFactories;
+import org.apache.calcite.rel.core.Sort;
+import org.apache.calcite.tools.RelBuilderFactory;
+
+/**
+ * Rule that matches an {@code ORDER BY} with a {@code LIMIT} over an unsorted
+ * Kudu scan and replaces it with a {@link KuduTopNRel}, so every scanner keeps
+ * the best rows of its tablet as they arrive instead of handing all of them
+ * over to the
+ * {@link org.apache.calcite.adapter.enumerable.EnumerableLimitSort}.
+ *
+ * A sort that {@link KuduSortRule} pushes down is cheaper, the scanners read
+ * the rows in order and stop once the limit is reached.
+ */
+public class KuduTopNRule extends RelOptRule {
+
+  private static final RelOptRuleOperand PROJECT_OPERAND = operand(Sort.class,
+      operand(KuduToEnumerableRel.class, operand(KuduProjectRel.class, operand(KuduRelNode.class, any()))));
+
+  private static final RelOptRuleOperand SIMPLE_OPERAND = operand(Sort.class,
+      operand(KuduToEnumerableRel.class, operand(KuduRelNode.class, any())));
+
+  public static final RelOptRule TOP_N_RULE = new KuduTopNRule(PROJECT_OPERAND, RelFactories.LOGICAL_BUILDER,
+      "KuduTopNRule: Projection");
+  public static final RelOptRule SIMPLE_TOP_N_RULE = new KuduTopNRule(SIMPLE_OPERAND, RelFactories.LOGICAL_BUILDER,
+      "KuduTopNRule: Simple");
+
+  public KuduTopNRule(final RelOptRuleOperand operand, final RelBuilderFactory relBuilderFactory,
+      final String description) {
+    super(operand, relBuilderFactory, description);
+  }
+
+  @Override
+  public void onMatch(final RelOptRuleCall call) {
+    final Sort sort = call.rel(0);
+    final RelNode input = call.rel(2);
+    final RelNode scan = call.rel(call.getRelList().size() - 1);
+    if (!(scan instanceof KuduQuery || scan instanceof KuduFilterRel)) {
+      return;
+    }
+    final ScanTopN topN = ScanTopN.create(sort);
+    if (topN == null) {
+      return;
+    }
+    call.transformTo(new KuduTopNRel(input.getCluster(),
+        sort.getTraitSet().replace(EnumerableConvention.INSTANCE).replace(sort.getCollation()), input,
+        sort.getCollation(), sort.offset, sort.fetch, topN));
+  }
+}
@@ -19,6 +19,12 @@ import com.twilio.kudu.sql.metadata.KuduTableMetadata;
 import com.twilio.kudu.sql.CalciteKuduTableBuilder;
 import com.twilio.kudu.sql.CalciteModifiableKuduTable;
 import com.twilio.kudu.sql.CalciteKuduTable;
+import com.twilio.kudu.sql.QueryResultCache;
+import com.twilio.kudu.sql.PointLookupExecutor;
+import com.twilio.kudu.sql.ScanTokenCache;
+import com.twilio.kudu.sql.ScannerCallback;
+import com.twilio.kudu.sql.PlanCache;
+import com.twilio.kudu.sql.TableStatisticsCache;
 import org.apache.calcite.schema.Table;
 import org.apache.calcite.schema.impl.AbstractSchema;
 import org.apache.kudu.ColumnSchema;
@@ -30,11 +36,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public final class KuduSchema extends AbstractSchema {
@@ -51,11 +59,38 @@ public final class KuduSchema extends AbstractSchema {
   public static String DISABLE_CUBE_AGGREGATIONS = "disableCubeAggregation";
   public static String CREATE_DUMMY_PARTITION_FLAG = "createDummyPartition";
   public static String READ_SNAPSHOT_TIME_DIFFERENCE = "readSnapshotTimeDifference";
+  public static String SCAN_MEMORY_BUDGET_BYTES = "scanMemoryBudgetBytes";
+  public static String SCANNER_PREFETCH_DEPTH = "scannerPrefetchDepth";
+  public static String SCANNER_BATCH_SIZE_BYTES = "scannerBatchSizeBytes";
+  public static String SPILL_MEMORY_BUDGET_BYTES = "spillMemoryBudgetBytes";
+  public static String SCAN_TOKEN_CACHE_TTL_MS = "scanTokenCacheTtlMs";
+  public static String SCAN_TOKEN_CACHE_MAX_ENTRIES = "scanTokenCacheMaxEntries";
+  public static String RESULT_CACHE_MAX_BYTES = "resultCacheMaxBytes";
+  public static String RESULT_CACHE_SNAPSHOT_BUCKET_MS = "resultCacheSnapshotBucketMs";
+  public static String RESULT_CACHE_TABLE_TYPES = "resultCacheTableTypes";
+  public static String TABLE_STATISTICS_REFRESH_MS = "tableStatisticsRefreshMs";
+  public static String COLUMN_STATISTICS_SAMPLE_ROWS = "columnStatisticsSampleRows";
+  public static String PLAN_CACHE_MAX_ENTRIES = "planCacheMaxEntries";
+  public static String PLAN_CACHE_NORMALIZE_LITERALS = "planCacheNormalizeLiterals";
+  public static String HEURISTIC_PLANNING = "heuristicPlanning";
+  public static String POINT_LOOKUP_MAX_BATCH_SIZE = "pointLookupMaxBatchSize";
 
   public final boolean enableInserts;
   public final boolean disableCubeAggregation;
   public final boolean createDummyPartition;
   public final long readSnapshotTimeDifference;
+  public final long scanMemoryBudgetBytes;
+  public final int scannerPrefetchDepth;
+  public final int scannerBatchSizeBytes;
+  public final long spillMemoryBudgetBytes;
+  public final ScanTokenCache scanTokenCache;
+  public final QueryResultCache resultCache;
+  public final Set<com.twilio.kudu.sql.TableType> resultCacheTableTypes;
+  public final TableStatisticsCache tableStatistics;
+  public final PlanCache planCache;
+  public final boolean planCacheNormalizeLiterals;
+  public final boolean heuristicPlanning;
+  public final PointLookupExecutor pointLookups;
 
   public KuduSchema(final String connectString, final Map<String, KuduTableMetadata> kuduTableMetadataMap,
       final Map<String, Object> propertyMap) {
@@ -71,10 +106,70 @@ public final class KuduSchema extends AbstractSchema {
     this.createDummyPartition = Boolean.valueOf((String) propertyMap.getOrDefault(CREATE_DUMMY_PARTITION_FLAG, "true"));
     this.readSnapshotTimeDifference = Long
         .valueOf((String) propertyMap.getOrDefault(READ_SNAPSHOT_TIME_DIFFERENCE, "0"));
+    // Bytes of rows a single query may buffer before its scanners stop fetching
+    // until the consumer catches up, zero or less removes the bound
+    this.scanMemoryBudgetBytes = Long.valueOf((String) propertyMap.getOrDefault(SCAN_MEMORY_BUDGET_BYTES,
+        String.valueOf(CalciteKuduTable.DEFAULT_SCAN_MEMORY_BUDGET_BYTES)));
+    // Batches each scanner keeps buffered or in flight ahead of the consumer, can
+    // be overridden per query with a hint
+    this.scannerPrefetchDepth = Integer.valueOf((String) propertyMap.getOrDefault(SCANNER_PREFETCH_DEPTH,
+        String.valueOf(ScannerCallback.DEFAULT_PREFETCH_DEPTH)));
+    // Size of each scanner RPC response, 0 keeps the Kudu default of 1 MiB
+    this.scannerBatchSizeBytes = Integer.valueOf((String) propertyMap.getOrDefault(SCANNER_BATCH_SIZE_BYTES, "0"));
+    // Bytes of rows a client side sort, or of groups a hash aggregation, keeps in
+    // memory before spilling to temporary files, zero or less never spills
+    this.spillMemoryBudgetBytes = Long.valueOf((String) propertyMap.getOrDefault(SPILL_MEMORY_BUDGET_BYTES,
+        String.valueOf(CalciteKuduTable.DEFAULT_SPILL_MEMORY_BUDGET_BYTES)));
+    // Scan tokens of recently executed sub scans are reused until they expire or
+    // the tables are reloaded if a positive ttl is set. Cached tokens miss the
+    // tablets of partitions added in the meantime, so the cache is off by default.
+    this.scanTokenCache = new ScanTokenCache(
+        Long.valueOf((String) propertyMap.getOrDefault(SCAN_TOKEN_CACHE_TTL_MS, "0")), Long.valueOf((String) propertyMap
+            .getOrDefault(SCAN_TOKEN_CACHE_MAX_ENTRIES, String.valueOf(ScanTokenCache.DEFAULT_MAX_ENTRIES))));
+    // Rows of read only queries are cached if this is set to a positive number of
+    // bytes. Only tables of the listed types use the cache as their queries read a
+    // snapshot that can be up to one bucket old.
+    this.resultCache = new QueryResultCache(
+        Long.valueOf((String) propertyMap.getOrDefault(RESULT_CACHE_MAX_BYTES, "0")),
+        Long.valueOf((String) propertyMap.getOrDefault(RESULT_CACHE_SNAPSHOT_BUCKET_MS,
+            String.valueOf(QueryResultCache.DEFAULT_SNAPSHOT_BUCKET_MS))));
+    this.resultCacheTableTypes = Arrays
+        .stream(((String) propertyMap.getOrDefault(RESULT_CACHE_TABLE_TYPES, "CUBE,DIMENSION")).split(","))
+        .map(String::trim).filter(type -> !type.isEmpty())
+        .map(type -> com.twilio.kudu.sql.TableType.valueOf(type.toUpperCase())).collect(Collectors.toSet());
+    // If set to a positive refresh interval the row counts reported by Kudu are
+    // used to plan queries once they have been loaded in the background, otherwise
+    // queries are planned with the estimates of the table types. Filters are
+    // estimated from column statistics if a positive number of rows to sample from
+    // each table is also set.
+    this.tableStatistics = new TableStatisticsCache(
+        Long.valueOf((String) propertyMap.getOrDefault(TABLE_STATISTICS_REFRESH_MS, "0")),
+        Integer.valueOf((String) propertyMap.getOrDefault(COLUMN_STATISTICS_SAMPLE_ROWS, "0")));
+    // Compiled plans of read only statements are shared by every connection to
+    // the schema until the tables are reloaded if this is set to a positive
+    // number of plans
+    this.planCache = new PlanCache(Long.valueOf((String) propertyMap.getOrDefault(PLAN_CACHE_MAX_ENTRIES, "0")));
+    // If set to true statements that only differ in the literals compared to
+    // columns share a plan, the literals are bound like parameters
+    this.planCacheNormalizeLiterals = Boolean
+        .valueOf((String) propertyMap.getOrDefault(PLAN_CACHE_NORMALIZE_LITERALS, "false"));
+    // If set to true queries that only filter, project, sort and limit a single
+    // table are planned without the cost based search of the volcano planner
+    this.heuristicPlanning = Boolean.valueOf((String) propertyMap.getOrDefault(HEURISTIC_PLANNING, "false"));
+    // Concurrent queries that read a single row of the same tablet by its primary
+    // key share a scan of up to this many rows, one or less scans each on its own
+    this.pointLookups = new PointLookupExecutor(Integer.valueOf((String) propertyMap
+        .getOrDefault(POINT_LOOKUP_MAX_BATCH_SIZE, String.valueOf(PointLookupExecutor.DEFAULT_MAX_BATCH_SIZE))));
   }
 
   public void clearCachedTableMap() {
     cachedTableMap = Optional.empty();
+    // tablets or partitions may have changed
+    scanTokenCache.invalidateAll();
+    resultCache.invalidateAll();
+    tableStatistics.invalidateAll();
+    planCache.invalidateAll();
+    pointLookups.invalidateAll();
   }
 
   @Override
@@ -160,8 +255,12 @@ public final class KuduSchema extends AbstractSchema {
         cubeTableOptional.ifPresent(kuduTable -> {
           final CalciteKuduTableBuilder builder = new CalciteKuduTableBuilder(kuduTable, client)
               .setEnableInserts(enableInserts).setDisableCubeAggregation(disableCubeAggregation)
-              .setReadSnapshotTimeDifference(readSnapshotTimeDifference)
+              .setReadSnapshotTimeDifference(readSnapshotTimeDifference).setScanMemoryBudgetBytes(scanMemoryBudgetBytes)
+              .setScannerPrefetchDepth(scannerPrefetchDepth).setScannerBatchSizeBytes(scannerBatchSizeBytes)
+              .setSpillMemoryBudgetBytes(spillMemoryBudgetBytes).setScanTokenCache(scanTokenCache)
+              .setTableStatistics(tableStatistics).setPointLookups(pointLookups)
               .setTableType(com.twilio.kudu.sql.TableType.CUBE)
+              .setResultCache(resultCacheFor(com.twilio.kudu.sql.TableType.CUBE))
               .setEventTimeAggregationType(cubeTableInfo.eventTimeAggregationType);
           setDescendingFieldIndices(builder, descendingOrderedColumnNames, kuduTable);
           setTimestampColumnIndex(builder, kuduTableMetadata.getTimestampColumnName(), kuduTable);
@@ -177,8 +276,12 @@ public final class KuduSchema extends AbstractSchema {
       factTableOptional.ifPresent(kuduTable -> {
         final CalciteKuduTableBuilder builder = new CalciteKuduTableBuilder(kuduTable, client)
             .setEnableInserts(enableInserts).setDisableCubeAggregation(disableCubeAggregation)
-            .setReadSnapshotTimeDifference(readSnapshotTimeDifference).setTableType(com.twilio.kudu.sql.TableType.FACT)
-            .setCubeTables(cubeTableList);
+            .setReadSnapshotTimeDifference(readSnapshotTimeDifference).setScanMemoryBudgetBytes(scanMemoryBudgetBytes)
+            .setScannerPrefetchDepth(scannerPrefetchDepth).setScannerBatchSizeBytes(scannerBatchSizeBytes)
+            .setSpillMemoryBudgetBytes(spillMemoryBudgetBytes).setScanTokenCache(scanTokenCache)
+            .setTableStatistics(tableStatistics).setPointLookups(pointLookups)
+            .setTableType(com.twilio.kudu.sql.TableType.FACT).setCubeTables(cubeTableList)
+            .setResultCache(resultCacheFor(com.twilio.kudu.sql.TableType.FACT));
         setDescendingFieldIndices(builder, descendingOrderedColumnNames, kuduTable);
         setTimestampColumnIndex(builder, kuduTableMetadata.getTimestampColumnName(), kuduTable);
         CalciteKuduTable factTable = builder.build();
@@ -220,11 +323,18 @@ public final class KuduSchema extends AbstractSchema {
       com.twilio.kudu.sql.TableType tableType) {
     final CalciteKuduTableBuilder builder = new CalciteKuduTableBuilder(kuduTable, client)
         .setEnableInserts(enableInserts).setReadSnapshotTimeDifference(readSnapshotTimeDifference)
-        .setTableType(tableType);
+        .setScanMemoryBudgetBytes(scanMemoryBudgetBytes).setScannerPrefetchDepth(scannerPrefetchDepth)
+        .setScannerBatchSizeBytes(scannerBatchSizeBytes).setSpillMemoryBudgetBytes(spillMemoryBudgetBytes)
+        .setScanTokenCache(scanTokenCache).setTableStatistics(tableStatistics).setTableType(tableType)
+        .setResultCache(resultCacheFor(tableType));
     CalciteKuduTable calciteKuduTable = builder.build();
     tableMap.put(kuduTable.getName(), calciteKuduTable);
   }
 
+  private QueryResultCache resultCacheFor(com.twilio.kudu.sql.TableType tableType) {
+    return resultCacheTableTypes.contains(tableType) ? resultCache : QueryResultCache.disabled();
+  }
+
   private Optional<KuduTable> openKuduTable(String tableName) {
     try {
       return Optional.of(client.openTable(tableName).join());
@@ -17,15 +17,28 @@ package org.apache.calcite.prepare;
 import com.google.common.collect.ImmutableMap;
 import com.twilio.kudu.sql.CalciteKuduTable;
 import com.twilio.kudu.sql.KuduQuery;
+import com.twilio.kudu.sql.ParameterizedQuery;
+import com.twilio.kudu.sql.PlanCache;
+import com.twilio.kudu.sql.metadata.CubeTableInfo;
+import com.twilio.kudu.sql.metadata.KuduRelMdSelectivity;
 import com.twilio.kudu.sql.parser.SortOrder;
 import com.twilio.kudu.sql.parser.SqlAlterTable;
 import com.twilio.kudu.sql.parser.SqlCreateMaterializedView;
 import com.twilio.kudu.sql.parser.SqlCreateTable;
+import com.twilio.kudu.sql.rules.KuduHeuristicProgram;
 import com.twilio.kudu.sql.schema.KuduSchema;
+import org.apache.calcite.avatica.Meta;
+import org.apache.calcite.avatica.util.TimeUnitRange;
+import org.apache.calcite.config.CalciteConnectionConfig;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptPlanner;
 import org.apache.calcite.rel.core.RelFactories;
 import org.apache.calcite.rel.hint.HintPredicates;
 import org.apache.calcite.rel.hint.HintStrategyTable;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.runtime.Hook;
 import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.Table;
 import org.apache.calcite.sql.SqlBasicCall;
 import org.apache.calcite.sql.SqlColumnDefInPkConstraintNode;
 import org.apache.calcite.sql.SqlColumnDefNode;
@@ -37,7 +50,12 @@ import org.apache.calcite.sql.SqlNode;
 import org.apache.calcite.sql.SqlNodeList;
 import org.apache.calcite.sql.SqlOperator;
 import org.apache.calcite.sql.SqlOptionNode;
+import org.apache.calcite.sql.parser.SqlParseException;
+import org.apache.calcite.sql.parser.SqlParser;
+import org.apache.calcite.sql.parser.SqlParserImplFactory;
 import org.apache.calcite.sql2rel.SqlToRelConverter;
+import org.apache.calcite.tools.Program;
+import org.apache.calcite.util.Holder;
 import org.apache.calcite.util.ImmutableBeans;
 import org.apache.kudu.ColumnSchema;
 import org.apache.kudu.Common;
@@ -50,13 +68,16 @@ import org.json.JSONObject;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -73,6 +94,144 @@ public class KuduPrepareImpl extends CalcitePrepareImpl {
     }
   }
 
+  @Override
+  protected RelOptCluster createCluster(RelOptPlanner planner, RexBuilder rexBuilder) {
+    final RelOptCluster cluster = super.createCluster(planner, rexBuilder);
+    // estimate filters on Kudu tables from their column statistics
+    cluster.setMetadataProvider(KuduRelMdSelectivity.PROVIDER);
+    return cluster;
+  }
+
+  /**
+   * Plans queries with {@link KuduHeuristicProgram} if the schema enables
+   * heuristic planning.
+   */
+  @Override
+  public <T> CalciteSignature<T> prepareSql(Context context, Query<T> query, Type elementType, long maxRowCount) {
+    if (query.sql == null) {
+      return super.prepareSql(context, query, elementType, maxRowCount);
+    }
+    final KuduSchema kuduSchema = getKuduSchema(context.getRootSchema().plus());
+    if (!kuduSchema.heuristicPlanning) {
+      return prepareCached(context, query, elementType, maxRowCount, kuduSchema);
+    }
+    try (Hook.Closeable ignored = Hook.PROGRAM
+        .addThread((Consumer<Holder<Program>>) program -> program.set(KuduHeuristicProgram.INSTANCE))) {
+      return prepareCached(context, query, elementType, maxRowCount, kuduSchema);
+    }
+  }
+
+  /**
+   * Reuses the compiled plan of a read only statement that was prepared before
+   * with the same text and connection settings, see {@link PlanCache}.
+   */
+  private <T> CalciteSignature<T> prepareCached(Context context, Query<T> query, Type elementType, long maxRowCount,
+      KuduSchema kuduSchema) {
+    final PlanCache planCache = kuduSchema.planCache;
+    final String sql = PlanCache.normalize(query.sql);
+    if (!planCache.isEnabled() || sql.regionMatches(true, 0, "EXPLAIN", 0, "EXPLAIN".length())) {
+      return super.prepareSql(context, query, elementType, maxRowCount);
+    }
+    final CalciteConnectionConfig config = context.config();
+    final List<Object> settings = Arrays.asList(elementType, maxRowCount, context.getDefaultSchemaPath(),
+        config.caseSensitive(), config.timeZone(), config.conformance(), config.lex(), config.quoting(),
+        config.unquotedCasing(), config.quotedCasing(), config.defaultNullCollation());
+    if (kuduSchema.planCacheNormalizeLiterals) {
+      final CalciteSignature<T> signature = prepareParameterized(context, query, elementType, maxRowCount, kuduSchema,
+          settings);
+      if (signature != null) {
+        return signature;
+      }
+    }
+    final PlanCache.Key key = new PlanCache.Key(sql, settings);
+    @SuppressWarnings("unchecked")
+    final CalciteSignature<T> cached = (CalciteSignature<T>) planCache.get(key);
+    if (cached != null) {
+      // execute against the schema of this connection
+      return new CalciteSignature<>(query.sql, cached.parameters, cached.internalParameters, cached.rowType,
+          cached.columns, cached.cursorFactory, context.getRootSchema(), cached.getCollationList(), -1,
+          cached::enumerable, cached.statementType);
+    }
+    final long version = planCache.version();
+    final CalciteSignature<T> signature = super.prepareSql(context, query, elementType, maxRowCount);
+    if (signature.statementType == Meta.StatementType.SELECT) {
+      planCache.put(version, key, signature);
+    }
+    return signature;
+  }
+
+  /**
+   * Replaces the literals of the statement that are compared to columns by
+   * parameters and executes the plan of the parameterized statement with the
+   * values of the literals, see {@link ParameterizedQuery}.
+   *
+   * @return null if the statement has to be prepared as it is
+   */
+  private <T> CalciteSignature<T> prepareParameterized(Context context, Query<T> query, Type elementType,
+      long maxRowCount, KuduSchema kuduSchema, List<Object> settings) {
+    final SqlNode node;
+    try {
+      node = createParser(query.sql, parserConfig(context)).parseStmt();
+    } catch (SqlParseException e) {
+      return null;
+    }
+    final ParameterizedQuery parameterized = ParameterizedQuery.of(query.sql, node, getFinestCubeTimeUnit(kuduSchema));
+    if (parameterized == null) {
+      return null;
+    }
+    final PlanCache planCache = kuduSchema.planCache;
+    final PlanCache.Key key = new PlanCache.Key(PlanCache.normalize(parameterized.sql), settings);
+    @SuppressWarnings("unchecked")
+    CalciteSignature<T> plan = (CalciteSignature<T>) planCache.get(key);
+    if (plan == null) {
+      final long version = planCache.version();
+      try {
+        plan = super.prepareSql(context, Query.of(parameterized.sql), elementType, maxRowCount);
+      } catch (RuntimeException e) {
+        // the type of a parameter can't always be inferred where a literal is
+        // valid, the statement reports its own errors when prepared as it is
+        return null;
+      }
+      if (plan.statementType != Meta.StatementType.SELECT) {
+        return null;
+      }
+      planCache.put(version, key, plan);
+    }
+    final Object[] values = parameterized.bind(plan.parameters);
+    if (values == null) {
+      return null;
+    }
+    final CalciteSignature<T> shared = plan;
+    return new CalciteSignature<>(query.sql, Collections.emptyList(), shared.internalParameters, shared.rowType,
+        shared.columns, shared.cursorFactory, context.getRootSchema(), shared.getCollationList(), -1,
+        dataContext -> shared.enumerable(ParameterizedQuery.dataContext(dataContext, values)), shared.statementType);
+  }
+
+  // parser configured the same way CalcitePrepareImpl parses statements
+  private SqlParser.Config parserConfig(Context context) {
+    final CalciteConnectionConfig config = context.config();
+    final SqlParser.Config parserConfig = parserConfig().withQuotedCasing(config.quotedCasing())
+        .withUnquotedCasing(config.unquotedCasing()).withQuoting(config.quoting()).withConformance(config.conformance())
+        .withCaseSensitive(config.caseSensitive());
+    final SqlParserImplFactory parserFactory = config.parserFactory(SqlParserImplFactory.class, null);
+    return parserFactory == null ? parserConfig : parserConfig.withParserFactory(parserFactory);
+  }
+
+  // the finest time unit of the cubes of the schema, null if it has no cubes
+  private static TimeUnitRange getFinestCubeTimeUnit(KuduSchema kuduSchema) {
+    CubeTableInfo.EventTimeAggregationType finest = null;
+    for (String tableName : kuduSchema.getTableNames()) {
+      final Table table = kuduSchema.getTable(tableName);
+      if (table instanceof CalciteKuduTable) {
+        final CubeTableInfo.EventTimeAggregationType type = ((CalciteKuduTable) table).getEventTimeAggregationType();
+        if (type != null && (finest == null || type.ordinal() > finest.ordinal())) {
+          finest = type;
+        }
+      }
+    }
+    return finest == null ? null : TimeUnitRange.valueOf(finest.name().toUpperCase());
+  }
+
   @Override
   public void executeDdl(Context context, SqlNode node) {
     final KuduSchema kuduSchema = getKuduSchema(context.getRootSchema().plus());
@@ -74,4 +74,29 @@ public final class CalciteKuduEnumerableTest {
     assertFalse("Should be no more rows", enumerable.moveNext());
     assertEquals("current() should still be the previous row", singleRow[0], enumerable.current().getRowData());
   }
+
+  @Test
+  public void batchResults() {
+    final LinkedBlockingQueue<CalciteScannerMessage<CalciteRow>> queue = new LinkedBlockingQueue<>(10);
+    final Enumerator<CalciteRow> enumerable = new CalciteKuduEnumerable(queue, new AtomicBoolean(false)).enumerator();
+    final Object[] firstRow = { Long.valueOf(1) };
+    final Object[] secondRow = { Long.valueOf(2) };
+    final Object[] thirdRow = { Long.valueOf(3) };
+    queue.add(new CalciteScannerMessage<CalciteRow>(
+        Arrays.asList(new CalciteRow(rowSchema, firstRow, Arrays.asList(0), Collections.<Integer>emptyList()),
+            new CalciteRow(rowSchema, secondRow, Arrays.asList(0), Collections.<Integer>emptyList())),
+        null));
+    // Empty batches happen when every row in the RPC was filtered out.
+    queue.add(new CalciteScannerMessage<CalciteRow>(Collections.<CalciteRow>emptyList(), null));
+    queue.add(new CalciteScannerMessage<CalciteRow>(Collections
+        .singletonList(new CalciteRow(rowSchema, thirdRow, Arrays.asList(0), Collections.<Integer>emptyList())), null));
+    queue.add(CalciteScannerMessage.<CalciteRow>createEndMessage());
+    assertTrue("Should signal there are messages", enumerable.moveNext());
+    assertEquals("First row should match", firstRow[0], enumerable.current().getRowData());
+    assertTrue("Should signal there are more rows in the batch", enumerable.moveNext());
+    assertEquals("Second row should match", secondRow[0], enumerable.current().getRowData());
+    assertTrue("Should skip the empty batch and find the third row", enumerable.moveNext());
+    assertEquals("Third row should match", thirdRow[0], enumerable.current().getRowData());
+    assertFalse("Should be no more rows", enumerable.moveNext());
+  }
 }
@@ -0,0 +1,100 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Timestamp;
+
+import org.apache.kudu.Type;
+import org.apache.kudu.client.KuduPredicate;
+import org.junit.Test;
+
+public class ColumnStatisticsTest {
+
+  @Test
+  public void fractionBelowInterpolatesInsideBuckets() {
+    final double[] bounds = new double[] { 0, 10, 20, 40 };
+    assertEquals(0, ColumnStatistics.fractionBelow(bounds, -5), 0.0);
+    assertEquals(0, ColumnStatistics.fractionBelow(bounds, 0), 0.0);
+    assertEquals(1.0 / 6, ColumnStatistics.fractionBelow(bounds, 5), 1e-9);
+    assertEquals(1.0 / 3, ColumnStatistics.fractionBelow(bounds, 10), 1e-9);
+    assertEquals(2.0 / 3 + 1.0 / 6, ColumnStatistics.fractionBelow(bounds, 30), 1e-9);
+    assertEquals(1, ColumnStatistics.fractionBelow(bounds, 50), 0.0);
+  }
+
+  @Test
+  public void fractionBelowUsesFirstRepeatedBound() {
+    final double[] bounds = new double[] { 0, 5, 5, 5, 10 };
+    assertEquals(0.25, ColumnStatistics.fractionBelow(bounds, 5), 1e-9);
+  }
+
+  @Test
+  public void uniqueSampleScalesDistinctCountToTable() {
+    final ColumnStatistics.Accumulator accumulator = new ColumnStatistics.Accumulator(Type.INT64);
+    for (long i = 0; i < 100; i++) {
+      accumulator.add(i);
+    }
+    final ColumnStatistics statistics = accumulator.build(10_000);
+    assertEquals("Every sampled value is unique so the column is likely unique", 10_000, statistics.getDistinctCount(),
+        1e-6);
+    assertEquals(0, statistics.getNullFraction(), 0.0);
+  }
+
+  @Test
+  public void repeatedSampleKeepsDistinctCount() {
+    final ColumnStatistics.Accumulator accumulator = new ColumnStatistics.Accumulator(Type.STRING);
+    for (int i = 0; i < 100; i++) {
+      accumulator.add(i % 4 == 0 ? null : "value" + (i % 3));
+    }
+    final ColumnStatistics statistics = accumulator.build(10_000);
+    assertEquals("No value was seen once so no new values are expected", 3, statistics.getDistinctCount(), 1e-6);
+    assertEquals(0.25, statistics.getNullFraction(), 1e-9);
+    assertEquals(0.25, statistics.equalsSelectivity("value1"), 1e-9);
+    assertEquals("Values outside of the sampled range match nothing", 0, statistics.equalsSelectivity("zzz"), 0.0);
+    assertNull("Strings can't be placed on a line",
+        statistics.rangeSelectivity(KuduPredicate.ComparisonOp.LESS, "value1"));
+  }
+
+  @Test
+  public void timestampRangeUsesHistogram() {
+    final ColumnStatistics.Accumulator accumulator = new ColumnStatistics.Accumulator(Type.UNIXTIME_MICROS);
+    for (long i = 0; i < 1000; i++) {
+      // most of the rows are recent
+      accumulator.add(new Timestamp(i < 900 ? 1_000_000 + i : i));
+    }
+    final ColumnStatistics statistics = accumulator.build(1000);
+    assertNotNull(statistics.getHistogram());
+    final Double recent = statistics.rangeSelectivity(KuduPredicate.ComparisonOp.GREATER_EQUAL,
+        new Timestamp(1_000_000));
+    assertNotNull(recent);
+    assertTrue("Histogram should capture the skew " + recent, recent > 0.85 && recent < 0.95);
+  }
+
+  @Test
+  public void numberRangeInterpolatesBetweenMinAndMax() {
+    final ColumnStatistics.Accumulator accumulator = new ColumnStatistics.Accumulator(Type.INT32);
+    for (int i = 0; i <= 100; i++) {
+      accumulator.add(i);
+    }
+    final ColumnStatistics statistics = accumulator.build(101);
+    assertEquals(0.25, statistics.rangeSelectivity(KuduPredicate.ComparisonOp.LESS, 25), 1e-9);
+    assertEquals(0.75, statistics.rangeSelectivity(KuduPredicate.ComparisonOp.GREATER_EQUAL, 25), 1e-9);
+    assertEquals(1.0 / 101, statistics.equalsSelectivity(25), 1e-9);
+  }
+}
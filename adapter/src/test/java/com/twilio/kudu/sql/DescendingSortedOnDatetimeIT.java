@@ -18,12 +18,15 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.twilio.kudu.sql.metadata.KuduTableMetadata;
 import com.twilio.kudu.sql.schema.BaseKuduSchemaFactory;
+import org.apache.calcite.linq4j.function.Predicate1;
 import org.apache.kudu.ColumnSchema;
 import org.apache.kudu.Schema;
 import org.apache.kudu.Type;
 import org.apache.kudu.client.AsyncKuduSession;
+import org.apache.kudu.client.KuduPredicate;
 import org.apache.kudu.client.KuduTable;
 import org.apache.kudu.client.PartialRow;
+import org.apache.kudu.client.RowResult;
 import org.apache.kudu.client.Upsert;
 import org.apache.kudu.test.KuduTestHarness;
 import org.junit.AfterClass;
@@ -43,8 +46,10 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -154,6 +159,49 @@ public final class DescendingSortedOnDatetimeIT {
     testHarness.getClient().deleteTable(BASE_TABLE_NAME);
   }
 
+  private static List<Object> latestSids(final int limit, final KuduScanStats scanStats) {
+    final CalciteKuduTable relTable = new CalciteKuduTableBuilder(TABLE, testHarness.getAsyncClient())
+        .setDescendingOrderedFieldIndices(Arrays.asList(1)).build();
+    final CalciteKuduPredicate filterToAccount = new ComparisonPredicate(0, KuduPredicate.ComparisonOp.EQUAL,
+        ACCOUNT_SID);
+    // reads event_date and sid, sorted by event_date
+    return relTable.executeQuery(Collections.singletonList(Collections.singletonList(filterToAccount)),
+        Arrays.asList(1, 2), limit, -1, true, false, scanStats, new AtomicBoolean(false),
+        row -> ((RowResult) row).getString(1), Predicate1.TRUE, true, null, Arrays.asList(0), -1, null).toList();
+  }
+
+  @Test
+  public void testLatestRowsOnlyScanNewestPartitions() {
+    // the two latest rows are in the newest range partition, the third in the
+    // one before it
+    KuduScanStats scanStats = new KuduScanStats();
+    assertEquals(Arrays.asList(SECOND_SID), latestSids(1, scanStats));
+    assertEquals("Only the newest range partition should be scanned", 1, scanStats.getScannerMetricsList().size());
+
+    scanStats = new KuduScanStats();
+    assertEquals(Arrays.asList(SECOND_SID, FIRST_SID, THIRD_SID), latestSids(3, scanStats));
+    assertEquals("The oldest range partition shouldn't be scanned", 2, scanStats.getScannerMetricsList().size());
+
+    scanStats = new KuduScanStats();
+    assertEquals(Arrays.asList(SECOND_SID, FIRST_SID, THIRD_SID), latestSids(10, scanStats));
+    assertEquals("Every range partition should be scanned", 3, scanStats.getScannerMetricsList().size());
+  }
+
+  @Test
+  public void testQueryWithSortDescAndLimit() throws Exception {
+    try (Connection conn = DriverManager.getConnection(JDBC_URL)) {
+      ResultSet rs = conn.createStatement()
+          .executeQuery(String.format(
+              "SELECT sid FROM kudu.\"Test.Events\" WHERE account_sid = '%s' order by event_date desc limit 2 offset 1",
+              ACCOUNT_SID));
+      assertTrue(rs.next());
+      assertEquals(FIRST_SID, rs.getString("sid"));
+      assertTrue(rs.next());
+      assertEquals(THIRD_SID, rs.getString("sid"));
+      assertFalse(rs.next());
+    }
+  }
+
   @Test
   public void testQueryWithSortDesc() throws Exception {
     try (Connection conn = DriverManager.getConnection(JDBC_URL)) {
@@ -397,6 +445,33 @@ public final class DescendingSortedOnDatetimeIT {
     }
   }
 
+  @Test
+  public void testPartitionWiseAggregation() throws Exception {
+    try (Connection conn = DriverManager.getConnection(JDBC_URL)) {
+      // the rows of the account are in two tablets of the same hash bucket
+      String sql = "SELECT account_sid, COUNT(*), MIN(sid) FROM kudu.\"Test.Events\" GROUP BY account_sid";
+      ResultSet rs = conn.createStatement().executeQuery("EXPLAIN PLAN FOR " + sql);
+      String plan = SqlUtil.getExplainPlan(rs);
+      String expectedPlan = "KuduAggregationRel(group=[{0}], EXPR$1=[COUNT()], EXPR$2=[MIN($1)], partitionWise=[true])\n"
+          + "  KuduProjectRel(ACCOUNT_SID=[$0], SID=[$2])\n" + "    KuduQuery(table=[[kudu, Test.Events]])\n";
+      assertEquals("Unexpected plan ", expectedPlan, plan);
+
+      rs = conn.createStatement().executeQuery(sql);
+      assertTrue(rs.next());
+      assertEquals(ACCOUNT_SID, rs.getString(1));
+      assertEquals(3, rs.getLong(2));
+      assertEquals(DescendingSortedOnDatetimeIT.FIRST_SID, rs.getString(3));
+      assertFalse(rs.next());
+
+      // resource_type isn't a hash partition column, the groups of all the tablets
+      // are merged
+      sql = "SELECT resource_type, COUNT(*) FROM kudu.\"Test.Events\" GROUP BY resource_type";
+      rs = conn.createStatement().executeQuery("EXPLAIN PLAN FOR " + sql);
+      plan = SqlUtil.getExplainPlan(rs);
+      assertTrue("Unexpected plan " + plan, plan.contains("KuduAggregationRel(group=[{0}], EXPR$1=[COUNT()])"));
+    }
+  }
+
   @Test
   public void testSortByNonPKWithProjection() throws Exception {
     try (Connection conn = DriverManager.getConnection(JDBC_URL)) {
@@ -0,0 +1,113 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares grouping rows with a {@link HashMap} against a
+ * {@link GroupByHashTable}, like {@code KuduEnumerable.groupBy_} does for a
+ * {@code COUNT(*)} grouped by a {@code BIGINT} column. Every group has two rows
+ * in a random order and the key is boxed for each row like the generated key
+ * selector does.
+ *
+ * Run with
+ * {@code java -cp <test classpath> com.twilio.kudu.sql.GroupByHashTableBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xms6g", "-Xmx6g" })
+public class GroupByHashTableBenchmark {
+
+  @Param({ "1000000", "10000000" })
+  public int groups;
+
+  private long[] rowKeys;
+
+  @Setup
+  public void setup() {
+    final Random random = new Random(42);
+    rowKeys = new long[groups * 2];
+    for (int i = 0; i < rowKeys.length; i++) {
+      rowKeys[i] = 10_000_000_000L + i / 2;
+    }
+    for (int i = rowKeys.length - 1; i > 0; i--) {
+      final int j = random.nextInt(i + 1);
+      final long key = rowKeys[i];
+      rowKeys[i] = rowKeys[j];
+      rowKeys[j] = key;
+    }
+  }
+
+  @Benchmark
+  public void hashMap(final Blackhole blackhole) {
+    final Map<Object, long[]> map = new HashMap<>();
+    for (long rowKey : rowKeys) {
+      final Object key = Long.valueOf(rowKey);
+      final long[] accumulator = map.get(key);
+      if (accumulator == null) {
+        map.put(key, new long[] { 1 });
+      } else {
+        accumulator[0]++;
+      }
+    }
+    for (Map.Entry<Object, long[]> entry : map.entrySet()) {
+      blackhole.consume(entry.getValue()[0]);
+    }
+  }
+
+  @Benchmark
+  public void groupByHashTable(final Blackhole blackhole) {
+    final GroupByHashTable<Object, long[]> table = new GroupByHashTable<>();
+    for (long rowKey : rowKeys) {
+      final Object key = Long.valueOf(rowKey);
+      final int entry = table.indexOf(key);
+      if (entry < 0) {
+        table.add(key, new long[] { 1 });
+      } else {
+        table.getAccumulator(entry)[0]++;
+      }
+    }
+    for (Long count : table.results((key, accumulator) -> accumulator[0])) {
+      blackhole.consume(count);
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(GroupByHashTableBenchmark.class.getSimpleName()).build()).run();
+  }
+}
@@ -0,0 +1,127 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+import org.junit.Test;
+
+public final class GroupByHashTableTest {
+
+  private static Map<Object, Long> countWithHashMap(final List<Object> keys) {
+    final Map<Object, Long> counts = new LinkedHashMap<>();
+    for (Object key : keys) {
+      counts.merge(key, 1L, Long::sum);
+    }
+    return counts;
+  }
+
+  private static Map<Object, Long> countWithHashTable(final List<Object> keys) {
+    final GroupByHashTable<Object, long[]> groups = new GroupByHashTable<>();
+    for (Object key : keys) {
+      final int entry = groups.indexOf(key);
+      if (entry < 0) {
+        groups.add(key, new long[] { 1 });
+      } else {
+        groups.getAccumulator(entry)[0]++;
+      }
+    }
+    final Map<Object, Long> counts = new LinkedHashMap<>();
+    for (Map.Entry<Object, Long> count : groups
+        .results((key, accumulator) -> new AbstractMap.SimpleEntry<>(key, accumulator[0]))) {
+      counts.put(count.getKey(), count.getValue());
+    }
+    assertEquals("Every group should be returned once", counts.size(), groups.size());
+    return counts;
+  }
+
+  private static void assertSameGroups(final String message, final List<Object> keys) {
+    final Map<Object, Long> expected = countWithHashMap(keys);
+    final Map<Object, Long> actual = countWithHashTable(keys);
+    // groups are returned in the order they are first seen like a LinkedHashMap
+    assertEquals(message, new ArrayList<>(expected.entrySet()), new ArrayList<>(actual.entrySet()));
+  }
+
+  private static List<Object> randomKeys(final Random random, final int count, final IntFunction<Object> key) {
+    final List<Object> keys = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      keys.add(key.apply(random.nextInt(count / 4 + 1)));
+    }
+    return keys;
+  }
+
+  @Test
+  public void primitiveLanes() {
+    final Random random = new Random(42);
+    assertSameGroups("Long keys", randomKeys(random, 100_000, i -> Long.valueOf(i * 31L)));
+    assertSameGroups("Integer keys", randomKeys(random, 100_000, i -> Integer.valueOf(-i)));
+    assertSameGroups("Double keys", randomKeys(random, 100_000, i -> Double.valueOf(i / 8.0)));
+  }
+
+  @Test
+  public void objectLane() {
+    final Random random = new Random(7);
+    assertSameGroups("String keys", randomKeys(random, 50_000, i -> "PN" + i));
+    assertSameGroups("Composite keys", randomKeys(random, 50_000, i -> Arrays.asList("AC" + (i % 10), i % 7)));
+  }
+
+  @Test
+  public void movesToObjectLane() {
+    final Random random = new Random(3);
+    final List<Object> keys = randomKeys(random, 10_000, Long::valueOf);
+    // Long, Integer and Double keys of the same value are different groups
+    keys.add(Integer.valueOf(5));
+    keys.add(Double.valueOf(5));
+    keys.add(null);
+    keys.addAll(randomKeys(random, 10_000, Long::valueOf));
+    keys.add(null);
+    keys.add(Integer.valueOf(5));
+    assertSameGroups("Mixed keys", keys);
+  }
+
+  @Test
+  public void doubleKeysCompareLikeEquals() {
+    final List<Object> keys = Arrays.asList(0.0d, -0.0d, Double.NaN, Double.NaN, 0.0d);
+    assertSameGroups("Double keys", keys);
+  }
+
+  @Test
+  public void failsOnceFull() {
+    final GroupByHashTable<Object, long[]> groups = new GroupByHashTable<>(100);
+    for (long i = 0; i < 100; i++) {
+      groups.add(i, new long[] { i });
+    }
+    assertEquals("Missing keys should still be found missing", -1, groups.indexOf(100L));
+    try {
+      groups.add(100L, new long[] { 100 });
+      fail("Adding a group to a full table should fail");
+    } catch (IllegalStateException e) {
+      assertTrue("Error should name the limit: " + e.getMessage(), e.getMessage().contains("100 groups"));
+    }
+    assertEquals(100, groups.size());
+    assertEquals("Existing groups should still be found", 99L, groups.getAccumulator(groups.indexOf(99L))[0]);
+  }
+}
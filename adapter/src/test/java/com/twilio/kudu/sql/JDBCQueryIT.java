@@ -15,7 +15,10 @@
 package com.twilio.kudu.sql;
 
 import com.google.common.collect.ImmutableMap;
+import com.twilio.kudu.sql.schema.BaseKuduSchemaFactory;
 import com.twilio.kudu.sql.schema.DefaultKuduSchemaFactory;
+import com.twilio.kudu.sql.schema.KuduSchema;
+import org.apache.calcite.jdbc.CalciteConnection;
 import org.apache.kudu.client.Upsert;
 import org.apache.kudu.Schema;
 import org.apache.kudu.client.PartialRow;
@@ -26,12 +29,15 @@ import org.apache.kudu.test.KuduTestHarness;
 import java.sql.Connection;
 import java.sql.Date;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Timestamp;
 import org.junit.runners.JUnit4;
 import org.apache.kudu.Type;
 import org.apache.kudu.client.AsyncKuduSession;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Arrays;
 import org.junit.BeforeClass;
@@ -161,6 +167,237 @@ public final class JDBCQueryIT {
     }
   }
 
+  @Test
+  public void testPreparedStatementFilterIsPushedDown() throws Exception {
+    try (Connection conn = DriverManager.getConnection(JDBC_URL)) {
+      String sql = "SELECT sid FROM \"ReportCenter.DeliveredMessages\" WHERE account_sid = ? AND error_code > ?";
+      String expectedPlan = "KuduToEnumerableRel\n" + "  KuduProjectRel(SID=[$2])\n"
+          + "    KuduFilterRel(ScanToken 1=[account_sid EQUAL ?0, error_code GREATER ?1])\n"
+          + "      KuduQuery(table=[[kudu, ReportCenter.DeliveredMessages]])\n";
+      PreparedStatement explain = conn.prepareStatement("EXPLAIN PLAN FOR " + sql);
+      explain.setString(1, JDBCQueryIT.ACCOUNT_SID);
+      explain.setInt(2, 0);
+      String plan = SqlUtil.getExplainPlan(explain.executeQuery());
+      assertEquals("Unexpected plan ", expectedPlan, plan);
+
+      // the same statement is executed with different values
+      PreparedStatement statement = conn.prepareStatement(sql);
+      statement.setString(1, JDBCQueryIT.ACCOUNT_SID);
+      statement.setInt(2, 1);
+      ResultSet rs = statement.executeQuery();
+      assertTrue(rs.next());
+      assertEquals(JDBCQueryIT.SECOND_SID, rs.getString("sid"));
+      assertFalse(rs.next());
+
+      statement.setString(1, JDBCQueryIT.ACCOUNT_SID);
+      statement.setInt(2, 0);
+      rs = statement.executeQuery();
+      assertTrue(rs.next());
+      assertTrue(rs.next());
+      assertTrue(rs.next());
+      assertFalse(rs.next());
+
+      statement.setString(1, "AC_UNKNOWN");
+      statement.setInt(2, 0);
+      rs = statement.executeQuery();
+      assertFalse(rs.next());
+
+      statement.setNull(1, java.sql.Types.VARCHAR);
+      statement.setInt(2, 0);
+      rs = statement.executeQuery();
+      assertFalse("Comparing to null should not match any row", rs.next());
+
+      // values outside of the range of the column must not wrap around
+      statement.setString(1, JDBCQueryIT.ACCOUNT_SID);
+      statement.setLong(2, (1L << 32) + 1);
+      rs = statement.executeQuery();
+      assertFalse("No error code is greater than a value above the integer range", rs.next());
+
+      statement.setString(1, JDBCQueryIT.ACCOUNT_SID);
+      statement.setLong(2, -(1L << 32) + 1);
+      rs = statement.executeQuery();
+      assertTrue(rs.next());
+      assertTrue(rs.next());
+      assertTrue(rs.next());
+      assertFalse(rs.next());
+
+      PreparedStatement equalStatement = conn.prepareStatement(
+          "SELECT sid FROM \"ReportCenter.DeliveredMessages\" WHERE account_sid = ? AND error_code = ?");
+      equalStatement.setString(1, JDBCQueryIT.ACCOUNT_SID);
+      equalStatement.setLong(2, (1L << 32) + 2);
+      rs = equalStatement.executeQuery();
+      assertFalse("A value above the integer range should not match any row", rs.next());
+    }
+  }
+
+  // schemas are cached by connect string, another factory creates its own schema
+  public static class PlanCachingSchemaFactory extends BaseKuduSchemaFactory {
+    // Public singleton, per factory contract.
+    public static final PlanCachingSchemaFactory INSTANCE = new PlanCachingSchemaFactory();
+
+    public PlanCachingSchemaFactory() {
+      super(new HashMap<>());
+    }
+  }
+
+  @Test
+  public void testRepeatedQueryReusesPlan() throws Exception {
+    try (Connection conn = DriverManager.getConnection(JDBC_URL)) {
+      assertFalse("Plans should only be cached if enabled",
+          conn.unwrap(CalciteConnection.class).getRootSchema().getSubSchema("kudu").unwrap(KuduSchema.class).planCache
+              .isEnabled());
+    }
+    final String url = String.format(
+        JDBCUtil.CALCITE_MODEL_TEMPLATE_DML_DDL_ENABLED + ";schema." + KuduSchema.PLAN_CACHE_MAX_ENTRIES + "=100",
+        PlanCachingSchemaFactory.class.getName(), testHarness.getMasterAddressesAsString());
+    try (Connection conn = DriverManager.getConnection(url)) {
+      final PlanCache planCache = conn.unwrap(CalciteConnection.class).getRootSchema().getSubSchema("kudu")
+          .unwrap(KuduSchema.class).planCache;
+      final String sql = "SELECT sid FROM \"ReportCenter.DeliveredMessages\" WHERE account_sid = ? AND sid = ?";
+      final long hitCount = planCache.stats().hitCount();
+      for (String sid : Arrays.asList(FIRST_SID, SECOND_SID, THIRD_SID)) {
+        // prepare the statement every time as the plan is shared across statements
+        final PreparedStatement statement = conn.prepareStatement(sql);
+        statement.setString(1, ACCOUNT_SID);
+        statement.setString(2, sid);
+        final ResultSet rs = statement.executeQuery();
+        assertTrue(rs.next());
+        assertEquals(sid, rs.getString(1));
+        assertFalse(rs.next());
+      }
+      assertEquals("The plan should be prepared once and then reused", hitCount + 2, planCache.stats().hitCount());
+    }
+  }
+
+  // schemas are cached by connect string, another factory creates its own schema
+  public static class LiteralNormalizingSchemaFactory extends BaseKuduSchemaFactory {
+    // Public singleton, per factory contract.
+    public static final LiteralNormalizingSchemaFactory INSTANCE = new LiteralNormalizingSchemaFactory();
+
+    public LiteralNormalizingSchemaFactory() {
+      super(new HashMap<>());
+    }
+  }
+
+  @Test
+  public void testStatementsWithOtherLiteralsReusePlan() throws Exception {
+    final String url = String.format(
+        JDBCUtil.CALCITE_MODEL_TEMPLATE_DML_DDL_ENABLED + ";schema." + KuduSchema.PLAN_CACHE_MAX_ENTRIES
+            + "=100;schema." + KuduSchema.PLAN_CACHE_NORMALIZE_LITERALS + "=true",
+        LiteralNormalizingSchemaFactory.class.getName(), testHarness.getMasterAddressesAsString());
+    try (Connection conn = DriverManager.getConnection(url)) {
+      final PlanCache planCache = conn.unwrap(CalciteConnection.class).getRootSchema().getSubSchema("kudu")
+          .unwrap(KuduSchema.class).planCache;
+      final long hitCount = planCache.stats().hitCount();
+      for (String sid : Arrays.asList(FIRST_SID, SECOND_SID, THIRD_SID)) {
+        final ResultSet rs = conn.createStatement()
+            .executeQuery(String.format(
+                "SELECT sid FROM \"ReportCenter.DeliveredMessages\" WHERE account_sid = '%s' AND sid = '%s'",
+                ACCOUNT_SID, sid));
+        assertTrue(rs.next());
+        assertEquals(sid, rs.getString(1));
+        assertFalse(rs.next());
+      }
+      assertEquals("Statements that only differ in their literals should share a plan", hitCount + 2,
+          planCache.stats().hitCount());
+
+      final String inListFormat = "SELECT sid FROM \"ReportCenter.DeliveredMessages\" "
+          + "WHERE account_sid = '%s' AND sid IN ('%s', '%s') ORDER BY sid";
+      ResultSet rs = conn.createStatement()
+          .executeQuery(String.format(inListFormat, ACCOUNT_SID, FIRST_SID, THIRD_SID));
+      assertTrue(rs.next());
+      assertEquals(FIRST_SID, rs.getString(1));
+      assertTrue(rs.next());
+      assertEquals(THIRD_SID, rs.getString(1));
+      assertFalse(rs.next());
+      rs = conn.createStatement().executeQuery(String.format(inListFormat, ACCOUNT_SID, SECOND_SID, "SM9"));
+      assertTrue(rs.next());
+      assertEquals(SECOND_SID, rs.getString(1));
+      assertFalse(rs.next());
+      assertEquals(hitCount + 3, planCache.stats().hitCount());
+
+      // the values of the in list are bound into a single in list predicate
+      final PreparedStatement explain = conn.prepareStatement("EXPLAIN PLAN FOR SELECT sid FROM "
+          + "\"ReportCenter.DeliveredMessages\" WHERE account_sid = ? AND sid IN (?, ?)");
+      explain.setString(1, ACCOUNT_SID);
+      explain.setString(2, FIRST_SID);
+      explain.setString(3, THIRD_SID);
+      final String expectedPlan = "KuduToEnumerableRel\n" + "  KuduProjectRel(SID=[$2])\n"
+          + "    KuduFilterRel(ScanToken 1=[account_sid EQUAL ?0, sid IN [?1, ?2]])\n"
+          + "      KuduQuery(table=[[kudu, ReportCenter.DeliveredMessages]])\n";
+      assertEquals("Unexpected plan ", expectedPlan, SqlUtil.getExplainPlan(explain.executeQuery()));
+    }
+  }
+
+  public static class HeuristicPlanningSchemaFactory extends BaseKuduSchemaFactory {
+    // Public singleton, per factory contract.
+    public static final HeuristicPlanningSchemaFactory INSTANCE = new HeuristicPlanningSchemaFactory();
+
+    public HeuristicPlanningSchemaFactory() {
+      super(new HashMap<>());
+    }
+  }
+
+  @Test
+  public void testHeuristicPlansMatchCostBasedPlans() throws Exception {
+    final String url = String.format(
+        JDBCUtil.CALCITE_MODEL_TEMPLATE_DML_DDL_ENABLED + ";schema." + KuduSchema.HEURISTIC_PLANNING + "=true",
+        HeuristicPlanningSchemaFactory.class.getName(), testHarness.getMasterAddressesAsString());
+    final List<String> queries = Arrays.asList(
+        // eligible, planned without the volcano planner
+        String.format(
+            "SELECT sid FROM \"ReportCenter.DeliveredMessages\" WHERE account_sid = '%s' AND sid = '%s' " + "LIMIT 1",
+            ACCOUNT_SID, SECOND_SID),
+        String.format("SELECT * FROM \"ReportCenter.DeliveredMessages\" WHERE account_sid = '%s' "
+            + "ORDER BY account_sid, date_created LIMIT 2", ACCOUNT_SID),
+        String.format("SELECT sid, mcc FROM \"ReportCenter.DeliveredMessages\" WHERE account_sid IN ('%s', 'AC2') "
+            + "AND error_code = 1", ACCOUNT_SID),
+        // not eligible, planned by the volcano planner
+        String.format("SELECT sid FROM \"ReportCenter.DeliveredMessages\" WHERE account_sid = '%s' ORDER BY mcc",
+            ACCOUNT_SID),
+        "SELECT error_code, COUNT(*) FROM \"ReportCenter.DeliveredMessages\" GROUP BY error_code ORDER BY error_code");
+    try (Connection costBased = DriverManager.getConnection(JDBC_URL);
+        Connection heuristic = DriverManager.getConnection(url)) {
+      for (String sql : queries) {
+        assertEquals("Unexpected plan for " + sql,
+            SqlUtil.getExplainPlan(costBased.createStatement().executeQuery("EXPLAIN PLAN FOR " + sql)),
+            SqlUtil.getExplainPlan(heuristic.createStatement().executeQuery("EXPLAIN PLAN FOR " + sql)));
+        assertEquals("Unexpected rows for " + sql, rows(costBased.createStatement().executeQuery(sql)),
+            rows(heuristic.createStatement().executeQuery(sql)));
+      }
+    }
+  }
+
+  private static List<String> rows(final ResultSet rs) throws SQLException {
+    final List<String> rows = new ArrayList<>();
+    while (rs.next()) {
+      final StringBuilder row = new StringBuilder();
+      for (int i = 1; i <= rs.getMetaData().getColumnCount(); i++) {
+        row.append(rs.getString(i)).append(',');
+      }
+      rows.add(row.toString());
+    }
+    Collections.sort(rows);
+    return rows;
+  }
+
+  @Test
+  public void testPrefetchDepthHint() throws Exception {
+    try (Connection conn = DriverManager.getConnection(JDBC_URL)) {
+      String sqlFormat = "SELECT sid FROM \"ReportCenter.DeliveredMessages\" /*+ SCANNER_PREFETCH_DEPTH(1) */ "
+          + "WHERE account_sid = '%s'";
+      String sql = String.format(sqlFormat, JDBCQueryIT.ACCOUNT_SID);
+      ResultSet rs = conn.createStatement().executeQuery(sql);
+      assertTrue(rs.next());
+      assertEquals(rs.getString("sid"), JDBCQueryIT.FIRST_SID);
+      assertTrue(rs.next());
+      assertEquals(rs.getString("sid"), JDBCQueryIT.SECOND_SID);
+      assertTrue(rs.next());
+      assertEquals(rs.getString("sid"), JDBCQueryIT.THIRD_SID);
+      assertFalse(rs.next());
+    }
+  }
+
   @Test
   public void testProjectionWithFunctions() throws Exception {
     try (Connection conn = DriverManager.getConnection(JDBC_URL)) {
@@ -203,10 +440,8 @@ public final class JDBCQueryIT {
     try (Connection conn = DriverManager.getConnection(JDBC_URL)) {
       String sqlFormat = "SELECT count(*) FROM \"ReportCenter.DeliveredMessages\" WHERE account_sid = '%s'";
       String sql = String.format(sqlFormat, JDBCQueryIT.ACCOUNT_SID);
-      String expectedPlan = "EnumerableAggregate(group=[{}], EXPR$0=[COUNT()])\n" + "  KuduToEnumerableRel\n"
-          + "    KuduProjectRel(ACCOUNT_SID=[$0])\n"
-          + "      KuduFilterRel(ScanToken 1=[account_sid EQUAL AC1234567])\n"
-          + "        KuduQuery(table=[[kudu, ReportCenter.DeliveredMessages]])\n";
+      String expectedPlan = "KuduCountRel\n" + "  KuduFilterRel(ScanToken 1=[account_sid EQUAL AC1234567])\n"
+          + "    KuduQuery(table=[[kudu, ReportCenter.DeliveredMessages]])\n";
       ResultSet rs = conn.createStatement().executeQuery("EXPLAIN PLAN FOR " + sql);
       String plan = SqlUtil.getExplainPlan(rs);
       assertEquals("Unexpected plan ", expectedPlan, plan);
@@ -217,6 +452,94 @@ public final class JDBCQueryIT {
       assertTrue(rs.next());
       assertEquals(3, rs.getInt(1));
       assertFalse(rs.next());
+
+      // an account without any rows
+      rs = conn.createStatement().executeQuery(String.format(sqlFormat, "AC0000000"));
+      assertTrue(rs.next());
+      assertEquals(0, rs.getInt(1));
+      assertFalse(rs.next());
+    }
+  }
+
+  @Test
+  public void testCountStarWithoutFilter() throws Exception {
+    try (Connection conn = DriverManager.getConnection(JDBC_URL)) {
+      String sql = "SELECT count(*) FROM \"ReportCenter.DeliveredMessages\"";
+      String expectedPlan = "KuduCountRel\n" + "  KuduQuery(table=[[kudu, ReportCenter.DeliveredMessages]])\n";
+      ResultSet rs = conn.createStatement().executeQuery("EXPLAIN PLAN FOR " + sql);
+      String plan = SqlUtil.getExplainPlan(rs);
+      assertEquals("Unexpected plan ", expectedPlan, plan);
+
+      rs = conn.createStatement().executeQuery(sql);
+      assertTrue(rs.next());
+      assertEquals(3, rs.getLong(1));
+      assertFalse(rs.next());
+    }
+  }
+
+  @Test
+  public void testCountStarWithInMemoryFilter() throws Exception {
+    try (Connection conn = DriverManager.getConnection(JDBC_URL)) {
+      // the rows have to be read to evaluate the LIKE, they can't just be counted
+      String sqlFormat = "SELECT count(*) FROM \"ReportCenter.DeliveredMessages\" WHERE account_sid = '%s' "
+          + "AND mcc LIKE '%%1'";
+      String sql = String.format(sqlFormat, JDBCQueryIT.ACCOUNT_SID);
+      ResultSet rs = conn.createStatement().executeQuery("EXPLAIN PLAN FOR " + sql);
+      String plan = SqlUtil.getExplainPlan(rs);
+      assertFalse("Unexpected plan " + plan, plan.contains("KuduCountRel"));
+
+      rs = conn.createStatement().executeQuery(sql);
+      assertTrue(rs.next());
+      assertEquals(1, rs.getLong(1));
+      assertFalse(rs.next());
+    }
+  }
+
+  @Test
+  public void testAggregationInScanners() throws Exception {
+    try (Connection conn = DriverManager.getConnection(JDBC_URL)) {
+      String sql = "SELECT error_code, count(*), sum(error_code), min(mcc), max(sid), avg(error_code) "
+          + "FROM \"ReportCenter.DeliveredMessages\" GROUP BY error_code ORDER BY error_code";
+      ResultSet rs = conn.createStatement().executeQuery("EXPLAIN PLAN FOR " + sql);
+      String plan = SqlUtil.getExplainPlan(rs);
+      assertTrue("Unexpected plan " + plan, plan.contains("KuduAggregationRel(group=[{0}]"));
+
+      rs = conn.createStatement().executeQuery(sql);
+      assertTrue(rs.next());
+      assertEquals(1, rs.getInt(1));
+      assertEquals(2, rs.getLong(2));
+      assertEquals(2, rs.getInt(3));
+      assertEquals("mcc1", rs.getString(4));
+      assertEquals(JDBCQueryIT.THIRD_SID, rs.getString(5));
+      assertEquals(1, rs.getInt(6));
+      assertTrue(rs.next());
+      assertEquals(2, rs.getInt(1));
+      assertEquals(1, rs.getLong(2));
+      assertEquals(2, rs.getInt(3));
+      assertEquals("mcc2", rs.getString(4));
+      assertEquals(JDBCQueryIT.SECOND_SID, rs.getString(5));
+      assertEquals(2, rs.getInt(6));
+      assertFalse(rs.next());
+    }
+  }
+
+  @Test
+  public void testAggregationInScannersWithoutRows() throws Exception {
+    try (Connection conn = DriverManager.getConnection(JDBC_URL)) {
+      // an aggregate without a group by returns a row even if no row matches
+      String sql = "SELECT sum(error_code), count(mcc), max(mcc) FROM \"ReportCenter.DeliveredMessages\" "
+          + "WHERE account_sid = 'ACNOROWS'";
+      ResultSet rs = conn.createStatement().executeQuery("EXPLAIN PLAN FOR " + sql);
+      String plan = SqlUtil.getExplainPlan(rs);
+      assertTrue("Unexpected plan " + plan, plan.contains("KuduAggregationRel(group=[{}]"));
+
+      rs = conn.createStatement().executeQuery(sql);
+      assertTrue(rs.next());
+      assertEquals(0, rs.getInt(1));
+      assertTrue(rs.wasNull());
+      assertEquals(0, rs.getLong(2));
+      assertEquals(null, rs.getString(3));
+      assertFalse(rs.next());
     }
   }
 
@@ -250,6 +573,56 @@ public final class JDBCQueryIT {
     }
   }
 
+  // schemas are cached by connect string, another factory creates its own schema
+  public static class TableStatisticsSchemaFactory extends BaseKuduSchemaFactory {
+    // Public singleton, per factory contract.
+    public static final TableStatisticsSchemaFactory INSTANCE = new TableStatisticsSchemaFactory();
+
+    public TableStatisticsSchemaFactory() {
+      super(new HashMap<>());
+    }
+  }
+
+  @Test
+  public void testSortedAggregationFollowsRowCountReportedByKudu() throws Exception {
+    final String url = String.format(
+        JDBCUtil.CALCITE_MODEL_TEMPLATE_DML_DDL_ENABLED + ";schema." + KuduSchema.TABLE_STATISTICS_REFRESH_MS + "=500",
+        TableStatisticsSchemaFactory.class.getName(), testHarness.getMasterAddressesAsString());
+    try (Connection conn = DriverManager.getConnection(url)) {
+      final KuduSchema kuduSchema = conn.unwrap(CalciteConnection.class).getRootSchema().getSubSchema("kudu")
+          .unwrap(KuduSchema.class);
+      // the statistics are loaded in the background and the tablet servers take a
+      // while to report the rows to the master
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+      while (kuduSchema.tableStatistics.get(TABLE).getRowCount() != 3 && System.nanoTime() < deadline) {
+        Thread.sleep(100);
+      }
+      assertEquals("Kudu should report the rows of the table", 3, kuduSchema.tableStatistics.get(TABLE).getRowCount());
+
+      // with the estimate of the table type sorting the rows in Kudu and grouping
+      // them as they arrive is cheaper, for three rows aggregating in the scanners
+      // and sorting the groups is
+      final String sql = String.format("SELECT account_sid, date_created, count(*) FROM "
+          + "\"ReportCenter.DeliveredMessages\" WHERE account_sid = '%s' GROUP BY account_sid, date_created "
+          + "ORDER BY account_sid, date_created", JDBCQueryIT.ACCOUNT_SID);
+      final String expectedPlan = "EnumerableSort(sort0=[$0], sort1=[$1], dir0=[ASC], dir1=[ASC])\n"
+          + "  KuduAggregationRel(group=[{0, 1}], EXPR$2=[COUNT()], partitionWise=[true])\n"
+          + "    KuduProjectRel(ACCOUNT_SID=[$0], DATE_CREATED=[$1])\n"
+          + "      KuduFilterRel(ScanToken 1=[account_sid EQUAL AC1234567])\n"
+          + "        KuduQuery(table=[[kudu, ReportCenter.DeliveredMessages]])\n";
+      ResultSet rs = conn.createStatement().executeQuery("EXPLAIN PLAN FOR " + sql);
+      String plan = SqlUtil.getExplainPlan(rs);
+      assertEquals(String.format("Unexpected plan\n%s", plan), expectedPlan, plan);
+
+      rs = conn.createStatement().executeQuery(sql);
+      assertTrue(rs.next());
+      assertEquals(1, rs.getInt(3));
+      assertTrue(rs.next());
+      assertEquals(2, rs.getInt(3));
+      assertFalse(rs.next());
+    }
+  }
+
   @Test
   public void testTopNQuery() throws Exception {
     try (Connection conn = DriverManager.getConnection(JDBC_URL)) {
@@ -257,10 +630,10 @@ public final class JDBCQueryIT {
       String sqlFormat = "SELECT sid FROM \"ReportCenter.DeliveredMessages\" "
           + "WHERE account_sid = '%s' ORDER BY date_created desc, sid desc LIMIT 5";
       String sql = String.format(sqlFormat, JDBCQueryIT.ACCOUNT_SID);
-      String expectedPlan = "EnumerableLimitSort(sort0=[$1], sort1=[$0], dir0=[DESC], dir1=[DESC], fetch=[5])\n"
-          + "  KuduToEnumerableRel\n" + "    KuduProjectRel(SID=[$2], DATE_CREATED=[$1])\n"
-          + "      KuduFilterRel(ScanToken 1=[account_sid EQUAL AC1234567])\n"
-          + "        KuduQuery(table=[[kudu, ReportCenter.DeliveredMessages]])\n";
+      String expectedPlan = "KuduTopNRel(sort0=[$1], sort1=[$0], dir0=[DESC], dir1=[DESC], fetch=[5])\n"
+          + "  KuduProjectRel(SID=[$2], DATE_CREATED=[$1])\n"
+          + "    KuduFilterRel(ScanToken 1=[account_sid EQUAL AC1234567])\n"
+          + "      KuduQuery(table=[[kudu, ReportCenter.DeliveredMessages]])\n";
       ResultSet rs = conn.createStatement().executeQuery("EXPLAIN PLAN FOR " + sql);
       String plan = SqlUtil.getExplainPlan(rs);
       assertEquals("Unexpected plan ", expectedPlan, plan);
@@ -276,6 +649,31 @@ public final class JDBCQueryIT {
     }
   }
 
+  @Test
+  public void testTopNOfNonPrimaryKeyColumn() throws Exception {
+    try (Connection conn = DriverManager.getConnection(JDBC_URL)) {
+      String sql = "SELECT sid, error_code FROM \"ReportCenter.DeliveredMessages\" "
+          + "ORDER BY error_code desc, sid LIMIT 2 OFFSET 1";
+      String expectedPlan = "KuduTopNRel(sort0=[$1], sort1=[$0], dir0=[DESC], dir1=[ASC], offset=[1], fetch=[2])\n"
+          + "  KuduProjectRel(SID=[$2], ERROR_CODE=[$5])\n"
+          + "    KuduQuery(table=[[kudu, ReportCenter.DeliveredMessages]])\n";
+      ResultSet rs = conn.createStatement().executeQuery("EXPLAIN PLAN FOR " + sql);
+      String plan = SqlUtil.getExplainPlan(rs);
+      assertEquals("Unexpected plan ", expectedPlan, plan);
+
+      // every tablet keeps its top rows, the row with the highest error code is
+      // skipped by the offset
+      rs = conn.createStatement().executeQuery(sql);
+      assertTrue(rs.next());
+      assertEquals(FIRST_SID, rs.getString(1));
+      assertEquals(1, rs.getInt(2));
+      assertTrue(rs.next());
+      assertEquals(THIRD_SID, rs.getString(1));
+      assertEquals(1, rs.getInt(2));
+      assertFalse(rs.next());
+    }
+  }
+
   @Test
   public void testLimit() throws Exception {
     try (Connection conn = DriverManager.getConnection(JDBC_URL)) {
@@ -380,10 +778,10 @@ public final class JDBCQueryIT {
       // the limit should be able to be pushed down because of
       // KuduAggregationLimitRule
       String expectedPlan = "EnumerableLimitSort(sort0=[$1], dir0=[DESC], fetch=[10])\n"
-          + "  EnumerableAggregate(group=[{0}], CNT=[COUNT()])\n" + "    KuduToEnumerableRel\n"
-          + "      KuduProjectRel(ACCOUNT_SID=[$0])\n"
-          + "        KuduFilterRel(ScanToken 1=[date_created GREATER 1577836800000000])\n"
-          + "          KuduQuery(table=[[kudu, ReportCenter.DeliveredMessages]])\n";
+          + "  KuduAggregationRel(group=[{0}], CNT=[COUNT()], partitionWise=[true])\n"
+          + "    KuduProjectRel(ACCOUNT_SID=[$0])\n"
+          + "      KuduFilterRel(ScanToken 1=[date_created GREATER 1577836800000000])\n"
+          + "        KuduQuery(table=[[kudu, ReportCenter.DeliveredMessages]])\n";
       ResultSet rs = conn.createStatement().executeQuery("EXPLAIN PLAN FOR " + sql);
       String plan = SqlUtil.getExplainPlan(rs);
       assertEquals("Unexpected plan ", expectedPlan, plan);
@@ -119,7 +119,7 @@ public class KuduQueryIT {
     final Enumerable<Object> results = relTable.executeQuery(
         Collections.singletonList(Collections.singletonList(filterToSid)), Collections.singletonList(2), -1, -1, false,
         false, new KuduScanStats(), new AtomicBoolean(false), MAP_RESPONSE_ONE_STRING, Predicate1.TRUE, true, null,
-        null);
+        null, -1, null);
     Iterator<Object> resultIter = results.iterator();
 
     Assert.assertTrue("Should have something to iterate over", resultIter.hasNext());
@@ -137,7 +137,7 @@ public class KuduQueryIT {
     final Enumerable<Object> results = relTable.executeQuery(
         Collections.singletonList(Collections.singletonList(filterToAccountSid)), Arrays.asList(2, 0), -1, -1, false,
         false, new KuduScanStats(), new AtomicBoolean(false), MAP_RESPONSE_TWO_STRINGS, Predicate1.TRUE, false, null,
-        null);
+        null, -1, null);
     Iterator<Object> resultIter = results.iterator();
 
     Assert.assertTrue("Should have something to iterate over", resultIter.hasNext());
@@ -175,7 +175,7 @@ public class KuduQueryIT {
 
     final Enumerable<Object> results = relTable.executeQuery(predicateQuery, Collections.singletonList(2), -1, -1,
         false, false, new KuduScanStats(), new AtomicBoolean(false), MAP_RESPONSE_ONE_STRING, Predicate1.TRUE, true,
-        null, null);
+        null, null, -1, null);
     Enumerator<Object> resultIter = results.enumerator();
 
     Assert.assertTrue("Should have something to iterate over", resultIter.moveNext());
@@ -202,7 +202,7 @@ public class KuduQueryIT {
     KuduEnumerable kuduEnumerable = (KuduEnumerable) relTable.executeQuery(
         Collections.singletonList(Collections.singletonList(filterToSid)), Collections.singletonList(2), 3, -1, false,
         false, new KuduScanStats(), new AtomicBoolean(false), MAP_RESPONSE_TWO_STRINGS, Predicate1.TRUE, false, null,
-        null);
+        null, -1, null);
     for (AsyncKuduScanner scanner : kuduEnumerable.getScanners()) {
       Assert.assertEquals("Each scanner should have pushed down the limit of 3 into the scan", 3L, scanner.getLimit());
     }
@@ -210,7 +210,7 @@ public class KuduQueryIT {
     kuduEnumerable = (KuduEnumerable) relTable.executeQuery(
         Collections.singletonList(Collections.singletonList(filterToSid)), Collections.singletonList(2), 3, 4, true,
         false, new KuduScanStats(), new AtomicBoolean(false), MAP_RESPONSE_TWO_STRINGS, Predicate1.TRUE, false, null,
-        null);
+        null, -1, null);
     for (AsyncKuduScanner scanner : kuduEnumerable.getScanners()) {
       Assert.assertEquals("Each scanner should have pushed down the limit of 3 and offset of 4 into the scan", 3L + 4L,
           scanner.getLimit());
@@ -220,7 +220,7 @@ public class KuduQueryIT {
     kuduEnumerable = (KuduEnumerable) relTable.executeQuery(
         Collections.singletonList(Collections.singletonList(filterToSid)), Collections.singletonList(2), 3, -1, true,
         false, new KuduScanStats(), new AtomicBoolean(false), MAP_RESPONSE_TWO_STRINGS, Predicate1.TRUE, false, null,
-        null);
+        null, -1, null);
     for (AsyncKuduScanner scanner : kuduEnumerable.getScanners()) {
       Assert.assertEquals(3, scanner.getLimit());
     }
@@ -230,13 +230,89 @@ public class KuduQueryIT {
     kuduEnumerable = (KuduEnumerable) relTable.executeQuery(
         Collections.singletonList(Collections.singletonList(filterToSid)), Collections.singletonList(2), -1, 1, false,
         false, new KuduScanStats(), new AtomicBoolean(false), MAP_RESPONSE_TWO_STRINGS, Predicate1.TRUE, false, null,
-        null);
+        null, -1, null);
     Assert.assertTrue(kuduEnumerable.sort);
     for (AsyncKuduScanner scanner : kuduEnumerable.getScanners()) {
       Assert.assertEquals(Long.MAX_VALUE, scanner.getLimit());
     }
   }
 
+  @Test
+  public void testScannerBatchSizeBytes() throws Exception {
+    final CalciteKuduTable relTable = new CalciteKuduTableBuilder(KuduQueryIT.TABLE, testHarness.getAsyncClient())
+        .setScannerBatchSizeBytes(4096).build();
+
+    final CalciteKuduPredicate filterToSid = new ComparisonPredicate(2, KuduPredicate.ComparisonOp.EQUAL, "SM1234857");
+
+    KuduEnumerable kuduEnumerable = (KuduEnumerable) relTable.executeQuery(
+        Collections.singletonList(Collections.singletonList(filterToSid)), Collections.singletonList(2), -1, -1, false,
+        false, new KuduScanStats(), new AtomicBoolean(false), MAP_RESPONSE_TWO_STRINGS, Predicate1.TRUE, false, null,
+        null, 4, null);
+    for (AsyncKuduScanner scanner : kuduEnumerable.getScanners()) {
+      Assert.assertEquals("Each scanner should use the batch size of the table", 4096, scanner.getBatchSizeBytes());
+    }
+  }
+
+  @Test
+  public void testScanTokenCache() throws Exception {
+    final ScanTokenCache scanTokenCache = new ScanTokenCache(60_000L, ScanTokenCache.DEFAULT_MAX_ENTRIES);
+    final CalciteKuduTable relTable = new CalciteKuduTableBuilder(KuduQueryIT.TABLE, testHarness.getAsyncClient())
+        .setScanTokenCache(scanTokenCache).build();
+
+    final CalciteKuduPredicate filterToSid = new ComparisonPredicate(2, KuduPredicate.ComparisonOp.EQUAL, "SM1234857");
+    for (int i = 0; i < 2; i++) {
+      final Enumerable<Object> results = relTable.executeQuery(
+          Collections.singletonList(Collections.singletonList(filterToSid)), Collections.singletonList(2), -1, -1,
+          false, false, new KuduScanStats(), new AtomicBoolean(false), MAP_RESPONSE_ONE_STRING, Predicate1.TRUE, true,
+          null, null, -1, null);
+      Iterator<Object> resultIter = results.iterator();
+      Assert.assertTrue("Should have something to iterate over", resultIter.hasNext());
+      Assert.assertEquals("Message sid should match", KuduQueryIT.FIRST_SID, resultIter.next());
+      Assert.assertFalse("Should only have one row", resultIter.hasNext());
+    }
+    Assert.assertEquals("Tokens of the sub scan should be cached once", 1, scanTokenCache.size());
+    Assert.assertEquals("Second execution should reuse the cached tokens", 1, scanTokenCache.stats().hitCount());
+
+    scanTokenCache.invalidateAll();
+    Assert.assertEquals(0, scanTokenCache.size());
+  }
+
+  @Test
+  public void testResultCache() throws Exception {
+    final long bucketMs = 2000L;
+    final QueryResultCache resultCache = new QueryResultCache(1024 * 1024, bucketMs);
+    // Queries read the snapshot at the start of the current bucket, wait for a
+    // bucket that starts after the rows were written.
+    Thread.sleep(bucketMs - (System.currentTimeMillis() % bucketMs) + 50L);
+    final CalciteKuduTable relTable = new CalciteKuduTableBuilder(KuduQueryIT.TABLE, testHarness.getAsyncClient())
+        .setResultCache(resultCache).build();
+
+    final CalciteKuduPredicate filterToSid = new ComparisonPredicate(2, KuduPredicate.ComparisonOp.EQUAL, "SM1234857");
+    final KuduScanStats scanStats = new KuduScanStats();
+    for (int i = 0; i < 2; i++) {
+      final Enumerable<Object> results = relTable.executeQuery(
+          Collections.singletonList(Collections.singletonList(filterToSid)), Collections.singletonList(2), -1, -1,
+          false, false, scanStats, new AtomicBoolean(false), MAP_RESPONSE_ONE_STRING, Predicate1.TRUE, true, null, null,
+          -1, "sid");
+      Iterator<Object> resultIter = results.iterator();
+      Assert.assertTrue("Should have something to iterate over", resultIter.hasNext());
+      Assert.assertEquals("Message sid should match", KuduQueryIT.FIRST_SID, resultIter.next());
+      Assert.assertFalse("Should only have one row", resultIter.hasNext());
+    }
+    Assert.assertEquals("First execution should scan Kudu", 1, scanStats.getResultCacheMissCount());
+    Assert.assertEquals("Second execution should return the cached rows", 1, scanStats.getResultCacheHitCount());
+    Assert.assertEquals(1, resultCache.stats().hitCount());
+
+    // a query that can't be cached always scans
+    final Enumerable<Object> uncached = relTable.executeQuery(
+        Collections.singletonList(Collections.singletonList(filterToSid)), Collections.singletonList(2), -1, -1, false,
+        false, scanStats, new AtomicBoolean(false), MAP_RESPONSE_ONE_STRING, Predicate1.TRUE, true, null, null, -1,
+        null);
+    Assert.assertTrue(uncached.iterator().hasNext());
+    Assert.assertEquals(1, scanStats.getResultCacheHitCount());
+    Assert.assertEquals(1, scanStats.getResultCacheMissCount());
+  }
+
   @Test
   public void cancelQuery() throws Exception {
     final CalciteKuduTable relTable = new CalciteKuduTableBuilder(KuduQueryIT.TABLE, testHarness.getAsyncClient())
@@ -259,7 +335,7 @@ public class KuduQueryIT {
 
     final Enumerable<Object> results = relTable.executeQuery(predicateQuery, Collections.singletonList(2), -1, -1,
         false, false, new KuduScanStats(), new AtomicBoolean(true), MAP_RESPONSE_TWO_STRINGS, Predicate1.TRUE, false,
-        null, null);
+        null, null, -1, null);
     Enumerator<Object> resultIter = results.enumerator();
 
     Assert.assertFalse("Query was canceled, it should not have anything to move over", resultIter.moveNext());
@@ -281,7 +357,7 @@ public class KuduQueryIT {
     final Enumerable<Object> results = relTable.executeQuery(
         Collections.singletonList(Collections.singletonList(filterToAccountSid)), Arrays.asList(2, 0), -1, -1, false,
         false, new KuduScanStats(), new AtomicBoolean(false), MAP_RESPONSE_ONE_STRING, Predicate1.TRUE, true, null,
-        null);
+        null, -1, null);
     Iterator<Object> resultIter = results.iterator();
 
     Assert.assertTrue("Should have something to iterate over", resultIter.hasNext());
@@ -0,0 +1,104 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.Linq4j;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.junit.Test;
+
+public final class LoserTreeTest {
+
+  @Test
+  public void noSources() {
+    final LoserTree<Integer> tree = new LoserTree<>(Collections.<Enumerator<Integer>>emptyList(),
+        Comparator.<Integer>naturalOrder());
+    assertFalse("Nothing to merge", tree.moveNext());
+  }
+
+  @Test
+  public void mergesRandomSources() {
+    final Random random = new Random(42);
+    // cover a single source, powers of two and everything in between
+    for (int sourceCount = 1; sourceCount <= 17; sourceCount++) {
+      final List<Integer> expected = new ArrayList<>();
+      final List<Enumerator<Integer>> sources = new ArrayList<>();
+      for (int source = 0; source < sourceCount; source++) {
+        // some sources are empty
+        final List<Integer> values = random.ints(random.nextInt(20), 0, 50).sorted().boxed()
+            .collect(Collectors.toList());
+        expected.addAll(values);
+        sources.add(Linq4j.enumerator(values));
+      }
+      Collections.sort(expected);
+
+      final LoserTree<Integer> tree = new LoserTree<>(sources, Comparator.<Integer>naturalOrder());
+      final List<Integer> merged = new ArrayList<>();
+      while (tree.moveNext()) {
+        merged.add(tree.current());
+      }
+      assertEquals("Merge of " + sourceCount + " sources should be sorted", expected, merged);
+      assertFalse("Should stay exhausted", tree.moveNext());
+    }
+  }
+
+  @Test
+  public void comparatorMatchesCalciteRow() {
+    final Schema rowSchema = new Schema(
+        Arrays.asList(new ColumnSchema.ColumnSchemaBuilder("account_sid", Type.STRING).key(true).build(),
+            new ColumnSchema.ColumnSchemaBuilder("date_created", Type.UNIXTIME_MICROS).key(true).build(),
+            new ColumnSchema.ColumnSchemaBuilder("amount", Type.DOUBLE).build()));
+    final List<Integer> primaryKeyColumns = Arrays.asList(0, 1);
+    final Random random = new Random(7);
+    for (List<Integer> descending : Arrays.asList(Collections.<Integer>emptyList(), Collections.singletonList(1))) {
+      final Comparator<CalciteRow> comparator = CalciteRowComparator.create(rowSchema, primaryKeyColumns, descending);
+      for (int i = 0; i < 1000; i++) {
+        final CalciteRow left = new CalciteRow(rowSchema,
+            new Object[] { "AC" + random.nextInt(3), (long) random.nextInt(5), random.nextDouble() }, primaryKeyColumns,
+            descending);
+        final CalciteRow right = new CalciteRow(rowSchema,
+            new Object[] { "AC" + random.nextInt(3), (long) random.nextInt(5), random.nextDouble() }, primaryKeyColumns,
+            descending);
+        assertEquals("Compiled comparator should order rows like CalciteRow", Integer.signum(left.compareTo(right)),
+            Integer.signum(comparator.compare(left, right)));
+      }
+    }
+  }
+
+  @Test
+  public void comparatorSortsDescendingColumns() {
+    final Schema rowSchema = new Schema(
+        Arrays.asList(new ColumnSchema.ColumnSchemaBuilder("id", Type.INT32).key(true).build()));
+    final Comparator<CalciteRow> comparator = CalciteRowComparator.create(rowSchema, Arrays.asList(0),
+        Arrays.asList(0));
+    final CalciteRow one = new CalciteRow(rowSchema, new Object[] { 1 }, Arrays.asList(0), Arrays.asList(0));
+    final CalciteRow two = new CalciteRow(rowSchema, new Object[] { 2 }, Arrays.asList(0), Arrays.asList(0));
+    assertTrue("Descending column should put the larger value first", comparator.compare(two, one) < 0);
+  }
+}
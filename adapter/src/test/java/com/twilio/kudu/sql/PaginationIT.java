@@ -52,7 +52,9 @@ import java.util.List;
 import java.util.Map;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -128,6 +130,9 @@ public class PaginationIT {
           .withRelBuilderFactory(RelFactories.LOGICAL_BUILDER)
           .withRelBuilderConfigTransform(c -> c.withPushJoinCondition(true))
           .withHintStrategyTable(KuduQuery.KUDU_HINT_STRATEGY_TABLE);
+      // code compiled by the JIT can keep reading the previous value of the
+      // static final field, so also copy the HintStrategyTable into that instance
+      copyBeanProperties(CONFIG_MODIFIED, SqlToRelConverter.config());
       // change SqlToRelConverter.CONFIG to use one that has the above
       // HintStrategyTable
       setFinalStatic(SqlToRelConverter.class.getDeclaredField("CONFIG"), CONFIG_MODIFIED);
@@ -136,6 +141,18 @@ public class PaginationIT {
     }
   }
 
+  /**
+   * Copies the properties of one ImmutableBeans config into another by sharing
+   * the property map of its proxy handler. This depends on the internals of
+   * Calcite's ImmutableBeans and only exists for the tests.
+   */
+  private static void copyBeanProperties(Object source, Object target) throws Exception {
+    InvocationHandler targetHandler = Proxy.getInvocationHandler(target);
+    Field mapField = targetHandler.getClass().getDeclaredField("map");
+    mapField.setAccessible(true);
+    mapField.set(targetHandler, mapField.get(Proxy.getInvocationHandler(source)));
+  }
+
   private static void setFinalStatic(Field field, Object newValue) throws Exception {
     field.setAccessible(true);
 
@@ -772,10 +789,9 @@ public class PaginationIT {
       ResultSet rs = conn.createStatement().executeQuery("EXPLAIN PLAN FOR " + firstBatchSql);
       String plan = SqlUtil.getExplainPlan(rs);
 
-      String expectedPlanFormat = "EnumerableLimitSort(sort0=[$1], sort1=[$0], sort2=[$2], dir0=[%s], dir1=[ASC], dir2=[ASC], fetch=[7])\n"
-          + "  KuduToEnumerableRel\n"
-          + "    KuduFilterRel(ScanToken 1=[account_sid IN [ACCOUNT1, ACCOUNT2], date_initiated GREATER_EQUAL 1000000, date_initiated LESS 4000000])\n"
-          + "      KuduQuery(table=[[kudu, %s]])\n";
+      String expectedPlanFormat = "KuduTopNRel(sort0=[$1], sort1=[$0], sort2=[$2], dir0=[%s], dir1=[ASC], dir2=[ASC], fetch=[7])\n"
+          + "  KuduFilterRel(ScanToken 1=[account_sid IN [ACCOUNT1, ACCOUNT2], date_initiated GREATER_EQUAL 1000000, date_initiated LESS 4000000])\n"
+          + "    KuduQuery(table=[[kudu, %s]])\n";
 
       String expectedPlan = String.format(expectedPlanFormat, dateInitiatedOrder, tableName);
       assertEquals(String.format("Unexpected plan\n%s", plan), expectedPlan, plan);
@@ -0,0 +1,73 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigDecimal;
+import java.sql.Types;
+import java.util.Arrays;
+
+import org.apache.calcite.avatica.AvaticaParameter;
+import org.apache.calcite.avatica.util.TimeUnitRange;
+import org.apache.calcite.sql.parser.SqlParser;
+import org.junit.Test;
+
+public class ParameterizedQueryTest {
+
+  private static ParameterizedQuery parameterize(final String sql, final TimeUnitRange cubeTimeUnit) throws Exception {
+    return ParameterizedQuery.of(sql, SqlParser.create(sql).parseStmt(), cubeTimeUnit);
+  }
+
+  private static AvaticaParameter parameter(final int type, final int scale) {
+    return new AvaticaParameter(true, 0, scale, type, "", "", "?");
+  }
+
+  @Test
+  public void replacesLiteralsComparedToColumns() throws Exception {
+    final ParameterizedQuery query = parameterize(
+        "SELECT a, 'x' FROM t\n" + "WHERE\ta = 'it''s' AND 5 < b AND c IN (1, 2.5)\n"
+            + "  AND d >= TIMESTAMP '2021-01-01 00:00:00.123'\n" + "ORDER BY a LIMIT 10",
+        null);
+    assertEquals("SELECT a, 'x' FROM t\n" + "WHERE\ta = ? AND ? < b AND c IN (?, ?)\n" + "  AND d >= ?\n"
+        + "ORDER BY a LIMIT 10", query.sql);
+    assertArrayEquals(new Object[] { "it's", 5, 1L, new BigDecimal("2.5"), 1609459200123L },
+        query.bind(Arrays.asList(parameter(Types.VARCHAR, 0), parameter(Types.INTEGER, 0), parameter(Types.BIGINT, 0),
+            parameter(Types.DECIMAL, 1), parameter(Types.TIMESTAMP, 0))));
+  }
+
+  @Test
+  public void keepsLiteralsThatShapeThePlan() throws Exception {
+    assertNull("Nothing is compared to a column",
+        parameterize("SELECT FLOOR(d TO HOUR), COUNT(*) FROM t GROUP BY FLOOR(d TO HOUR) LIMIT 5", null));
+    assertNull("Statements with parameters are prepared as they are",
+        parameterize("SELECT * FROM t WHERE a = ? AND b = 1", null));
+    assertEquals("Timestamps on the time unit of a cube decide whether the cube is used",
+        "SELECT * FROM t WHERE d >= TIMESTAMP '2021-01-01 05:00:00' AND d < ?",
+        parameterize(
+            "SELECT * FROM t WHERE d >= TIMESTAMP '2021-01-01 05:00:00' AND d < TIMESTAMP '2021-01-01 05:30:10'",
+            TimeUnitRange.MINUTE).sql);
+  }
+
+  @Test
+  public void refusesValuesThatChangeMeaning() throws Exception {
+    final ParameterizedQuery query = parameterize("SELECT * FROM t WHERE a = 1.5", null);
+    assertNull("A fraction compared to an integer column", query.bind(Arrays.asList(parameter(Types.INTEGER, 0))));
+    assertNull("A number compared to a string column", query.bind(Arrays.asList(parameter(Types.VARCHAR, 0))));
+    assertNull("More digits than the decimal column holds", query.bind(Arrays.asList(parameter(Types.DECIMAL, 0))));
+  }
+}
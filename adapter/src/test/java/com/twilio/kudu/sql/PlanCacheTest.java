@@ -0,0 +1,110 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+
+import org.apache.calcite.jdbc.CalcitePrepare;
+import org.junit.Test;
+
+public class PlanCacheTest {
+
+  private static CalcitePrepare.CalciteSignature<Object> signature(final String sql) {
+    return new CalcitePrepare.CalciteSignature<>(sql, Collections.emptyList(), Collections.emptyMap(), null,
+        Collections.emptyList(), null, null, Collections.emptyList(), -1, null);
+  }
+
+  private static PlanCache.Key key(final String sql) {
+    return new PlanCache.Key(PlanCache.normalize(sql), Collections.singletonList("UTC"));
+  }
+
+  @Test
+  public void normalizeCollapsesWhitespaceOutsideQuotes() {
+    assertEquals("SELECT a FROM \"t  1\" WHERE b = ' x  y ' AND c = 'it''s  ok'",
+        PlanCache.normalize("  SELECT a\n  FROM \"t  1\"\tWHERE   b = ' x  y ' AND c = 'it''s  ok'  "));
+  }
+
+  @Test
+  public void normalizeRemovesComments() {
+    assertEquals("SELECT * FROM t WHERE a = 1", PlanCache.normalize("SELECT * FROM t -- note\nWHERE a = 1"));
+    assertEquals("SELECT * FROM t", PlanCache.normalize("SELECT * FROM t -- note WHERE a = 1"));
+    assertEquals("SELECT * FROM t WHERE a = 1", PlanCache.normalize("SELECT * FROM t // note\r\nWHERE a = 1"));
+    assertEquals("SELECT * FROM t WHERE a = 1", PlanCache.normalize("SELECT * FROM t /* it's\n a note */ WHERE a = 1"));
+    assertEquals("SELECT a FROM t WHERE b = '-- x' AND c = '/* y */'",
+        PlanCache.normalize("SELECT a FROM t WHERE b = '-- x' AND c = '/* y */'"));
+    assertEquals("Hints change the plan", "SELECT /*+ USE_KUDU_SORT */ a FROM t",
+        PlanCache.normalize("SELECT /*+ USE_KUDU_SORT */ a FROM t"));
+  }
+
+  @Test
+  public void doesNotReusePlanOfStatementCommentedOutByLineComment() {
+    final PlanCache cache = new PlanCache(10L);
+    final String sql = "SELECT * FROM t -- note\nWHERE a = 1";
+    cache.put(cache.version(), key(sql), signature(sql));
+    assertNull("The filter is part of the comment", cache.get(key("SELECT * FROM t -- note WHERE a = 1")));
+    assertNotNull(cache.get(key("SELECT * FROM t -- other note\n  WHERE a = 1")));
+  }
+
+  @Test
+  public void reusesPlanOfTheSameStatement() {
+    final PlanCache cache = new PlanCache(10L);
+    final CalcitePrepare.CalciteSignature<Object> signature = signature("SELECT 1");
+    assertNull(cache.get(key("SELECT 1")));
+    cache.put(cache.version(), key("SELECT 1"), signature);
+    assertSame(signature, cache.get(key("SELECT\n  1")));
+    assertNull("Other connection settings need their own plan",
+        cache.get(new PlanCache.Key("SELECT 1", Collections.singletonList("PST"))));
+    assertEquals(1, cache.stats().hitCount());
+    assertEquals(2, cache.stats().missCount());
+  }
+
+  @Test
+  public void invalidationDropsPlansPreparedBefore() {
+    final PlanCache cache = new PlanCache(10L);
+    final long version = cache.version();
+    cache.put(version, key("SELECT 1"), signature("SELECT 1"));
+    assertEquals(1, cache.size());
+
+    // a plan prepared while the tables were reloaded is not cached
+    cache.invalidateAll();
+    cache.put(version, key("SELECT 2"), signature("SELECT 2"));
+    assertEquals(0, cache.size());
+    cache.put(cache.version(), key("SELECT 2"), signature("SELECT 2"));
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void evictsPlansBeyondMaxEntries() {
+    final PlanCache cache = new PlanCache(2L);
+    for (int i = 0; i < 5; i++) {
+      cache.put(cache.version(), key("SELECT " + i), signature("SELECT " + i));
+    }
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void disabledCacheHoldsNothing() {
+    final PlanCache cache = new PlanCache(0L);
+    assertFalse(cache.isEnabled());
+    cache.put(cache.version(), key("SELECT 1"), signature("SELECT 1"));
+    assertNull(cache.get(key("SELECT 1")));
+  }
+}
@@ -0,0 +1,90 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.ColumnTypeAttributes;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.KuduPredicate;
+import org.apache.kudu.client.PartialRow;
+import org.junit.Test;
+
+public final class PointLookupExecutorTest {
+
+  private static ColumnSchema key(final String name, final Type type) {
+    return new ColumnSchema.ColumnSchemaBuilder(name, type).key(true).build();
+  }
+
+  private static ColumnSchema decimalKey(final String name, final int precision, final int scale) {
+    return new ColumnSchema.ColumnSchemaBuilder(name, Type.DECIMAL).key(true).typeAttributes(
+        new ColumnTypeAttributes.ColumnTypeAttributesBuilder().precision(precision).scale(scale).build()).build();
+  }
+
+  // sets every key column from the encoded value of an equality predicate
+  private static PartialRow keyRow(final Schema schema, final List<Object> values) {
+    final PartialRow row = schema.newPartialRow();
+    for (int i = 0; i < values.size(); i++) {
+      final ColumnSchema column = schema.getColumnByIndex(i);
+      final byte[] encoded = KuduPredicate
+          .newComparisonPredicate(column, KuduPredicate.ComparisonOp.EQUAL, values.get(i)).toPB().getEquality()
+          .getValue().toByteArray();
+      PointLookupExecutor.setKeyValue(row, column, i, encoded);
+    }
+    return row;
+  }
+
+  @Test
+  public void setsKeyValuesOfEveryType() {
+    final Schema schema = new Schema(
+        Arrays.asList(key("bool", Type.BOOL), key("int8", Type.INT8), key("int16", Type.INT16),
+            key("int32", Type.INT32), key("int64", Type.INT64), key("timestamp", Type.UNIXTIME_MICROS),
+            key("date", Type.DATE), key("string", Type.STRING), key("binary", Type.BINARY),
+            decimalKey("decimal32", 9, 2), decimalKey("decimal64", 18, 4), decimalKey("decimal128", 38, 6)));
+    final Timestamp timestamp = new Timestamp(1_600_000_000_123L);
+    final List<Object> values = Arrays.asList(true, (byte) -5, (short) -300, -70_000, Long.MIN_VALUE + 1, timestamp,
+        Date.valueOf("2021-03-04"), "SM1234é", new byte[] { 0, -1, 2 }, new BigDecimal("-1234567.89"),
+        new BigDecimal("12345678901234.5678"), new BigDecimal("-12345678901234567890123456789012.345678"));
+    final PartialRow row = keyRow(schema, values);
+    for (int i = 0; i < values.size(); i++) {
+      if (values.get(i) instanceof byte[]) {
+        assertArrayEquals((byte[]) values.get(i), (byte[]) row.getObject(i));
+      } else {
+        assertEquals(schema.getColumnByIndex(i).getName(), values.get(i), row.getObject(i));
+      }
+    }
+  }
+
+  @Test
+  public void setsFloatingPointAndVarcharKeyValues() {
+    final Schema schema = new Schema(Arrays.asList(key("float", Type.FLOAT), key("double", Type.DOUBLE),
+        new ColumnSchema.ColumnSchemaBuilder("varchar", Type.VARCHAR).key(true)
+            .typeAttributes(new ColumnTypeAttributes.ColumnTypeAttributesBuilder().length(10).build()).build()));
+    final List<Object> values = Arrays.asList(-1.5f, 2.25d, "AC12");
+    final PartialRow row = keyRow(schema, values);
+    for (int i = 0; i < values.size(); i++) {
+      assertEquals(values.get(i), row.getObject(i));
+    }
+  }
+}
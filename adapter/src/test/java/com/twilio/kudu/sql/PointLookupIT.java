@@ -0,0 +1,222 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import org.apache.calcite.linq4j.function.Function1;
+import org.apache.calcite.linq4j.function.Predicate1;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.CreateTableOptions;
+import org.apache.kudu.client.KuduPredicate;
+import org.apache.kudu.client.KuduSession;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.PartialRow;
+import org.apache.kudu.client.RowResult;
+import org.apache.kudu.client.SessionConfiguration;
+import org.apache.kudu.client.Upsert;
+import org.apache.kudu.test.KuduTestHarness;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@RunWith(JUnit4.class)
+public class PointLookupIT {
+
+  private static final String TABLE_NAME = "ReportCenter.PointLookups";
+  private static final int ACCOUNTS = 4;
+  private static final int MESSAGES_PER_ACCOUNT = 25;
+  private static final long DATE_CREATED = 1_600_000_000_000L;
+
+  // projects sid and status
+  private static final Function1<Object, Object> MAP_SID_AND_STATUS = new Function1<Object, Object>() {
+    @Override
+    public Object apply(Object r) {
+      final RowResult row = (RowResult) r;
+      return new Object[] { row.getString(0), row.getString(1) };
+    }
+  };
+
+  @ClassRule
+  public static KuduTestHarness testHarness = new KuduTestHarness();
+
+  private static KuduTable TABLE;
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    final List<ColumnSchema> columns = Arrays.asList(
+        new ColumnSchema.ColumnSchemaBuilder("account_sid", Type.STRING).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("date_created", Type.UNIXTIME_MICROS).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("sid", Type.STRING).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("status", Type.STRING).build());
+    testHarness.getClient().createTable(TABLE_NAME, new Schema(columns),
+        new CreateTableOptions().addHashPartitions(Arrays.asList("account_sid"), 3).setNumReplicas(1));
+    TABLE = testHarness.getClient().openTable(TABLE_NAME);
+
+    final KuduSession session = testHarness.getClient().newSession();
+    session.setFlushMode(SessionConfiguration.FlushMode.AUTO_FLUSH_BACKGROUND);
+    for (int account = 0; account < ACCOUNTS; account++) {
+      for (int message = 0; message < MESSAGES_PER_ACCOUNT; message++) {
+        final Upsert upsert = TABLE.newUpsert();
+        final PartialRow row = upsert.getRow();
+        row.addString("account_sid", accountSid(account));
+        row.addTimestamp("date_created", new Timestamp(DATE_CREATED + message));
+        row.addString("sid", sid(account, message));
+        row.addString("status", message % 2 == 0 ? "delivered" : "failed");
+        session.apply(upsert);
+      }
+    }
+    session.flush();
+    session.close();
+  }
+
+  @AfterClass
+  public static void tearDown() throws Exception {
+    testHarness.getClient().deleteTable(TABLE_NAME);
+  }
+
+  private static String accountSid(final int account) {
+    return "AC" + account;
+  }
+
+  private static String sid(final int account, final int message) {
+    // every account has the same message sids so that the in lists of a batch
+    // match rows that weren't looked up
+    return "SM" + message;
+  }
+
+  private static List<CalciteKuduPredicate> key(final int account, final int message) {
+    return Arrays.asList(new ComparisonPredicate(0, KuduPredicate.ComparisonOp.EQUAL, accountSid(account)),
+        new ComparisonPredicate(1, KuduPredicate.ComparisonOp.EQUAL, new Timestamp(DATE_CREATED + message)),
+        new ComparisonPredicate(2, KuduPredicate.ComparisonOp.EQUAL, sid(account, message)));
+  }
+
+  private static List<Object> execute(final CalciteKuduTable relTable,
+      final List<List<CalciteKuduPredicate>> predicates, final KuduScanStats scanStats) {
+    final List<Object> rows = new ArrayList<>();
+    relTable.executeQuery(predicates, Arrays.asList(2, 3), -1, -1, false, false, scanStats, new AtomicBoolean(false),
+        MAP_SID_AND_STATUS, Predicate1.TRUE, false, null, null, -1, null).forEach(rows::add);
+    return rows;
+  }
+
+  @Test
+  public void lookupByPrimaryKey() {
+    final CalciteKuduTable relTable = new CalciteKuduTableBuilder(TABLE, testHarness.getAsyncClient()).build();
+    final KuduScanStats scanStats = new KuduScanStats();
+
+    final List<Object> rows = execute(relTable, Collections.singletonList(key(1, 3)), scanStats);
+    Assert.assertEquals(1, rows.size());
+    Assert.assertArrayEquals(new Object[] { sid(1, 3), "failed" }, (Object[]) rows.get(0));
+    Assert.assertEquals("Query should be a point lookup", 1, scanStats.getPointLookupCount());
+    Assert.assertEquals("Point lookup should not build scan tokens", 0, scanStats.getScannerCount());
+
+    // a key that doesn't exist
+    Assert.assertEquals(Collections.emptyList(),
+        execute(relTable, Collections.singletonList(key(1, MESSAGES_PER_ACCOUNT)), scanStats));
+
+    // other predicates of a lookup are applied as well
+    final List<CalciteKuduPredicate> delivered = new ArrayList<>(key(2, 4));
+    delivered.add(new ComparisonPredicate(3, KuduPredicate.ComparisonOp.EQUAL, "delivered"));
+    Assert.assertEquals(1, execute(relTable, Collections.singletonList(delivered), scanStats).size());
+    final List<CalciteKuduPredicate> failed = new ArrayList<>(key(2, 4));
+    failed.add(new ComparisonPredicate(3, KuduPredicate.ComparisonOp.EQUAL, "failed"));
+    Assert.assertEquals(0, execute(relTable, Collections.singletonList(failed), scanStats).size());
+    Assert.assertEquals(4, scanStats.getPointLookupCount());
+
+    // without a predicate on every primary key column the table is scanned
+    final KuduScanStats accountScanStats = new KuduScanStats();
+    Assert.assertEquals(MESSAGES_PER_ACCOUNT,
+        execute(relTable,
+            Collections.singletonList(
+                Collections.singletonList(new ComparisonPredicate(0, KuduPredicate.ComparisonOp.EQUAL, accountSid(0)))),
+            accountScanStats).size());
+    Assert.assertEquals(0, accountScanStats.getPointLookupCount());
+  }
+
+  @Test
+  public void lookupMultipleKeysWithOneScan() {
+    final CalciteKuduTable relTable = new CalciteKuduTableBuilder(TABLE, testHarness.getAsyncClient()).build();
+    final KuduScanStats scanStats = new KuduScanStats();
+
+    // the in lists of the keys also match the rows of AC0 with SM7 and AC3 with
+    // SM1, which weren't looked up
+    final List<Object> rows = execute(relTable,
+        Arrays.asList(key(0, 1), key(3, 7), key(0, MESSAGES_PER_ACCOUNT), key(3, 7)), scanStats);
+    final List<String> sids = new ArrayList<>();
+    rows.forEach(row -> sids.add((String) ((Object[]) row)[0]));
+    Collections.sort(sids);
+    Assert.assertEquals("A key that is looked up twice should be returned once", Arrays.asList(sid(0, 1), sid(3, 7)),
+        sids);
+    Assert.assertEquals(1, scanStats.getPointLookupCount());
+    Assert.assertEquals(0, scanStats.getScannerCount());
+  }
+
+  @Test
+  public void concurrentLookupsShareScans() throws Exception {
+    final PointLookupExecutor pointLookups = new PointLookupExecutor(PointLookupExecutor.DEFAULT_MAX_BATCH_SIZE);
+    final CalciteKuduTable relTable = new CalciteKuduTableBuilder(TABLE, testHarness.getAsyncClient())
+        .setPointLookups(pointLookups).build();
+
+    final int threads = 16;
+    final int lookupsPerThread = 50;
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Callable<Void>> tasks = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        tasks.add(() -> {
+          for (int i = 0; i < lookupsPerThread; i++) {
+            final int account = ThreadLocalRandom.current().nextInt(ACCOUNTS);
+            // one in ten keys doesn't exist
+            final int message = ThreadLocalRandom.current().nextInt(MESSAGES_PER_ACCOUNT * 10 / 9);
+            final List<Object> rows = execute(relTable, Collections.singletonList(key(account, message)),
+                new KuduScanStats());
+            if (message < MESSAGES_PER_ACCOUNT) {
+              Assert.assertEquals(1, rows.size());
+              Assert.assertArrayEquals(
+                  new Object[] { sid(account, message), message % 2 == 0 ? "delivered" : "failed" },
+                  (Object[]) rows.get(0));
+            } else {
+              Assert.assertEquals(Collections.emptyList(), rows);
+            }
+          }
+          return null;
+        });
+      }
+      for (Future<Void> result : executor.invokeAll(tasks)) {
+        result.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    Assert.assertTrue("Concurrent lookups of the same tablet should share scans",
+        pointLookups.getScanCount() < threads * lookupsPerThread);
+  }
+}
@@ -0,0 +1,93 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.Linq4j;
+import org.junit.Test;
+
+public class QueryResultCacheTest {
+
+  private static final List<Object> ROWS = Arrays.asList(new Object[] { "AC1", 1L }, new Object[] { "AC2", 2L });
+
+  private static QueryResultCache.Key key(final long snapshotTimestampMicros) {
+    return new QueryResultCache.Key("projection", "table", Collections.emptyList(), Arrays.asList(0, 1), -1, -1, false,
+        false, snapshotTimestampMicros);
+  }
+
+  private static void drain(final Enumerator<Object> enumerator) {
+    while (enumerator.moveNext()) {
+      enumerator.current();
+    }
+    enumerator.close();
+  }
+
+  @Test
+  public void snapshotsWithinABucketShareResults() {
+    final QueryResultCache cache = new QueryResultCache(1024 * 1024, 1000L);
+    assertEquals(5_000_000L, cache.bucketSnapshot(5_000_000L));
+    assertEquals(5_000_000L, cache.bucketSnapshot(5_999_999L));
+    assertEquals(6_000_000L, cache.bucketSnapshot(6_000_000L));
+
+    drain(cache.recording(key(cache.bucketSnapshot(5_100_000L)), Linq4j.enumerator(ROWS), () -> false));
+    assertEquals(ROWS, cache.get(key(cache.bucketSnapshot(5_900_000L))));
+    assertNull("Next bucket must scan again", cache.get(key(cache.bucketSnapshot(6_100_000L))));
+    assertEquals(1, cache.stats().hitCount());
+    assertEquals(1, cache.stats().missCount());
+    assertEquals(QueryResultCache.estimateBytes(ROWS.get(0)) + QueryResultCache.estimateBytes(ROWS.get(1)),
+        cache.weightedSize());
+  }
+
+  @Test
+  public void incompleteResultsAreNotCached() {
+    final QueryResultCache cache = new QueryResultCache(1024 * 1024, 1000L);
+
+    final Enumerator<Object> closedEarly = cache.recording(key(1L), Linq4j.enumerator(ROWS), () -> false);
+    assertTrue(closedEarly.moveNext());
+    closedEarly.close();
+    assertNull("Rows of a query closed before it was exhausted", cache.get(key(1L)));
+
+    drain(cache.recording(key(2L), Linq4j.enumerator(ROWS), () -> true));
+    assertNull("Rows of a canceled query", cache.get(key(2L)));
+  }
+
+  @Test
+  public void resultsLargerThanTheEntryLimitAreNotCached() {
+    final long rowBytes = QueryResultCache.estimateBytes(ROWS.get(0));
+    // a single result may use a quarter of the cache
+    final QueryResultCache cache = new QueryResultCache(4 * rowBytes + 3, 1000L);
+    final Enumerator<Object> enumerator = cache.recording(key(1L), Linq4j.enumerator(ROWS), () -> false);
+    assertTrue(enumerator.moveNext());
+    assertTrue("Rows are still returned once the result is too large", enumerator.moveNext());
+    assertFalse(enumerator.moveNext());
+    assertNull(cache.get(key(1L)));
+  }
+
+  @Test
+  public void disabledCacheNeverHits() {
+    final QueryResultCache cache = QueryResultCache.disabled();
+    assertFalse(cache.isEnabled());
+    assertNull(cache.get(key(1L)));
+  }
+}
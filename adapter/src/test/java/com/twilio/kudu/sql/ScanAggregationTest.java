@@ -0,0 +1,135 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+import org.junit.Test;
+
+public final class ScanAggregationTest {
+
+  // SELECT account, status, COUNT(*), SUM(amount), MIN(ts), MAX(ts), AVG(amount)
+  // GROUP BY account, status
+  private static ScanAggregation aggregation() {
+    final RelBuilder builder = RelBuilder.create(Frameworks.newConfigBuilder().build());
+    final RelDataTypeFactory typeFactory = builder.getTypeFactory();
+    final RelDataType rowType = typeFactory.builder().add("ACCOUNT", SqlTypeName.VARCHAR)
+        .add("STATUS", SqlTypeName.INTEGER).add("AMOUNT", SqlTypeName.BIGINT).add("TS", SqlTypeName.TIMESTAMP).build();
+    final Aggregate aggregate = (Aggregate) builder.values(rowType)
+        .aggregate(builder.groupKey("ACCOUNT", "STATUS"), builder.countStar("C"), builder.sum(builder.field("AMOUNT")),
+            builder.min(builder.field("TS")), builder.max(builder.field("TS")), builder.avg(builder.field("AMOUNT")))
+        .build();
+    final ScanAggregation aggregation = ScanAggregation.create(aggregate);
+    assertNotNull(aggregation);
+    return aggregation;
+  }
+
+  private static List<Object[]> randomRows(final Random random, final int count, final int accounts) {
+    final List<Object[]> rows = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      rows.add(new Object[] { "AC" + random.nextInt(accounts), random.nextInt(3), (long) random.nextInt(100),
+          new Timestamp(1_600_000_000_000L + random.nextInt(1_000_000)) });
+    }
+    return rows;
+  }
+
+  // aggregates the rows split across scanners the way the callbacks do
+  private static Enumerator<Object> aggregate(final ScanAggregation aggregation, final List<Object[]> rows,
+      final int scanners, final ScanAggregation.GroupBudget budget) {
+    final List<ScanAggregation.Partial> partials = new ArrayList<>();
+    for (int i = 0; i < scanners; i++) {
+      partials.add(aggregation.newPartial(budget));
+    }
+    for (int i = 0; i < rows.size(); i++) {
+      partials.get(i % scanners).add(rows.get(i));
+    }
+    return aggregation.merge(partials, false);
+  }
+
+  private static Set<List<Object>> toSet(final Enumerator<Object> results) {
+    final Set<List<Object>> groups = new HashSet<>();
+    try (Enumerator<Object> rows = results) {
+      while (rows.moveNext()) {
+        assertTrue("Every group should be returned once", groups.add(Arrays.asList((Object[]) rows.current())));
+      }
+    }
+    return groups;
+  }
+
+  @Test
+  public void aggregatesInMemoryWithinBudget() {
+    final ScanAggregation aggregation = aggregation();
+    final List<Object[]> rows = randomRows(new Random(1), 10_000, 100);
+    final KuduScanStats scanStats = new KuduScanStats();
+    final Set<List<Object>> groups = toSet(
+        aggregate(aggregation, rows, 4, new ScanAggregation.GroupBudget(Long.MAX_VALUE, scanStats)));
+    assertEquals(toSet(aggregate(aggregation, rows, 1, null)), groups);
+    assertEquals(300, groups.size());
+    assertEquals("Nothing should be spilled", 0L, scanStats.getSpillFileCount());
+  }
+
+  @Test
+  public void spillsGroupsOverBudget() {
+    final ScanAggregation aggregation = aggregation();
+    final List<Object[]> rows = randomRows(new Random(2), 100_000, 10_000);
+    final KuduScanStats scanStats = new KuduScanStats();
+    // a few hundred groups fit in memory
+    final Set<List<Object>> groups = toSet(
+        aggregate(aggregation, rows, 4, new ScanAggregation.GroupBudget(32 * 1024, scanStats)));
+    assertEquals(toSet(aggregate(aggregation, rows, 1, null)), groups);
+    assertTrue("Groups should have been spilled", scanStats.getSpillFileCount() > 0);
+  }
+
+  private static long spillFileCount() throws IOException {
+    try (Stream<Path> files = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+      return files.filter(path -> path.getFileName().toString().endsWith(".spill")).count();
+    }
+  }
+
+  @Test
+  public void closeDeletesSpilledGroups() throws IOException {
+    final long filesBefore = spillFileCount();
+    final List<Object[]> rows = randomRows(new Random(3), 10_000, 5_000);
+    final KuduScanStats scanStats = new KuduScanStats();
+    try (Enumerator<Object> results = aggregate(aggregation(), rows, 2,
+        new ScanAggregation.GroupBudget(8 * 1024, scanStats))) {
+      assertTrue(results.moveNext());
+      assertTrue("Groups should be on disk", spillFileCount() > filesBefore);
+    }
+    assertEquals("Partitions that weren't read should be deleted", filesBefore, spillFileCount());
+  }
+}
@@ -0,0 +1,92 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ScanMemoryBudgetTest {
+
+  @Test
+  public void unboundedNeverPauses() {
+    final KuduScanStats scanStats = new KuduScanStats();
+    final ScanMemoryBudget budget = new ScanMemoryBudget(0L, scanStats);
+    budget.reserve(1_000_000L);
+    assertFalse("Unbounded budget should never pause a scanner", budget.pauseIfExhausted(() -> {
+    }));
+    assertEquals(1_000_000L, scanStats.getBufferedBytes());
+  }
+
+  @Test
+  public void pausesUntilDrained() {
+    final KuduScanStats scanStats = new KuduScanStats();
+    final ScanMemoryBudget budget = new ScanMemoryBudget(100L, scanStats);
+    final AtomicInteger resumed = new AtomicInteger();
+
+    budget.reserve(60L);
+    assertFalse("Budget isn't exhausted yet", budget.pauseIfExhausted(resumed::incrementAndGet));
+    budget.reserve(60L);
+    assertTrue("Budget is exhausted, scanner should pause", budget.pauseIfExhausted(resumed::incrementAndGet));
+    assertTrue("Budget is exhausted, scanner should pause", budget.pauseIfExhausted(resumed::incrementAndGet));
+    assertEquals(120L, scanStats.getBufferedBytes());
+    assertEquals(0, resumed.get());
+
+    budget.release(60L);
+    assertEquals("Only one batch is expected to fit after the release", 1, resumed.get());
+    assertEquals(60L, scanStats.getBufferedBytes());
+
+    budget.release(60L);
+    assertEquals(2, resumed.get());
+    assertEquals(0L, scanStats.getBufferedBytes());
+    assertEquals(120L, scanStats.getPeakBufferedBytes());
+  }
+
+  @Test
+  public void batchLargerThanBudgetStillMakesProgress() {
+    final KuduScanStats scanStats = new KuduScanStats();
+    final ScanMemoryBudget budget = new ScanMemoryBudget(10L, scanStats);
+    final AtomicInteger resumed = new AtomicInteger();
+
+    budget.reserve(500L);
+    assertTrue(budget.pauseIfExhausted(resumed::incrementAndGet));
+    assertTrue(budget.pauseIfExhausted(resumed::incrementAndGet));
+
+    budget.release(500L);
+    assertEquals("Exactly one scanner should resume once nothing is buffered", 1, resumed.get());
+  }
+
+  @Test
+  public void closeResumesParkedCallbacks() {
+    final KuduScanStats scanStats = new KuduScanStats();
+    final ScanMemoryBudget budget = new ScanMemoryBudget(10L, scanStats);
+    final AtomicInteger resumed = new AtomicInteger();
+
+    budget.reserve(500L);
+    assertTrue(budget.pauseIfExhausted(resumed::incrementAndGet));
+    assertTrue(budget.pauseIfExhausted(resumed::incrementAndGet));
+
+    // the consumer went away without draining the batch
+    budget.close();
+    assertEquals("Every parked scanner should resume to close itself", 2, resumed.get());
+    assertFalse("A closed budget should never pause a scanner", budget.pauseIfExhausted(resumed::incrementAndGet));
+    budget.release(500L);
+    assertEquals(2, resumed.get());
+  }
+}
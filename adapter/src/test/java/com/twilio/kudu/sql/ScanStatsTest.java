@@ -15,6 +15,7 @@
 package com.twilio.kudu.sql;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Collections;
 
@@ -27,4 +28,19 @@ public class ScanStatsTest {
         new KuduScanStats().getScannerMetricsList());
     assertEquals("Scanner count should be 0 as no scans have happened", 0, new KuduScanStats().getScannerCount());
   }
+
+  @Test
+  public void timeToFirstRowIsSetOncePerScan() throws Exception {
+    final KuduScanStats scanStats = new KuduScanStats();
+    assertEquals("No row has been returned yet", -1L, scanStats.getTimeToFirstRowMs());
+    scanStats.setScanStartTime();
+    scanStats.setTimeToFirstRowMs();
+    final long timeToFirstRow = scanStats.getTimeToFirstRowMs();
+    assertTrue("Time to first row should be recorded", timeToFirstRow >= 0);
+    Thread.sleep(5);
+    scanStats.setTimeToFirstRowMs();
+    assertEquals("Only the first row should be recorded", timeToFirstRow, scanStats.getTimeToFirstRowMs());
+    scanStats.setScanStartTime();
+    assertEquals("A new scan should reset time to first row", -1L, scanStats.getTimeToFirstRowMs());
+  }
 }
@@ -0,0 +1,91 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.kudu.client.KuduPredicate;
+import org.junit.Test;
+
+public class ScanTokenCacheTest {
+
+  private static final List<CalciteKuduPredicate> SUB_SCAN = Collections
+      .singletonList(new ComparisonPredicate(0, KuduPredicate.ComparisonOp.EQUAL, "AC1234"));
+
+  @Test
+  public void reusesTokensOfTheSameSubScan() {
+    final ScanTokenCache cache = new ScanTokenCache(60_000L, 100L);
+    final AtomicInteger builds = new AtomicInteger();
+    final List<byte[]> tokens = Collections.singletonList(new byte[] { 1 });
+
+    final List<byte[]> first = cache.get("table", SUB_SCAN, Arrays.asList(0, 1), false, -1, 0, () -> {
+      builds.incrementAndGet();
+      return tokens;
+    });
+    final List<byte[]> second = cache.get("table",
+        Collections.singletonList(new ComparisonPredicate(0, KuduPredicate.ComparisonOp.EQUAL, "AC1234")),
+        Arrays.asList(0, 1), false, -1, 0, () -> {
+          builds.incrementAndGet();
+          return tokens;
+        });
+
+    assertSame(first, second);
+    assertEquals("An equal sub scan should not build the tokens again", 1, builds.get());
+  }
+
+  @Test
+  public void keyIncludesProjectionLimitAndTable() {
+    final ScanTokenCache cache = new ScanTokenCache(60_000L, 100L);
+    final AtomicInteger builds = new AtomicInteger();
+    final List<Integer> projection = Arrays.asList(0, 1);
+    cache.get("table", SUB_SCAN, projection, false, -1, 0,
+        () -> Collections.singletonList(new byte[builds.incrementAndGet()]));
+    cache.get("table", SUB_SCAN, Arrays.asList(0), false, -1, 0,
+        () -> Collections.singletonList(new byte[builds.incrementAndGet()]));
+    cache.get("table", SUB_SCAN, projection, false, 10, 0,
+        () -> Collections.singletonList(new byte[builds.incrementAndGet()]));
+    cache.get("other", SUB_SCAN, projection, false, -1, 0,
+        () -> Collections.singletonList(new byte[builds.incrementAndGet()]));
+    cache.get("table", SUB_SCAN, Collections.emptyList(), true, -1, 0,
+        () -> Collections.singletonList(new byte[builds.incrementAndGet()]));
+    cache.get("table", SUB_SCAN, Collections.emptyList(), false, -1, 0,
+        () -> Collections.singletonList(new byte[builds.incrementAndGet()]));
+    assertEquals(6, builds.get());
+    assertEquals(6, cache.size());
+
+    cache.invalidateAll();
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void disabledCacheAlwaysBuilds() {
+    final ScanTokenCache cache = ScanTokenCache.disabled();
+    final AtomicInteger builds = new AtomicInteger();
+    for (int i = 0; i < 3; i++) {
+      cache.get("table", SUB_SCAN, Collections.emptyList(), false, -1, 0, () -> {
+        builds.incrementAndGet();
+        return Collections.emptyList();
+      });
+    }
+    assertEquals(3, builds.get());
+    assertEquals(0, cache.size());
+  }
+}
@@ -0,0 +1,135 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares moving rows from a scanner thread into {@link CalciteKuduEnumerable}
+ * one {@link CalciteScannerMessage} per row against one message per scanner
+ * RPC.
+ *
+ * Run with
+ * {@code java -cp <test classpath> com.twilio.kudu.sql.ScannerTransportBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScannerTransportBenchmark {
+  private static final int ROWS_PER_INVOCATION = 100_000;
+
+  @Param({ "100", "1000" })
+  public int rowsPerRpc;
+
+  private List<List<CalciteRow>> rpcBatches;
+
+  @Setup
+  public void setup() {
+    final Schema rowSchema = new Schema(
+        Arrays.asList(new ColumnSchema.ColumnSchemaBuilder("account_sid", Type.STRING).key(true).build(),
+            new ColumnSchema.ColumnSchemaBuilder("date_created", Type.UNIXTIME_MICROS).key(true).build(),
+            new ColumnSchema.ColumnSchemaBuilder("amount", Type.INT64).build()));
+    final List<Integer> primaryKeyColumns = Arrays.asList(0, 1);
+    final CalciteRow[] rows = new CalciteRow[ROWS_PER_INVOCATION];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = new CalciteRow(rowSchema, new Object[] { "AC1234", Long.valueOf(i), Long.valueOf(i * 7) },
+          primaryKeyColumns, Collections.<Integer>emptyList());
+    }
+    final List<CalciteRow> allRows = Arrays.asList(rows);
+    rpcBatches = new ArrayList<>();
+    for (int i = 0; i < rows.length; i += rowsPerRpc) {
+      rpcBatches.add(allRows.subList(i, Math.min(i + rowsPerRpc, rows.length)));
+    }
+  }
+
+  @Benchmark
+  public void rowPerMessage(final Blackhole blackhole) throws InterruptedException {
+    final BlockingQueue<CalciteScannerMessage<CalciteRow>> queue = new LinkedBlockingQueue<>();
+    final Thread producer = new Thread(() -> {
+      try {
+        for (List<CalciteRow> batch : rpcBatches) {
+          for (CalciteRow row : batch) {
+            queue.put(new CalciteScannerMessage<CalciteRow>(row));
+          }
+        }
+        queue.put(CalciteScannerMessage.<CalciteRow>createEndMessage());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    producer.start();
+    consume(queue, blackhole);
+    producer.join();
+  }
+
+  @Benchmark
+  public void batchPerMessage(final Blackhole blackhole) throws InterruptedException {
+    final BlockingQueue<CalciteScannerMessage<CalciteRow>> queue = new LinkedBlockingQueue<>();
+    final Thread producer = new Thread(() -> {
+      try {
+        for (List<CalciteRow> batch : rpcBatches) {
+          queue.put(new CalciteScannerMessage<CalciteRow>(batch, null));
+        }
+        queue.put(CalciteScannerMessage.<CalciteRow>createEndMessage());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    producer.start();
+    consume(queue, blackhole);
+    producer.join();
+  }
+
+  private void consume(final BlockingQueue<CalciteScannerMessage<CalciteRow>> queue, final Blackhole blackhole) {
+    final Enumerator<CalciteRow> enumerator = new CalciteKuduEnumerable(queue, new AtomicBoolean(false)).enumerator();
+    while (enumerator.moveNext()) {
+      blackhole.consume(enumerator.current().getRowData());
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(ScannerTransportBenchmark.class.getSimpleName()).build()).run();
+  }
+}
@@ -29,7 +29,9 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -81,6 +83,18 @@ public class ScenarioIT {
     }
   }
 
+  /**
+   * Copies the properties of one ImmutableBeans config into another by sharing
+   * the property map of its proxy handler. This depends on the internals of
+   * Calcite's ImmutableBeans and only exists for the tests.
+   */
+  private static void copyBeanProperties(Object source, Object target) throws Exception {
+    InvocationHandler targetHandler = Proxy.getInvocationHandler(target);
+    Field mapField = targetHandler.getClass().getDeclaredField("map");
+    mapField.setAccessible(true);
+    mapField.set(targetHandler, mapField.get(Proxy.getInvocationHandler(source)));
+  }
+
   private static void setFinalStatic(Field field, Object newValue) throws Exception {
     field.setAccessible(true);
 
@@ -98,6 +112,9 @@ public class ScenarioIT {
           .withRelBuilderFactory(RelFactories.LOGICAL_BUILDER)
           .withRelBuilderConfigTransform(c -> c.withPushJoinCondition(true))
           .withHintStrategyTable(KuduQuery.KUDU_HINT_STRATEGY_TABLE);
+      // code compiled by the JIT can keep reading the previous value of the
+      // static final field, so also copy the HintStrategyTable into that instance
+      copyBeanProperties(CONFIG_MODIFIED, SqlToRelConverter.config());
       // change SqlToRelConverter.CONFIG to use one that has the above
       // HintStrategyTable
       setFinalStatic(SqlToRelConverter.class.getDeclaredField("CONFIG"), CONFIG_MODIFIED);
@@ -278,4 +295,61 @@ public class ScenarioIT {
     }
   }
 
+  @Test
+  public void testCubeRewrite() throws SQLException {
+    try (Connection conn = DriverManager.getConnection(JDBC_URL)) {
+      // the filter on transaction_id prevents the cube from being used
+      String sqlFormat = "SELECT \"usage_account_sid\", FLOOR(\"date_initiated\" TO DAY), SUM(\"amount\"), "
+          + "COUNT(*), MAX(\"billable_item\") FROM \"ReportCenter.UsageReportTransactions\" "
+          + "WHERE \"date_initiated\" >= TIMESTAMP '2020-06-02 00:00:00' "
+          + "AND \"date_initiated\" < TIMESTAMP '2020-06-10 00:00:00'%s "
+          + "GROUP BY \"usage_account_sid\", FLOOR(\"date_initiated\" TO DAY) ORDER BY 1, 2";
+      String sql = String.format(sqlFormat, "");
+      ResultSet rs = conn.createStatement().executeQuery("EXPLAIN PLAN FOR " + sql);
+      String plan = SqlUtil.getExplainPlan(rs);
+      assertTrue("Plan should use the cube " + plan,
+          plan.contains("KuduQuery(table=[[kudu, ReportCenter.UsageReportTransactions-Cube-Day-Aggregation]])"));
+      List<List<Object>> cubeResult = SqlUtil.getResult(conn.createStatement().executeQuery(sql));
+
+      String factSql = String.format(sqlFormat, " AND CHAR_LENGTH(\"transaction_id\") > 0");
+      rs = conn.createStatement().executeQuery("EXPLAIN PLAN FOR " + factSql);
+      plan = SqlUtil.getExplainPlan(rs);
+      assertFalse("Plan should not use the cube " + plan, plan.contains("Cube-Day-Aggregation"));
+      List<List<Object>> factResult = SqlUtil.getResult(conn.createStatement().executeQuery(factSql));
+      assertFalse(cubeResult.isEmpty());
+      assertEquals("Results do not match", factResult, cubeResult);
+
+      // the cube can't answer a filter that includes part of a day
+      sql = "SELECT COUNT(*) FROM \"ReportCenter.UsageReportTransactions\" "
+          + "WHERE \"date_initiated\" >= TIMESTAMP '2020-06-02 12:00:00'";
+      rs = conn.createStatement().executeQuery("EXPLAIN PLAN FOR " + sql);
+      plan = SqlUtil.getExplainPlan(rs);
+      assertFalse("Plan should not use the cube " + plan, plan.contains("Cube-Day-Aggregation"));
+
+      // nor can it group by a finer unit than its own
+      sql = "SELECT FLOOR(\"date_initiated\" TO HOUR), COUNT(*) FROM \"ReportCenter.UsageReportTransactions\" "
+          + "GROUP BY FLOOR(\"date_initiated\" TO HOUR)";
+      rs = conn.createStatement().executeQuery("EXPLAIN PLAN FOR " + sql);
+      plan = SqlUtil.getExplainPlan(rs);
+      assertFalse("Plan should not use the cube " + plan, plan.contains("Cube-Day-Aggregation"));
+
+      // the daily cube can be rolled up to weekly and monthly totals
+      for (String unit : new String[] { "WEEK", "MONTH" }) {
+        String rollupFormat = "SELECT FLOOR(\"date_initiated\" TO " + unit + "), \"units\", SUM(\"quantity\"), "
+            + "COUNT(*) FROM \"ReportCenter.UsageReportTransactions\"%s GROUP BY FLOOR(\"date_initiated\" TO " + unit
+            + "), \"units\" ORDER BY 1";
+        sql = String.format(rollupFormat, "");
+        rs = conn.createStatement().executeQuery("EXPLAIN PLAN FOR " + sql);
+        plan = SqlUtil.getExplainPlan(rs);
+        assertTrue("Plan should use the cube " + plan,
+            plan.contains("KuduQuery(table=[[kudu, ReportCenter.UsageReportTransactions-Cube-Day-Aggregation]])"));
+        cubeResult = SqlUtil.getResult(conn.createStatement().executeQuery(sql));
+        factResult = SqlUtil.getResult(conn.createStatement()
+            .executeQuery(String.format(rollupFormat, " WHERE CHAR_LENGTH(\"transaction_id\") > 0")));
+        assertFalse(cubeResult.isEmpty());
+        assertEquals("Results do not match", factResult, cubeResult);
+      }
+    }
+  }
+
 }
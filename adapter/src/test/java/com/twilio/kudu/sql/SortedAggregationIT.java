@@ -329,10 +329,10 @@ public final class SortedAggregationIT {
 
       String expectedPlan = "EnumerableCalc(expr#0..2=[{inputs}], EXPR$0=[$t1], FIELD2=[$t0], EXPR$2=[$t2])\n"
           + "  EnumerableLimitSort(sort0=[$1], sort1=[$2], dir0=[DESC], dir1=[DESC], offset=[1], fetch=[2])\n"
-          + "    EnumerableAggregate(group=[{0, 1}], EXPR$2=[$SUM0($2)])\n" + "      KuduToEnumerableRel\n"
-          + "        KuduProjectRel(FIELD2=[$2], EXPR$0=[-(6, $1)], FIELD4=[$4])\n"
-          + "          KuduFilterRel(ScanToken 1=[ACCOUNT_SID EQUAL ACCOUNT1])\n"
-          + "            KuduQuery(table=[[kudu, SortedAggregationIT]])\n";
+          + "    KuduAggregationRel(group=[{0, 1}], EXPR$2=[SUM($2)])\n"
+          + "      KuduProjectRel(FIELD2=[$2], EXPR$0=[-(6, $1)], FIELD4=[$4])\n"
+          + "        KuduFilterRel(ScanToken 1=[ACCOUNT_SID EQUAL ACCOUNT1])\n"
+          + "          KuduQuery(table=[[kudu, SortedAggregationIT]])\n";
 
       assertEquals("Unexpected plan", expectedPlan, plan);
     }
@@ -379,10 +379,10 @@ public final class SortedAggregationIT {
       ResultSet rs = conn.createStatement().executeQuery("EXPLAIN PLAN FOR " + sql);
       String plan = SqlUtil.getExplainPlan(rs);
       final String expectedPlan = "EnumerableLimitSort(sort0=[$0], dir0=[DESC], fetch=[1])\n"
-          + "  EnumerableAggregate(group=[{0}], EXPR$1=[$SUM0($1)])\n" + "    KuduToEnumerableRel\n"
-          + "      KuduProjectRel(ACCOUNT_SID=[$0], FIELD4=[$4])\n"
-          + "        KuduFilterRel(ScanToken 1=[RESOURCE_TYPE EQUAL message-body])\n"
-          + "          KuduQuery(table=[[kudu, SortedAggregationIT]])\n";
+          + "  KuduAggregationRel(group=[{0}], EXPR$1=[SUM($1)], partitionWise=[true])\n"
+          + "    KuduProjectRel(ACCOUNT_SID=[$0], FIELD4=[$4])\n"
+          + "      KuduFilterRel(ScanToken 1=[RESOURCE_TYPE EQUAL message-body])\n"
+          + "        KuduQuery(table=[[kudu, SortedAggregationIT]])\n";
 
       ResultSet queryResult = conn.createStatement().executeQuery(sql);
 
@@ -494,10 +494,9 @@ public final class SortedAggregationIT {
       ResultSet rs = conn.createStatement().executeQuery("EXPLAIN PLAN FOR " + sql);
       String plan = SqlUtil.getExplainPlan(rs);
       String expectedPlan = "EnumerableLimitSort(sort0=[$1], sort1=[$0], dir0=[ASC], dir1=[ASC], fetch=[30])\n"
-          + "  EnumerableAggregate(group=[{0}], MY_SUM=[$SUM0($1)])\n" + "    KuduToEnumerableRel\n"
-          + "      KuduProjectRel(FIELD4=[$4], FIELD3=[$3])\n"
-          + "        KuduFilterRel(ScanToken 1=[ACCOUNT_SID EQUAL ACCOUNT1])\n"
-          + "          KuduQuery(table=[[kudu, SortedAggregationIT]])\n";
+          + "  KuduAggregationRel(group=[{0}], MY_SUM=[SUM($1)])\n" + "    KuduProjectRel(FIELD4=[$4], FIELD3=[$3])\n"
+          + "      KuduFilterRel(ScanToken 1=[ACCOUNT_SID EQUAL ACCOUNT1])\n"
+          + "        KuduQuery(table=[[kudu, SortedAggregationIT]])\n";
       assertEquals("Plan does not match", expectedPlan, plan);
     }
 
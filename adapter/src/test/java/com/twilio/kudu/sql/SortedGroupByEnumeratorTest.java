@@ -0,0 +1,192 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.calcite.linq4j.Enumerator;
+import org.junit.Test;
+
+public final class SortedGroupByEnumeratorTest {
+
+  /**
+   * Returns the rows of batches like the scanners of a sorted scan do, counts the
+   * rows that were read and fails if a row is read after the scanners were
+   * closed.
+   */
+  private static final class ScannerBatches implements Enumerator<Object> {
+    private final Iterator<List<Object[]>> batches;
+    private Iterator<Object[]> batch = Collections.emptyIterator();
+    private Object current;
+    private int rowsRead = 0;
+    private int closeCount = 0;
+
+    @SafeVarargs
+    ScannerBatches(final List<Object[]>... batches) {
+      this.batches = Arrays.asList(batches).iterator();
+    }
+
+    @Override
+    public Object current() {
+      return current;
+    }
+
+    @Override
+    public boolean moveNext() {
+      if (closeCount > 0) {
+        throw new IllegalStateException("Scanners are closed");
+      }
+      while (!batch.hasNext()) {
+        if (!batches.hasNext()) {
+          return false;
+        }
+        batch = batches.next().iterator();
+      }
+      current = batch.next();
+      rowsRead++;
+      return true;
+    }
+
+    @Override
+    public void reset() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+      closeCount++;
+    }
+
+    boolean isClosed() {
+      return closeCount > 0;
+    }
+  }
+
+  private static Object[] row(final String key, final long value) {
+    return new Object[] { key, value };
+  }
+
+  // counts the rows and sums the values of each key
+  private static KuduEnumerable.SortedGroupByEnumerator<String, long[], List<Object>> sumByKey(
+      final Enumerator<Object> source, final long groupFetchLimit, final long offset) {
+    return new KuduEnumerable.SortedGroupByEnumerator<>(source, row -> (String) ((Object[]) row)[0], () -> new long[2],
+        (accumulator, row) -> {
+          accumulator[0]++;
+          accumulator[1] += (Long) ((Object[]) row)[1];
+          return accumulator;
+        }, (key, accumulator) -> Arrays.asList(key, accumulator[0], accumulator[1]), groupFetchLimit, offset);
+  }
+
+  private static List<List<Object>> readAll(final Enumerator<List<Object>> groups) {
+    final List<List<Object>> results = new ArrayList<>();
+    while (groups.moveNext()) {
+      results.add(groups.current());
+    }
+    return results;
+  }
+
+  @Test
+  public void groupsSpanBatches() {
+    final ScannerBatches source = new ScannerBatches(Arrays.asList(row("a", 1), row("a", 2)),
+        Arrays.asList(row("a", 3), row("b", 4)), Collections.singletonList(row("b", 5)), Collections.emptyList(),
+        Arrays.asList(row("c", 6), row("d", 7)));
+    try (Enumerator<List<Object>> groups = sumByKey(source, Long.MAX_VALUE, 0)) {
+      assertEquals(Arrays.asList(Arrays.asList("a", 3L, 6L), Arrays.asList("b", 2L, 9L), Arrays.asList("c", 1L, 6L),
+          Arrays.asList("d", 1L, 7L)), readAll(groups));
+      assertFalse("Should stay exhausted", groups.moveNext());
+    }
+    assertEquals(7, source.rowsRead);
+    assertTrue(source.isClosed());
+  }
+
+  @Test
+  public void firstRowOfTheNextGroupIsKeptUntilTheNextCall() {
+    final ScannerBatches source = new ScannerBatches(Arrays.asList(row("a", 1), row("b", 2)),
+        Collections.singletonList(row("b", 3)));
+    try (Enumerator<List<Object>> groups = sumByKey(source, Long.MAX_VALUE, 0)) {
+      assertTrue(groups.moveNext());
+      assertEquals(Arrays.asList("a", 1L, 1L), groups.current());
+      assertEquals("Only the first row of the next group should have been read", 2, source.rowsRead);
+      assertTrue(groups.moveNext());
+      assertEquals(Arrays.asList("b", 2L, 5L), groups.current());
+      assertFalse(groups.moveNext());
+    }
+  }
+
+  @Test
+  public void emptySource() {
+    final ScannerBatches source = new ScannerBatches(Collections.emptyList());
+    try (Enumerator<List<Object>> groups = sumByKey(source, Long.MAX_VALUE, 0)) {
+      assertFalse(groups.moveNext());
+    }
+  }
+
+  @Test
+  public void limitStopsReadingRowsAndClosesTheScanners() {
+    final ScannerBatches source = new ScannerBatches(Arrays.asList(row("a", 1), row("b", 2)),
+        Arrays.asList(row("b", 3), row("c", 4)), Arrays.asList(row("c", 5), row("d", 6)));
+    final Enumerator<List<Object>> groups = sumByKey(source, 2, 0);
+    assertEquals(Arrays.asList(Arrays.asList("a", 1L, 1L), Arrays.asList("b", 2L, 5L)), readAll(groups));
+    assertTrue("The scanners should be closed once the limit is reached, before the results are closed",
+        source.isClosed());
+    assertEquals("The rows after the first row of the group past the limit should not be read", 4, source.rowsRead);
+    assertFalse(groups.moveNext());
+    groups.close();
+    assertEquals("The scanners should be closed once", 1, source.closeCount);
+  }
+
+  @Test
+  public void offsetSkipsGroupsSpanningBatches() {
+    final ScannerBatches source = new ScannerBatches(Arrays.asList(row("a", 1), row("a", 2)),
+        Arrays.asList(row("a", 3), row("b", 4)), Arrays.asList(row("b", 5), row("c", 6)),
+        Arrays.asList(row("d", 7), row("e", 8)));
+    // LIMIT 2 OFFSET 1 reads up to three groups
+    try (Enumerator<List<Object>> groups = sumByKey(source, 3, 1)) {
+      assertEquals(Arrays.asList(Arrays.asList("b", 2L, 9L), Arrays.asList("c", 1L, 6L)), readAll(groups));
+    }
+    assertEquals("Rows of groups past the limit should not be read", 7, source.rowsRead);
+  }
+
+  @Test
+  public void offsetPastTheLastGroup() {
+    final ScannerBatches source = new ScannerBatches(Arrays.asList(row("a", 1), row("b", 2)));
+    try (Enumerator<List<Object>> groups = sumByKey(source, 12, 10)) {
+      assertFalse(groups.moveNext());
+    }
+    assertEquals(2, source.rowsRead);
+  }
+
+  @Test
+  public void earlyCloseClosesTheScanners() {
+    final ScannerBatches source = new ScannerBatches(Arrays.asList(row("a", 1), row("b", 2)),
+        Arrays.asList(row("b", 3), row("c", 4)));
+    final Enumerator<List<Object>> groups = sumByKey(source, Long.MAX_VALUE, 0);
+    assertTrue(groups.moveNext());
+    assertEquals(Arrays.asList("a", 1L, 1L), groups.current());
+    groups.close();
+    assertTrue("Closing the results should close the scanners that still have rows", source.isClosed());
+    assertEquals(2, source.rowsRead);
+    groups.close();
+    assertEquals("The scanners should be closed once", 1, source.closeCount);
+  }
+}
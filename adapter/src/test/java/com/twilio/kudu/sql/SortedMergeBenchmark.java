@@ -0,0 +1,124 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.Linq4j;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the sorted merge of many scanners through a {@link PriorityQueue}
+ * using {@link CalciteRow#compareTo(CalciteRow)} against a {@link LoserTree}
+ * using a {@link CalciteRowComparator}.
+ *
+ * Run with
+ * {@code java -cp <test classpath> com.twilio.kudu.sql.SortedMergeBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SortedMergeBenchmark {
+  private static final int ROWS_PER_INVOCATION = 200_000;
+
+  @Param({ "16", "128" })
+  public int scanners;
+
+  private List<List<CalciteRow>> scannerRows;
+  private Comparator<CalciteRow> rowComparator;
+
+  @Setup
+  public void setup() {
+    final Schema rowSchema = new Schema(
+        Arrays.asList(new ColumnSchema.ColumnSchemaBuilder("account_sid", Type.STRING).key(true).build(),
+            new ColumnSchema.ColumnSchemaBuilder("date_created", Type.UNIXTIME_MICROS).key(true).build(),
+            new ColumnSchema.ColumnSchemaBuilder("amount", Type.INT64).build()));
+    final List<Integer> primaryKeyColumns = Arrays.asList(0, 1);
+    final List<Integer> descendingColumns = Collections.singletonList(1);
+    rowComparator = CalciteRowComparator.create(rowSchema, primaryKeyColumns, descendingColumns);
+    // rows are spread round robin over the scanners so every row of the merge
+    // is contended, like hash partitions of the same account
+    scannerRows = new ArrayList<>();
+    for (int i = 0; i < scanners; i++) {
+      scannerRows.add(new ArrayList<>());
+    }
+    for (int i = ROWS_PER_INVOCATION; i > 0; i--) {
+      scannerRows.get(i % scanners).add(new CalciteRow(rowSchema,
+          new Object[] { "AC1234", Long.valueOf(i), Long.valueOf(i * 7) }, primaryKeyColumns, descendingColumns));
+    }
+  }
+
+  @Benchmark
+  public void priorityQueue(final Blackhole blackhole) {
+    final PriorityQueue<Enumerator<CalciteRow>> minQueue = new PriorityQueue<>(scanners,
+        (o1, o2) -> o1.current().compareTo(o2.current()));
+    for (List<CalciteRow> rows : scannerRows) {
+      final Enumerator<CalciteRow> enumerator = Linq4j.enumerator(rows);
+      if (enumerator.moveNext()) {
+        minQueue.add(enumerator);
+      }
+    }
+    while (!minQueue.isEmpty()) {
+      final Enumerator<CalciteRow> smallest = minQueue.poll();
+      blackhole.consume(smallest.current().getRowData());
+      if (smallest.moveNext()) {
+        minQueue.add(smallest);
+      }
+    }
+  }
+
+  @Benchmark
+  public void loserTree(final Blackhole blackhole) {
+    final List<Enumerator<CalciteRow>> sources = new ArrayList<>(scanners);
+    for (List<CalciteRow> rows : scannerRows) {
+      sources.add(Linq4j.enumerator(rows));
+    }
+    final LoserTree<CalciteRow> tree = new LoserTree<>(sources, rowComparator);
+    while (tree.moveNext()) {
+      blackhole.consume(tree.current().getRowData());
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(SortedMergeBenchmark.class.getSimpleName()).build()).run();
+  }
+}
@@ -0,0 +1,127 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.apache.calcite.avatica.util.ByteString;
+import org.apache.calcite.linq4j.Enumerator;
+import org.junit.Test;
+
+public final class SpillFileTest {
+
+  private static Object roundTrip(final Object row) {
+    final KuduScanStats scanStats = new KuduScanStats();
+    final SpillFile file = new SpillFile(scanStats);
+    file.write(row);
+    try (Enumerator<Object> rows = file.read()) {
+      assertTrue(rows.moveNext());
+      final Object read = rows.current();
+      assertFalse(rows.moveNext());
+      return read;
+    }
+  }
+
+  private static void assertRoundTrip(final Object value) {
+    final Object read = roundTrip(value);
+    assertEquals(value, read);
+    assertEquals(value == null ? null : value.getClass(), read == null ? null : read.getClass());
+  }
+
+  @Test
+  public void nullValue() {
+    assertRoundTrip(null);
+  }
+
+  @Test
+  public void row() {
+    final Object[] row = { 1, "a", null, new Object[] { 2L } };
+    final Object[] read = (Object[]) roundTrip(row);
+    assertEquals(Arrays.deepToString(row), Arrays.deepToString(read));
+    assertEquals(Object[].class, read[3].getClass());
+  }
+
+  @Test
+  public void primitives() {
+    assertRoundTrip(true);
+    assertRoundTrip((byte) -3);
+    assertRoundTrip((short) 300);
+    assertRoundTrip(70_000);
+    assertRoundTrip(Long.MIN_VALUE);
+    assertRoundTrip(1.5f);
+    assertRoundTrip(-2.25d);
+    assertRoundTrip('x');
+  }
+
+  @Test
+  public void strings() {
+    assertRoundTrip("");
+    assertRoundTrip("ACCOUNT_é中");
+  }
+
+  @Test
+  public void numbers() {
+    assertRoundTrip(new BigDecimal("-12345678901234567890.123"));
+    assertRoundTrip(new BigInteger("-98765432109876543210"));
+  }
+
+  @Test
+  public void binary() {
+    assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) roundTrip(new byte[] { 1, 2, 3 }));
+    assertRoundTrip(new ByteString(new byte[] { 4, 5 }));
+  }
+
+  @Test
+  public void timestamp() {
+    final Timestamp timestamp = new Timestamp(1_600_000_000_123L);
+    timestamp.setNanos(123_456_789);
+    assertRoundTrip(timestamp);
+    assertEquals(123_456_789, ((Timestamp) roundTrip(timestamp)).getNanos());
+    assertRoundTrip(new Timestamp(-1L));
+  }
+
+  @Test
+  public void dates() {
+    assertRoundTrip(new java.sql.Date(1_600_000_000_000L));
+    assertRoundTrip(new Time(45_296_000L));
+    assertRoundTrip(new Date(1_600_000_000_123L));
+  }
+
+  @Test
+  public void list() {
+    final Object list = Arrays.asList("a", 1L, null, new Timestamp(5L), Arrays.asList(true, 'c'));
+    assertEquals(list, roundTrip(list));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unsupportedValue() {
+    final SpillFile file = new SpillFile(new KuduScanStats());
+    try {
+      file.write(new StringBuilder("a"));
+    } finally {
+      file.delete();
+    }
+  }
+}
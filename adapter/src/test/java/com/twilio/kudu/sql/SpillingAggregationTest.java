@@ -0,0 +1,114 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.Linq4j;
+import org.junit.Test;
+
+public final class SpillingAggregationTest {
+
+  private static List<Object> randomRows(final Random random, final int count, final int groups) {
+    final List<Object> rows = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      rows.add(new Object[] { "PN" + random.nextInt(groups), (long) random.nextInt(100) });
+    }
+    return rows;
+  }
+
+  // sums the second column grouped by the first one, the accumulator is a
+  // mutable long[] like the accumulators Calcite generates
+  private static Enumerable<Object[]> sumByKey(final List<Object> rows, final long memoryBudgetBytes,
+      final KuduScanStats scanStats) {
+    return SpillingAggregation.groupBy(Linq4j.asEnumerable(rows), row -> ((Object[]) row)[0], () -> new long[2],
+        (accumulator, row) -> {
+          accumulator[0]++;
+          accumulator[1] += (Long) ((Object[]) row)[1];
+          return accumulator;
+        }, (key, accumulator) -> new Object[] { key, accumulator[0], accumulator[1] }, memoryBudgetBytes, scanStats);
+  }
+
+  private static Map<Object, List<Long>> expectedSums(final List<Object> rows) {
+    final Map<Object, List<Long>> expected = new HashMap<>();
+    for (Object row : rows) {
+      final Object[] values = (Object[]) row;
+      final List<Long> sums = expected.getOrDefault(values[0], Arrays.asList(0L, 0L));
+      expected.put(values[0], Arrays.asList(sums.get(0) + 1, sums.get(1) + (Long) values[1]));
+    }
+    return expected;
+  }
+
+  private static Map<Object, List<Long>> toMap(final Enumerable<Object[]> results) {
+    final Map<Object, List<Long>> actual = new HashMap<>();
+    for (Object[] result : results) {
+      final List<Long> previous = actual.put(result[0], Arrays.asList((Long) result[1], (Long) result[2]));
+      assertEquals("Group " + result[0] + " should be returned once", null, previous);
+    }
+    return actual;
+  }
+
+  @Test
+  public void aggregatesInMemoryWithinBudget() {
+    final List<Object> rows = randomRows(new Random(1), 10_000, 100);
+    final KuduScanStats scanStats = new KuduScanStats();
+    assertEquals(expectedSums(rows), toMap(sumByKey(rows, Long.MAX_VALUE, scanStats)));
+    assertEquals("Nothing should be spilled", 0L, scanStats.getSpillFileCount());
+  }
+
+  @Test
+  public void aggregatesSpilledPartitions() {
+    final List<Object> rows = randomRows(new Random(2), 100_000, 20_000);
+    final KuduScanStats scanStats = new KuduScanStats();
+    // a few hundred groups fit in memory, the partitions have to spill again
+    assertEquals(expectedSums(rows), toMap(sumByKey(rows, 32 * 1024, scanStats)));
+    assertTrue("Partitions should have been spilled at more than one level",
+        scanStats.getSpillFileCount() > SpillingAggregation.PARTITIONS);
+  }
+
+  private static long spillFileCount() throws IOException {
+    try (Stream<Path> files = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+      return files.filter(path -> path.getFileName().toString().endsWith(".spill")).count();
+    }
+  }
+
+  @Test
+  public void closeDeletesSpilledPartitions() throws IOException {
+    final long filesBefore = spillFileCount();
+    final List<Object> rows = randomRows(new Random(3), 10_000, 5_000);
+    final KuduScanStats scanStats = new KuduScanStats();
+    try (Enumerator<Object[]> results = sumByKey(rows, 8 * 1024, scanStats).enumerator()) {
+      assertTrue(results.moveNext());
+      assertTrue("Partitions should be on disk", spillFileCount() > filesBefore);
+    }
+    assertTrue("Rows should have been spilled", scanStats.getSpillFileCount() > 0);
+    assertEquals("Partitions that weren't read should be deleted", filesBefore, spillFileCount());
+  }
+}
@@ -0,0 +1,90 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.calcite.avatica.util.ByteString;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.EnumerableDefaults;
+import org.apache.calcite.linq4j.Linq4j;
+import org.apache.calcite.linq4j.function.Function1;
+import org.junit.Test;
+
+public final class SpillingSortTest {
+
+  private static List<Object> randomRows(final Random random, final int count) {
+    final List<Object> rows = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      rows.add(new Object[] { "AC" + random.nextInt(50), (long) random.nextInt(1000), i,
+          random.nextBoolean() ? null : random.nextDouble(), BigDecimal.valueOf(random.nextInt(10_000), 2), (short) i,
+          (byte) i, random.nextFloat(), random.nextBoolean(), new ByteString(new byte[] { (byte) i }) });
+    }
+    return rows;
+  }
+
+  private static final Function1<Object, Object> KEY_SELECTOR = row -> {
+    final Object[] values = (Object[]) row;
+    return new Object[] { values[0], values[1] };
+  };
+
+  @SuppressWarnings("unchecked")
+  private static final Comparator<Object> KEY_COMPARATOR = (key1, key2) -> {
+    final Object[] values1 = (Object[]) key1;
+    final Object[] values2 = (Object[]) key2;
+    final int compare = ((Comparable<Object>) values1[0]).compareTo(values2[0]);
+    // second column is descending
+    return compare != 0 ? compare : ((Comparable<Object>) values2[1]).compareTo(values1[1]);
+  };
+
+  private static void assertSameRows(final List<Object> expected, final List<Object> actual) {
+    assertEquals("Row count", expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertArrayEquals("Row " + i, (Object[]) expected.get(i), (Object[]) actual.get(i));
+    }
+  }
+
+  @Test
+  public void sortsInMemoryWithinBudget() {
+    final List<Object> rows = randomRows(new Random(1), 1_000);
+    final KuduScanStats scanStats = new KuduScanStats();
+    final List<Object> sorted = SpillingSort
+        .orderBy(Linq4j.asEnumerable(rows), KEY_SELECTOR, KEY_COMPARATOR, Long.MAX_VALUE, scanStats).toList();
+    assertSameRows(EnumerableDefaults.orderBy(Linq4j.asEnumerable(rows), KEY_SELECTOR, KEY_COMPARATOR).toList(),
+        sorted);
+    assertEquals("Nothing should be spilled", 0L, scanStats.getSpillFileCount());
+  }
+
+  @Test
+  public void mergesSpilledRuns() {
+    final List<Object> rows = randomRows(new Random(2), 20_000);
+    final KuduScanStats scanStats = new KuduScanStats();
+    final Enumerable<Object> sorted = SpillingSort.orderBy(Linq4j.asEnumerable(rows), KEY_SELECTOR, KEY_COMPARATOR,
+        64 * 1024, scanStats);
+    // equal keys keep the order they were read in, like the Calcite sort
+    assertSameRows(EnumerableDefaults.orderBy(Linq4j.asEnumerable(rows), KEY_SELECTOR, KEY_COMPARATOR).toList(),
+        sorted.toList());
+    assertTrue("Rows should have been spilled", scanStats.getSpillFileCount() > 1);
+    assertTrue("Spilled bytes should be counted", scanStats.getSpilledBytes() > 0);
+  }
+}
@@ -0,0 +1,75 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.CreateTableOptions;
+import org.apache.kudu.client.Insert;
+import org.apache.kudu.client.KuduClient;
+import org.apache.kudu.client.KuduPredicate;
+import org.apache.kudu.client.KuduSession;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.SessionConfiguration;
+import org.apache.kudu.test.KuduTestHarness;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class TableStatisticsCacheIT {
+
+  @ClassRule
+  public static KuduTestHarness testHarness = new KuduTestHarness();
+  private static final String tableName = "TableStatisticsCacheIT";
+  private static final long ROW_COUNT = 20_000;
+  private static KuduTable kuduTable;
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    final Schema schema = new Schema(
+        Arrays.asList(new ColumnSchema.ColumnSchemaBuilder("ID", Type.INT64).key(true).build(),
+            new ColumnSchema.ColumnSchemaBuilder("VALUE", Type.STRING).build()));
+    final KuduClient client = testHarness.getClient();
+    kuduTable = client.createTable(tableName, schema,
+        new CreateTableOptions().addHashPartitions(Arrays.asList("ID"), 2).setNumReplicas(1));
+    final KuduSession session = client.newSession();
+    session.setFlushMode(SessionConfiguration.FlushMode.AUTO_FLUSH_BACKGROUND);
+    for (long id = 0; id < ROW_COUNT; id++) {
+      final Insert insert = kuduTable.newInsert();
+      insert.getRow().addLong("ID", id);
+      insert.getRow().addString("VALUE", "value-" + id);
+      session.apply(insert);
+    }
+    session.close();
+  }
+
+  @Test
+  public void sampleCoversTheKeyRangeOfEveryTablet() {
+    final List<ColumnStatistics> columnStatistics = TableStatisticsCache.sample(kuduTable, 200, ROW_COUNT);
+    assertEquals(2, columnStatistics.size());
+    // reading the first rows of each tablet would only find the lowest ids
+    assertEquals("Half of the ids are below the middle id", 0.5,
+        columnStatistics.get(0).rangeSelectivity(KuduPredicate.ComparisonOp.LESS, ROW_COUNT / 2), 0.2);
+  }
+}
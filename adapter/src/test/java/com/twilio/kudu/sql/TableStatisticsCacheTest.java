@@ -0,0 +1,130 @@
+/* Copyright 2021 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kudu.client.KuduClient;
+import org.apache.kudu.client.KuduScanToken;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.KuduTableStatistics;
+import org.apache.kudu.client.LocatedTablet;
+import org.apache.kudu.client.Partition;
+import org.junit.Test;
+
+public class TableStatisticsCacheTest {
+
+  private static LocatedTablet tablet(final int bucket, final byte rangeStart, final byte rangeEnd) {
+    final byte[] start = ByteBuffer.allocate(5).putInt(bucket).put(rangeStart).array();
+    final byte[] end = ByteBuffer.allocate(5).putInt(bucket).put(rangeEnd).array();
+    final LocatedTablet tablet = mock(LocatedTablet.class);
+    when(tablet.getPartition()).thenReturn(new Partition(start, end, Collections.singletonList(bucket)));
+    return tablet;
+  }
+
+  @Test
+  public void spreadsRowCountOverRangePartitions() {
+    // two hash buckets, the last range is only in one of them so it gets a third
+    // of the rows
+    final List<LocatedTablet> tablets = Arrays.asList(tablet(0, (byte) 0x10, (byte) 0x80),
+        tablet(0, (byte) 0x80, (byte) 0xF0), tablet(1, (byte) 0x10, (byte) 0x80));
+    final List<TableStatisticsCache.RangePartitionStatistics> ranges = TableStatisticsCache.estimateRangePartitions(300,
+        tablets);
+
+    assertEquals(2, ranges.size());
+    assertArrayEquals(new byte[] { 0x10 }, ranges.get(0).getPartition().getRangeKeyStart());
+    assertEquals(2, ranges.get(0).getTabletCount());
+    assertEquals(200d, ranges.get(0).getEstimatedRowCount(), 0.001);
+    // 0x80 is greater than 0x10 when compared as an unsigned byte
+    assertArrayEquals(new byte[] { (byte) 0x80 }, ranges.get(1).getPartition().getRangeKeyStart());
+    assertEquals(100d, ranges.get(1).getEstimatedRowCount(), 0.001);
+  }
+
+  @Test
+  public void unknownWhenKuduDoesNotReturnStatistics() throws Exception {
+    final KuduTable kuduTable = mock(KuduTable.class);
+    when(kuduTable.getTableId()).thenReturn("table");
+    when(kuduTable.getName()).thenReturn("table");
+    when(kuduTable.getTableStatistics()).thenThrow(new IllegalStateException("not supported"));
+
+    final TableStatisticsCache.TableStatistics statistics = new TableStatisticsCache(60_000L, 0).get(kuduTable);
+    assertFalse(statistics.isKnown());
+    assertFalse(TableStatisticsCache.disabled().get(kuduTable).isKnown());
+  }
+
+  @Test
+  public void planningDoesNotWaitForStatistics() throws Exception {
+    final CountDownLatch masterResponds = new CountDownLatch(1);
+    final KuduTableStatistics kuduStatistics = mock(KuduTableStatistics.class);
+    when(kuduStatistics.getLiveRowCount()).thenReturn(42L);
+    final KuduTable kuduTable = mock(KuduTable.class);
+    when(kuduTable.getTableId()).thenReturn("slow table");
+    when(kuduTable.getName()).thenReturn("slow table");
+    when(kuduTable.getTableStatistics()).thenAnswer(invocation -> {
+      masterResponds.await();
+      return kuduStatistics;
+    });
+
+    final TableStatisticsCache cache = new TableStatisticsCache(60_000L, 0);
+    assertFalse("The statistics should be loaded in the background", cache.get(kuduTable).isKnown());
+    masterResponds.countDown();
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!cache.get(kuduTable).isKnown() && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(cache.get(kuduTable).isKnown());
+    assertEquals(42L, cache.get(kuduTable).getRowCount());
+  }
+
+  @Test
+  public void samplesKeyRangesOfEveryTablet() throws Exception {
+    final List<KuduScanToken> tabletTokens = Arrays.asList(mock(KuduScanToken.class), mock(KuduScanToken.class));
+    final List<KuduScanToken> rangeTokens = Collections.nCopies(32, mock(KuduScanToken.class));
+    final KuduScanToken.KuduScanTokenBuilder tabletBuilder = mock(KuduScanToken.KuduScanTokenBuilder.class);
+    when(tabletBuilder.build()).thenReturn(tabletTokens);
+    final KuduScanToken.KuduScanTokenBuilder rangeBuilder = mock(KuduScanToken.KuduScanTokenBuilder.class);
+    when(rangeBuilder.setSplitSizeBytes(1000L)).thenReturn(rangeBuilder);
+    when(rangeBuilder.build()).thenReturn(rangeTokens);
+    final KuduTableStatistics kuduStatistics = mock(KuduTableStatistics.class);
+    when(kuduStatistics.getOnDiskSize()).thenReturn(2 * TableStatisticsCache.SAMPLE_RANGES_PER_TABLET * 1000L);
+    final KuduTable kuduTable = mock(KuduTable.class);
+    when(kuduTable.getName()).thenReturn("table");
+    when(kuduTable.getTableStatistics()).thenReturn(kuduStatistics);
+    final KuduClient client = mock(KuduClient.class);
+    when(client.newScanTokenBuilder(kuduTable)).thenReturn(tabletBuilder, rangeBuilder);
+
+    assertEquals("Each tablet should be split in key ranges", rangeTokens,
+        TableStatisticsCache.splitTablets(kuduTable, client));
+    verify(rangeBuilder).setSplitSizeBytes(1000L);
+
+    // without the size of the table there is one range per tablet
+    when(kuduTable.getTableStatistics()).thenThrow(new IllegalStateException("not supported"));
+    when(client.newScanTokenBuilder(kuduTable)).thenReturn(tabletBuilder);
+    assertEquals(tabletTokens, TableStatisticsCache.splitTablets(kuduTable, client));
+  }
+}
@@ -0,0 +1,50 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.rules;
+
+import org.apache.calcite.avatica.util.TimeUnitRange;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Confirms which query units can be answered by rolling up a cube.
+ */
+public final class CubeRollupTest {
+  @Test
+  public void coarserUnitsRollUp() {
+    Assert.assertTrue(KuduCubeRewriteRule.CubeMapping.canRollUp(TimeUnitRange.HOUR, TimeUnitRange.HOUR));
+    Assert.assertTrue(KuduCubeRewriteRule.CubeMapping.canRollUp(TimeUnitRange.HOUR, TimeUnitRange.DAY));
+    Assert.assertTrue(KuduCubeRewriteRule.CubeMapping.canRollUp(TimeUnitRange.DAY, TimeUnitRange.WEEK));
+    Assert.assertTrue(KuduCubeRewriteRule.CubeMapping.canRollUp(TimeUnitRange.DAY, TimeUnitRange.YEAR));
+    Assert.assertTrue(KuduCubeRewriteRule.CubeMapping.canRollUp(TimeUnitRange.MONTH, TimeUnitRange.QUARTER));
+  }
+
+  @Test
+  public void finerUnitsDoNotRollUp() {
+    Assert.assertFalse(KuduCubeRewriteRule.CubeMapping.canRollUp(TimeUnitRange.DAY, TimeUnitRange.HOUR));
+    Assert.assertFalse(KuduCubeRewriteRule.CubeMapping.canRollUp(TimeUnitRange.MONTH, TimeUnitRange.WEEK));
+    Assert.assertFalse(KuduCubeRewriteRule.CubeMapping.canRollUp(TimeUnitRange.YEAR, TimeUnitRange.MONTH));
+  }
+
+  @Test
+  public void timestampsFloorToTheCubeRow() {
+    final long millis = 1609470610123L; // 2021-01-01 03:10:10.123
+    Assert.assertEquals(1609470610000L, KuduCubeRewriteRule.floorTimestamp(TimeUnitRange.SECOND, millis));
+    Assert.assertEquals(1609470600000L, KuduCubeRewriteRule.floorTimestamp(TimeUnitRange.MINUTE, millis));
+    Assert.assertEquals(1609470000000L, KuduCubeRewriteRule.floorTimestamp(TimeUnitRange.HOUR, millis));
+    Assert.assertEquals(1609459200000L, KuduCubeRewriteRule.floorTimestamp(TimeUnitRange.DAY, millis));
+    Assert.assertEquals(1609459200000L, KuduCubeRewriteRule.floorTimestamp(TimeUnitRange.YEAR, millis));
+  }
+}